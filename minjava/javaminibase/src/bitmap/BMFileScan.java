@@ -6,6 +6,7 @@
  */
 package bitmap;
 import java.io.*;
+import java.util.Arrays;
 import global.*;
 import heap.*;
 import btree.*;
@@ -59,7 +60,8 @@ public class BMFileScan  extends IndexFileScan
 	 * The BitMap has a BTree that is tracking the values with valid bitmaps. This
 	 * method iterates over each entry in the BTree that satisfies the scan criteria.
 	 * Once it finds an index within the search space it will take the BitMapHeaderPage
-	 * and begin to scan the bits in the page. If it finds a set bit it will stop looping
+	 * and begin to scan the bits in the page, a word of 64 at a time so that words
+	 * of 0s are passed over whole. If it finds a set bit it will stop looping
 	 * and form a KeyDataEntry using the current mapping being checked (ie, 1 or 2 or 3)
 	 * and the RID of the page matching mapped position with the set bit.
 	 * On the next call it will pick up from the n+1 bit after it's last get_next call. It
@@ -75,116 +77,11 @@ public class BMFileScan  extends IndexFileScan
 		
 		try
 		{
-			boolean foundMatch = false;
-			int matchedBitCnt = 0;
-			int matchedPageCnt = 0;
-			boolean keepIterating = true;
-			while( keepIterating ) 
-			{
-				//we do not have a page of bits to iterate
-				if( null == curPage )
-				{
-					//get the next value in the BTree that has a linked list of BMPages
-					if( (checkedEntry = mappedIndexScan.get_next()) != null )
-					{
-						//System.out.println("Checking Contents " + checkedEntry.key );
-						//make these non-null to avoid repeatedly calling BTree.get_next without checking bits
-						curPage = new BMPage();
-						curPageId = new PageId();
-						// Get the PageNo matching the start of this linked list of BMPages
-						curRid = ((LeafData)checkedEntry.data).getData();
-						curPageCnt = 0; //reset page counter
-						curBitCheck = 0; //reset bit coutner
-					}
-					else //if mappedIndexScan.get_next() returns null we have iterate all values in scan range
-					{
-						keepIterating = false;
-						//keyToReturn is already null, no need to set it null for return
-					}
-				}
-				else //else scan bits for a value
-				{
-					curPageId.pid = curRid.pageNo.pid;
-					int bitsPerPage = BMPage.BIT_COUNT;
-					
-					boolean checkBits = true;
-					//iteratively check the bits in the page while looking for
-					//set bits
-					while( checkBits )
-					{
-						//pin page with this PageId for use, if it is in the buffer
-						//it will be pinned otherwise it will be pulled into the buffer
-						pinPage(curPageId, curPage, false/*read disk*/);
-						
-						boolean bitAtPosSet = false;
-						//check each bit in this page for a set bit
-						//also be sure to iterate each page [0, bitsPerPage) and it
-						//is intentional not to check the nth bit because it would
-						//exceed the data rray bounds (which go to bitsPerPage-1)
-						while( (!bitAtPosSet) && (curBitCheck < bitsPerPage) )
-						{
-							bitAtPosSet = curPage.checkBit( curBitCheck );
-							if( bitAtPosSet )
-							{
-								//track state for the page & bit that matched
-								matchedBitCnt = curBitCheck;
-								matchedPageCnt = curPageCnt;
-								//indicate we can exit this loop
-								checkBits = false;
-								//setting this to false indicates a match to return
-								foundMatch = true;
-								keepIterating = false;
-							}
-							//increment to the next bit in the list
-							curBitCheck++;
-						}
-						
-						//if we exceed the max bits in this page, go to the next page
-						//in the linked list of BMPages for this value (we do this
-						//even if we got a match above on bit set)
-						if( curBitCheck >= bitsPerPage )
-						{
-							//not the right page, go to next link
-							PageId nextPageId = new PageId();
-							nextPageId = curPage.getNextPage();
-							//if we reach the end of the list, exit
-							if( -1 == nextPageId.pid )
-							{
-								//unpin this page, we are done with it
-								unpinPage(curPageId, false /*not DIRTY*/);
-								//set curPage to null to indicate the BTreeIndex loop
-								//should grab the next mapped value
-								curPage = null;
-								//indicate we can exit this loop & try the next page
-								checkBits = false;
-							}
-							else
-							{
-								//else continue to next page
-								unpinPage(curPageId, false /*not DIRTY*/);
-								curPageId.pid = nextPageId.pid;
-								//increment counter to indicate which page we're on
-								curPageCnt++;
-								//new page means reset to check bit 0
-								curBitCheck = 0;
-								//doing this helps preserve page position across multiple method calls
-								curRid.pageNo.pid = curPageId.pid;
-							}
-						}
-						else
-						{
-							//if we matched without exceeding the page bit count, we shoulds still unpin the
-							//page for now while we handle the return
-							unpinPage(curPageId, false /*not DIRTY*/);
-						}
-					}
-				}
-			}
-			
-			if( foundMatch )
+			int[] match = new int[1];
+			if( 1 == nextPositions( match, 1 ) )
 			{
-				//compute the position of a match given the page & bit that was set
-				curGetNextPosition = (matchedPageCnt * BMPage.BIT_COUNT) + matchedBitCnt;
+				//the position of the match and the RID of it
+				curGetNextPosition = match[0];
 				RID matchRid = bmfile.getSrcColumnarFile().getRidFromPosition( curGetNextPosition, bmfile.getMappedColumn() );
 				//create a return key using the value of the index KeyDataEntry & the RID
 				//corresponding to the position
@@ -199,6 +96,101 @@ public class BMFileScan  extends IndexFileScan
 		return keyToReturn;
 	}
 	
+	/*
+	 * The positions get_next would return next, up to maxCount of them, with
+	 * no KeyDataEntry or RID made for each. The positions of a value are in
+	 * order, and the values in the order of the BTree. Returns null once the
+	 * scan range is done; getLatestPositionMatch is the last position returned.
+	 */
+	public int[] get_next_positions( int maxCount )
+		throws ScanIteratorException
+	{
+		int[] positions = new int[maxCount];
+		int count = 0;
+		try
+		{
+			count = nextPositions( positions, maxCount );
+		}
+		catch( Exception e )
+		{
+			throw new ScanIteratorException( e, "BMFileScan: get_next_positions() failed" );
+		}
+		if( 0 == count )
+		{
+			return null;
+		}
+		curGetNextPosition = positions[count-1];
+		if( count < maxCount )
+		{
+			positions = Arrays.copyOf( positions, count );
+		}
+		return positions;
+	}
+	
+	/*
+	 * Fill positions with up to maxCount of the next set bits, taking a page
+	 * of the current list once for all of its bits and moving on to the
+	 * next value in the BTree at the end of a list. BMPage.nextSetBit reads
+	 * the bits a word at a time, so a sparse list passes over its 0s quickly.
+	 * Returns how many were filled, 0 at the end of the scan range.
+	 */
+	private int nextPositions( int[] positions, int maxCount )
+		throws IOException, ScanIteratorException, HFBufMgrException
+	{
+		int bitsPerPage = BMPage.bitCount();
+		int count = 0;
+		while( count < maxCount )
+		{
+			//we do not have a page of bits to iterate
+			if( null == curPage )
+			{
+				//get the next value in the BTree that has a linked list of BMPages
+				if( (checkedEntry = mappedIndexScan.get_next()) == null )
+				{
+					//all values in scan range iterated
+					break;
+				}
+				curPage = new BMPage();
+				// Get the PageNo matching the start of this linked list of BMPages
+				curRid = ((LeafData)checkedEntry.data).getData();
+				curPageId = new PageId( curRid.pageNo.pid );
+				curPageCnt = 0; //reset page counter
+				curBitCheck = 0; //reset bit coutner
+				continue;
+			}
+			
+			pinPage(curPageId, curPage, false/*read disk*/);
+			int bit = 0;
+			while( (count < maxCount) && ((bit = curPage.nextSetBit( curBitCheck )) >= 0) )
+			{
+				positions[count++] = (curPageCnt * bitsPerPage) + bit;
+				curBitCheck = bit + 1;
+			}
+			if( count < maxCount )
+			{
+				//no set bits left in this page, go to the next page in the list
+				PageId nextPageId = curPage.getNextPage();
+				unpinPage(curPageId, false /*not DIRTY*/);
+				if( -1 == nextPageId.pid )
+				{
+					//set curPage to null to grab the next mapped value
+					curPage = null;
+				}
+				else
+				{
+					curPageId.pid = nextPageId.pid;
+					curPageCnt++;
+					curBitCheck = 0;
+				}
+			}
+			else
+			{
+				unpinPage(curPageId, false /*not DIRTY*/);
+			}
+		}
+		return count;
+	}
+	
 	/*
 	 * A support method to return the position of the last value that was
 	 * returned by get_next
@@ -259,7 +251,7 @@ public class BMFileScan  extends IndexFileScan
 					 * (notice, page3 stores bits [200, 299])
 					 */
 					//compute which page this position should go in
-					int bitsPerPage = BMPage.BIT_COUNT;
+					int bitsPerPage = BMPage.bitCount();
 					//which page has the bit being set (from 0 to n)
 					int pageToCheck = position / bitsPerPage;
 					//compute which bit in this page to set
@@ -12,6 +12,7 @@
 package bitmap;
 
 import java.util.Arrays;
+import java.util.BitSet;
 import java.io.*;
 import java.lang.*;
 import global.*;
@@ -83,11 +84,14 @@ public class BMPage extends Page
 	// sizeof(PREV_PAGE) + sizeof(NEXT_PAGE) + sizeof(CUR_PAGE)
 	public static final int METADATA_SIZE = 3*SIZEOF_INT;
 	
-	//now that we know the size of the metadata, the BIT_COUNT is how many bytes
+	//now that we know the size of the metadata, the bit count is how many bytes
 	//are left in the page x8 for the max bits that can be set in this page
-	//MAX_SPACE is size of data[] array defined in GlobalConst
+	//JavabasePageSize is the size of data[] for the open database
 	//This should be the same for all pages since all pages have same metadata size
-	public static final int BIT_COUNT = (MAX_SPACE - METADATA_SIZE) * BITS_PER_BYTE;
+	public static int bitCount()
+	{
+		return (SystemDefs.JavabasePageSize - METADATA_SIZE) * BITS_PER_BYTE;
+	}
 	
 	//backward pointer to data page
 	private		PageId	prevPage = new PageId();
@@ -143,6 +147,13 @@ public class BMPage extends Page
 		//take data from other page and store in this page
 		data = apage.getpage();
 	}
+
+	//the page works on data directly, so a frame of an off-heap
+	//buffer pool is copied into a heap view when pinned into it
+	protected boolean bufferAccess()
+	{
+		return false;
+	}
 	
 	//----------------
 	//Page Navigation Methods
@@ -151,7 +162,7 @@ public class BMPage extends Page
 	//get value of BITSPACE
 	public int getBitSpace()
     {
-		return BIT_COUNT;
+		return bitCount();
     }
 	
 	//get value of curPage
@@ -218,7 +229,7 @@ public class BMPage extends Page
 		boolean successfulSet = false;
 		
 		//confirm setting in range
-		if( position < BIT_COUNT )
+		if( position < bitCount() )
 		{
 			successfulSet = true;
 			
@@ -265,7 +276,7 @@ public class BMPage extends Page
 		boolean successfulClear = false;
 		
 		//confirm clearing in range
-		if( position < BIT_COUNT )
+		if( position < bitCount() )
 		{
 			successfulClear = true;
 			
@@ -308,7 +319,7 @@ public class BMPage extends Page
 		boolean bitSet = false;
 		
 		//confirm in range
-		if( position < BIT_COUNT )
+		if( position < bitCount() )
 		{
 			int byteInData = position / BITS_PER_BYTE;
 			int bitInByte = position % BITS_PER_BYTE;
@@ -342,6 +353,86 @@ public class BMPage extends Page
 		return bitSet;
     }
 	
+	//OR the bits of this page into a bitmap of 64-bit words, the first
+	//bit of this page going to the given position (a multiple of 8)
+	void orInto( long[] words, int base )
+	{
+		int totalBytes = (bitCount()/BITS_PER_BYTE);
+		for( int curByte = 0; curByte < totalBytes; curByte++ )
+		{
+			int bits = data[METADATA_SIZE + curByte] & 0xFF;
+			if( 0 != bits )
+			{
+				//position-0 is the MSB here but the low bit of a word
+				BitmapPredicate.orBits( words, base + curByte*BITS_PER_BYTE,
+						Integer.reverse( bits ) >>> 24, BITS_PER_BYTE );
+			}
+		}
+	}
+	
+	//return the first set bit of this page at or after position, or -1
+	//if there is none; the bytes are read 8 at a time into a word, the
+	//first of them at its high end, and words of 0s are passed over whole
+	public int nextSetBit( int position )
+	{
+		int totalBytes = (bitCount()/BITS_PER_BYTE);
+		int curByte = position / BITS_PER_BYTE;
+		while( curByte < totalBytes )
+		{
+			int byteCnt = Math.min( 8, totalBytes - curByte );
+			long word = readWord( curByte, byteCnt );
+			//leave out the bits before position in the first word
+			int skip = position - curByte*BITS_PER_BYTE;
+			if( 0 < skip )
+			{
+				word &= -1L >>> skip;
+			}
+			if( 0 != word )
+			{
+				return curByte*BITS_PER_BYTE + Long.numberOfLeadingZeros( word );
+			}
+			curByte += byteCnt;
+		}
+		return -1;
+	}
+	
+	//return the number of set bits of this page, a popcount of 64 of them
+	//at a time, less those whose positions, the first bit of the page
+	//being position base, are in deleted (null for none)
+	public int cardinality( BitSet deleted, int base )
+		throws IOException
+	{
+		int totalBytes = (bitCount()/BITS_PER_BYTE);
+		int count = 0;
+		for( int curByte = 0; curByte < totalBytes; curByte += 8 )
+		{
+			count += Long.bitCount( readWord( curByte, Math.min( 8, totalBytes - curByte ) ) );
+		}
+		if( null != deleted )
+		{
+			for( int p = deleted.nextSetBit( base ); (p >= 0) && (p < base + bitCount()); p = deleted.nextSetBit( p+1 ) )
+			{
+				if( checkBit( p - base ) )
+				{
+					count--;
+				}
+			}
+		}
+		return count;
+	}
+	
+	//read up to 8 bytes from curByte on into a word, the first of them at
+	//its high end so that position-0 is its MSB
+	private long readWord( int curByte, int byteCnt )
+	{
+		long word = 0;
+		for( int i = 0; i < byteCnt; i++ )
+		{
+			word = (word << 8) | (data[METADATA_SIZE + curByte + i] & 0xFF);
+		}
+		return word << (8 * (8 - byteCnt));
+	}
+	
 	//Dump contents of a page in a formatted style
 	public void dumpPage()
 		throws IOException
@@ -353,7 +444,7 @@ public class BMPage extends Page
 		System.out.println("prevPage = " + Convert.getIntValue(PREV_PAGE, data));
 		
 		System.out.print("BITMAP: " );
-		int totalBytes = (BIT_COUNT/BITS_PER_BYTE);
+		int totalBytes = (bitCount()/BITS_PER_BYTE);
 		for(int curByte = 0; curByte < totalBytes; curByte++ )
 		{
 			//line break every 8-bytes (64bits) dumped
@@ -380,9 +471,9 @@ public class BMPage extends Page
 	{
 		//we do not allow copies of buffers of mismatched size
 		//as the resulting behavior could be undefined
-		if( inputBytes.length == MAX_SPACE )
+		if( inputBytes.length == data.length )
 		{
-			System.arraycopy(inputBytes, 0, data, 0, MAX_SPACE);
+			System.arraycopy(inputBytes, 0, data, 0, data.length);
 		}
 	}
 	
@@ -0,0 +1,797 @@
+/*
+ * File - BitMapBuilder.java
+ *
+ * Description -
+ *		Builds the page lists and the value BTree of a new bitmap
+ *		file in one scan of the column it maps.
+ */
+package bitmap;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import diskmgr.*;
+import heap.*;
+import btree.*;
+import columnar.*;
+
+
+/*=======================
+ * BitMapBuilder Class
+ *=======================
+ *
+ * Inserting the values of a column one at a time looks each value up
+ * in the value BTree and walks its list of pages to set one bit. The
+ * builder reads the column once instead, collecting the positions of
+ * each value in a java.util.BitSet. When those would take more than
+ * getSpillBytes() it spills them: each list is written on from where
+ * it stopped, its last page pinned once for all of its new positions,
+ * and the bitsets start over empty. After the scan the rest is
+ * written, and the value BTree is bulk loaded from the values in
+ * order, so no BTree page is split.
+ *
+ * A list is written in order, the way the pages expect it: a BMPage
+ * list one whole page after the other, a CBMPage list one run after
+ * the other up to a full page, and a WBMPage list a group of 31
+ * positions or a fill of groups after the other, its first page
+ * keeping the last.
+ *
+ * When tuples are taken out of the column, remove() moves the positions
+ * of the lists of a file down the same way: each list is written again
+ * from the page holding the first position removed.
+ */
+public class BitMapBuilder
+{
+	//----------------
+	//Class Variables
+	//----------------
+
+	//lists of BMPages, for a BitMapFile; CBitMapFile lists have the
+	//formats of CBitMapFile
+	public static final int FORMAT_BITMAP = 0;
+
+	//memory the bitsets may take before they are spilled
+	public static final int SPILL_BYTES = 4 << 20;
+	private static int spillBytes = SPILL_BYTES;
+
+	private int format;
+
+	//the list of each value, in value order
+	private TreeMap<Object, ValueList> lists = new TreeMap<Object, ValueList>();
+
+	//the lists with positions in their bitsets
+	private ArrayList<ValueList> pending = new ArrayList<ValueList>();
+
+	//the first position the bitsets hold
+	private int base = 0;
+
+	//pages pinned to write the lists, and spills made
+	private int pagesWritten = 0;
+	private int spills = 0;
+
+	//the list of a value: its positions since base, and where the
+	//pages written so far stop
+	private static class ValueList
+	{
+		BitSet bits = new BitSet();
+		PageId head = new PageId( -1 );
+		PageId tail = new PageId( -1 );
+
+		//positions the pages cover so far
+		int end = 0;
+
+		//BMPage: the first position of the tail page
+		//WBMPage: the groups before the tail page
+		int tailStart = 0;
+
+		//CBMPage: the first free byte of the tail page
+		int[] tailByte = { 0 };
+
+		//WBMPage: the bits of group end/31, not written yet
+		int groupBits = 0;
+	}
+
+	//----------------
+	//Constructors
+	//----------------
+
+	//A builder of lists of the given format: FORMAT_BITMAP, or
+	//CBitMapFile.FORMAT_BYTE_RUNS or CBitMapFile.FORMAT_WORDS
+	public BitMapBuilder( int format )
+	{
+		this.format = format;
+	}
+
+	//----------------
+	//Accessor Methods
+	//----------------
+
+	public static int getSpillBytes()
+	{
+		return spillBytes;
+	}
+
+	public static void setSpillBytes( int bytes )
+	{
+		spillBytes = bytes;
+	}
+
+	public int getPagesWritten()
+	{
+		return pagesWritten;
+	}
+
+	public int getSpills()
+	{
+		return spills;
+	}
+
+	//----------------
+	//Functional Methods
+	//----------------
+
+	/*
+	 * Map each value of a column of the columnar file into lists of
+	 * pages and load the value BTree, empty and of the type of the column,
+	 * with the first page of each.
+	 */
+	public void build( Columnarfile columnfile, int columnNo, int mapType, BTreeFile values )
+		throws IOException, HFException, HFBufMgrException, HFDiskMgrException,
+				InvalidTupleSizeException, ScanIteratorException
+	{
+		RID rid = new RID();
+		int mapProgress = 0;
+		Scan scan = columnfile.openColumnScan( columnNo );
+		try
+		{
+			Tuple tuple = scan.getNext( rid );
+			while( tuple != null )
+			{
+				//nice helper to indicate progress is being made
+				mapProgress++;
+				if( 0 == (mapProgress % 1000) )
+				{
+					System.out.println("Mapped " + mapProgress + " entries");
+				}
+				Object value;
+				if( mapType == AttrType.attrInteger )
+				{
+					value = Integer.valueOf( Convert.getIntValue(0, tuple.getTupleByteArray()) );
+				}
+				else if( scan instanceof DictionaryScan )
+				{
+					//a dictionary-encoded column gives the value by its code
+					DictionaryScan dscan = (DictionaryScan) scan;
+					value = dscan.getDictionary().decode( dscan.getCode() );
+				}
+				else
+				{
+					byte[] byteArr = tuple.getTupleByteArray();
+					value = Convert.getStrValue(0, byteArr, byteArr.length);
+				}
+				add( value, scan.getPosition() );
+				tuple = scan.getNext( rid );
+			}
+		}
+		finally
+		{
+			scan.closescan();
+		}
+
+		spill( Integer.MAX_VALUE );
+		finish();
+		load( values, mapType );
+	}
+
+	/*
+	 * The tuples at the given positions were removed from the column the
+	 * lists of the value BTree map: in each list, as in the deletion
+	 * vector, the positions after each drop by one. The pages before the
+	 * one holding the first position removed stay as they are; the rest
+	 * of the list is read, that page written again with the positions
+	 * shifted, and the pages after it taken only as far as they need.
+	 */
+	public void remove( BTreeFile values, BitSet removed )
+		throws IOException, HFBufMgrException, ScanIteratorException
+	{
+		if( removed.isEmpty() )
+		{
+			return;
+		}
+		BTFileScan scan;
+		try
+		{
+			scan = values.new_scan( null, null );
+		}
+		catch( Exception e )
+		{
+			throw new ScanIteratorException( e, "BitMapBuilder: value scan failed" );
+		}
+		try
+		{
+			KeyDataEntry entry;
+			while( null != (entry = scan.get_next()) )
+			{
+				RID rid = ((LeafData)entry.data).getData();
+				removeFrom( new PageId( rid.pageNo.pid ), removed );
+			}
+		}
+		finally
+		{
+			try
+			{
+				scan.DestroyBTreeFileScan();
+			}
+			catch( Exception e )
+			{
+				throw new ScanIteratorException( e, "BitMapBuilder: value scan not closed" );
+			}
+		}
+	}
+
+	//set the position of a value, spilling the bitsets first if they
+	//would grow too large
+	private void add( Object value, int position )
+		throws IOException, HFBufMgrException
+	{
+		//each pending bitset takes up to a bit per position since base
+		if( (long)(pending.size() + 1) * (position - base) > 8L * spillBytes )
+		{
+			spill( position );
+		}
+		ValueList list = lists.get( value );
+		if( list == null )
+		{
+			list = new ValueList();
+			lists.put( value, list );
+		}
+		if( list.bits.isEmpty() )
+		{
+			pending.add( list );
+		}
+		list.bits.set( position - base );
+	}
+
+	//write the positions of the pending lists, all before limit, to
+	//their pages and empty their bitsets from limit on
+	private void spill( int limit )
+		throws IOException, HFBufMgrException
+	{
+		for( int i = 0; i < pending.size(); i++ )
+		{
+			ValueList list = pending.get( i );
+			switch( format )
+			{
+				case FORMAT_BITMAP: writeBMPages( list );
+					break;
+				case CBitMapFile.FORMAT_WORDS: writeWBMPages( list );
+					break;
+				default: writeCBMPages( list );
+					break;
+			}
+			list.bits = new BitSet();
+		}
+		pending.clear();
+		if( Integer.MAX_VALUE != limit )
+		{
+			base = limit;
+			spills++;
+		}
+	}
+
+	//----------------
+	//List Writing Methods
+	//----------------
+
+	//set the positions of a list on its BMPages, adding the pages up to
+	//the last of them
+	private void writeBMPages( ValueList list )
+		throws IOException, HFBufMgrException
+	{
+		int bitsPerPage = BMPage.bitCount();
+		BMPage page = new BMPage();
+		if( -1 == list.head.pid )
+		{
+			newPage( page, list, -1 );
+			list.head.pid = list.tail.pid;
+		}
+		else
+		{
+			pinPage( list.tail, page );
+		}
+		for( int i = list.bits.nextSetBit(0); i >= 0; i = list.bits.nextSetBit(i+1) )
+		{
+			int position = base + i;
+			while( position >= list.tailStart + bitsPerPage )
+			{
+				BMPage freshPage = new BMPage();
+				PageId oldTail = new PageId( list.tail.pid );
+				newPage( freshPage, list, oldTail.pid );
+				page.setNextPage( list.tail );
+				unpinPage( oldTail );
+				page = freshPage;
+				list.tailStart += bitsPerPage;
+			}
+			page.setBit( position - list.tailStart );
+		}
+		unpinPage( list.tail );
+	}
+
+	//add the runs of a list after the last run of its CBMPages: the 0s
+	//up to each run of 1s, then the run
+	private void writeCBMPages( ValueList list )
+		throws IOException, HFBufMgrException
+	{
+		CBMPage page = new CBMPage();
+		if( -1 == list.head.pid )
+		{
+			newPage( page, list, -1 );
+			list.head.pid = list.tail.pid;
+		}
+		else
+		{
+			pinPage( list.tail, page );
+		}
+		int from = list.bits.nextSetBit( 0 );
+		while( from >= 0 )
+		{
+			int to = list.bits.nextClearBit( from );
+			page = appendRun( page, list, false, base + from - list.end );
+			page = appendRun( page, list, true, to - from );
+			list.end = base + to;
+			from = list.bits.nextSetBit( to );
+		}
+		unpinPage( list.tail );
+	}
+
+	//add a run to the tail of a list of CBMPages and the pages after
+	//it that the rest of the run takes; returns the new tail
+	private CBMPage appendRun( CBMPage page, ValueList list, boolean isOne, int runLength )
+		throws IOException, HFBufMgrException
+	{
+		int left = page.appendRun( list.tailByte, isOne, runLength );
+		while( 0 < left )
+		{
+			CBMPage freshPage = new CBMPage();
+			PageId oldTail = new PageId( list.tail.pid );
+			newPage( freshPage, list, oldTail.pid );
+			page.setNextPage( list.tail );
+			unpinPage( oldTail );
+			page = freshPage;
+			list.tailByte[0] = 0;
+			left = page.appendRun( list.tailByte, isOne, left );
+		}
+		return page;
+	}
+
+	//add the groups of a list after the last group of its WBMPages: the
+	//group being filled, the groups of 0s up to the next 1, whole groups
+	//of 1s as a fill, and the bits of a group the positions end within
+	private void writeWBMPages( ValueList list )
+		throws IOException, HFBufMgrException
+	{
+		int groupBits = WBMPage.GROUP_BITS;
+		WBMPage page = new WBMPage();
+		if( -1 == list.head.pid )
+		{
+			newPage( page, list, -1 );
+			list.head.pid = list.tail.pid;
+		}
+		else
+		{
+			pinPage( list.tail, page );
+		}
+		int from = list.bits.nextSetBit( 0 );
+		while( from >= 0 )
+		{
+			int to = list.bits.nextClearBit( from );
+			int start = base + from;
+			int stop = base + to;
+			while( start < stop )
+			{
+				int group = start / groupBits;
+				int groupsDone = list.end / groupBits;
+				if( group > groupsDone )
+				{
+					//close the group being filled, then the 0s after it
+					if( 0 == list.groupBits )
+					{
+						page = appendGroups( page, list, 0, group - groupsDone );
+					}
+					else
+					{
+						page = appendGroups( page, list, list.groupBits, 1 );
+						if( group > groupsDone + 1 )
+						{
+							page = appendGroups( page, list, 0, group - groupsDone - 1 );
+						}
+					}
+					list.groupBits = 0;
+					list.end = group * groupBits;
+				}
+				int whole = (stop - start) / groupBits;
+				if( (0 == start % groupBits) && (0 < whole) )
+				{
+					page = appendGroups( page, list, 0x7FFFFFFF, whole );
+					start += whole * groupBits;
+					list.end = start;
+					continue;
+				}
+				int end = Math.min( stop, (group + 1) * groupBits );
+				for( int p = start; p < end; p++ )
+				{
+					list.groupBits |= 1 << (p - group * groupBits);
+				}
+				start = end;
+			}
+			from = list.bits.nextSetBit( to );
+		}
+		unpinPage( list.tail );
+	}
+
+	//add groups to the tail of a list of WBMPages, or to a new tail
+	//when it is full; returns the new tail
+	private WBMPage appendGroups( WBMPage page, ValueList list, int bits, int count )
+		throws IOException, HFBufMgrException
+	{
+		if( !page.appendGroups( bits, count ) )
+		{
+			int groups = page.getGroupsInPage();
+			WBMPage freshPage = new WBMPage();
+			PageId oldTail = new PageId( list.tail.pid );
+			newPage( freshPage, list, oldTail.pid );
+			page.setNextPage( list.tail );
+			unpinPage( oldTail );
+			page = freshPage;
+			list.tailStart += groups;
+			page.appendGroups( bits, count );
+		}
+		return page;
+	}
+
+	//write what each list still holds: the group of a WBMPage list being
+	//filled, and the last page of a WBMPage list on its first page
+	private void finish()
+		throws IOException, HFBufMgrException
+	{
+		if( CBitMapFile.FORMAT_WORDS != format )
+		{
+			return;
+		}
+		Iterator<ValueList> it = lists.values().iterator();
+		while( it.hasNext() )
+		{
+			finishWBMPages( it.next() );
+		}
+	}
+
+	private void finishWBMPages( ValueList list )
+		throws IOException, HFBufMgrException
+	{
+		WBMPage page = new WBMPage();
+		pinPage( list.tail, page );
+		if( 0 != list.groupBits )
+		{
+			page = appendGroups( page, list, list.groupBits, 1 );
+			list.groupBits = 0;
+		}
+		unpinPage( list.tail );
+		if( list.tail.pid != list.head.pid )
+		{
+			WBMPage head = new WBMPage();
+			pinPage( list.head, head );
+			head.setLast( list.tail, list.tailStart );
+			unpinPage( list.head );
+		}
+	}
+
+	//bulk load the value BTree with the first page of each list
+	private void load( BTreeFile values, int mapType )
+		throws ScanIteratorException
+	{
+		int count = lists.size();
+		KeyClass[] keys = new KeyClass[count];
+		RID[] rids = new RID[count];
+		int slotNo = (FORMAT_BITMAP == format) ? -1 : format;
+		int i = 0;
+		Iterator<Map.Entry<Object, ValueList>> it = lists.entrySet().iterator();
+		while( it.hasNext() )
+		{
+			Map.Entry<Object, ValueList> entry = it.next();
+			if( mapType == AttrType.attrInteger )
+			{
+				keys[i] = new IntegerKey( (Integer)entry.getKey() );
+			}
+			else
+			{
+				keys[i] = new StringKey( (String)entry.getKey() );
+			}
+			rids[i] = new RID( new PageId( entry.getValue().head.pid ), slotNo );
+			i++;
+		}
+		try
+		{
+			values.bulkLoad( keys, rids, count );
+		}
+		catch( Exception e )
+		{
+			throw new ScanIteratorException( e, "BitMapBuilder: value BTree not loaded" );
+		}
+	}
+
+	//----------------
+	//List Removal Methods
+	//----------------
+
+	//shift the positions of the list starting at head past the removed
+	//ones, from the page holding the first of them on
+	private void removeFrom( PageId head, BitSet removed )
+		throws IOException, HFBufMgrException
+	{
+		int first = removed.nextSetBit( 0 );
+
+		//find the page holding first, and the position it starts at; a
+		//list ending before it has no positions to move
+		PageId pageId = new PageId( head.pid );
+		Page page = listPage();
+		int start = 0;
+		while( true )
+		{
+			pinPage( pageId, page );
+			int bits = bitsInPage( page );
+			if( first < start + bits )
+			{
+				break;
+			}
+			PageId nextPageId = nextPage( page );
+			unpinPage( pageId, false );
+			if( -1 == nextPageId.pid )
+			{
+				return;
+			}
+			start += bits;
+			pageId.pid = nextPageId.pid;
+		}
+
+		//read the positions of that page and of the pages after it,
+		//freeing those
+		BitSet old = new BitSet();
+		readPositions( page, start, old );
+		PageId prevPageId = prevPage( page );
+		PageId nextPageId = nextPage( page );
+		int nextStart = start + bitsInPage( page );
+		Page nextPage = listPage();
+		while( -1 != nextPageId.pid )
+		{
+			PageId freed = new PageId( nextPageId.pid );
+			pinPage( freed, nextPage );
+			readPositions( nextPage, nextStart, old );
+			nextStart += bitsInPage( nextPage );
+			nextPageId = nextPage( nextPage );
+			unpinPage( freed, false );
+			freePage( freed );
+		}
+
+		//empty the page, still linked to the one before it
+		if( page instanceof BMPage )
+		{
+			((BMPage)page).init( pageId, page );
+			((BMPage)page).setPrevPage( prevPageId );
+		}
+		else if( page instanceof CBMPage )
+		{
+			((CBMPage)page).init( pageId, page );
+			((CBMPage)page).setPrevPage( prevPageId );
+		}
+		else
+		{
+			((WBMPage)page).init( pageId, page );
+			((WBMPage)page).setPrevPage( prevPageId );
+		}
+		unpinPage( pageId );
+
+		//the positions kept, each less the removed ones before it, go
+		//back from that page on
+		ValueList list = new ValueList();
+		list.head.pid = head.pid;
+		list.tail.pid = pageId.pid;
+		list.end = start;
+		list.tailStart = (CBitMapFile.FORMAT_WORDS == format) ? start / WBMPage.GROUP_BITS : start;
+		int r = first;
+		int shift = 0;
+		for( int p = old.nextSetBit( 0 ); p >= 0; p = old.nextSetBit( p+1 ) )
+		{
+			while( (r >= 0) && (r < p) )
+			{
+				shift++;
+				r = removed.nextSetBit( r+1 );
+			}
+			if( r != p )
+			{
+				list.bits.set( p - shift - start );
+			}
+		}
+		base = start;
+		switch( format )
+		{
+			case FORMAT_BITMAP: writeBMPages( list );
+				break;
+			case CBitMapFile.FORMAT_WORDS: writeWBMPages( list );
+				finishWBMPages( list );
+				break;
+			default: writeCBMPages( list );
+				break;
+		}
+	}
+
+	//a page of a list of the format
+	private Page listPage()
+	{
+		switch( format )
+		{
+			case FORMAT_BITMAP: return new BMPage();
+			case CBitMapFile.FORMAT_WORDS: return new WBMPage();
+			default: return new CBMPage();
+		}
+	}
+
+	//the positions a page of a list covers
+	private static int bitsInPage( Page page )
+		throws IOException
+	{
+		if( page instanceof BMPage )
+		{
+			return BMPage.bitCount();
+		}
+		if( page instanceof CBMPage )
+		{
+			return ((CBMPage)page).getBitsInPage();
+		}
+		return ((WBMPage)page).getBitsInPage();
+	}
+
+	private static PageId nextPage( Page page )
+		throws IOException
+	{
+		if( page instanceof BMPage )
+		{
+			return ((BMPage)page).getNextPage();
+		}
+		if( page instanceof CBMPage )
+		{
+			return ((CBMPage)page).getNextPage();
+		}
+		return ((WBMPage)page).getNextPage();
+	}
+
+	private static PageId prevPage( Page page )
+		throws IOException
+	{
+		if( page instanceof BMPage )
+		{
+			return ((BMPage)page).getPrevPage();
+		}
+		if( page instanceof CBMPage )
+		{
+			return ((CBMPage)page).getPrevPage();
+		}
+		return ((WBMPage)page).getPrevPage();
+	}
+
+	//set the positions of a page, the first of them being start, in bits
+	private static void readPositions( Page page, int start, BitSet bits )
+		throws IOException
+	{
+		if( page instanceof BMPage )
+		{
+			BMPage bmPage = (BMPage)page;
+			for( int p = bmPage.nextSetBit( 0 ); p >= 0; p = bmPage.nextSetBit( p+1 ) )
+			{
+				bits.set( start + p );
+			}
+		}
+		else if( page instanceof CBMPage )
+		{
+			CBMPage cbmPage = (CBMPage)page;
+			for( int p = cbmPage.nextSetBit( 0 ); p >= 0; p = cbmPage.nextSetBit( p+1 ) )
+			{
+				bits.set( start + p );
+			}
+		}
+		else
+		{
+			WBMPage wbmPage = (WBMPage)page;
+			for( int p = wbmPage.nextSetBit( 0 ); p >= 0; p = wbmPage.nextSetBit( p+1 ) )
+			{
+				bits.set( start + p );
+			}
+		}
+	}
+
+	//-----------------
+	//Buffer support methods
+	//-----------------
+
+	//a new page, pinned, as the tail of a list after the page prevPid
+	private void newPage( Page page, ValueList list, int prevPid )
+		throws IOException, HFBufMgrException
+	{
+		PageId pageId;
+		try
+		{
+			pageId = SystemDefs.JavabaseBM.newPage( page, 1 );
+		}
+		catch (Exception e)
+		{
+			throw new HFBufMgrException(e,"BitMapBuilder.java: newPage() failed");
+		}
+		if( pageId == null )
+		{
+			throw new HFBufMgrException(null,"BitMapBuilder.java: newPage() failed");
+		}
+		PageId prevPage = new PageId( prevPid );
+		if( page instanceof BMPage )
+		{
+			((BMPage)page).init( pageId, page );
+			((BMPage)page).setPrevPage( prevPage );
+		}
+		else if( page instanceof CBMPage )
+		{
+			((CBMPage)page).init( pageId, page );
+			((CBMPage)page).setPrevPage( prevPage );
+		}
+		else
+		{
+			((WBMPage)page).init( pageId, page );
+			((WBMPage)page).setPrevPage( prevPage );
+		}
+		list.tail.pid = pageId.pid;
+		pagesWritten++;
+	}
+
+	private void pinPage( PageId pageno, Page page )
+		throws HFBufMgrException
+	{
+		try
+		{
+			SystemDefs.JavabaseBM.pinPage( pageno, page, false/*read disk*/ );
+		}
+		catch (Exception e)
+		{
+			throw new HFBufMgrException(e,"BitMapBuilder.java: pinPage() failed");
+		}
+		pagesWritten++;
+	}
+
+	private void unpinPage( PageId pageno )
+		throws HFBufMgrException
+	{
+		unpinPage( pageno, true /*DIRTY*/ );
+	}
+
+	private void unpinPage( PageId pageno, boolean dirty )
+		throws HFBufMgrException
+	{
+		try
+		{
+			SystemDefs.JavabaseBM.unpinPage( pageno, dirty );
+		}
+		catch (Exception e)
+		{
+			throw new HFBufMgrException(e,"BitMapBuilder.java: unpinPage() failed");
+		}
+	}
+
+	private void freePage( PageId pageno )
+		throws HFBufMgrException
+	{
+		try
+		{
+			SystemDefs.JavabaseBM.freePage( pageno );
+		}
+		catch (Exception e)
+		{
+			throw new HFBufMgrException(e,"BitMapBuilder.java: freePage() failed");
+		}
+	}
+}
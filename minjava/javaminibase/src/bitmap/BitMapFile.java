@@ -110,52 +110,15 @@ public class BitMapFile extends IndexFile
 			//Map column values from columnar file into the bitmap
 			/*
 			---Pseudo-code of bitmap creation---
-			for page in HeapFile@columnNo
-				for record in page
-					Map value
+			for record in HeapFile@columnNo
+				set bit of record position in bitset of value
+			for value in order
+				write page list of value, load value into BTree
 			*/
-			RID rid = new RID();
-			int mapProgress = 0;
 			try
 			{
-				//open a scan of the corresponding columnar column Heapfile
-				Scan scan = columnfile.openColumnScan(columnMap);
-				Tuple tuple = scan.getNext(rid);
-				//iterate and insert each record
-				while (tuple != null)
-				{
-					//nice helper to indicate progress is being made
-					mapProgress++;
-					if( 0 == (mapProgress % 1000) )
-					{
-						System.out.println("Mapped " + mapProgress + " entries");
-					}
-					//identify if we should insert strings or integers
-					if( mapType == AttrType.attrInteger )
-					{
-						//get the value to insert
-						int intValue = Convert.getIntValue(0, tuple.getTupleByteArray());
-                        IntegerValueClass tmpValueClass = new IntegerValueClass( intValue );
-						//get the position to use
-						int position = columnfile.getPositionFromRid( rid, ColumnNo );
-						//set the bit at that position
-						Insert( tmpValueClass, position );
-					}
-					if( mapType == AttrType.attrString  )
-					{
-						byte[] byteArr = tuple.getTupleByteArray();
-                        String stringValue = Convert.getStrValue(0, byteArr, byteArr.length);
-                        StringValueClass tmpValueClass = new StringValueClass( stringValue );
-						//get the position to use
-						int position = columnfile.getPositionFromRid( rid, ColumnNo );
-						//set the bit at that position
-						Insert( tmpValueClass, position );
-					}
-					//get next entry in scan
-					tuple = scan.getNext(rid);
-				}
-				//all entries scanned, close scanner
-				scan.closescan();
+				BitMapBuilder builder = new BitMapBuilder( BitMapBuilder.FORMAT_BITMAP );
+				builder.build( columnfile, columnMap, mapType, indexOfMappedElements );
 			}
 			catch (Exception e)
 			{
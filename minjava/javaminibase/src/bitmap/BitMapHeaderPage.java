@@ -184,7 +184,7 @@ public class BitMapHeaderPage extends HFPage
 		 * (notice, page3 stores bits [200, 299])
 		 */
 		//compute which page this position should go in
-		int bitsPerPage = BMPage.BIT_COUNT;
+		int bitsPerPage = BMPage.bitCount();
 		//which page has the bit being set (from 0 to n)
 		int pageToSet = position / bitsPerPage;
 		//compute which bit in this page to set
@@ -301,7 +301,7 @@ public class BitMapHeaderPage extends HFPage
 		BMPage currentBMPage = new BMPage();
 		
 		//compute which page this position should go in
-		int bitsPerPage = BMPage.BIT_COUNT;
+		int bitsPerPage = BMPage.bitCount();
 		//which page has the bit being set (from 0 to n)
 		int pageToClear = position / bitsPerPage;
 		int curPageCount = 0;
@@ -0,0 +1,594 @@
+/*
+ * File - BitmapPredicate.java
+ *
+ * Description -
+ *		A boolean tree of predicates over bitmap indexes, evaluated
+ *		into a single bitmap of the matching positions by combining
+ *		the bitmaps of the values a word at a time.
+ */
+package bitmap;
+
+import java.io.*;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.TreeMap;
+import global.*;
+import diskmgr.*;
+import btree.*;
+import heap.*; //for exceptions
+
+
+/*=======================
+ * BitmapPredicate Class
+ *=======================
+ *
+ * A leaf of the tree is a range of values of one bitmap index, a
+ * BitMapFile or a CBitMapFile: the positions holding one of those
+ * values. The other nodes combine the positions of their children:
+ *
+ *	and( a, b )		positions in a and in b
+ *	or( a, b )		positions in a or in b
+ *	andNot( a, b )	positions in a but not in b
+ *	xor( a, b )		positions in exactly one of a and b
+ *	not( a )		positions not in a
+ *
+ * evaluate() reads, for each leaf, the page lists of the values in its
+ * range from the value BTree of the index and ORs them into a bitmap
+ * of 64-bit words: a BMPage a byte at a time, a CBMPage a run at a
+ * time and a WBMPage a word or a fill at a time, so no position is
+ * visited alone. The bitmaps of the children of a node are then
+ * combined a word at a time by java.util.BitSet, and the positions
+ * come from a scan of the result, in order, with nextSetBit.
+ *
+ * The files of the leaves must be open while the tree is evaluated;
+ * closing them stays with the caller.
+ */
+public class BitmapPredicate
+{
+	//----------------
+	//Class Variables
+	//----------------
+
+	//the kinds of node
+	public static final int VALUES = 0;
+	public static final int AND = 1;
+	public static final int OR = 2;
+	public static final int ANDNOT = 3;
+	public static final int XOR = 4;
+	public static final int NOT = 5;
+
+	private int op;
+	private BitmapPredicate left;
+	private BitmapPredicate right;
+
+	//for a VALUES leaf: the index and the range of values, a null
+	//key leaving that end of the range open
+	private IndexFile index;
+	private KeyClass lowKey;
+	private KeyClass hiKey;
+
+	//----------------
+	//Constructors
+	//----------------
+
+	private BitmapPredicate( int op, BitmapPredicate left, BitmapPredicate right )
+	{
+		this.op = op;
+		this.left = left;
+		this.right = right;
+	}
+
+	//The positions of the values lo to hi in a bitmap index
+	public static BitmapPredicate values( BitMapFile index, KeyClass lo, KeyClass hi )
+	{
+		return leaf( index, lo, hi );
+	}
+
+	//The positions of the values lo to hi in a compressed bitmap index
+	public static BitmapPredicate values( CBitMapFile index, KeyClass lo, KeyClass hi )
+	{
+		return leaf( index, lo, hi );
+	}
+
+	private static BitmapPredicate leaf( IndexFile index, KeyClass lo, KeyClass hi )
+	{
+		BitmapPredicate leaf = new BitmapPredicate( VALUES, null, null );
+		leaf.index = index;
+		leaf.lowKey = lo;
+		leaf.hiKey = hi;
+		return leaf;
+	}
+
+	public static BitmapPredicate and( BitmapPredicate a, BitmapPredicate b )
+	{
+		return new BitmapPredicate( AND, a, b );
+	}
+
+	public static BitmapPredicate or( BitmapPredicate a, BitmapPredicate b )
+	{
+		return new BitmapPredicate( OR, a, b );
+	}
+
+	public static BitmapPredicate andNot( BitmapPredicate a, BitmapPredicate b )
+	{
+		return new BitmapPredicate( ANDNOT, a, b );
+	}
+
+	public static BitmapPredicate xor( BitmapPredicate a, BitmapPredicate b )
+	{
+		return new BitmapPredicate( XOR, a, b );
+	}
+
+	public static BitmapPredicate not( BitmapPredicate a )
+	{
+		return new BitmapPredicate( NOT, a, null );
+	}
+
+	//----------------
+	//Accessor Methods
+	//----------------
+
+	public int getOp()
+	{
+		return op;
+	}
+
+	//----------------
+	//Functional Methods
+	//----------------
+
+	/*
+	 * The positions [0, rows) that satisfy this predicate, rows being
+	 * the number of positions of the columnar file; not() complements
+	 * within them.
+	 */
+	public BitSet evaluate( int rows )
+		throws IOException, HFBufMgrException, ScanIteratorException
+	{
+		BitSet result;
+		switch( op )
+		{
+			case VALUES:
+				result = BitSet.valueOf( readValues( rows ) );
+				break;
+			case NOT:
+				result = left.evaluate( rows );
+				result.flip( 0, rows );
+				break;
+			default:
+				result = left.evaluate( rows );
+				BitSet other = right.evaluate( rows );
+				switch( op )
+				{
+					case AND: result.and( other );
+						break;
+					case OR: result.or( other );
+						break;
+					case ANDNOT: result.andNot( other );
+						break;
+					case XOR: result.xor( other );
+						break;
+				}
+				break;
+		}
+		return result;
+	}
+
+	/*
+	 * The number of positions [0, rows) that satisfy this predicate and
+	 * are not in deleted (null for none), counted from the page lists
+	 * without building the bitmap where the tree allows: a leaf is the
+	 * sum of the popcounts of its lists, not() the live positions less
+	 * those of its child, and a node over leaves of one index combines
+	 * their values, the lists of different values holding different
+	 * positions. Other trees are evaluated.
+	 */
+	public int count( int rows, BitSet deleted )
+		throws IOException, HFBufMgrException, ScanIteratorException
+	{
+		if( VALUES == op )
+		{
+			return sum( readCounts( deleted ) );
+		}
+		if( NOT == op )
+		{
+			int live = rows;
+			if( null != deleted )
+			{
+				live -= deleted.get( 0, rows ).cardinality();
+			}
+			return live - left.count( rows, deleted );
+		}
+		if( null != singleIndex() )
+		{
+			return sum( groupCount( deleted ) );
+		}
+		BitSet result = evaluate( rows );
+		if( null != deleted )
+		{
+			result.andNot( deleted );
+		}
+		return result.cardinality();
+	}
+
+	/*
+	 * The number of positions not in deleted (null for none) of each
+	 * value that satisfies this predicate, by value, an Integer or a
+	 * String, leaving out values with none. The leaves must all be of
+	 * one index; not() takes the values of the index outside its child.
+	 */
+	public TreeMap<Object, Integer> groupCount( BitSet deleted )
+		throws IOException, HFBufMgrException, ScanIteratorException
+	{
+		IndexFile single = singleIndex();
+		if( null == single )
+		{
+			throw new ScanIteratorException( null, "BitmapPredicate: group counts need the values of one index" );
+		}
+		if( VALUES == op )
+		{
+			return readCounts( deleted );
+		}
+		TreeMap<Object, Integer> result;
+		TreeMap<Object, Integer> other;
+		if( NOT == op )
+		{
+			result = leaf( single, null, null ).readCounts( deleted );
+			other = left.groupCount( deleted );
+			result.keySet().removeAll( other.keySet() );
+			return result;
+		}
+		result = left.groupCount( deleted );
+		other = right.groupCount( deleted );
+		switch( op )
+		{
+			case AND: result.keySet().retainAll( other.keySet() );
+				break;
+			case OR: result.putAll( other );
+				break;
+			case ANDNOT: result.keySet().removeAll( other.keySet() );
+				break;
+			case XOR:
+				TreeMap<Object, Integer> both = new TreeMap<Object, Integer>( result );
+				both.keySet().retainAll( other.keySet() );
+				result.putAll( other );
+				result.keySet().removeAll( both.keySet() );
+				break;
+		}
+		return result;
+	}
+
+	//the index of all the leaves of this tree, or null if there are more
+	private IndexFile singleIndex()
+	{
+		if( VALUES == op )
+		{
+			return index;
+		}
+		IndexFile a = left.singleIndex();
+		if( null == right )
+		{
+			return a;
+		}
+		return (a == right.singleIndex()) ? a : null;
+	}
+
+	private static int sum( TreeMap<Object, Integer> counts )
+	{
+		int total = 0;
+		Iterator<Integer> it = counts.values().iterator();
+		while( it.hasNext() )
+		{
+			total += it.next();
+		}
+		return total;
+	}
+
+	//the bitmap of a leaf: the page lists of its values ORed together
+	private long[] readValues( int rows )
+		throws IOException, HFBufMgrException, ScanIteratorException
+	{
+		long[] words = new long[(rows + 63) / 64];
+		boolean compressed = index instanceof CBitMapFile;
+		BTFileScan valueScan = openValueScan();
+		try
+		{
+			KeyDataEntry entry;
+			while( (entry = valueScan.get_next()) != null )
+			{
+				RID listStart = ((LeafData)entry.data).getData();
+				if( !compressed )
+				{
+					orBMPages( words, listStart.pageNo );
+				}
+				else if( CBitMapFile.FORMAT_WORDS == listStart.slotNo )
+				{
+					orWBMPages( words, listStart.pageNo );
+				}
+				else
+				{
+					orCBMPages( words, listStart.pageNo );
+				}
+			}
+		}
+		finally
+		{
+			closeValueScan( valueScan );
+		}
+		return words;
+	}
+
+	//the counts of a leaf: the set bits of the page lists of its values
+	//that are not in deleted, by value
+	private TreeMap<Object, Integer> readCounts( BitSet deleted )
+		throws IOException, HFBufMgrException, ScanIteratorException
+	{
+		TreeMap<Object, Integer> counts = new TreeMap<Object, Integer>();
+		boolean compressed = index instanceof CBitMapFile;
+		BTFileScan valueScan = openValueScan();
+		try
+		{
+			KeyDataEntry entry;
+			while( (entry = valueScan.get_next()) != null )
+			{
+				RID listStart = ((LeafData)entry.data).getData();
+				int count;
+				if( !compressed )
+				{
+					count = countBMPages( listStart.pageNo, deleted );
+				}
+				else if( CBitMapFile.FORMAT_WORDS == listStart.slotNo )
+				{
+					count = countWBMPages( listStart.pageNo, deleted );
+				}
+				else
+				{
+					count = countCBMPages( listStart.pageNo, deleted );
+				}
+				if( 0 < count )
+				{
+					Object value;
+					if( entry.key instanceof IntegerKey )
+					{
+						value = ((IntegerKey)entry.key).getKey();
+					}
+					else
+					{
+						value = ((StringKey)entry.key).getKey();
+					}
+					counts.put( value, Integer.valueOf( count ) );
+				}
+			}
+		}
+		finally
+		{
+			closeValueScan( valueScan );
+		}
+		return counts;
+	}
+
+	//the scan of the values of a leaf in its value BTree
+	private BTFileScan openValueScan()
+		throws ScanIteratorException
+	{
+		BTreeFile values;
+		if( index instanceof CBitMapFile )
+		{
+			values = ((CBitMapFile)index).getIndexBTree();
+		}
+		else
+		{
+			values = ((BitMapFile)index).getIndexBTree();
+		}
+		try
+		{
+			return values.new_scan( lowKey, hiKey );
+		}
+		catch( Exception e )
+		{
+			throw new ScanIteratorException( e, "BitmapPredicate: value scan failed" );
+		}
+	}
+
+	private void closeValueScan( BTFileScan valueScan )
+		throws ScanIteratorException
+	{
+		try
+		{
+			valueScan.DestroyBTreeFileScan();
+		}
+		catch( Exception e )
+		{
+			throw new ScanIteratorException( e, "BitmapPredicate: value scan not closed" );
+		}
+	}
+
+	//count a list of BMPages, each holding the next bitCount() positions
+	private int countBMPages( PageId headPageId, BitSet deleted )
+		throws IOException, HFBufMgrException
+	{
+		PageId pageId = new PageId( headPageId.pid );
+		BMPage page = new BMPage();
+		int base = 0;
+		int count = 0;
+		while( -1 != pageId.pid )
+		{
+			pinPage( pageId, page );
+			count += page.cardinality( deleted, base );
+			PageId nextPageId = page.getNextPage();
+			unpinPage( pageId );
+			pageId.pid = nextPageId.pid;
+			base += BMPage.bitCount();
+		}
+		return count;
+	}
+
+	//count a list of CBMPages, each holding the next getBitsInPage() positions
+	private int countCBMPages( PageId headPageId, BitSet deleted )
+		throws IOException, HFBufMgrException
+	{
+		PageId pageId = new PageId( headPageId.pid );
+		CBMPage page = new CBMPage();
+		int base = 0;
+		int count = 0;
+		while( -1 != pageId.pid )
+		{
+			pinPage( pageId, page );
+			count += page.cardinality( deleted, base );
+			base += page.getBitsInPage();
+			PageId nextPageId = page.getNextPage();
+			unpinPage( pageId );
+			pageId.pid = nextPageId.pid;
+		}
+		return count;
+	}
+
+	//count a list of WBMPages, each holding the next getBitsInPage() positions
+	private int countWBMPages( PageId headPageId, BitSet deleted )
+		throws IOException, HFBufMgrException
+	{
+		PageId pageId = new PageId( headPageId.pid );
+		WBMPage page = new WBMPage();
+		int base = 0;
+		int count = 0;
+		while( -1 != pageId.pid )
+		{
+			pinPage( pageId, page );
+			count += page.cardinality( deleted, base );
+			base += page.getBitsInPage();
+			PageId nextPageId = page.getNextPage();
+			unpinPage( pageId );
+			pageId.pid = nextPageId.pid;
+		}
+		return count;
+	}
+
+	//OR a list of BMPages, each holding the next bitCount() positions
+	private void orBMPages( long[] words, PageId headPageId )
+		throws IOException, HFBufMgrException
+	{
+		PageId pageId = new PageId( headPageId.pid );
+		BMPage page = new BMPage();
+		int base = 0;
+		while( -1 != pageId.pid )
+		{
+			pinPage( pageId, page );
+			page.orInto( words, base );
+			PageId nextPageId = page.getNextPage();
+			unpinPage( pageId );
+			pageId.pid = nextPageId.pid;
+			base += BMPage.bitCount();
+		}
+	}
+
+	//OR a list of CBMPages, each holding the next getBitsInPage() positions
+	private void orCBMPages( long[] words, PageId headPageId )
+		throws IOException, HFBufMgrException
+	{
+		PageId pageId = new PageId( headPageId.pid );
+		CBMPage page = new CBMPage();
+		int base = 0;
+		while( -1 != pageId.pid )
+		{
+			pinPage( pageId, page );
+			page.orInto( words, base );
+			base += page.getBitsInPage();
+			PageId nextPageId = page.getNextPage();
+			unpinPage( pageId );
+			pageId.pid = nextPageId.pid;
+		}
+	}
+
+	//OR a list of WBMPages, each holding the next getBitsInPage() positions
+	private void orWBMPages( long[] words, PageId headPageId )
+		throws IOException, HFBufMgrException
+	{
+		PageId pageId = new PageId( headPageId.pid );
+		WBMPage page = new WBMPage();
+		int base = 0;
+		while( -1 != pageId.pid )
+		{
+			pinPage( pageId, page );
+			page.orInto( words, base );
+			base += page.getBitsInPage();
+			PageId nextPageId = page.getNextPage();
+			unpinPage( pageId );
+			pageId.pid = nextPageId.pid;
+		}
+	}
+
+	//----------------
+	//Word Support Methods
+	//----------------
+
+	//OR up to 32 bits into a bitmap of words, the low bit going to the
+	//given position; bits past the bitmap are dropped
+	static void orBits( long[] words, int position, int bits, int count )
+	{
+		int w = position >>> 6;
+		int offset = position & 63;
+		long value = bits & 0xFFFFFFFFL;
+		if( w < words.length )
+		{
+			words[w] |= value << offset;
+		}
+		if( (offset + count > 64) && (w + 1 < words.length) )
+		{
+			words[w + 1] |= value >>> (64 - offset);
+		}
+	}
+
+	//set the positions [from, to) of a bitmap of words, a word at a time
+	static void setRange( long[] words, int from, int to )
+	{
+		to = Math.min( to, words.length * 64 );
+		if( from >= to )
+		{
+			return;
+		}
+		int first = from >>> 6;
+		int last = (to - 1) >>> 6;
+		long firstMask = -1L << (from & 63);
+		long lastMask = -1L >>> (63 - ((to - 1) & 63));
+		if( first == last )
+		{
+			words[first] |= firstMask & lastMask;
+			return;
+		}
+		words[first] |= firstMask;
+		for( int w = first + 1; w < last; w++ )
+		{
+			words[w] = -1L;
+		}
+		words[last] |= lastMask;
+	}
+
+	//-----------------
+	//Buffer support methods
+	//-----------------
+	private void pinPage( PageId pageno, Page page )
+		throws HFBufMgrException
+	{
+		try
+		{
+			SystemDefs.JavabaseBM.pinPage( pageno, page, false/*read disk*/ );
+		}
+		catch (Exception e)
+		{
+			throw new HFBufMgrException(e,"BitmapPredicate.java: pinPage() failed");
+		}
+	}
+
+	private void unpinPage( PageId pageno )
+		throws HFBufMgrException
+	{
+		try
+		{
+			SystemDefs.JavabaseBM.unpinPage( pageno, false /*not DIRTY*/ );
+		}
+		catch (Exception e)
+		{
+			throw new HFBufMgrException(e,"BitmapPredicate.java: unpinPage() failed");
+		}
+	}
+}
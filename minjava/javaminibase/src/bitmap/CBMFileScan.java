@@ -6,6 +6,7 @@
  */
 package bitmap;
 import java.io.*;
+import java.util.Arrays;
 import global.*;
 import heap.*;
 import btree.*;
@@ -28,6 +29,9 @@ public class CBMFileScan  extends IndexFileScan
 	int runningBitCnt;		//counter to help translate bits to positions
 	int curBitCheck;		//current bit in a page being checked
 	int curGetNextPosition;	//value to store the position of the most recent return
+	boolean wordChain;		//true when the current list is of WBMPages
+	WBMPage wordPage;		//current WBMPage being scanned, for a list of them
+	int[] curRun = new int[2];	//run of curBitCheck in a CBMPage: its byte & first bit
 	BTFileScan mappedIndexScan;
 	KeyDataEntry checkedEntry;
 	
@@ -48,6 +52,7 @@ public class CBMFileScan  extends IndexFileScan
 	//similar name, except they are scoped for the
 	//get_position() based scan implementation
 	CBMPage posPage;
+	boolean posWordChain;
 	PageId posPageId;
 	RID posRid;
 	BTFileScan posIndexScan;
@@ -59,7 +64,8 @@ public class CBMFileScan  extends IndexFileScan
 	 * The BitMap has a BTree that is tracking the values with valid bitmaps. This
 	 * method iterates over each entry in the BTree that satisfies the scan criteria.
 	 * Once it finds an index within the search space it will take the CBitMapHeaderPage
-	 * and begin to scan the bits in the page. If it finds a set bit it will stop looping
+	 * and begin to scan the bits in the page, passing over runs of 0s whole. If it finds
+	 * a set bit it will stop looping
 	 * and form a KeyDataEntry using the current mapping being checked (ie, 1 or 2 or 3)
 	 * and the RID of the page matching mapped position with the set bit.
 	 * On the next call it will pick up from the n+1 bit after it's last get_next call. It
@@ -75,147 +81,166 @@ public class CBMFileScan  extends IndexFileScan
 		
 		try
 		{
-			boolean foundMatch = false;
-			int matchedBitCnt = 0;
-			int matchedPageCnt = 0;
-			boolean keepIterating = true;
-			boolean reachedPageEnd = false;
-			int prevPageBitCnt = 0;
-			while( keepIterating ) 
+			int[] match = new int[1];
+			if( 1 == nextPositions( match, 1 ) )
+			{
+				//the position of the match and the RID of it
+				curGetNextPosition = match[0];
+				RID matchRid = cbmfile.getSrcColumnarFile().getRidFromPosition( curGetNextPosition, cbmfile.getMappedColumn() );
+				//create a return key using the value of the index KeyDataEntry & the RID
+				//corresponding to the position
+				keyToReturn = new KeyDataEntry( checkedEntry.key, matchRid );
+			}
+		}
+		catch( Exception ex )
+		{
+			ex.printStackTrace();
+		}
+		
+		return keyToReturn;
+	}
+	
+	/*
+	 * The positions get_next would return next, up to maxCount of them, with
+	 * no KeyDataEntry or RID made for each. The positions of a value are in
+	 * order, and the values in the order of the BTree. Returns null once the
+	 * scan range is done; getLatestPositionMatch is the last position returned.
+	 */
+	public int[] get_next_positions( int maxCount )
+		throws ScanIteratorException
+	{
+		int[] positions = new int[maxCount];
+		int count = 0;
+		try
+		{
+			count = nextPositions( positions, maxCount );
+		}
+		catch( Exception e )
+		{
+			throw new ScanIteratorException( e, "CBMFileScan: get_next_positions() failed" );
+		}
+		if( 0 == count )
+		{
+			return null;
+		}
+		curGetNextPosition = positions[count-1];
+		if( count < maxCount )
+		{
+			positions = Arrays.copyOf( positions, count );
+		}
+		return positions;
+	}
+	
+	/*
+	 * Fill positions with up to maxCount of the next set bits, taking a page
+	 * of the current list once for all of its bits and moving on to the
+	 * next value in the BTree at the end of a list. A CBMPage passes over
+	 * its runs of 0s whole, reading each run once (curRun keeps the run of
+	 * curBitCheck), and a WBMPage its fills of 0s and zero literals.
+	 * Returns how many were filled, 0 at the end of the scan range.
+	 */
+	private int nextPositions( int[] positions, int maxCount )
+		throws IOException, ScanIteratorException, HFBufMgrException
+	{
+		int count = 0;
+		while( count < maxCount )
+		{
+			//we do not have a page of bits to iterate
+			if( null == curPage )
 			{
-				//we do not have a page of bits to iterate
-				if( null == curPage )
+				//get the next value in the BTree that has a linked list of CBMPages
+				if( (checkedEntry = mappedIndexScan.get_next()) == null )
 				{
-					//get the next value in the BTree that has a linked list of CBMPages
-					if( (checkedEntry = mappedIndexScan.get_next()) != null )
-					{
-						//System.out.println("Checking Contents " + checkedEntry.key );
-						//make these non-null to avoid repeatedly calling BTree.get_next without checking bits
-						curPage = new CBMPage();
-						curPageId = new PageId();
-						// Get the PageNo matching the start of this linked list of CBMPages
-						curRid = ((LeafData)checkedEntry.data).getData();
-						runningBitCnt = 0; //reset bit count for this page
-						curBitCheck = 0; //reset bit coutner
-					}
-					else //if mappedIndexScan.get_next() returns null we have iterate all values in scan range
-					{
-						keepIterating = false;
-						//keyToReturn is already null, no need to set it null for return
-					}
+					//all values in scan range iterated
+					break;
 				}
-				else //else scan bits for a value
+				curPage = new CBMPage();
+				wordPage = new WBMPage();
+				// Get the PageNo matching the start of this linked list of CBMPages
+				curRid = ((LeafData)checkedEntry.data).getData();
+				curPageId = new PageId( curRid.pageNo.pid );
+				//the slot of the RID tells the format of the list
+				wordChain = (CBitMapFile.FORMAT_WORDS == curRid.slotNo);
+				runningBitCnt = 0; //reset bit count for this page
+				curBitCheck = 0; //reset bit coutner
+				curRun[0] = curRun[1] = 0;
+				continue;
+			}
+			
+			Page page = wordChain ? (Page)wordPage : (Page)curPage;
+			pinPage(curPageId, page, false/*read disk*/);
+			int bit = 0;
+			while( count < maxCount )
+			{
+				bit = wordChain ? wordPage.nextSetBit( curBitCheck )
+						: curPage.nextSetBit( curBitCheck, curRun );
+				if( bit < 0 )
 				{
-					curPageId.pid = curRid.pageNo.pid;
-					int bitsInPage = 0;
-					
-					boolean checkBits = true;
-					//iteratively check the bits in the page while looking for
-					//set bits
-					while( checkBits )
-					{
-						//pin page with this PageId for use, if it is in the buffer
-						//it will be pinned otherwise it will be pulled into the buffer
-						pinPage(curPageId, curPage, false/*read disk*/);
-						
-						bitsInPage = curPage.getBitsInPage();
-						reachedPageEnd = false;
-						
-						boolean bitAtPosSet = false;
-						//check each bit in this page for a set bit
-						//also be sure to iterate each page [0, bitsInPage) and it
-						//is intentional not to check the nth bit because it would
-						//exceed the data array bounds (which go to bitsInPage-1)
-						while( (!bitAtPosSet) && (curBitCheck < bitsInPage) )
-						{
-							bitAtPosSet = curPage.checkBit( curBitCheck );
-							if( bitAtPosSet )
-							{
-								//track state for the page & bit that matched
-								matchedBitCnt = curBitCheck;
-								//indicate we can exit this loop
-								checkBits = false;
-								//setting this to false indicates a match to return
-								foundMatch = true;
-								keepIterating = false;
-							}
-							//increment to the next bit in the list
-							curBitCheck++;
-						}
-						
-						//if we exceed the max bits in this page, go to the next page
-						//in the linked list of CBMPages for this value (we do this
-						//even if we got a match above on bit set)
-						if( curBitCheck >= bitsInPage )
-						{
-							prevPageBitCnt = bitsInPage;
-							reachedPageEnd = true;
-							//not the right page, go to next link
-							PageId nextPageId = new PageId();
-							nextPageId = curPage.getNextPage();
-							//advancing to the next page means we may need to add the total bits in
-							//this page to our running total
-							runningBitCnt += bitsInPage;
-							//if we reach the end of the list, exit
-							if( -1 == nextPageId.pid )
-							{
-								//unpin this page, we are done with it
-								unpinPage(curPageId, false /*not DIRTY*/);
-								//set curPage to null to indicate the BTreeIndex loop
-								//should grab the next mapped value
-								curPage = null;
-								//indicate we can exit this loop & try the next page
-								checkBits = false;
-							}
-							else
-							{
-								//else continue to next page
-								unpinPage(curPageId, false /*not DIRTY*/);
-								curPageId.pid = nextPageId.pid;
-								//new page means reset to check bit 0
-								curBitCheck = 0;
-								//doing this helps preserve page position across multiple method calls
-								curRid.pageNo.pid = curPageId.pid;
-							}
-						}
-						else
-						{
-							//if we matched without exceeding the page bit count, we shoulds still unpin the
-							//page for now while we handle the return
-							unpinPage(curPageId, false /*not DIRTY*/);
-						}
-					}
+					break;
 				}
+				positions[count++] = runningBitCnt + bit;
+				curBitCheck = bit + 1;
 			}
-			
-			if( foundMatch )
+			if( count < maxCount )
 			{
-				//compute the position of a match given the page & bit that was set
-				curGetNextPosition = 0;
-				//when reaching the end of a page we may get a match, but the scan above
-				//will also add the total bit count to the running total. In such a case,
-				//if not acocunted for, we could offset by a large bit count from the
-				//intended match
-				if( reachedPageEnd )
+				//no set bits left in this page, go to the next page in the list
+				PageId nextPageId;
+				if( wordChain )
 				{
-					curGetNextPosition = runningBitCnt + matchedBitCnt - prevPageBitCnt;
+					runningBitCnt += wordPage.getBitsInPage();
+					nextPageId = wordPage.getNextPage();
 				}
 				else
 				{
-					curGetNextPosition = runningBitCnt + matchedBitCnt;
+					runningBitCnt += curPage.getBitsInPage();
+					nextPageId = curPage.getNextPage();
 				}
-				RID matchRid = cbmfile.getSrcColumnarFile().getRidFromPosition( curGetNextPosition, cbmfile.getMappedColumn() );
-				//create a return key using the value of the index KeyDataEntry & the RID
-				//corresponding to the position
-				keyToReturn = new KeyDataEntry( checkedEntry.key, matchRid );
+				unpinPage(curPageId, false /*not DIRTY*/);
+				if( -1 == nextPageId.pid )
+				{
+					//set curPage to null to grab the next mapped value
+					curPage = null;
+				}
+				else
+				{
+					curPageId.pid = nextPageId.pid;
+					curBitCheck = 0;
+					curRun[0] = curRun[1] = 0;
+				}
+			}
+			else
+			{
+				unpinPage(curPageId, false /*not DIRTY*/);
 			}
 		}
-		catch( Exception ex )
+		return count;
+	}
+	
+	/*
+	 * get_position for a list of WBMPages: whether the position is set in
+	 * the list starting at posRid
+	 */
+	private boolean checkWordPosition( int position )
+		throws IOException, HFBufMgrException
+	{
+		WBMPage page = new WBMPage();
+		PageId pageId = new PageId( posRid.pageNo.pid );
+		while( -1 != pageId.pid )
 		{
-			ex.printStackTrace();
+			pinPage(pageId, page, false/*read disk*/);
+			int bitsInPage = page.getBitsInPage();
+			if( position < bitsInPage )
+			{
+				boolean set = page.checkBit( position );
+				unpinPage(pageId, false /*not DIRTY*/);
+				return set;
+			}
+			position -= bitsInPage;
+			PageId nextPageId = page.getNextPage();
+			unpinPage(pageId, false /*not DIRTY*/);
+			pageId.pid = nextPageId.pid;
 		}
-		
-		return keyToReturn;
+		return false;
 	}
 	
 	/*
@@ -263,6 +288,7 @@ public class CBMFileScan  extends IndexFileScan
 						posPageId = new PageId();
 						// Get the PageNo matching the start of this linked list of CBMPages
 						posRid = ((LeafData)posEntry.data).getData();
+						posWordChain = (CBitMapFile.FORMAT_WORDS == posRid.slotNo);
 					}
 					else //if posIndexScan.get_next() returns null we have iterate all values in scan range
 					{
@@ -270,6 +296,13 @@ public class CBMFileScan  extends IndexFileScan
 						//keyToReturn is already null, no need to set it null for return
 					}
 				}
+				else if( posWordChain ) //else check the words of a value
+				{
+					foundMatch = checkWordPosition( position );
+					matchedOrDone = foundMatch;
+					//each value is checked once, move on to the next one
+					posPage = null;
+				}
 				else //else scan bits for a value
 				{
 					posPageId.pid = posRid.pageNo.pid;
@@ -363,6 +396,8 @@ public class CBMFileScan  extends IndexFileScan
 	{
 		try
 		{
+			//the scan being replaced may still hold a leaf page pinned
+			posIndexScan.DestroyBTreeFileScan();
 			posIndexScan = cbmfile.getIndexBTree().new_scan(scanLowKey, scanHiKey);
 			posPage = null;
 			posPageId = null;
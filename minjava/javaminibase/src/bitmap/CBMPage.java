@@ -12,6 +12,7 @@
 package bitmap;
 
 import java.util.Arrays;
+import java.util.BitSet;
 import java.io.*;
 import java.lang.*;
 import global.*;
@@ -83,7 +84,8 @@ public class CBMPage extends Page
 	//now that we know the size of the metadata, the MAX_BYTES is how many bytes
 	//are left in the page
 	//This should be the same for all pages since all pages have same metadata size
-	public static final int MAX_BYTES = MAX_SPACE - METADATA_SIZE;
+	//JavabasePageSize is the size of data[] for the open database
+	private final int MAX_BYTES = SystemDefs.JavabasePageSize - METADATA_SIZE;
 	
 	//To make set/clear operations faster we will track how many
 	//positions are compressed in this page
@@ -147,6 +149,13 @@ public class CBMPage extends Page
 		//take data from other page and store in this page
 		data = apage.getpage();
 	}
+
+	//the page works on data directly, so a frame of an off-heap
+	//buffer pool is copied into a heap view when pinned into it
+	protected boolean bufferAccess()
+	{
+		return false;
+	}
 	
 	//----------------
 	//Metadata Navigation Methods
@@ -956,6 +965,139 @@ public class CBMPage extends Page
 		return bitSet;
     }
 	
+	/*
+	 * The first set bit of this page at or after position, or -1 if there
+	 * is none. Runs of 0s are passed over whole.
+	 */
+	public int nextSetBit( int position )
+		throws IOException
+	{
+		int[] run = { 0, 0 };
+		return nextSetBit( position, run );
+	}
+
+	/*
+	 * As above, starting from the run at byte run[0], which starts at bit
+	 * run[1] and not after position; run is moved to the run of the bit
+	 * returned, so that a scan of the page reads each run once.
+	 */
+	int nextSetBit( int position, int[] run )
+		throws IOException
+	{
+		int bitsInPage = getBitsInPage();
+		int curByte = run[0];
+		int rngStart = run[1];
+		while( (curByte < MAX_BYTES) && (rngStart < bitsInPage) )
+		{
+			int runLength = readRun( curByte );
+			if( 0 == runLength )
+			{
+				break;
+			}
+			int rngEnd = Math.min( rngStart + runLength, bitsInPage );
+			if( runOfOnes( curByte ) && (position < rngEnd) )
+			{
+				run[0] = curByte;
+				run[1] = rngStart;
+				return Math.max( position, rngStart );
+			}
+			rngStart += runLength;
+			curByte++;
+		}
+		run[0] = curByte;
+		run[1] = rngStart;
+		return -1;
+	}
+
+	/*
+	 * The number of set bits of this page, the sum of its runs of 1s, less
+	 * those whose positions, the first bit of the page being position base,
+	 * are in deleted (null for none).
+	 */
+	public int cardinality( BitSet deleted, int base )
+		throws IOException
+	{
+		int bitsInPage = getBitsInPage();
+		int count = 0;
+		int rngStart = 0;
+		for( int curByte = 0; (curByte < MAX_BYTES) && (rngStart < bitsInPage); curByte++ )
+		{
+			int runLength = readRun( curByte );
+			if( 0 == runLength )
+			{
+				break;
+			}
+			if( runOfOnes( curByte ) )
+			{
+				int rngEnd = Math.min( rngStart + runLength, bitsInPage );
+				count += rngEnd - rngStart;
+				if( null != deleted )
+				{
+					for( int p = deleted.nextSetBit( base + rngStart ); (p >= 0) && (p < base + rngEnd); p = deleted.nextSetBit( p+1 ) )
+					{
+						count--;
+					}
+				}
+			}
+			rngStart += runLength;
+		}
+		return count;
+	}
+
+	/*
+	 * Add a run of 0s/1s after the last run of the page, which ends before
+	 * curByte[0], for a list written in order: the last run grows if it
+	 * is of the same bits, and the rest takes bytes of up to DATA_BITS
+	 * from curByte[0] on, which is moved past them. Returns the length
+	 * left over once the page is full, for the next page.
+	 */
+	int appendRun( int[] curByte, boolean isOne, int runLength )
+		throws IOException
+	{
+		int stored = 0;
+		int at = curByte[0];
+		if( (0 < at) && (runOfOnes( at-1 ) == isOne) && (readRun( at-1 ) < DATA_BITS) )
+		{
+			int grow = Math.min( runLength, DATA_BITS - readRun( at-1 ) );
+			setRun( at-1, readRun( at-1 ) + grow, isOne );
+			stored += grow;
+		}
+		while( (stored < runLength) && (at < MAX_BYTES) )
+		{
+			int length = Math.min( runLength - stored, DATA_BITS );
+			setRun( at, length, isOne );
+			stored += length;
+			at++;
+		}
+		curByte[0] = at;
+		setBitsInPage( getBitsInPage() + stored );
+		return runLength - stored;
+	}
+	
+	//OR the bits of this page into a bitmap of 64-bit words, the first
+	//bit of this page going to the given position: each run of 1s sets
+	//its range of positions at once
+	void orInto( long[] words, int base )
+		throws IOException
+	{
+		int bitsInPage = getBitsInPage();
+		int rngStart = 0;
+		for( int curByte = 0; (curByte < MAX_BYTES) && (rngStart < bitsInPage); curByte++ )
+		{
+			int runLength = readRun( curByte );
+			if( 0 == runLength )
+			{
+				break;
+			}
+			if( runOfOnes( curByte ) )
+			{
+				BitmapPredicate.setRange( words, base + rngStart,
+						base + Math.min( rngStart + runLength, bitsInPage ) );
+			}
+			rngStart += runLength;
+		}
+	}
+	
 	//Dump contents of a page in a formatted style
 	public void dumpPage()
 		throws IOException
@@ -1012,9 +1154,9 @@ public class CBMPage extends Page
 	{
 		//we do not allow copies of buffers of mismatched size
 		//as the resulting behavior could be undefined
-		if( inputBytes.length == MAX_SPACE )
+		if( inputBytes.length == data.length )
 		{
-			System.arraycopy(inputBytes, 0, data, 0, MAX_SPACE);
+			System.arraycopy(inputBytes, 0, data, 0, data.length);
 		}
 	}
 	
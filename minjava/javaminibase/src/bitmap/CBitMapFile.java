@@ -35,6 +35,19 @@ public class CBitMapFile extends IndexFile
 	private String  dbname;
 	private int columnMap = -1;
 	private int mapType = AttrType.attrNull;
+	//the format of the lists of pages made for new values
+	private int format = FORMAT_BYTE_RUNS;
+	
+	//----------------
+	//Page list formats
+	//----------------
+	
+	//The format of the list of pages of a value is kept in the slot of
+	//the RID its BTree entry points to, so a file can hold both:
+	//CBMPages of byte-wide runs, as files always had (their entries were
+	//written with slot -1), or WBMPages of word-aligned runs
+	public static final int FORMAT_BYTE_RUNS = -1;
+	public static final int FORMAT_WORDS = 1;
 	
 	//----------------
 	//Helpful constatns
@@ -62,6 +75,7 @@ public class CBitMapFile extends IndexFile
 		
 		//open the existing element map
 		indexOfMappedElements = new BTreeFile( filename );
+		format = formatOfLists();
 		
 		dbname = new String(filename);
 	}
@@ -77,6 +91,19 @@ public class CBitMapFile extends IndexFile
 				IOException, AddFileEntryException, HFBufMgrException,
 				HFException, HFDiskMgrException, PinPageException
 	{
+		this( filename, columnfile, ColumnNo, value, FORMAT_BYTE_RUNS );
+	}
+	
+	//As above, with the lists of pages of a new file made in the given
+	//format, FORMAT_BYTE_RUNS or FORMAT_WORDS; an existing file keeps
+	//the format of its lists
+	public CBitMapFile( String filename, Columnarfile columnfile,
+						int ColumnNo, ValueClass value, int format )
+		throws GetFileEntryException, ConstructPageException,
+				IOException, AddFileEntryException, HFBufMgrException,
+				HFException, HFDiskMgrException, PinPageException
+	{
+		this.format = format;
 		//get the id of the page for the passed filename
 		bmFileId = get_file_entry(filename);
 		//file not exist, create one
@@ -110,52 +137,15 @@ public class CBitMapFile extends IndexFile
 			//Map column values from columnar file into the bitmap
 			/*
 			---Pseudo-code of bitmap creation---
-			for page in HeapFile@columnNo
-				for record in page
-					Map value
+			for record in HeapFile@columnNo
+				set bit of record position in bitset of value
+			for value in order
+				write page list of value, load value into BTree
 			*/
-			RID rid = new RID();
-			int mapProgress = 0;
 			try
 			{
-				//open a scan of the corresponding columnar column Heapfile
-				Scan scan = columnfile.openColumnScan(columnMap);
-				Tuple tuple = scan.getNext(rid);
-				//iterate and insert each record
-				while (tuple != null)
-				{
-					//nice helper to indicate progress is being made
-					mapProgress++;
-					if( 0 == (mapProgress % 1000) )
-					{
-						System.out.println("Mapped " + mapProgress + " entries");
-					}
-					//identify if we should insert strings or integers
-					if( mapType == AttrType.attrInteger )
-					{
-						//get the value to insert
-						int intValue = Convert.getIntValue(0, tuple.getTupleByteArray());
-                        IntegerValueClass tmpValueClass = new IntegerValueClass( intValue );
-						//get the position to use
-						int position = columnfile.getPositionFromRid( rid, ColumnNo );
-						//set the bit at that position
-						Insert( tmpValueClass, position );
-					}
-					if( mapType == AttrType.attrString  )
-					{
-						byte[] byteArr = tuple.getTupleByteArray();
-                        String stringValue = Convert.getStrValue(0, byteArr, byteArr.length);
-                        StringValueClass tmpValueClass = new StringValueClass( stringValue );
-						//get the position to use
-						int position = columnfile.getPositionFromRid( rid, ColumnNo );
-						//set the bit at that position
-						Insert( tmpValueClass, position );
-					}
-					//get next entry in scan
-					tuple = scan.getNext(rid);
-				}
-				//all entries scanned, close scanner
-				scan.closescan();
+				BitMapBuilder builder = new BitMapBuilder( format );
+				builder.build( columnfile, columnMap, mapType, indexOfMappedElements );
 			}
 			catch (Exception e)
 			{
@@ -177,6 +167,7 @@ public class CBitMapFile extends IndexFile
 			
 			//open the existing element map
 			indexOfMappedElements = new BTreeFile( filename );
+			this.format = formatOfLists();
 		}
 		
 		dbname = new String(filename);
@@ -315,6 +306,31 @@ public class CBitMapFile extends IndexFile
 		}
 	}
 	
+	/*
+	 * The format of the lists of pages of an existing file: that of the
+	 * list of its first value, FORMAT_BYTE_RUNS for a file with no value
+	 */
+	private int formatOfLists()
+	{
+		int listFormat = FORMAT_BYTE_RUNS;
+		try
+		{
+			BTFileScan btfScan = indexOfMappedElements.new_scan(null, null);
+			KeyDataEntry entry = btfScan.get_next();
+			if( null != entry )
+			{
+				listFormat = ((LeafData)entry.data).getData().slotNo;
+			}
+			btfScan.DestroyBTreeFileScan();
+		}
+		catch( Exception ex )
+		{
+			System.out.println("Error in CBitMapFile::formatOfLists()");
+			ex.printStackTrace();
+		}
+		return listFormat;
+	}
+	
 	//----------------
 	//Accessor Methods
 	//----------------
@@ -354,6 +370,11 @@ public class CBitMapFile extends IndexFile
 		return mapType;
 	}
 	
+	public int getFormat()
+	{
+		return format;
+	}
+	
 	//----------------
 	//Clean-up Methods
 	//----------------
@@ -454,9 +475,10 @@ public class CBitMapFile extends IndexFile
 		if( -1 == listStartPage.pageNo.pid )
 		{
 			//need a new page for this element value
-			CBitMapHeaderPage newBMHeader = new CBitMapHeaderPage();
+			CBitMapHeaderPage newBMHeader = new CBitMapHeaderPage( format );
 			//associate the new BMHeader Page to this RID
 			listStartPage.pageNo.pid = newBMHeader.headCBMPageId.pid;
+			listStartPage.slotNo = format;
 			
 			if( AttrType.attrInteger == mapType )
 			{
@@ -480,7 +502,7 @@ public class CBitMapFile extends IndexFile
 		else
 		{
 			//found matching page
-			pageToReturn = new CBitMapHeaderPage( listStartPage.pageNo );
+			pageToReturn = new CBitMapHeaderPage( listStartPage.pageNo, listStartPage.slotNo );
 		}
 		
 		return pageToReturn;
@@ -40,6 +40,10 @@ public class CBitMapHeaderPage extends HFPage
 	
 	PageId headCBMPageId;
 	
+	//the format of the list of pages, CBitMapFile.FORMAT_BYTE_RUNS or
+	//CBitMapFile.FORMAT_WORDS
+	int format = CBitMapFile.FORMAT_BYTE_RUNS;
+	
 	
 	//----------------
 	//Constructors
@@ -48,12 +52,32 @@ public class CBitMapHeaderPage extends HFPage
 	//Default Constructor
 	public CBitMapHeaderPage()
 		throws HFException, HFBufMgrException, IOException
+	{
+		this( CBitMapFile.FORMAT_BYTE_RUNS );
+	}
+	
+	//Constructor of a new list of pages, of CBMPages or of WBMPages
+	public CBitMapHeaderPage( int format )
+		throws HFException, HFBufMgrException, IOException
 	{
 		//Does nothing, inherits an empty bytes[] from Page class
 		super();
+		this.format = format;
+		headCBMPageId = new PageId();
+		
+		if( CBitMapFile.FORMAT_WORDS == format )
+		{
+			WBMPage headPage = new WBMPage();
+			headCBMPageId = newPage(headPage, 1);
+			if(headCBMPageId == null)
+				throw new HFException(null, "can't new page");
+			headPage.init( headCBMPageId, headPage );
+			unpinPage(headCBMPageId, true /*dirty*/ );
+			return;
+		}
+		
 		//create an empty CBMPage to point to
 		CBMPage headPage = new CBMPage();
-		headCBMPageId = new PageId();
 		
 		//create the Page in DB
 		headCBMPageId = newPage(headPage, 1);
@@ -69,8 +93,16 @@ public class CBitMapHeaderPage extends HFPage
 	
 	public CBitMapHeaderPage( PageId pageNo )
 		throws ConstructPageException
+	{
+		this( pageNo, CBitMapFile.FORMAT_BYTE_RUNS );
+	}
+	
+	//Constructor of an existing list of pages of the given format
+	public CBitMapHeaderPage( PageId pageNo, int format )
+		throws ConstructPageException
 	{
 		super();
+		this.format = format;
 		headCBMPageId = pageNo;
 		/*try
 		{
@@ -176,6 +208,10 @@ public class CBitMapHeaderPage extends HFPage
 	public boolean insertMap( int position )
 		throws HFException, HFBufMgrException, IOException
 	{
+		if( CBitMapFile.FORMAT_WORDS == format )
+		{
+			return insertWords( position );
+		}
 		boolean successfulInsert = false;
 		//helper boolean to avoid inf. loop risk
 		boolean unexpectedFailure = false;
@@ -331,6 +367,10 @@ public class CBitMapHeaderPage extends HFPage
 	public boolean deleteMap( int position )
 		throws HFException, HFBufMgrException, IOException
 	{
+		if( CBitMapFile.FORMAT_WORDS == format )
+		{
+			return deleteWords( position );
+		}
 		boolean successfulDelete = false;
 		
 		//start at head and read forward in list
@@ -562,4 +602,146 @@ public class CBitMapHeaderPage extends HFPage
 		}
 	}
 	
+	//----------------
+	//Word-aligned lists (WBMPage)
+	//----------------
+	
+	/*
+	 * Set the bit of a position in a list of WBMPages. A position at or
+	 * after the last group of the list goes straight to the last page,
+	 * which the first page keeps, and a new page is added after it when
+	 * it is full; nothing is moved. A position before that is looked up
+	 * page by page from the first; when its page has no room for the
+	 * split of a fill the page is split in two.
+	 */
+	private boolean insertWords( int position )
+		throws HFException, HFBufMgrException, IOException
+	{
+		int group = position / WBMPage.GROUP_BITS;
+		WBMPage head = new WBMPage();
+		pinPage(headCBMPageId, head, false/*read disk*/);
+		PageId lastPageId = head.getLastPage();
+		int lastStart = head.getLastStart();
+		WBMPage last = head;
+		if( lastPageId.pid != headCBMPageId.pid )
+		{
+			last = new WBMPage();
+			pinPage(lastPageId, last, false/*read disk*/);
+		}
+		int lastGroups = last.getGroupsInPage();
+		boolean atTail = group >= lastStart + lastGroups - 1;
+		boolean done = atTail && last.setBit( position - lastStart * WBMPage.GROUP_BITS );
+		if( atTail && !done && (group >= lastStart + lastGroups) )
+		{
+			//the last page is full: the position starts a new one
+			WBMPage freshPage = new WBMPage();
+			PageId freshPageId = newPage(freshPage, 1);
+			if(freshPageId == null)
+				throw new HFException(null, "can't new page");
+			freshPage.init( freshPageId, freshPage );
+			freshPage.setPrevPage( lastPageId );
+			last.setNextPage( freshPageId );
+			int freshStart = lastStart + lastGroups;
+			freshPage.setBit( position - freshStart * WBMPage.GROUP_BITS );
+			head.setLast( freshPageId, freshStart );
+			unpinPage(freshPageId, true /*dirty*/ );
+			done = true;
+		}
+		if( last != head )
+		{
+			unpinPage(lastPageId, done /*dirty*/ );
+		}
+		unpinPage(headCBMPageId, done /*dirty*/ );
+		if( !done )
+		{
+			updateWords( position, true );
+		}
+		return true;
+	}
+	
+	/*
+	 * Clear the bit of a position in a list of WBMPages. A position past
+	 * the list is already clear.
+	 */
+	private boolean deleteWords( int position )
+		throws HFException, HFBufMgrException, IOException
+	{
+		updateWords( position, false );
+		return true;
+	}
+	
+	//set or clear a bit on the page of the list holding it
+	private void updateWords( int position, boolean set )
+		throws HFException, HFBufMgrException, IOException
+	{
+		PageId currentPageId = new PageId( headCBMPageId.pid );
+		WBMPage currentPage = new WBMPage();
+		int start = 0; //groups before the current page
+		int group = position / WBMPage.GROUP_BITS;
+		while( true )
+		{
+			pinPage(currentPageId, currentPage, false/*read disk*/);
+			int groups = currentPage.getGroupsInPage();
+			PageId nextPageId = currentPage.getNextPage();
+			if( (group < start + groups) || (-1 == nextPageId.pid) )
+			{
+				break;
+			}
+			unpinPage(currentPageId, false /*not DIRTY*/);
+			start += groups;
+			currentPageId.pid = nextPageId.pid;
+		}
+		int offset = position - start * WBMPage.GROUP_BITS;
+		boolean done = set ? currentPage.setBit( offset ) : currentPage.clearBit( offset );
+		while( !done )
+		{
+			//split the page and update the half holding the position
+			WBMPage freshPage = new WBMPage();
+			PageId freshPageId = newPage(freshPage, 1);
+			if(freshPageId == null)
+				throw new HFException(null, "can't new page");
+			freshPage.init( freshPageId, freshPage );
+			int kept = currentPage.splitInto( freshPage );
+			PageId nextPageId = currentPage.getNextPage();
+			freshPage.setNextPage( nextPageId );
+			freshPage.setPrevPage( currentPageId );
+			currentPage.setNextPage( freshPageId );
+			if( -1 == nextPageId.pid )
+			{
+				WBMPage head = currentPage;
+				if( currentPageId.pid != headCBMPageId.pid )
+				{
+					head = new WBMPage();
+					pinPage(headCBMPageId, head, false/*read disk*/);
+				}
+				head.setLast( freshPageId, start + kept );
+				if( head != currentPage )
+				{
+					unpinPage(headCBMPageId, true /*dirty*/ );
+				}
+			}
+			else
+			{
+				WBMPage nextPage = new WBMPage();
+				pinPage(nextPageId, nextPage, false/*read disk*/);
+				nextPage.setPrevPage( freshPageId );
+				unpinPage(nextPageId, true /*dirty*/ );
+			}
+			if( offset < kept * WBMPage.GROUP_BITS )
+			{
+				unpinPage(freshPageId, true /*dirty*/ );
+			}
+			else
+			{
+				unpinPage(currentPageId, true /*dirty*/ );
+				currentPageId.pid = freshPageId.pid;
+				currentPage = freshPage;
+				offset -= kept * WBMPage.GROUP_BITS;
+				start += kept;
+			}
+			done = set ? currentPage.setBit( offset ) : currentPage.clearBit( offset );
+		}
+		unpinPage(currentPageId, true /*dirty*/ );
+	}
+	
 }
\ No newline at end of file
@@ -0,0 +1,702 @@
+/*
+ * File - WBMPage.java
+ *
+ * Description -
+ *		Single Page in a compressed Bitmap File that holds the bits
+ *		of a mapped value as word-aligned runs, with a directory of
+ *		its words for random access.
+ */
+package bitmap;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.io.*;
+import global.*;
+
+import diskmgr.*;
+
+
+/*=======================
+ * WBMPage Class
+ *=======================
+ *
+ * The positions a page maps are cut into groups of 31. Each group is
+ * kept by a 32-bit word, or a run of groups by a single word:
+ *	 _______________________________________________
+ *	| 0	| 31 bits, one per position of the group	|	literal word
+ *	|___|___________________________________________|
+ *	 _______________________________________________
+ *	| 1	| 0/1	| count of groups of all 0s/1s		|	fill word
+ *	|___|_______|___________________________________|
+ *
+ * The words grow from the page metadata towards the end of the page,
+ * and a directory of the words grows from the end of the page towards
+ * them: entry k holds the group word k*DIR_STRIDE starts at, so finding
+ * the word of a position is a binary search of the directory and a
+ * walk of at most DIR_STRIDE words, where CBMPage decodes its runs from
+ * the start of the page.
+ *	 _______________________________________________________
+ *	| metadata | word 0 | word 1 | ...	  ... | dir 1 | dir 0 |
+ *	|__________|________|________|__________|_______|_______|
+ *
+ * Setting a bit at or after the last group only changes the last word
+ * or adds words after it, so appending never moves a word. Setting or
+ * clearing a bit inside a fill splits it in up to three words, which
+ * moves the words after it on this page only; a page without the room
+ * for that is split in two by CBitMapHeaderPage.
+ *
+ * A page covers a whole number of groups, so each page of a list starts
+ * on a group; the first page of a list also keeps the last page of the
+ * list and the groups before it, for appends to go straight there.
+ */
+public class WBMPage extends Page
+{
+	//----------------
+	//Class Variables
+	//----------------
+
+	//Helper constants (in bytes)
+	private static final int SIZEOF_INT = 4;
+
+	//positions in a group, and the bits of a word
+	public static final int GROUP_BITS = 31;
+	private static final int FILL_BIT = 0x80000000;
+	private static final int FILL_VALUE_BIT = 0x40000000;
+	private static final int FILL_COUNT = 0x3FFFFFFF;
+	private static final int LITERAL_BITS = 0x7FFFFFFF;
+
+	//words per directory entry
+	public static final int DIR_STRIDE = 16;
+
+	/*
+	 * Notice, the following are computed as the offsets of the metadata in the page
+	 *	 _______________________________________________________________________________
+	 *	| PREV_PAGE | NEXT_PAGE | CUR_PAGE | GROUPS_IN_PAGE | WORD_CNT | LAST_PAGE | LAST_START |
+	 *	|_______________________________________________________________________________|
+	 *	^Buffer Start
+	 */
+	public static final int START_OF_BUFFER = 0;
+	public static final int PREV_PAGE = START_OF_BUFFER;			//PREV_PAGE is an int
+	public static final int NEXT_PAGE = PREV_PAGE + SIZEOF_INT;		//NEXT_PAGE is an int
+	public static final int CUR_PAGE  = NEXT_PAGE + SIZEOF_INT;		//CUR_PAGE  is an int
+	public static final int GROUPS_IN_PAGE = CUR_PAGE + SIZEOF_INT;	//GROUPS_IN_PAGE is an int
+	public static final int WORD_CNT = GROUPS_IN_PAGE + SIZEOF_INT;	//WORD_CNT is an int
+	public static final int LAST_PAGE = WORD_CNT + SIZEOF_INT;		//LAST_PAGE is an int, first page only
+	public static final int LAST_START = LAST_PAGE + SIZEOF_INT;	//LAST_START is an int, first page only
+	public static final int METADATA_SIZE = 7*SIZEOF_INT;
+
+	//----------------
+	//Constructors
+	//----------------
+
+	//Default Constructor
+	public WBMPage()
+	{
+		super();
+	}
+
+	//Constructor of class WBMPage open a WBMPage and
+	//make this WBMPage point to the given page
+	public WBMPage( Page page )
+	{
+		data = page.getpage();
+	}
+
+	//initialize a new, empty page, the first and last of its list
+	public void init(PageId pageNo, Page apage)
+		throws IOException
+	{
+		data = apage.getpage();
+		Arrays.fill( data, (byte)0 );
+
+		Convert.setIntValue(-1, PREV_PAGE, data);
+		Convert.setIntValue(-1, NEXT_PAGE, data);
+		Convert.setIntValue(pageNo.pid, CUR_PAGE, data);
+		Convert.setIntValue(pageNo.pid, LAST_PAGE, data);
+	}
+
+	//open an existing WBMPage
+	public void openBMpage(Page apage)
+	{
+		data = apage.getpage();
+	}
+
+	//the page works on data directly, so a frame of an off-heap
+	//buffer pool is copied into a heap view when pinned into it
+	protected boolean bufferAccess()
+	{
+		return false;
+	}
+
+	//----------------
+	//Metadata Navigation Methods
+	//----------------
+
+	public PageId getCurPage()
+		throws IOException
+	{
+		return new PageId( Convert.getIntValue(CUR_PAGE, data) );
+	}
+
+	public PageId getNextPage()
+		throws IOException
+	{
+		return new PageId( Convert.getIntValue(NEXT_PAGE, data) );
+	}
+
+	public void setNextPage(PageId pageNo)
+		throws IOException
+	{
+		Convert.setIntValue(pageNo.pid, NEXT_PAGE, data);
+	}
+
+	public PageId getPrevPage()
+		throws IOException
+	{
+		return new PageId( Convert.getIntValue(PREV_PAGE, data) );
+	}
+
+	public void setPrevPage(PageId pageNo)
+		throws IOException
+	{
+		Convert.setIntValue(pageNo.pid, PREV_PAGE, data);
+	}
+
+	//number of groups of positions this page covers
+	public int getGroupsInPage()
+		throws IOException
+	{
+		return Convert.getIntValue(GROUPS_IN_PAGE, data);
+	}
+
+	private void setGroupsInPage( int groups )
+		throws IOException
+	{
+		Convert.setIntValue(groups, GROUPS_IN_PAGE, data);
+	}
+
+	//number of positions this page covers, as CBMPage.getBitsInPage
+	public int getBitsInPage()
+		throws IOException
+	{
+		return getGroupsInPage() * GROUP_BITS;
+	}
+
+	public int getWordCount()
+		throws IOException
+	{
+		return Convert.getIntValue(WORD_CNT, data);
+	}
+
+	private void setWordCount( int words )
+		throws IOException
+	{
+		Convert.setIntValue(words, WORD_CNT, data);
+	}
+
+	//last page of the list and the groups before it, kept on the first page
+	public PageId getLastPage()
+		throws IOException
+	{
+		return new PageId( Convert.getIntValue(LAST_PAGE, data) );
+	}
+
+	public int getLastStart()
+		throws IOException
+	{
+		return Convert.getIntValue(LAST_START, data);
+	}
+
+	public void setLast( PageId pageNo, int groupsBefore )
+		throws IOException
+	{
+		Convert.setIntValue(pageNo.pid, LAST_PAGE, data);
+		Convert.setIntValue(groupsBefore, LAST_START, data);
+	}
+
+	//----------------
+	//Word Support Methods
+	//----------------
+
+	private int getWord( int i )
+		throws IOException
+	{
+		return Convert.getIntValue(METADATA_SIZE + i*SIZEOF_INT, data);
+	}
+
+	private void setWord( int i, int word )
+		throws IOException
+	{
+		Convert.setIntValue(word, METADATA_SIZE + i*SIZEOF_INT, data);
+	}
+
+	//groups a word covers
+	private static int groupsOf( int word )
+	{
+		return (0 == (word & FILL_BIT)) ? 1 : (word & FILL_COUNT);
+	}
+
+	private static int fill( boolean ones, int groups )
+	{
+		return FILL_BIT | (ones ? FILL_VALUE_BIT : 0) | groups;
+	}
+
+	private static boolean isFill( int word, boolean ones )
+	{
+		return (0 != (word & FILL_BIT)) && (ones == (0 != (word & FILL_VALUE_BIT)));
+	}
+
+	//directory entry k: the group word k*DIR_STRIDE starts at
+	private int getDir( int k )
+		throws IOException
+	{
+		return Convert.getIntValue(data.length - (k+1)*SIZEOF_INT, data);
+	}
+
+	private void setDir( int k, int group )
+		throws IOException
+	{
+		Convert.setIntValue(group, data.length - (k+1)*SIZEOF_INT, data);
+	}
+
+	//is there room for this many more words, with their directory entries?
+	private boolean hasRoom( int words )
+		throws IOException
+	{
+		int n = getWordCount() + words;
+		int dirEntries = (n + DIR_STRIDE - 1) / DIR_STRIDE;
+		return METADATA_SIZE + (n + dirEntries)*SIZEOF_INT <= data.length;
+	}
+
+	//rebuild the directory from word "from" on
+	private void rebuildDirectory( int from )
+		throws IOException
+	{
+		int k = from / DIR_STRIDE;
+		int i = k * DIR_STRIDE;
+		int group = (0 == k) ? 0 : getDir(k);
+		int n = getWordCount();
+		while( i < n )
+		{
+			if( 0 == (i % DIR_STRIDE) )
+			{
+				setDir( i / DIR_STRIDE, group );
+			}
+			group += groupsOf( getWord(i) );
+			i++;
+		}
+	}
+
+	//add a word after the last one
+	private void appendWord( int word, int group )
+		throws IOException
+	{
+		int n = getWordCount();
+		setWord( n, word );
+		setWordCount( n + 1 );
+		if( 0 == (n % DIR_STRIDE) )
+		{
+			setDir( n / DIR_STRIDE, group );
+		}
+	}
+
+	/*
+	 * Find the word holding a group: returns the word number, and in
+	 * start[0] the group the word starts at. The group must be below
+	 * getGroupsInPage().
+	 */
+	private int findWord( int group, int[] start )
+		throws IOException
+	{
+		int n = getWordCount();
+		int lo = 0;
+		int hi = (n + DIR_STRIDE - 1) / DIR_STRIDE - 1;
+		//the last directory entry at or before the group
+		while( lo < hi )
+		{
+			int mid = (lo + hi + 1) / 2;
+			if( getDir(mid) <= group )
+			{
+				lo = mid;
+			}
+			else
+			{
+				hi = mid - 1;
+			}
+		}
+		int i = lo * DIR_STRIDE;
+		int s = getDir(lo);
+		while( true )
+		{
+			int g = groupsOf( getWord(i) );
+			if( group < s + g )
+			{
+				start[0] = s;
+				return i;
+			}
+			s += g;
+			i++;
+		}
+	}
+
+	/*
+	 * Replace word i by the given words, moving the words after it on
+	 * this page. The caller has checked there is room.
+	 */
+	private void replaceWord( int i, int[] words, int count )
+		throws IOException
+	{
+		int n = getWordCount();
+		int shift = count - 1;
+		if( 0 != shift )
+		{
+			System.arraycopy( data, METADATA_SIZE + (i+1)*SIZEOF_INT, data,
+					METADATA_SIZE + (i+1+shift)*SIZEOF_INT, (n-i-1)*SIZEOF_INT );
+		}
+		for( int k = 0; k < count; k++ )
+		{
+			setWord( i + k, words[k] );
+		}
+		setWordCount( n + shift );
+		rebuildDirectory( i );
+	}
+
+	//----------------
+	//Functional Methods
+	//----------------
+
+	/*
+	 * Set the bit of a position, relative to the first position of this
+	 * page. Returns false, with the page unchanged, if the page has no
+	 * room for the words it takes.
+	 */
+	public boolean setBit( int position )
+		throws IOException
+	{
+		int group = position / GROUP_BITS;
+		int bit = 1 << (position % GROUP_BITS);
+		int groups = getGroupsInPage();
+		int n = getWordCount();
+
+		//past the last group: add words after the last one
+		if( group >= groups )
+		{
+			int gap = group - groups;
+			if( !hasRoom( (0 == gap) ? 1 : 2 ) )
+			{
+				return false;
+			}
+			if( 0 != gap )
+			{
+				appendWord( fill( false, gap ), groups );
+			}
+			appendWord( bit, group );
+			setGroupsInPage( group + 1 );
+			return true;
+		}
+
+		int[] start = new int[1];
+		int i = findWord( group, start );
+		int word = getWord( i );
+		if( 0 == (word & FILL_BIT) )
+		{
+			word |= bit;
+			if( (LITERAL_BITS == word) && (i == n-1) )
+			{
+				//a last literal of all 1s joins a fill of 1s before it
+				if( (i > 0) && isFill( getWord(i-1), true ) )
+				{
+					setWord( i-1, getWord(i-1) + 1 );
+					setWordCount( n - 1 );
+				}
+				else
+				{
+					setWord( i, fill( true, 1 ) );
+				}
+			}
+			else
+			{
+				setWord( i, word );
+			}
+			return true;
+		}
+		if( isFill( word, true ) )
+		{
+			return true;
+		}
+		return splitFill( i, start[0], group, false, bit );
+	}
+
+	/*
+	 * Clear the bit of a position, relative to the first position of
+	 * this page. Returns false, with the page unchanged, if the page has
+	 * no room for the words it takes.
+	 */
+	public boolean clearBit( int position )
+		throws IOException
+	{
+		int group = position / GROUP_BITS;
+		int bit = 1 << (position % GROUP_BITS);
+		if( group >= getGroupsInPage() )
+		{
+			return true;
+		}
+		int[] start = new int[1];
+		int i = findWord( group, start );
+		int word = getWord( i );
+		if( 0 == (word & FILL_BIT) )
+		{
+			setWord( i, word & ~bit );
+			return true;
+		}
+		if( isFill( word, false ) )
+		{
+			return true;
+		}
+		return splitFill( i, start[0], group, true, LITERAL_BITS & ~bit );
+	}
+
+	//cut a literal for a group out of the fill word i starting at start
+	private boolean splitFill( int i, int start, int group, boolean ones, int literal )
+		throws IOException
+	{
+		int count = groupsOf( getWord(i) );
+		int before = group - start;
+		int after = start + count - group - 1;
+		int[] words = new int[3];
+		int k = 0;
+		if( before > 0 )
+		{
+			words[k++] = fill( ones, before );
+		}
+		words[k++] = literal;
+		if( after > 0 )
+		{
+			words[k++] = fill( ones, after );
+		}
+		if( !hasRoom( k - 1 ) )
+		{
+			return false;
+		}
+		replaceWord( i, words, k );
+		return true;
+	}
+
+	//check the bit of a position, relative to the first position of this page
+	public boolean checkBit( int position )
+		throws IOException
+	{
+		int group = position / GROUP_BITS;
+		if( group >= getGroupsInPage() )
+		{
+			return false;
+		}
+		int[] start = new int[1];
+		int word = getWord( findWord( group, start ) );
+		if( 0 == (word & FILL_BIT) )
+		{
+			return 0 != (word & (1 << (position % GROUP_BITS)));
+		}
+		return isFill( word, true );
+	}
+
+	/*
+	 * The first set position at or after the given one, relative to the
+	 * first position of this page, or -1 if there is none. Fills of 0s
+	 * are passed over whole, and a literal a word at a time.
+	 */
+	public int nextSetBit( int position )
+		throws IOException
+	{
+		int group = position / GROUP_BITS;
+		if( group >= getGroupsInPage() )
+		{
+			return -1;
+		}
+		int[] start = new int[1];
+		int i = findWord( group, start );
+		int s = start[0];
+		int n = getWordCount();
+		while( i < n )
+		{
+			int word = getWord( i );
+			int g = groupsOf( word );
+			if( 0 == (word & FILL_BIT) )
+			{
+				int bits = word;
+				if( s == group )
+				{
+					bits &= -1 << (position % GROUP_BITS);
+				}
+				if( 0 != bits )
+				{
+					return s * GROUP_BITS + Integer.numberOfTrailingZeros( bits );
+				}
+			}
+			else if( isFill( word, true ) )
+			{
+				return (s > group) ? s * GROUP_BITS : position;
+			}
+			s += g;
+			i++;
+		}
+		return -1;
+	}
+
+	/*
+	 * Split this page in two: the words from about the middle on move
+	 * to an empty page, which the caller links in after this one.
+	 * Returns the number of groups left on this page.
+	 */
+	public int splitInto( WBMPage other )
+		throws IOException
+	{
+		int n = getWordCount();
+		int m = n / 2;
+		int groups = 0;
+		for( int i = 0; i < m; i++ )
+		{
+			groups += groupsOf( getWord(i) );
+		}
+		int total = getGroupsInPage();
+		for( int i = m; i < n; i++ )
+		{
+			other.setWord( i - m, getWord(i) );
+		}
+		other.setWordCount( n - m );
+		other.setGroupsInPage( total - groups );
+		other.rebuildDirectory( 0 );
+		setWordCount( m );
+		setGroupsInPage( groups );
+		return groups;
+	}
+
+	/*
+	 * Add count groups of the given bits (0 or LITERAL_BITS for more than
+	 * one) after the last group of the page, for a list written in order.
+	 * A fill of the same bits as its last word grows, else a single group
+	 * is a literal and more are a fill. Returns false, with the page
+	 * unchanged, if a new word does not fit.
+	 */
+	boolean appendGroups( int bits, int count )
+		throws IOException
+	{
+		int n = getWordCount();
+		int groups = getGroupsInPage();
+		boolean fillBits = (0 == bits) || (LITERAL_BITS == bits);
+		if( fillBits && (0 < n) )
+		{
+			int last = getWord( n - 1 );
+			if( isFill( last, 0 != bits ) && (groupsOf( last ) + count <= FILL_COUNT) )
+			{
+				setWord( n - 1, last + count );
+				setGroupsInPage( groups + count );
+				return true;
+			}
+		}
+		if( !hasRoom( 1 ) )
+		{
+			return false;
+		}
+		appendWord( (1 == count) ? bits : fill( 0 != bits, count ), groups );
+		setGroupsInPage( groups + count );
+		return true;
+	}
+
+	//the number of set bits of this page, a popcount of each literal and
+	//the groups of each fill of 1s, less those whose positions, the first
+	//bit of this page being position base, are in deleted (null for none)
+	public int cardinality( BitSet deleted, int base )
+		throws IOException
+	{
+		int n = getWordCount();
+		int count = 0;
+		int position = base;
+		for( int i = 0; i < n; i++ )
+		{
+			int word = getWord( i );
+			int bits = groupsOf( word ) * GROUP_BITS;
+			if( 0 == (word & FILL_BIT) )
+			{
+				if( null != deleted )
+				{
+					for( int p = deleted.nextSetBit( position ); (p >= 0) && (p < position + bits); p = deleted.nextSetBit( p+1 ) )
+					{
+						word &= ~(1 << (p - position));
+					}
+				}
+				count += Integer.bitCount( word );
+			}
+			else if( isFill( word, true ) )
+			{
+				count += bits;
+				if( null != deleted )
+				{
+					for( int p = deleted.nextSetBit( position ); (p >= 0) && (p < position + bits); p = deleted.nextSetBit( p+1 ) )
+					{
+						count--;
+					}
+				}
+			}
+			position += bits;
+		}
+		return count;
+	}
+
+	//OR the bits of this page into a bitmap of 64-bit words, the first
+	//bit of this page going to the given position: a literal is ORed in
+	//whole and a fill of 1s sets its range at once
+	void orInto( long[] words, int base )
+		throws IOException
+	{
+		int n = getWordCount();
+		int position = base;
+		for( int i = 0; i < n; i++ )
+		{
+			int word = getWord( i );
+			int bits = groupsOf( word ) * GROUP_BITS;
+			if( 0 == (word & FILL_BIT) )
+			{
+				if( 0 != word )
+				{
+					BitmapPredicate.orBits( words, position, word, GROUP_BITS );
+				}
+			}
+			else if( isFill( word, true ) )
+			{
+				BitmapPredicate.setRange( words, position, position + bits );
+			}
+			position += bits;
+		}
+	}
+	
+	//Dump contents of a page in a formatted style
+	public void dumpPage()
+		throws IOException
+	{
+		System.out.println("Bitmap Page dump");
+		System.out.println("curPage = " + Convert.getIntValue(CUR_PAGE, data) );
+		System.out.println("nextPage = " + Convert.getIntValue(NEXT_PAGE, data));
+		System.out.println("prevPage = " + Convert.getIntValue(PREV_PAGE, data));
+		System.out.print("BITMAP: " );
+		int n = getWordCount();
+		for( int i = 0; i < n; i++ )
+		{
+			if( 0 == (i % 8) )
+			{
+				System.out.println("");
+			}
+			int word = getWord( i );
+			if( 0 == (word & FILL_BIT) )
+			{
+				System.out.print("[ " + Integer.toBinaryString(word) + " ] ");
+			}
+			else
+			{
+				System.out.print("[ " + (isFill(word, true) ? 1 : 0) + "|" + groupsOf(word) + " ] ");
+			}
+		}
+		System.out.println("");
+		System.out.println("");
+	}
+}
@@ -423,7 +423,7 @@ public class BTIndexPage extends BTSortedPage{
 	boolean st;
 	if (direction==-1) { // 'this' is the left sibling of indexPage
 	  if (( getSlotLength(getSlotCnt()-1) + available_space()) > 
-	      ( (MAX_SPACE-DPFIXED)/2) ) {
+	      ( (SystemDefs.JavabasePageSize-DPFIXED)/2) ) {
             // cannot spare a record for its underflow sibling
             return false;
 	  }
@@ -470,7 +470,7 @@ public class BTIndexPage extends BTSortedPage{
 	  }
 	}
 	else { // 'this' is the right sibling of indexPage
-	  if ( (getSlotLength(0) + available_space()) > ((MAX_SPACE-DPFIXED)/2) ) {
+	  if ( (getSlotLength(0) + available_space()) > ((SystemDefs.JavabasePageSize-DPFIXED)/2) ) {
             // cannot spare a record for its underflow sibling
             return false;
 	  }
@@ -534,6 +534,100 @@ public class BTreeFile extends IndexFile
   
   
   
+  /** Builds the tree of an empty file from the bottom up, out of
+   * entries given in increasing key order: the leaves are filled one
+   * after the other, then each level of index pages over the one
+   * below, so no page is split and each is written once.
+   *@param keys the keys, in increasing order. Input parameter.
+   *@param rids the rid of each key. Input parameter.
+   *@param count the number of entries of keys and rids to load.
+   *@exception KeyTooLongException a key is longer than the max keysize
+   *@exception KeyNotMatchException a key is not of the type of the file
+   *@exception InsertException the file is not empty
+   *@exception LeafInsertRecException insert error in a leaf page
+   *@exception IndexInsertRecException insert error in an index page
+   *@exception ConstructPageException error in BT page constructor
+   *@exception UnpinPageException error when unpin a page
+   *@exception PinPageException error when pin a page
+   *@exception IOException error from the lower layer
+   */
+  public void bulkLoad(KeyClass[] keys, RID[] rids, int count)
+    throws KeyTooLongException,
+	   KeyNotMatchException,
+	   InsertException,
+	   LeafInsertRecException,
+	   IndexInsertRecException,
+	   ConstructPageException,
+	   UnpinPageException,
+	   PinPageException,
+	   IOException
+    {
+      if (headerPage.get_rootId().pid != INVALID_PAGE)
+	throw new InsertException(null, "bulkLoad: the tree is not empty");
+      if (count == 0)
+	return;
+
+      int keyType = headerPage.get_keyType();
+      for (int i = 0; i < count; i++) {
+	if (BT.getKeyLength(keys[i]) > headerPage.get_maxKeySize())
+	  throw new KeyTooLongException(null,"");
+	if ((keys[i] instanceof StringKey && keyType != AttrType.attrString)
+	    || (keys[i] instanceof IntegerKey && keyType != AttrType.attrInteger)
+	    || !(keys[i] instanceof StringKey || keys[i] instanceof IntegerKey))
+	  throw new KeyNotMatchException(null,"");
+      }
+
+      // the leaves; the first key and page of each leaf but the first
+      // go up to the level above
+      KeyClass[] upKeys = new KeyClass[count];
+      PageId[] upPages = new PageId[count];
+      int ups = 0;
+
+      BTLeafPage leaf = new BTLeafPage(keyType);
+      PageId leafId = new PageId(leaf.getCurPage().pid);
+      PageId firstPage = new PageId(leafId.pid);
+      for (int i = 0; i < count; i++) {
+	if (leaf.insertRecord(keys[i], rids[i]) == null) {
+	  BTLeafPage nextLeaf = new BTLeafPage(keyType);
+	  PageId nextId = new PageId(nextLeaf.getCurPage().pid);
+	  leaf.setNextPage(nextId);
+	  nextLeaf.setPrevPage(leafId);
+	  unpinPage(leafId, true /* = DIRTY */);
+	  leaf = nextLeaf;
+	  leafId = nextId;
+	  leaf.insertRecord(keys[i], rids[i]);
+	  upKeys[ups] = keys[i];
+	  upPages[ups++] = new PageId(leafId.pid);
+	}
+      }
+      unpinPage(leafId, true /* = DIRTY */);
+
+      // the index levels, each page with the leftmost of its children
+      // as its left link, until a level is a single page
+      while (ups > 0) {
+	int levelUps = 0;
+	BTIndexPage index = new BTIndexPage(keyType);
+	PageId indexId = new PageId(index.getCurPage().pid);
+	index.setPrevPage(firstPage);
+	firstPage = new PageId(indexId.pid);
+	for (int i = 0; i < ups; i++) {
+	  if (index.insertKey(upKeys[i], upPages[i]) == null) {
+	    unpinPage(indexId, true /* = DIRTY */);
+	    index = new BTIndexPage(keyType);
+	    indexId = new PageId(index.getCurPage().pid);
+	    index.setPrevPage(upPages[i]);
+	    upKeys[levelUps] = upKeys[i];
+	    upPages[levelUps++] = new PageId(indexId.pid);
+	  }
+	}
+	unpinPage(indexId, true /* = DIRTY */);
+	ups = levelUps;
+      }
+
+      updateHeader(firstPage);
+    }
+
+
   private KeyDataEntry  _insert(KeyClass key, RID rid,  
 				PageId currentPageId) 
     throws  PinPageException,  
@@ -1373,7 +1467,7 @@ public class BTreeFile extends IndexFile
 	    
 	    PageId leafPage_no=leafPage.getCurPage();     
 	    if ( (4+leafPage.available_space()) <= 
-		 ((MAX_SPACE-HFPage.DPFIXED)/2) ) { 
+		 ((SystemDefs.JavabasePageSize-HFPage.DPFIXED)/2) ) { 
 	      // the leaf page is at least half full after the deletion
 	      unpinPage(leafPage.getCurPage(), true /* = DIRTY */);
 	      return null;
@@ -1445,7 +1539,7 @@ public class BTreeFile extends IndexFile
 		return null;
               }
               else if ( (siblingPage.available_space() + 8 /* 2*sizeof(slot) */ ) >=
-			( (MAX_SPACE-HFPage.DPFIXED) 
+			( (SystemDefs.JavabasePageSize-HFPage.DPFIXED) 
 			  - leafPage.available_space())) {
 		
 		// we can merge these two children
@@ -1602,7 +1696,7 @@ public class BTreeFile extends IndexFile
 	
 	// now we know the current index page is not a root
 	if ((4 /*sizeof slot*/ +indexPage.available_space()) <= 
-	    ((MAX_SPACE-HFPage.DPFIXED)/2)) {
+	    ((SystemDefs.JavabasePageSize-HFPage.DPFIXED)/2)) {
 	  // the index page is at least half full after the deletion
 	  unpinPage(currentPageId,true);
 	  
@@ -1664,7 +1758,7 @@ public class BTreeFile extends IndexFile
 	    return null;
 	  }
 	  else if ( siblingPage.available_space()+4 /*slot size*/ >=
-		    ( (MAX_SPACE-HFPage.DPFIXED) - 
+		    ( (SystemDefs.JavabasePageSize-HFPage.DPFIXED) - 
 		      (indexPage.available_space()+4 /*slot size*/)
 		      +pushKeySize+4 /*slot size*/ + 4 /* pageId size*/)  ) { 
             
@@ -0,0 +1,241 @@
+/* File ARC.java */
+
+package bufmgr;
+
+import java.util.*;
+import diskmgr.*;
+import global.*;
+
+  /**
+   * class ARC is a subclass of class Replacer using the Adaptive
+   * Replacement Cache algorithm (Megiddo and Modha) for page
+   * replacement.
+   * Resident pages seen once since they were read sit in T1, pages
+   * seen again in T2, both in least recently used order.  The ghost
+   * lists B1 and B2 remember the pids last evicted from each, and a
+   * hit on a ghost moves the target size p of T1 towards whichever
+   * list would have kept the page.  Scans only ever fill T1, so the
+   * frequently used pages in T2 survive them.
+   */
+class ARC extends Replacer {
+
+  /**
+   * private fields
+   * resident frames, least recently used first
+   */
+  private LinkedHashSet<Integer> t1, t2;
+
+  /**
+   * private fields
+   * pids evicted from T1 and T2, least recently evicted first
+   */
+  private LinkedHashSet<Integer> b1, b2;
+
+  /**
+   * private field
+   * unpinned frames holding no page, on neither T1 nor T2
+   */
+  private LinkedHashSet<Integer> free;
+
+  /**
+   * private field
+   * target size of T1, adapted between 0 and the number of frames
+   */
+  private int p;
+
+  private int numBuffers;
+
+  /**
+   * Calling super class the same method
+   * Initializing the lists for the number of buffer allocated
+   * by buffer manager
+   *
+   * @param	mgr	a BufMgr object
+   * @see	BufMgr
+   * @see	Replacer
+   */
+  public void setBufferManager( BufMgr mgr )
+  {
+    super.setBufferManager(mgr);
+    numBuffers = mgr.getNumBuffers();
+    t1 = new LinkedHashSet<Integer>();
+    t2 = new LinkedHashSet<Integer>();
+    b1 = new LinkedHashSet<Integer>();
+    b2 = new LinkedHashSet<Integer>();
+    free = new LinkedHashSet<Integer>();
+    for (int f = 0; f < numBuffers; f++)
+      free.add(f);
+    p = 0;
+  }
+
+/* public methods */
+
+  /**
+   * Class constructor
+   */
+  public ARC(BufMgr mgrArg)
+  {
+    super(mgrArg);
+  }
+
+  /**
+   * calll super class the same method
+   * pin the page in the given frame number;
+   * a hit moves the page to the most recently used end of T2
+   *
+   * @param	 frameNo	 the frame number to pin
+   * @exception  InvalidFrameNumberException
+   */
+  public void pin(int frameNo) throws InvalidFrameNumberException
+  {
+    super.pin(frameNo);
+    if (t1.remove(frameNo) || t2.remove(frameNo))
+      t2.add(frameNo);
+    else
+      free.remove(frameNo);
+  }
+
+  /**
+   * calll super class the same method
+   * unpin the page in the given frame number; a frame pick_victim
+   * gave out that got no page goes back to the free frames
+   *
+   * @param	 frameNo	 the frame number to unpin
+   * @exception  InvalidFrameNumberException
+   * @exception  PageUnpinnedException
+   */
+  public boolean unpin(int frameNo) throws InvalidFrameNumberException, PageUnpinnedException
+  {
+    boolean bst = super.unpin(frameNo);
+    if (state_bit[frameNo].state != Pinned && !t1.contains(frameNo) && !t2.contains(frameNo))
+      free.add(frameNo);
+    return bst;
+  }
+
+  /**
+   * A new page is in the frame.  A ghost hit adapts p and admits the
+   * page straight to T2; otherwise it joins T1.
+   *
+   * @param	frameNo	the frame number
+   * @param	pid	page now held by the frame
+   */
+  public void loaded(int frameNo, int pid)
+  {
+    if (b1.contains(pid)) {
+      p = Math.min(numBuffers, p + Math.max(b2.size() / b1.size(), 1));
+      b1.remove(pid);
+      t2.add(frameNo);
+    }
+    else if (b2.contains(pid)) {
+      p = Math.max(0, p - Math.max(b1.size() / b2.size(), 1));
+      b2.remove(pid);
+      t2.add(frameNo);
+    }
+    else {
+      t1.add(frameNo);
+      // keep the directory to c pages on the T1 side and 2c overall
+      if (t1.size() + b1.size() > numBuffers && !b1.isEmpty())
+	b1.remove(b1.iterator().next());
+      if (t1.size() + t2.size() + b1.size() + b2.size() > 2 * numBuffers && !b2.isEmpty())
+	b2.remove(b2.iterator().next());
+    }
+  }
+
+  /**
+   * Frees the frame and moves it from its list to the free frames.
+   *
+   * @param	frameNo	the frame number
+   * @exception PagePinnedException
+   */
+  public void free(int frameNo) throws PagePinnedException
+  {
+    super.free(frameNo);
+    t1.remove(frameNo);
+    t2.remove(frameNo);
+    free.add(frameNo);
+  }
+
+  /**
+   * @return the least recently used unpinned frame of the list, -1 if none
+   */
+  private int lruUnpinned(LinkedHashSet<Integer> list)
+  {
+    for (Integer f : list)
+      if (state_bit[f].state != Pinned)
+	return f;
+    return -1;
+  }
+
+  /**
+   * Finding a free frame in the buffer pool
+   * or choosing a page to replace using ARC policy
+   *
+   * @return 	return the frame number
+   * @exception BufferPoolExceededException if every frame is pinned
+   */
+  public int pick_victim() throws BufferPoolExceededException
+  {
+    FrameDesc frames[] = mgr.frameTable();
+    int victim = -1;
+
+    // a free frame holds no page
+    if (!free.isEmpty()) {
+      victim = free.iterator().next();
+      free.remove(victim);
+    }
+    else {
+      // REPLACE: evict from T1 while it is over its target size
+      boolean fromT1 = !t1.isEmpty() && t1.size() > p;
+      victim = lruUnpinned(fromT1 ? t1 : t2);
+      if (victim < 0) {
+	fromT1 = !fromT1;
+	victim = lruUnpinned(fromT1 ? t1 : t2);
+      }
+      if (victim < 0)
+	throw new BufferPoolExceededException (null, "BUFMGR: BUFFER_EXCEEDED.");
+
+      int pid = frames[victim].pageNo.pid;
+      if (fromT1) {
+	t1.remove(victim);
+	if (pid != INVALID_PAGE)
+	  b1.add(pid);
+      }
+      else {
+	t2.remove(victim);
+	if (pid != INVALID_PAGE)
+	  b2.add(pid);
+      }
+      if (b1.size() > numBuffers)
+	b1.remove(b1.iterator().next());
+      if (b2.size() > numBuffers)
+	b2.remove(b2.iterator().next());
+    }
+
+    state_bit[victim].state = Pinned;
+    frames[victim].pin();
+    return victim;
+  }
+
+  /**
+   * get the page replacement policy name
+   *
+   * @return	return the name of replacement policy used
+   */
+  public String name() { return "ARC"; }
+
+  /**
+   * print out the information of frame usage
+   */
+  public void info()
+  {
+    super.info();
+
+    System.out.println( "ARC REPLACEMENT, p = " + p);
+    System.out.println( "T1:\t" + t1);
+    System.out.println( "T2:\t" + t2);
+    System.out.println( "B1:\t" + b1);
+    System.out.println( "B2:\t" + b2);
+    System.out.println( "free:\t" + free);
+  }
+
+}
@@ -0,0 +1,168 @@
+/* File BufHashTbl.java */
+
+package bufmgr;
+
+import global.*;
+
+/** A buffer hashtable entry description class. It describes 
+ * each entry for the buffer hash table, the page number and 
+ * frame number for that page, the pointer points to the next
+ * hash table entry.
+ */
+class BufHTEntry {
+  /** The next entry in this hashtable bucket. */
+  public BufHTEntry next;     
+  
+  /** This page number. */
+  public PageId pageNo = new PageId(); 
+  
+  /** The frame we are stored in. */
+  public int frameNo;  
+}
+
+
+// *****************************************************
+
+/** A buffer hashtable to keep track of pages in the buffer pool. 
+ * It inserts, retrieves and removes pages from the h ash table. 
+ * BufMgr now uses BufPageTable; this chained table is kept for
+ * comparison (see tests/PageTableTest).
+ */
+public class BufHashTbl implements GlobalConst{
+  
+  
+  /** Hash Table size, small number for debugging. */
+  private static final int HTSIZE = 20;   
+  
+  
+  /** Each slot holds a linked list of BufHTEntrys, NULL means 
+   * none. 
+   */
+  private BufHTEntry ht[] = new BufHTEntry[HTSIZE];       
+  
+  
+  /** Returns the number of hash bucket used, value between 0 and HTSIZE-1
+   *
+   * @param pageNo the page number for the page in file.
+   * @return the bucket number in the hash table.
+   */
+  private int hash(PageId pageNo)
+    {
+      return (pageNo.pid % HTSIZE);
+    }
+  
+  
+  /** Creates a buffer hash table object. */
+  public BufHashTbl()
+    {
+      for (int i=0; i < HTSIZE; i++)
+	ht[i] = null;
+    }
+  
+  
+  /** Insert association between page pageNo and frame frameNo 
+   * into the hash table.
+   *
+   * @param pageNo page number in the bucket.
+   * @param frameNo frame number in the bucket.
+   * @return true if successful.
+   */
+  public boolean insert(PageId pageNo, int frameNo)
+    {
+      
+      BufHTEntry ent = new BufHTEntry();
+      int index = hash(pageNo);
+      
+      ent.pageNo.pid = pageNo.pid;
+      ent.frameNo = frameNo;
+      
+      ent.next = ht[index];    // insert this page at the top
+      ht[index] = ent;
+      
+      return true;
+    }
+  
+  
+  /** Find a page in the hashtable, return INVALID_PAGE
+   * on failure, otherwise the frame number.
+   * @param pageNo page number in the bucket.
+   */
+  public int lookup(PageId pageNo)
+    {
+      
+      BufHTEntry ent;
+      if (pageNo.pid == INVALID_PAGE)
+        return INVALID_PAGE;
+      
+      for (ent=ht[hash(pageNo)]; ent!=null; ent=ent.next) {
+        if (ent.pageNo.pid == pageNo.pid) {
+	  return(ent.frameNo);
+        }
+      }
+      
+      return(INVALID_PAGE);
+      
+    }
+  
+  /** Remove the page from the hashtable.
+   * @param pageNo page number of the bucket.
+   */
+  public boolean remove(PageId pageNo)
+    {
+      
+      BufHTEntry cur, prev = null;
+      
+      // Allow INVALID_PAGE to be removed all they want.
+      if (pageNo.pid == INVALID_PAGE)
+	return true;
+      
+      int indx = hash(pageNo);
+      for (cur=ht[indx]; cur!=null; cur=cur.next) {
+	
+        if (cur.pageNo.pid == pageNo.pid)
+	  break;
+        prev = cur;
+      }
+      
+      if (cur != null) {
+        if (prev != null)
+	  prev.next = cur.next;
+        else
+	  ht[indx] = cur.next;
+	
+      } else {
+        System.err.println ("ERROR: Page " + pageNo.pid
+			    + " was not found in hashtable.\n");
+        
+	return false;
+      }
+      
+      return true;
+      
+    }
+  
+  /** Show hashtable contents. */
+  public void display() {
+    BufHTEntry cur;
+    
+    System.out.println("HASH Table contents :FrameNo[PageNo]");
+    
+    for (int i=0; i < HTSIZE; i++) {
+      //   System.out.println ( "\nindex: " + i + "-" );
+      if (ht[i] != null) {
+	
+	for (cur=ht[i]; cur!=null; cur=cur.next) {
+	  System.out.println(cur.frameNo + "[" + cur.pageNo.pid + "]-");
+	}
+	System.out.println("\t\t");
+	
+      } 
+      else {
+	System.out.println("NONE\t");
+      }
+    }
+    System.out.println("");
+    
+  }
+  
+}
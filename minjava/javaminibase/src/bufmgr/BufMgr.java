@@ -4,235 +4,11 @@ package bufmgr;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 import diskmgr.*;
 import global.*;
  
 
-/** A frame description class. It describes each page in the buffer
- * pool, the page number in the file, whether it is dirty or not,
- * its pin count, and the pin count change when pinning or unpinning 
- * a page.
- */
-class FrameDesc implements GlobalConst{
-  
-  /** The page within file, or INVALID_PAGE if the frame is empty. */
-  public PageId pageNo;     
-  
-  /** the dirty bit, 1 (TRUE) stands for this frame is altered,
-   *0 (FALSE) for clean frames.
-   */
-  public boolean dirty;     
-                         
-  /** The pin count for the page in this frame */
-  public int pin_cnt;   
-
-  /** Creates a FrameDesc object, initialize pageNo, dirty and 
-   * pin_count.
-   */
-  public FrameDesc() {
-  
-    pageNo = new PageId();
-    pageNo.pid = INVALID_PAGE;
-    dirty   = false;
-    pin_cnt = 0;
-    
-  }
-  
-  
-  
-  /** Returns the pin count of a certain frame page. 
-   *
-   * @return the pin count number.
-   */
-  public int pin_count() { return(pin_cnt); }
-  
-  /** Increments the pin count of a certain frame page when the
-   * page is pinned.
-   *
-   * @return the incremented pin count.
-   */
-  public int pin() { return(++pin_cnt); }
-  
-  /** Decrements the pin count of a frame when the page is 
-   * unpinned.  If the pin count is equal to or less than
-   * zero, the pin count will be zero.
-   *
-   * @return the decremented pin count.
-   */
-  public int unpin() {
-    
-    pin_cnt = (pin_cnt <= 0) ? 0 : pin_cnt - 1;
-    
-    return(pin_cnt);
-  }
-}
-
-
-// *****************************************************
-
-/** A buffer hashtable entry description class. It describes 
- * each entry for the buffer hash table, the page number and 
- * frame number for that page, the pointer points to the next
- * hash table entry.
- */
-class BufHTEntry {
-  /** The next entry in this hashtable bucket. */
-  public BufHTEntry next;     
-  
-  /** This page number. */
-  public PageId pageNo = new PageId(); 
-  
-  /** The frame we are stored in. */
-  public int frameNo;  
-}
-
-
-// *****************************************************
-
-/** A buffer hashtable to keep track of pages in the buffer pool. 
- * It inserts, retrieves and removes pages from the h ash table. 
- */
-class BufHashTbl implements GlobalConst{
-  
-  
-  /** Hash Table size, small number for debugging. */
-  private static final int HTSIZE = 20;   
-  
-  
-  /** Each slot holds a linked list of BufHTEntrys, NULL means 
-   * none. 
-   */
-  private BufHTEntry ht[] = new BufHTEntry[HTSIZE];       
-  
-  
-  /** Returns the number of hash bucket used, value between 0 and HTSIZE-1
-   *
-   * @param pageNo the page number for the page in file.
-   * @return the bucket number in the hash table.
-   */
-  private int hash(PageId pageNo)
-    {
-      return (pageNo.pid % HTSIZE);
-    }
-  
-  
-  /** Creates a buffer hash table object. */
-  public BufHashTbl()
-    {
-      for (int i=0; i < HTSIZE; i++)
-	ht[i] = null;
-    }
-  
-  
-  /** Insert association between page pageNo and frame frameNo 
-   * into the hash table.
-   *
-   * @param pageNo page number in the bucket.
-   * @param frameNo frame number in the bucket.
-   * @return true if successful.
-   */
-  public boolean insert(PageId pageNo, int frameNo)
-    {
-      
-      BufHTEntry ent = new BufHTEntry();
-      int index = hash(pageNo);
-      
-      ent.pageNo.pid = pageNo.pid;
-      ent.frameNo = frameNo;
-      
-      ent.next = ht[index];    // insert this page at the top
-      ht[index] = ent;
-      
-      return true;
-    }
-  
-  
-  /** Find a page in the hashtable, return INVALID_PAGE
-   * on failure, otherwise the frame number.
-   * @param pageNo page number in the bucket.
-   */
-  public int lookup(PageId pageNo)
-    {
-      
-      BufHTEntry ent;
-      if (pageNo.pid == INVALID_PAGE)
-        return INVALID_PAGE;
-      
-      for (ent=ht[hash(pageNo)]; ent!=null; ent=ent.next) {
-        if (ent.pageNo.pid == pageNo.pid) {
-	  return(ent.frameNo);
-        }
-      }
-      
-      return(INVALID_PAGE);
-      
-    }
-  
-  /** Remove the page from the hashtable.
-   * @param pageNo page number of the bucket.
-   */
-  public boolean remove(PageId pageNo)
-    {
-      
-      BufHTEntry cur, prev = null;
-      
-      // Allow INVALID_PAGE to be removed all they want.
-      if (pageNo.pid == INVALID_PAGE)
-	return true;
-      
-      int indx = hash(pageNo);
-      for (cur=ht[indx]; cur!=null; cur=cur.next) {
-	
-        if (cur.pageNo.pid == pageNo.pid)
-	  break;
-        prev = cur;
-      }
-      
-      if (cur != null) {
-        if (prev != null)
-	  prev.next = cur.next;
-        else
-	  ht[indx] = cur.next;
-	
-      } else {
-        System.err.println ("ERROR: Page " + pageNo.pid
-			    + " was not found in hashtable.\n");
-        
-	return false;
-      }
-      
-      return true;
-      
-    }
-  
-  /** Show hashtable contents. */
-  public void display() {
-    BufHTEntry cur;
-    
-    System.out.println("HASH Table contents :FrameNo[PageNo]");
-    
-    for (int i=0; i < HTSIZE; i++) {
-      //   System.out.println ( "\nindex: " + i + "-" );
-      if (ht[i] != null) {
-	
-	for (cur=ht[i]; cur!=null; cur=cur.next) {
-	  System.out.println(cur.frameNo + "[" + cur.pageNo.pid + "]-");
-	}
-	System.out.println("\t\t");
-	
-      } 
-      else {
-	System.out.println("NONE\t");
-      }
-    }
-    System.out.println("");
-    
-  }
-  
-}
-
-// *****************************************************
-
 /** A clock algorithm for buffer pool replacement policy. 
  * It picks up the frame in the buffer pool to be replaced. 
  * This is the default replacement policy.
@@ -316,20 +92,49 @@ class Clock extends Replacer {
  */
 public class BufMgr implements GlobalConst{
   
-  /** The hash table, only allocated once. */
-  private BufHashTbl hashTable = new BufHashTbl(); 
+  /** The page table, only allocated once, sized to the pool. */
+  private BufPageTable hashTable;
   
   /** Total number of buffer frames in the buffer pool. */
   private int  numBuffers;	
   
+  /** pinPage calls served from / not found in the buffer pool. */
+  private int hitCount, missCount;
+  
+  /** Pages a scan may ask to have read ahead (see prefetchPages), for
+   * callers that turn read-ahead on with setReadAhead.
+   */
+  public static final int DEFAULT_READ_AHEAD = 8;
+  
+  /** Most pages one prefetchPages call reads, 0 (the default) turns
+   * read-ahead off.
+   */
+  private int readAhead;
+  
+  /** Pages read by prefetchPages since the last resetHitCounts. */
+  private int prefetchCount;
+  
+  /** Share of the pool, in percent, startCleaner keeps clean by default. */
+  public static final int DEFAULT_CLEAN_PERCENT = 10;
+  
+  /** The background page cleaner, null when it is not running. */
+  private PageCleaner cleaner;
+  
+  /** Pages written by the buffer manager itself since the last
+   * resetWriteCounts, as opposed to by the cleaner. */
+  private AtomicInteger syncWrites = new AtomicInteger();
+  
   /** physical buffer pool. */
-  private byte[][] bufPool;  // default = byte[NUMBUF][MAX_SPACE];
+  byte[][] bufPool;  // default = byte[NUMBUF][JavabasePageSize];
+  
+  /** the frames when they are off-heap, in place of bufPool, else null */
+  FrameArena arena;
                          
   /** An array of Descriptors one per frame. */
-  private FrameDesc[] frmeTable;  // default = new FrameDesc[NUMBUF];
+  FrameDesc[] frmeTable;  // default = new FrameDesc[NUMBUF];
   
-  /** The replacer object, which is only used in this class. */
-  private Replacer replacer;
+  /** The replacer object, only used in this package. */
+  Replacer replacer;
   
   
   /** Factor out the common code for the two versions of Flush 
@@ -357,6 +162,9 @@ public class BufMgr implements GlobalConst{
       int i;
       int unpinned = 0;
       
+      if (cleaner != null)
+	cleaner.drain();
+      
       for (i=0; i < numBuffers; i++)   // write all valid dirty pages to disk
 	if ( (all_pages !=0) || (frmeTable[i].pageNo.pid == pageid.pid)) {
 	  
@@ -371,7 +179,7 @@ public class BufMgr implements GlobalConst{
 	    pageid.pid = frmeTable[i].pageNo.pid;
 	    
 	    
-	    Page apage = new Page(bufPool[i]);
+	    Page apage = framePage(i);
 	    
 	    write_page(pageid, apage);
 	    
@@ -409,11 +217,32 @@ public class BufMgr implements GlobalConst{
    */
   public BufMgr( int numbufs, String replacerArg )
   	
+    {
+      this(numbufs, replacerArg, false);
+    }
+  
+  
+  /** 
+   * Create a buffer manager object, whose frames are slices of one
+   * direct ByteBuffer, out of the Java heap, if offHeap is true (see
+   * FrameArena).  The DB reads and writes such frames with no byte
+   * array in between, and HFPage works on them in place.
+   *
+   * @param numbufs number of buffers in the buffer pool.
+   * @param replacerArg name of the buffer replacement policy.
+   * @param offHeap true for off-heap frames.
+   */
+  public BufMgr( int numbufs, String replacerArg, boolean offHeap )
+  	
     {
       
       numBuffers = numbufs;  
+      hashTable = new BufPageTable(numBuffers);
       frmeTable = new FrameDesc[numBuffers];
-      bufPool = new byte[numBuffers][MAX_SPACE];
+      if (offHeap)
+	arena = new FrameArena(numBuffers, SystemDefs.JavabasePageSize);
+      else
+	bufPool = new byte[numBuffers][SystemDefs.JavabasePageSize];
       frmeTable = new FrameDesc[numBuffers];
       
       for (int i=0; i<numBuffers; i++)  // initialize frameTable
@@ -440,6 +269,21 @@ public class BufMgr implements GlobalConst{
 	    replacer = new LRU(this);
 	    System.err.println("Replacer: MRU\n");
 	  }
+	else if(replacerArg.compareTo("LRU-K")==0)
+	  {
+	    replacer = new LRUK(this);
+	    System.err.println("Replacer: LRU-K\n");
+	  }
+	else if(replacerArg.compareTo("2Q")==0)
+	  {
+	    replacer = new TwoQ(this);
+	    System.err.println("Replacer: 2Q\n");
+	  }
+	else if(replacerArg.compareTo("ARC")==0)
+	  {
+	    replacer = new ARC(this);
+	    System.err.println("Replacer: ARC\n");
+	  }
 	else
 	  {
 	    replacer = new Clock(this);
@@ -500,12 +344,17 @@ public class BufMgr implements GlobalConst{
       
       if (frameNo < 0) {           // Not in the buffer pool
 	
+	missCount++;
+	if (cleaner != null)
+	  cleaner.runAhead();
 	frameNo = replacer.pick_victim(); // frameNo is pinned
 	if (frameNo < 0) { 
 	  page = null; 
 	  throw new ReplacerException (null, "BUFMGR: REPLACER_ERROR.");  
 	  
 	}
+	if (arena != null)
+	  arena.release(frameNo);
 	
 	if ((frmeTable[frameNo].pageNo.pid != INVALID_PAGE)
 	    && (frmeTable[frameNo].dirty == true) ) {
@@ -525,12 +374,13 @@ public class BufMgr implements GlobalConst{
 	
 	(frmeTable[frameNo].pageNo).pid = pin_pgid.pid;
 	frmeTable[frameNo].dirty = false;
+	replacer.loaded(frameNo, pin_pgid.pid);
 	
 	if (bst2 != true){	
 	  throw new HashOperationException (null, "BUFMGR: HASH_TABLE_ERROR.");
 	}
 	
-	Page apage = new Page(bufPool[frameNo]);
+	Page apage = framePage(frameNo);
 	if (needwrite == 1) {	
 	  write_page(oldpageNo, apage);	 	
 	} // end of needwrite..
@@ -538,8 +388,6 @@ public class BufMgr implements GlobalConst{
 	// read in the page if not empty
 	if (emptyPage == false){
 	  try {
-	    apage.setpage(bufPool[frameNo]);
-	    
 	    read_page(pin_pgid, apage);
 	  }
 	  catch (Exception e) {
@@ -562,13 +410,14 @@ public class BufMgr implements GlobalConst{
 	  
 	}
 	
-        page.setpage(bufPool[frameNo]);
+        bindPage(page, frameNo);
 	
         // return true;
 	
       } else {    // the page is in the buffer pool ( frameNo > 0 )
 	
-	page.setpage(bufPool[frameNo]);
+	hitCount++;
+	bindPage(page, frameNo);
 	replacer.pin(frameNo);
 	
       }
@@ -615,6 +464,10 @@ public class BufMgr implements GlobalConst{
       if (dirty == true)
 	frmeTable[frameNo].dirty = dirty;
       
+      // unpinned, an off-heap frame takes back its heap view
+      if (arena != null && frmeTable[frameNo].pin_count() == 0)
+	arena.release(frameNo);
+      
     }
   
   
@@ -733,6 +586,8 @@ public class BufMgr implements GlobalConst{
       catch(Exception e1){
 	throw new ReplacerException(e1, "BUFMGR, REPLACER_ERROR");
       }
+      if (arena != null)
+	arena.release(frameNo);
       
       try {
 	hashTable.remove(frmeTable[frameNo].pageNo);
@@ -799,6 +654,256 @@ public class BufMgr implements GlobalConst{
    */
   public int getNumBuffers() { return numBuffers; }
   
+  /** Gets the number of pinPage calls that found the page in the pool
+   * since the last resetHitCounts.
+   */
+  public int getHitCount() { return hitCount; }
+  
+  /** Gets the number of pinPage calls that had to bring the page in
+   * since the last resetHitCounts.
+   */
+  public int getMissCount() { return missCount; }
+  
+  /** Resets the hit, miss and read-ahead counts. */
+  public void resetHitCounts() { hitCount = 0; missCount = 0; prefetchCount = 0; }
+  
+  /** Gets the number of pages read ahead by prefetchPages
+   * since the last resetHitCounts.
+   */
+  public int getPrefetchCount() { return prefetchCount; }
+  
+  /** Gets the most pages a scan should pass to prefetchPages. */
+  public int getReadAhead() { return readAhead; }
+  
+  /** Sets the most pages a scan should pass to prefetchPages, at most
+   * a quarter of the pool so that read-ahead cannot flush it.
+   *
+   * @param pages number of pages, 0 turns read-ahead off.
+   */
+  public void setReadAhead(int pages)
+    {
+      readAhead = Math.max(0, Math.min(pages, numBuffers / 4));
+    }
+  
+  /** Tells whether the frames are off-heap (see FrameArena). */
+  public boolean isOffHeap() { return arena != null; }
+  
+  /** Gets the number of times an off-heap frame was copied into a
+   * heap view, for a page user that needed it as a byte array, since
+   * the last resetFrameViewCount.
+   */
+  public int getFrameViewCount()
+    {
+      return arena == null ? 0 : arena.getViewCount();
+    }
+  
+  /** Resets the frame view count. */
+  public void resetFrameViewCount()
+    {
+      if (arena != null)
+	arena.resetViewCount();
+    }
+  
+  /** Gets the name of the replacement policy in use. */
+  public String getReplacerName() { return replacer.name(); }
+  
+  
+  /** Starts the background page cleaner: from now on, on every miss
+   * the dirty unpinned frames just ahead of the clock hand are handed
+   * to a cleaner thread, which writes them out, runs of consecutive
+   * pages at a time, so that the replacer mostly finds clean victims.
+   * Does nothing if the cleaner is already running.
+   *
+   * @param cleanPercent share of the pool to keep clean, 1 to 100.
+   */
+  public void startCleaner(int cleanPercent)
+    {
+      if (cleaner == null)
+	cleaner = new PageCleaner(this, Math.max(1, Math.min(cleanPercent, 100)));
+    }
+  
+  /** Writes what the cleaner holds and stops it.
+   *
+   * @exception BufMgrException if a background write failed.
+   */
+  public void stopCleaner()
+    throws BufMgrException
+    {
+      if (cleaner != null) {
+	PageCleaner c = cleaner;
+	cleaner = null;
+	c.stop();
+      }
+    }
+  
+  /** Tells whether the background page cleaner is running. */
+  public boolean isCleanerRunning() { return cleaner != null; }
+  
+  /** Gets the number of pages the buffer manager wrote itself, to
+   * free a frame or to flush, since the last resetWriteCounts.
+   */
+  public int getSyncWriteCount() { return syncWrites.get(); }
+  
+  /** Gets the number of pages written by the background cleaner
+   * since the last resetWriteCounts.
+   */
+  public int getBackgroundWriteCount()
+    {
+      return cleaner == null ? 0 : cleaner.getPagesWritten();
+    }
+  
+  /** Gets the number of write calls the background cleaner made since
+   * the last resetWriteCounts; each writes a run of pages.
+   */
+  public int getBackgroundWriteCalls()
+    {
+      return cleaner == null ? 0 : cleaner.getWriteCalls();
+    }
+  
+  /** Resets the synchronous and background write counts. */
+  public void resetWriteCounts()
+    {
+      syncWrites.set(0);
+      if (cleaner != null)
+	cleaner.resetCounts();
+    }
+  
+  
+  /** Read-ahead hint from a sequential scan: brings into the pool
+   * those of the given pages that are not there yet and leaves them
+   * unpinned, so that the scan finds them when it pins them.  The
+   * pages are sorted and each run of consecutive page numbers is read
+   * with one DB.read_pages call.  A hint never fails: if no frame is
+   * free or a read goes wrong, read-ahead stops there and the page is
+   * read (and the error reported) when it is pinned.
+   *
+   * @param pageIds pages the scan is about to read.
+   * @param count number of entries of pageIds to use, at most
+   *        getReadAhead() of them are read.
+   */
+  public void prefetchPages(PageId[] pageIds, int count)
+    {
+      int[] pids = missingPages(pageIds, Math.min(count, readAhead));
+      
+      for (int i = 0; i < pids.length; ) {
+	int j = i + 1;
+	while (j < pids.length && pids[j] == pids[j-1] + 1)
+	  j++;
+	if (!prefetchRun(pids, i, j))
+	  return;
+	i = j;
+      }
+    }
+  
+  
+  /** @return the sorted, distinct page numbers among the first count
+   * pageIds that are not in the buffer pool.
+   */
+  int[] missingPages(PageId[] pageIds, int count)
+    {
+      int[] pids = new int[Math.max(0, count)];
+      int n = 0;
+      for (int i = 0; i < count; i++)
+	if (pageIds[i].pid != INVALID_PAGE && lookupFrame(pageIds[i]) < 0)
+	  pids[n++] = pageIds[i].pid;
+      
+      Arrays.sort(pids, 0, n);
+      int m = 0;
+      for (int i = 0; i < n; i++)
+	if (m == 0 || pids[i] != pids[m-1])
+	  pids[m++] = pids[i];
+      return Arrays.copyOf(pids, m);
+    }
+  
+  
+  /** @return the frame of a page, INVALID_PAGE if it is not in the pool. */
+  int lookupFrame(PageId pageno)
+    {
+      return hashTable.lookup(pageno);
+    }
+  
+  
+  /** Reads pids[from .. to-1], consecutive page numbers, into frames
+   * of their own with one read.
+   *
+   * @return false if read-ahead should stop.
+   */
+  private boolean prefetchRun(int[] pids, int from, int to)
+    {
+      int len = to - from;
+      int[] frames = new int[len];
+      int got = 0;
+      
+      // take a frame for each page and enter it in the page table
+      while (got < len) {
+	int frameNo;
+	try {
+	  frameNo = replacer.pick_victim(); // frameNo is pinned
+	}
+	catch (Exception e) {
+	  break;
+	}
+	
+	FrameDesc frame = frmeTable[frameNo];
+	if (frame.pageNo.pid != INVALID_PAGE) {
+	  try {
+	    if (frame.dirty)
+	      write_page(new PageId(frame.pageNo.pid), framePage(frameNo));
+	  }
+	  catch (Exception e) {
+	    try {
+	      replacer.unpin(frameNo);
+	    }
+	    catch (Exception e2) {
+	    }
+	    break;
+	  }
+	  hashTable.remove(frame.pageNo);
+	}
+	
+	frame.pageNo.pid = pids[from + got];
+	frame.dirty = false;
+	hashTable.insert(frame.pageNo, frameNo);
+	replacer.loaded(frameNo, frame.pageNo.pid);
+	frames[got++] = frameNo;
+      }
+      
+      if (got == 0)
+	return false;
+      
+      Page[] pages = new Page[got];
+      for (int i = 0; i < got; i++)
+	pages[i] = framePage(frames[i]);
+      
+      boolean ok = true;
+      try {
+	read_pages(new PageId(pids[from]), pages, got);
+	prefetchCount += got;
+      }
+      catch (Exception e) {
+	ok = false;
+      }
+      
+      for (int i = 0; i < got; i++) {
+	FrameDesc frame = frmeTable[frames[i]];
+	try {
+	  if (ok) {
+	    replacer.unpin(frames[i]);
+	  }
+	  else {
+	    hashTable.remove(frame.pageNo);
+	    frame.pageNo.pid = INVALID_PAGE;
+	    replacer.free(frames[i]);
+	  }
+	}
+	catch (Exception e) {
+	  ok = false;
+	}
+      }
+      
+      return ok && got == len;
+    }
+  
   
   /** Gets the total number of unpinned buffer frames.
    * 
@@ -809,12 +914,60 @@ public class BufMgr implements GlobalConst{
       return replacer.getNumUnpinnedBuffers();
     }
   
+  /** @return a page over a frame, to read or write it whole. */
+  Page framePage(int frameNo)
+    {
+      return arena != null ? new Page(arena, frameNo) : new Page(bufPool[frameNo]);
+    }
+  
+  /** Points a pinned page at its frame. */
+  private void bindPage(Page page, int frameNo)
+    {
+      if (arena != null)
+	page.setFrame(arena, frameNo);
+      else
+	page.setpage(bufPool[frameNo]);
+    }
+  
+  /** @return a copy of the contents of a frame. */
+  byte[] copyFrame(int frameNo)
+    {
+      return arena != null ? arena.copy(frameNo) : bufPool[frameNo].clone();
+    }
+  
   /** A few routines currently need direct access to the FrameTable. */
   public   FrameDesc[] frameTable() { return frmeTable; }
-  
-  private void write_page (PageId pageno, Page page)
+
+  /** Latches the contents of a pinned page, shared for readers and
+   * exclusive for a writer.  With a single thread there is nothing
+   * to wait for; ConcurrentBufMgr keeps a latch per frame.
+   *
+   * @param pageno the page, which must be pinned by the caller.
+   * @param exclusive true to modify the page, false to read it.
+   * @exception HashEntryNotFoundException if the page is not in the pool.
+   */
+  public void latchPage(PageId pageno, boolean exclusive)
+    throws HashEntryNotFoundException
+    {
+    }
+
+  /** Releases a latch taken by latchPage.
+   *
+   * @param pageno the page.
+   * @param exclusive the mode the latch was taken in.
+   * @exception HashEntryNotFoundException if the page is not in the pool.
+   */
+  public void unlatchPage(PageId pageno, boolean exclusive)
+    throws HashEntryNotFoundException
+    {
+    }
+
+  void write_page (PageId pageno, Page page)
     throws BufMgrException {
     
+    if (cleaner != null)
+      cleaner.awaitPages(pageno.pid, 1);
+    syncWrites.incrementAndGet();
     try {
       SystemDefs.JavabaseDB.write_page(pageno, page);
     }
@@ -824,9 +977,11 @@ public class BufMgr implements GlobalConst{
     
   } // end of write_page
 
-  private void read_page (PageId pageno, Page page)
+  void read_page (PageId pageno, Page page)
     throws BufMgrException {
     
+    if (cleaner != null)
+      cleaner.awaitPages(pageno.pid, 1);
     try {
       SystemDefs.JavabaseDB.read_page(pageno, page);
     }
@@ -848,7 +1003,21 @@ public class BufMgr implements GlobalConst{
     
   } // end of allocate_page 
 
-  private void deallocate_page (PageId pageno)
+  void read_pages (PageId first, Page[] pages, int count)
+    throws BufMgrException {
+    
+    if (cleaner != null)
+      cleaner.awaitPages(first.pid, count);
+    try {
+      SystemDefs.JavabaseDB.read_pages(first, pages, count);
+    }
+    catch (Exception e) {
+      throw new BufMgrException(e,"BufMgr.java: read_pages() failed");
+    }
+    
+  } // end of read_pages 
+
+  void deallocate_page (PageId pageno)
     throws BufMgrException {
     
     try {
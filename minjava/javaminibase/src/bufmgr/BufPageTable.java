@@ -0,0 +1,144 @@
+/* File BufPageTable.java */
+
+package bufmgr;
+
+import global.*;
+
+/** The buffer manager's page table: maps the pid of every page in the
+ * buffer pool to its frame.  It is an open-addressing hash table with
+ * linear probing over two int arrays, sized once from the number of
+ * buffers so that it is never more than half full.  Nothing is
+ * allocated after construction, and removal shifts the following run
+ * of entries back instead of leaving tombstones, so lookups stay short
+ * however many pages pass through the pool.
+ */
+public class BufPageTable implements GlobalConst {
+
+  /** pid stored in each slot, INVALID_PAGE for an empty slot. */
+  private int keys[];
+
+  /** frame number of the page in the same slot. */
+  private int frames[];
+
+  /** capacity - 1, the capacity being a power of two. */
+  private int mask;
+
+  /** 32 - log2(capacity), keeps the top bits of the hash product. */
+  private int shift;
+
+  /** Creates a page table for a pool of numBuffers frames.
+   *
+   * @param numBuffers number of frames in the buffer pool.
+   */
+  public BufPageTable(int numBuffers)
+    {
+      int capacity = 2;
+      shift = 31;
+      while (capacity < 2 * numBuffers) {
+	capacity <<= 1;
+	shift--;
+      }
+
+      keys = new int[capacity];
+      frames = new int[capacity];
+      mask = capacity - 1;
+
+      for (int i = 0; i < capacity; i++)
+	keys[i] = INVALID_PAGE;
+    }
+
+
+  /** Returns the home slot of a pid (Fibonacci hashing, so runs of
+   * consecutive pids spread over the whole table).
+   */
+  private int hash(int pid)
+    {
+      return (pid * 0x9E3779B9) >>> shift;
+    }
+
+
+  /** Insert association between page pageNo and frame frameNo
+   * into the page table, replacing any frame already recorded.
+   *
+   * @param pageNo page number.
+   * @param frameNo frame number.
+   * @return true if successful.
+   */
+  public boolean insert(PageId pageNo, int frameNo)
+    {
+      int i = hash(pageNo.pid);
+      while (keys[i] != INVALID_PAGE && keys[i] != pageNo.pid)
+	i = (i + 1) & mask;
+
+      keys[i] = pageNo.pid;
+      frames[i] = frameNo;
+      return true;
+    }
+
+
+  /** Find a page in the page table, return INVALID_PAGE
+   * on failure, otherwise the frame number.
+   * @param pageNo page number.
+   */
+  public int lookup(PageId pageNo)
+    {
+      if (pageNo.pid == INVALID_PAGE)
+        return INVALID_PAGE;
+
+      for (int i = hash(pageNo.pid); keys[i] != INVALID_PAGE; i = (i + 1) & mask) {
+	if (keys[i] == pageNo.pid)
+	  return frames[i];
+      }
+
+      return INVALID_PAGE;
+    }
+
+
+  /** Remove the page from the page table.
+   * @param pageNo page number.
+   */
+  public boolean remove(PageId pageNo)
+    {
+      // Allow INVALID_PAGE to be removed all they want.
+      if (pageNo.pid == INVALID_PAGE)
+	return true;
+
+      int i = hash(pageNo.pid);
+      while (keys[i] != pageNo.pid) {
+	if (keys[i] == INVALID_PAGE) {
+	  System.err.println ("ERROR: Page " + pageNo.pid
+			      + " was not found in hashtable.\n");
+	  return false;
+	}
+	i = (i + 1) & mask;
+      }
+
+      // Close the gap: move back every later entry of the run whose
+      // home slot is not between the gap and its current slot.
+      int gap = i;
+      for (int j = (gap + 1) & mask; keys[j] != INVALID_PAGE; j = (j + 1) & mask) {
+	int home = hash(keys[j]);
+	if (((j - home) & mask) >= ((j - gap) & mask)) {
+	  keys[gap] = keys[j];
+	  frames[gap] = frames[j];
+	  gap = j;
+	}
+      }
+      keys[gap] = INVALID_PAGE;
+
+      return true;
+    }
+
+
+  /** Show page table contents. */
+  public void display()
+    {
+      System.out.println("HASH Table contents :FrameNo[PageNo]");
+
+      for (int i = 0; i < keys.length; i++)
+	if (keys[i] != INVALID_PAGE)
+	  System.out.println(frames[i] + "[" + keys[i] + "]-");
+
+      System.out.println("");
+    }
+}
@@ -0,0 +1,706 @@
+/*  File ConcurrentBufMgr.java */
+
+package bufmgr;
+
+import java.io.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import diskmgr.*;
+import global.*;
+
+/** A buffer manager that several threads can use at once.
+ * <ul>
+ * <li>The page table is split into stripes by page number, each a
+ * BufPageTable under its own lock, so threads pinning different
+ * pages rarely wait for each other.
+ * <li>Pin counts are the atomic counts of FrameDesc.  A page is pinned
+ * under the lock of its stripe, and a frame is only evicted once its
+ * count has gone from 0 to 1 under the lock of the stripe of the page
+ * it holds, so a page cannot be pinned and evicted at the same time.
+ * <li>Each frame has a read/write latch.  The thread that reads a page
+ * in holds it exclusively, so other threads pinning the same page wait
+ * until the read is done.  Callers take it with latchPage to read or
+ * change a page that other threads may be using.
+ * <li>Victims are picked by ConcurrentClock, so "Clock" is the only
+ * replacement policy it takes.
+ * <li>A dirty victim is written with its stripe unlocked, pinned by
+ * the evicting thread and with its latch held exclusively, so misses
+ * on other pages of the stripe do not wait for the write.  Threads
+ * pinning the page meanwhile wait for the write and keep the page.
+ * </ul>
+ * Flushing writes the dirty pages but, unlike BufMgr, leaves them in
+ * the pool.
+ */
+public class ConcurrentBufMgr extends BufMgr {
+
+  /** One lock per page table stripe. */
+  private ReentrantLock[] stripes;
+
+  /** The page table of each stripe. */
+  private BufPageTable[] tables;
+
+  /** number of stripes - 1, the number being a power of two. */
+  private int stripeMask;
+
+  /** The content latch of each frame. */
+  private ReentrantReadWriteLock[] latches;
+
+  /** Frames whose dirty page tryEvict is writing, under the stripe
+   * lock of the page. */
+  private boolean[] evicting;
+
+  /** pinPage calls served from / not found in the buffer pool,
+   * pages read ahead. */
+  private AtomicInteger hits, misses, prefetches;
+
+  /**
+   * Create a concurrent buffer manager object.
+   *
+   * @param numbufs number of buffers in the buffer pool.
+   * @param replacerArg name of the buffer replacement policy, null or
+   *        "Clock".
+   * @param numStripes number of page table stripes, rounded up
+   *        to a power of two.
+   * @exception IllegalArgumentException for another replacement policy.
+   */
+  public ConcurrentBufMgr(int numbufs, String replacerArg, int numStripes)
+    {
+      super(numbufs, null);
+
+      if (replacerArg != null && replacerArg.compareTo("Clock") != 0)
+	throw new IllegalArgumentException("ConcurrentBufMgr: replacement policy "
+					   + replacerArg + " is not supported, only Clock");
+
+      int n = 1;
+      while (n < numStripes)
+	n <<= 1;
+      stripeMask = n - 1;
+      stripes = new ReentrantLock[n];
+      tables = new BufPageTable[n];
+      for (int i = 0; i < n; i++) {
+	stripes[i] = new ReentrantLock();
+	// a stripe may end up holding every frame
+	tables[i] = new BufPageTable(numbufs);
+      }
+
+      latches = new ReentrantReadWriteLock[numbufs];
+      for (int i = 0; i < numbufs; i++)
+	latches[i] = new ReentrantReadWriteLock();
+      evicting = new boolean[numbufs];
+
+      hits = new AtomicInteger();
+      misses = new AtomicInteger();
+      prefetches = new AtomicInteger();
+
+      replacer = new ConcurrentClock(this);
+      replacer.setBufferManager(this);
+      System.err.println("Replacer: Clock, " + n + " page table stripes\n");
+    }
+
+
+  /** Returns the stripe of a pid. */
+  private int stripe(int pid)
+    {
+      return ((pid * 0x9E3779B9) >>> 16) & stripeMask;
+    }
+
+
+  /** Check if this page is in buffer pool, otherwise
+   * find a frame for this page, read in and pin it.
+   * Same contract as BufMgr.pinPage.
+   *
+   * @param pin_pgid page number in the minibase.
+   * @param page the pointer poit to the page.
+   * @param emptyPage true (empty page); false (non-empty page)
+   *
+   * @exception ReplacerException if there is a replacer error.
+   * @exception HashOperationException if there is a hashtable error.
+   * @exception PageUnpinnedException if there is a page that is already unpinned.
+   * @exception InvalidFrameNumberException if there is an invalid frame number .
+   * @exception PageNotReadException if a page cannot be read.
+   * @exception BufferPoolExceededException if the buffer pool is full.
+   * @exception PagePinnedException if a page is left pinned .
+   * @exception BufMgrException other error occured in bufmgr layer
+   * @exception IOException if there is other kinds of I/O error.
+   */
+  public void pinPage(PageId pin_pgid, Page page, boolean emptyPage)
+    throws ReplacerException,
+	   HashOperationException,
+	   PageUnpinnedException,
+	   InvalidFrameNumberException,
+	   PageNotReadException,
+	   BufferPoolExceededException,
+	   PagePinnedException,
+	   BufMgrException,
+	   IOException
+    {
+      int frameNo = pinResident(pin_pgid);
+      if (frameNo >= 0) {
+	hits.incrementAndGet();
+	page.setpage(bufPool[frameNo]);
+	return;
+      }
+
+      misses.incrementAndGet();
+      frameNo = replacer.pick_victim(); // pinned, holds no page
+      FrameDesc frame = frmeTable[frameNo];
+      ReentrantReadWriteLock latch = latches[frameNo];
+      int s = stripe(pin_pgid.pid);
+      int other;
+
+      stripes[s].lock();
+      try {
+	other = tables[s].lookup(pin_pgid);
+	if (other >= 0) {
+	  // another thread brought the page in while we found a frame
+	  replacer.pin(other);
+	  frame.unpin();
+	}
+	else {
+	  frame.pageNo.pid = pin_pgid.pid;
+	  frame.dirty = false;
+	  latch.writeLock().lock();
+	  tables[s].insert(pin_pgid, frameNo);
+	  replacer.loaded(frameNo, pin_pgid.pid);
+	}
+      }
+      finally {
+	stripes[s].unlock();
+      }
+
+      if (other >= 0) {
+	hits.incrementAndGet();
+	waitForRead(other, pin_pgid);
+	page.setpage(bufPool[other]);
+	return;
+      }
+
+      try {
+	if (emptyPage == false)
+	  read_page(pin_pgid, new Page(bufPool[frameNo]));
+      }
+      catch (Exception e) {
+	stripes[s].lock();
+	try {
+	  tables[s].remove(pin_pgid);
+	  frame.pageNo.pid = INVALID_PAGE;
+	}
+	finally {
+	  stripes[s].unlock();
+	}
+	frame.unpin();
+	latch.writeLock().unlock();
+	throw new PageNotReadException (e, "BUFMGR: DB_READ_PAGE_ERROR.");
+      }
+
+      latch.writeLock().unlock();
+      page.setpage(bufPool[frameNo]);
+    }
+
+
+  /** Pins the page if it is in the pool.
+   *
+   * @return its frame, -1 if the page is not in the pool.
+   */
+  private int pinResident(PageId pin_pgid)
+    throws InvalidFrameNumberException,
+	   PageNotReadException
+    {
+      int s = stripe(pin_pgid.pid);
+      int frameNo;
+
+      stripes[s].lock();
+      try {
+	frameNo = tables[s].lookup(pin_pgid);
+	if (frameNo >= 0)
+	  replacer.pin(frameNo);
+      }
+      finally {
+	stripes[s].unlock();
+      }
+
+      if (frameNo >= 0)
+	waitForRead(frameNo, pin_pgid);
+      return frameNo;
+    }
+
+
+  /** Waits until the page pinned in the frame has been read in.
+   *
+   * @exception PageNotReadException if the read failed.
+   */
+  private void waitForRead(int frameNo, PageId pin_pgid)
+    throws PageNotReadException
+    {
+      latches[frameNo].readLock().lock();
+      latches[frameNo].readLock().unlock();
+
+      if (frmeTable[frameNo].pageNo.pid != pin_pgid.pid) {
+	frmeTable[frameNo].unpin();
+	throw new PageNotReadException (null, "BUFMGR: DB_READ_PAGE_ERROR.");
+      }
+    }
+
+
+  /** Called by ConcurrentClock for an unpinned frame: pins it and
+   * takes its page out of the pool, writing it first if dirty.  The
+   * write is done with the stripe unlocked; if the page was pinned or
+   * changed meanwhile it stays in the pool.
+   *
+   * @param frameNo the frame.
+   * @return true if the frame is now pinned and holds no page, false
+   *         if another thread got to it first.
+   * @exception BufMgrException if the dirty page could not be written.
+   */
+  boolean tryEvict(int frameNo)
+    throws BufMgrException
+    {
+      FrameDesc frame = frmeTable[frameNo];
+      int pid = frame.pageNo.pid;
+
+      if (pid == INVALID_PAGE) {
+	if (!frame.pin_cnt.compareAndSet(0, 1))
+	  return false;
+	// a page was read in and unpinned since we looked
+	if (frame.pageNo.pid == INVALID_PAGE)
+	  return true;
+	frame.unpin();
+	return false;
+      }
+
+      int s = stripe(pid);
+      stripes[s].lock();
+      try {
+	if (frame.pageNo.pid != pid || !frame.pin_cnt.compareAndSet(0, 1))
+	  return false;
+
+	if (!frame.dirty) {
+	  tables[s].remove(frame.pageNo);
+	  frame.pageNo.pid = INVALID_PAGE;
+	  return true;
+	}
+
+	// no one else has the page pinned, so its latch is free; a
+	// thread pinning it during the write waits on the latch
+	frame.dirty = false;
+	evicting[frameNo] = true;
+	latches[frameNo].writeLock().lock();
+      }
+      finally {
+	stripes[s].unlock();
+      }
+
+      try {
+	write_page(new PageId(pid), new Page(bufPool[frameNo]));
+      }
+      catch (BufMgrException e) {
+	stripes[s].lock();
+	try {
+	  frame.dirty = true;
+	  evicting[frameNo] = false;
+	}
+	finally {
+	  stripes[s].unlock();
+	}
+	latches[frameNo].writeLock().unlock();
+	frame.unpin();
+	throw e;
+      }
+      latches[frameNo].writeLock().unlock();
+
+      stripes[s].lock();
+      try {
+	evicting[frameNo] = false;
+	if (frame.pin_count() != 1 || frame.dirty) {
+	  frame.unpin();
+	  return false;
+	}
+	tables[s].remove(frame.pageNo);
+	frame.pageNo.pid = INVALID_PAGE;
+	return true;
+      }
+      finally {
+	stripes[s].unlock();
+      }
+    }
+
+
+  /**
+   * To unpin a page specified by a pageId.
+   * Same contract as BufMgr.unpinPage.
+   *
+   * @param PageId_in_a_DB page number in the minibase.
+   * @param dirty the dirty bit of the frame
+   *
+   * @exception ReplacerException if there is a replacer error.
+   * @exception PageUnpinnedException if there is a page that is already unpinned.
+   * @exception InvalidFrameNumberException if there is an invalid frame number .
+   * @exception HashEntryNotFoundException if there is no entry of page in the hash table.
+   */
+  public void unpinPage(PageId PageId_in_a_DB, boolean dirty)
+    throws ReplacerException,
+	   PageUnpinnedException,
+	   HashEntryNotFoundException,
+	   InvalidFrameNumberException
+    {
+      int s = stripe(PageId_in_a_DB.pid);
+
+      stripes[s].lock();
+      try {
+	int frameNo = tables[s].lookup(PageId_in_a_DB);
+	if (frameNo < 0)
+	  throw new HashEntryNotFoundException (null, "BUFMGR: HASH_NOT_FOUND.");
+
+	// mark it dirty before the pin goes, so no evictor misses it
+	if (dirty == true)
+	  frmeTable[frameNo].dirty = true;
+
+	if ((replacer.unpin(frameNo)) != true)
+	  throw new ReplacerException (null, "BUFMGR: REPLACER_ERROR.");
+      }
+      finally {
+	stripes[s].unlock();
+      }
+    }
+
+
+  /** Frees a page and calls DB to deallocate it.
+   * Same contract as BufMgr.freePage.
+   *
+   * @param globalPageId the page number in the data base.
+   * @exception InvalidBufferException if buffer pool corrupted.
+   * @exception ReplacerException if there is a replacer error.
+   * @exception HashOperationException if there is a hash table error.
+   * @exception InvalidFrameNumberException if there is an invalid frame number.
+   * @exception PageNotReadException if a page cannot be read.
+   * @exception BufferPoolExceededException if the buffer pool is already full.
+   * @exception PagePinnedException if a page is left pinned.
+   * @exception PageUnpinnedException if there is a page that is already unpinned.
+   * @exception HashEntryNotFoundException if there is no entry
+   *            of page in the hash table.
+   * @exception IOException if there is other kinds of I/O error.
+   * @exception BufMgrException other error occured in bufmgr layer
+   * @exception DiskMgrException other error occured in diskmgr layer
+   */
+  public void freePage(PageId globalPageId)
+       throws InvalidBufferException,
+	      ReplacerException,
+	      HashOperationException,
+	      InvalidFrameNumberException,
+	      PageNotReadException,
+	      BufferPoolExceededException,
+	      PagePinnedException,
+	      PageUnpinnedException,
+	      HashEntryNotFoundException,
+	      BufMgrException,
+	      DiskMgrException,
+	      IOException
+    {
+      int s = stripe(globalPageId.pid);
+
+      stripes[s].lock();
+      try {
+	int frameNo = tables[s].lookup(globalPageId);
+	if (frameNo >= 0) {
+	  try {
+	    replacer.free(frameNo);
+	  }
+	  catch (Exception e1) {
+	    throw new ReplacerException(e1, "BUFMGR, REPLACER_ERROR");
+	  }
+	  tables[s].remove(globalPageId);
+	  frmeTable[frameNo].pageNo.pid = INVALID_PAGE; // frame is empty
+	  frmeTable[frameNo].dirty = false;
+	}
+      }
+      finally {
+	stripes[s].unlock();
+      }
+
+      deallocate_page(globalPageId);
+    }
+
+
+  /** Writes a particular page of the buffer pool to disk.
+   *
+   * @param pageid the page number in the database.
+   * @exception HashOperationException if there is a hashtable error.
+   * @exception PageUnpinnedException if there is a page that is already unpinned.
+   * @exception PagePinnedException if the page is pinned.
+   * @exception PageNotFoundException if a page is not found.
+   * @exception BufMgrException other error occured in bufmgr layer
+   * @exception IOException if there is other kinds of I/O error.
+   */
+  public void flushPage(PageId pageid)
+    throws HashOperationException,
+	   PageUnpinnedException,
+	   PagePinnedException,
+	   PageNotFoundException,
+	   BufMgrException,
+	   IOException
+    {
+      flushFrames(pageid.pid, false);
+    }
+
+
+  /** Writes all dirty pages of the buffer pool to disk.
+   *
+   * @exception HashOperationException if there is a hashtable error.
+   * @exception PageUnpinnedException if there is a page that is already unpinned.
+   * @exception PagePinnedException if a page is left pinned.
+   * @exception PageNotFoundException if a page is not found.
+   * @exception BufMgrException other error occured in bufmgr layer
+   * @exception IOException if there is other kinds of I/O error.
+   */
+  public void flushAllPages()
+    throws HashOperationException,
+	   PageUnpinnedException,
+	   PagePinnedException,
+	   PageNotFoundException,
+	   BufMgrException,
+	   IOException
+    {
+      flushFrames(INVALID_PAGE, true);
+    }
+
+
+  /** Writes the dirty frames holding pid, or every dirty frame,
+   * each under its stripe lock.  As in BufMgr, a pinned page is
+   * written but reported afterwards.
+   */
+  private void flushFrames(int pid, boolean all_pages)
+    throws PagePinnedException,
+	   BufMgrException
+    {
+      int pinned = 0;
+
+      for (int i = 0; i < frmeTable.length; i++) {
+	FrameDesc frame = frmeTable[i];
+	int framePid = frame.pageNo.pid;
+	if (framePid == INVALID_PAGE || (!all_pages && framePid != pid))
+	  continue;
+
+	int s = stripe(framePid);
+	stripes[s].lock();
+	try {
+	  if (frame.pageNo.pid != framePid)
+	    continue;
+	  // tryEvict's own pin, and the page is being written
+	  if (evicting[i])
+	    continue;
+	  if (frame.pin_count() != 0)
+	    pinned++;
+	  if (frame.dirty) {
+	    write_page(new PageId(framePid), new Page(bufPool[i]));
+	    frame.dirty = false;
+	  }
+	}
+	finally {
+	  stripes[s].unlock();
+	}
+      }
+
+      if (pinned != 0)
+	throw new PagePinnedException (null, "BUFMGR: PAGE_PINNED.");
+    }
+
+
+  /** Read-ahead hint from a sequential scan, as BufMgr.prefetchPages.
+   * Each page is entered in its stripe with its frame latched
+   * exclusively until the run has been read, so a scan that pins it
+   * meanwhile waits for the read instead of issuing its own.
+   *
+   * @param pageIds pages the scan is about to read.
+   * @param count number of entries of pageIds to use, at most
+   *        getReadAhead() of them are read.
+   */
+  public void prefetchPages(PageId[] pageIds, int count)
+    {
+      int[] pids = missingPages(pageIds, Math.min(count, getReadAhead()));
+
+      for (int i = 0; i < pids.length; ) {
+	int j = i + 1;
+	while (j < pids.length && pids[j] == pids[j-1] + 1)
+	  j++;
+	if (!prefetchRun(pids, i, j))
+	  return;
+	i = j;
+      }
+    }
+
+
+  /** Reads pids[from .. to-1], consecutive page numbers, into frames
+   * of their own with one read.  The run is cut short at the first
+   * page another thread has brought in meanwhile.
+   *
+   * @return false if read-ahead should stop.
+   */
+  private boolean prefetchRun(int[] pids, int from, int to)
+    {
+      int len = to - from;
+      int[] frames = new int[len];
+      int got = 0;
+
+      while (got < len) {
+	int frameNo;
+	try {
+	  frameNo = replacer.pick_victim(); // pinned, holds no page
+	}
+	catch (Exception e) {
+	  break;
+	}
+
+	FrameDesc frame = frmeTable[frameNo];
+	PageId pid = new PageId(pids[from + got]);
+	int s = stripe(pid.pid);
+	boolean taken = false;
+	stripes[s].lock();
+	try {
+	  if (tables[s].lookup(pid) < 0) {
+	    frame.pageNo.pid = pid.pid;
+	    frame.dirty = false;
+	    latches[frameNo].writeLock().lock();
+	    tables[s].insert(pid, frameNo);
+	    replacer.loaded(frameNo, pid.pid);
+	    taken = true;
+	  }
+	}
+	finally {
+	  stripes[s].unlock();
+	}
+
+	if (!taken) {
+	  frame.unpin();
+	  break;
+	}
+	frames[got++] = frameNo;
+      }
+
+      if (got == 0)
+	return false;
+
+      Page[] pages = new Page[got];
+      for (int i = 0; i < got; i++)
+	pages[i] = new Page(bufPool[frames[i]]);
+
+      boolean ok = true;
+      try {
+	read_pages(new PageId(pids[from]), pages, got);
+	prefetches.addAndGet(got);
+      }
+      catch (Exception e) {
+	ok = false;
+      }
+
+      for (int i = 0; i < got; i++) {
+	FrameDesc frame = frmeTable[frames[i]];
+	if (!ok) {
+	  int s = stripe(frame.pageNo.pid);
+	  stripes[s].lock();
+	  try {
+	    tables[s].remove(frame.pageNo);
+	    frame.pageNo.pid = INVALID_PAGE;
+	  }
+	  finally {
+	    stripes[s].unlock();
+	  }
+	}
+	frame.unpin();
+	latches[frames[i]].writeLock().unlock();
+      }
+
+      return ok && got == len;
+    }
+
+
+  /** @return the frame of a page, INVALID_PAGE if it is not in the pool. */
+  int lookupFrame(PageId pageno)
+    {
+      int s = stripe(pageno.pid);
+
+      stripes[s].lock();
+      try {
+	return tables[s].lookup(pageno);
+      }
+      finally {
+	stripes[s].unlock();
+      }
+    }
+
+
+  /** Latches the contents of a pinned page, shared for readers and
+   * exclusive for a writer.
+   *
+   * @param pageno the page, which must be pinned by the caller.
+   * @param exclusive true to modify the page, false to read it.
+   * @exception HashEntryNotFoundException if the page is not in the pool.
+   */
+  public void latchPage(PageId pageno, boolean exclusive)
+    throws HashEntryNotFoundException
+    {
+      ReentrantReadWriteLock latch = latches[frameOf(pageno)];
+      if (exclusive)
+	latch.writeLock().lock();
+      else
+	latch.readLock().lock();
+    }
+
+
+  /** Releases a latch taken by latchPage.
+   *
+   * @param pageno the page.
+   * @param exclusive the mode the latch was taken in.
+   * @exception HashEntryNotFoundException if the page is not in the pool.
+   */
+  public void unlatchPage(PageId pageno, boolean exclusive)
+    throws HashEntryNotFoundException
+    {
+      ReentrantReadWriteLock latch = latches[frameOf(pageno)];
+      if (exclusive)
+	latch.writeLock().unlock();
+      else
+	latch.readLock().unlock();
+    }
+
+
+  /** @return the frame of a page in the pool. */
+  private int frameOf(PageId pageno)
+    throws HashEntryNotFoundException
+    {
+      int frameNo = lookupFrame(pageno);
+      if (frameNo < 0)
+	throw new HashEntryNotFoundException (null, "BUFMGR: HASH_NOT_FOUND.");
+      return frameNo;
+    }
+
+
+  /** Gets the number of pinPage calls that found the page in the pool
+   * since the last resetHitCounts.
+   */
+  public int getHitCount() { return hits.get(); }
+
+  /** Gets the number of pinPage calls that had to bring the page in
+   * since the last resetHitCounts.
+   */
+  public int getMissCount() { return misses.get(); }
+
+  /** Gets the number of pages read ahead by prefetchPages
+   * since the last resetHitCounts.
+   */
+  public int getPrefetchCount() { return prefetches.get(); }
+
+  /** Resets the hit, miss and read-ahead counts. */
+  public void resetHitCounts() { hits.set(0); misses.set(0); prefetches.set(0); }
+
+  /** The background page cleaner works ahead of a single clock hand
+   * on behalf of one thread and is not used here: ConcurrentClock
+   * writes its victims itself.
+   *
+   * @param cleanPercent ignored.
+   * @exception UnsupportedOperationException always.
+   */
+  public void startCleaner(int cleanPercent)
+    {
+      throw new UnsupportedOperationException("ConcurrentBufMgr: the background page cleaner is not supported");
+    }
+}
@@ -0,0 +1,175 @@
+/* File ConcurrentClock.java */
+
+package bufmgr;
+
+import java.util.concurrent.atomic.*;
+import diskmgr.*;
+import global.*;
+
+  /**
+   * class ConcurrentClock is the clock replacement policy of the
+   * ConcurrentBufMgr.  The hand and the reference bits are atomic, so
+   * any number of threads can sweep at once; a frame is only taken
+   * once ConcurrentBufMgr.tryEvict has raised its pin count from 0
+   * and unmapped its page under the page table stripe lock.
+   * The state_bit array of Replacer is not used.
+   */
+class ConcurrentClock extends Replacer {
+
+  /**
+   * private field
+   * position of the clock hand, only ever incremented
+   */
+  private AtomicInteger hand;
+
+  /**
+   * private field
+   * 1 if the frame was pinned since the hand last passed it
+   */
+  private AtomicIntegerArray referenced;
+
+  /**
+   * Calling super class the same method
+   * Initializing the reference bits for the number of buffer
+   * allocated by buffer manager
+   *
+   * @param	mgr	a BufMgr object
+   * @see	BufMgr
+   * @see	Replacer
+   */
+  public void setBufferManager( BufMgr mgr )
+  {
+    super.setBufferManager(mgr);
+    hand = new AtomicInteger(0);
+    referenced = new AtomicIntegerArray(mgr.getNumBuffers());
+  }
+
+/* public methods */
+
+  /**
+   * Class constructor
+   */
+  public ConcurrentClock(ConcurrentBufMgr mgrArg)
+  {
+    super(mgrArg);
+  }
+
+  /**
+   * pin the page in the given frame number and give it
+   * a second chance
+   *
+   * @param	 frameNo	 the frame number to pin
+   * @exception  InvalidFrameNumberException
+   */
+  public void pin(int frameNo) throws InvalidFrameNumberException
+  {
+    if ((frameNo < 0) || (frameNo >= mgr.getNumBuffers()))
+      throw new InvalidFrameNumberException (null, "BUFMGR: BAD_BUFFRAMENO.");
+
+    mgr.frameTable()[frameNo].pin();
+    referenced.set(frameNo, 1);
+  }
+
+  /**
+   * unpin the page in the given frame number
+   *
+   * @param	 frameNo	 the frame number to unpin
+   * @exception  InvalidFrameNumberException
+   * @exception  PageUnpinnedException if the page is not pinned
+   */
+  public boolean unpin(int frameNo) throws InvalidFrameNumberException, PageUnpinnedException
+  {
+    if ((frameNo < 0) || (frameNo >= mgr.getNumBuffers()))
+      throw new InvalidFrameNumberException (null, "BUFMGR: BAD_BUFFRAMENO.");
+
+    if (mgr.frameTable()[frameNo].pin_count() == 0)
+      throw new PageUnpinnedException (null, "BUFMGR: PAGE_NOT_PINNED.");
+
+    mgr.frameTable()[frameNo].unpin();
+    return true;
+  }
+
+  /**
+   * A page read into the frame starts out referenced, like a page
+   * just unpinned under Clock.
+   *
+   * @param	frameNo	the frame number
+   * @param	pid	page now held by the frame
+   */
+  public void loaded(int frameNo, int pid)
+  {
+    referenced.set(frameNo, 1);
+  }
+
+  /**
+   * Frees and unpins the page in the given frame number
+   *
+   * @param	frameNo	the frame number
+   * @exception PagePinnedException if another pin is held
+   */
+  public void free(int frameNo) throws PagePinnedException
+  {
+    if (mgr.frameTable()[frameNo].pin_count() > 1)
+      throw new PagePinnedException (null, "BUFMGR: PAGE_PINNED.");
+
+    mgr.frameTable()[frameNo].unpin();
+    referenced.set(frameNo, 0);
+  }
+
+  /**
+   * Sweeping the clock for an unpinned, unreferenced frame and
+   * asking the buffer manager to evict its page.  The frame
+   * returned is pinned once, by the caller, and maps no page.
+   *
+   * @return 	return the frame number
+   * @exception BufferPoolExceededException if no frame could be taken
+   */
+  public int pick_victim() throws BufferPoolExceededException
+  {
+    ConcurrentBufMgr cmgr = (ConcurrentBufMgr) mgr;
+    FrameDesc frames[] = mgr.frameTable();
+    int numBuffers = mgr.getNumBuffers();
+
+    // two passes clear every reference bit, the third allows for
+    // frames that were pinned or dirtied while we looked at them
+    for (int num = 0; num < 3 * numBuffers; num++) {
+      int f = (hand.getAndIncrement() & 0x7fffffff) % numBuffers;
+      if (frames[f].pin_count() != 0)
+	continue;
+      if (referenced.getAndSet(f, 0) != 0)
+	continue;
+      try {
+	if (cmgr.tryEvict(f))
+	  return f;
+      }
+      catch (BufMgrException e) {
+	throw new BufferPoolExceededException (e, "BUFMGR: WRITE_PAGE_ERROR.");
+      }
+    }
+
+    throw new BufferPoolExceededException (null, "BUFMGR: BUFFER_EXCEEDED.");
+  }
+
+  /**
+   * get the page replacement policy name
+   *
+   * @return	return the name of replacement policy used
+   */
+  public String name() { return "Clock"; }
+
+  /**
+   * print out the information of frame usage
+   */
+  public void info()
+  {
+    int numBuffers = mgr.getNumBuffers();
+
+    System.out.println("\nInfo:\npin counts (* referenced)");
+    for (int i = 0; i < numBuffers; i++)
+      System.out.println("(" + i + ") " + mgr.frameTable()[i].pin_count()
+			 + (referenced.get(i) != 0 ? "*" : ""));
+    System.out.println("Clock hand:\t" + (hand.get() & 0x7fffffff) % numBuffers);
+    System.out.println("\n\n");
+  }
+
+}
@@ -0,0 +1,117 @@
+/* File FrameArena.java */
+
+package bufmgr;
+
+import java.nio.*;
+import java.util.*;
+
+/** Off-heap storage for the frames of a BufMgr: one direct ByteBuffer
+ * of numBuffers pages, sliced into one big-endian ByteBuffer per
+ * frame.  The DB reads and writes a frame straight from its slice
+ * (see PageStore.read(long, ByteBuffer)), and pages that only go
+ * through Page.getBuffer, such as HFPage, work on the slice in place.
+ * <p>
+ * Page users that need the frame as a byte[] (getpage) get a heap
+ * view of it: the slice is copied into an array, and the array is
+ * the frame's contents until the frame is released, when the last
+ * pin goes, and the view is copied back.  View arrays are recycled,
+ * so only the pinned frames ever have one, except the views of frames
+ * retained for a caller that still points into them once unpinned.
+ */
+public class FrameArena {
+
+  private final int pageSize;
+  private final ByteBuffer[] slices;
+  private final byte[][] views;
+  private final ByteBuffer[] wrapped;
+  private final boolean[] retained;
+  private final ArrayDeque<byte[]> spare = new ArrayDeque<byte[]>();
+  private int viewCount;
+
+  /** Allocates the arena.
+   *
+   * @param numBuffers number of frames.
+   * @param pageSize size of a frame in bytes.
+   */
+  FrameArena(int numBuffers, int pageSize)
+    {
+      this.pageSize = pageSize;
+      ByteBuffer arena = ByteBuffer.allocateDirect(numBuffers * pageSize);
+      slices = new ByteBuffer[numBuffers];
+      views = new byte[numBuffers][];
+      wrapped = new ByteBuffer[numBuffers];
+      retained = new boolean[numBuffers];
+      for (int i = 0; i < numBuffers; i++) {
+	arena.limit((i + 1) * pageSize);
+	arena.position(i * pageSize);
+	slices[i] = arena.slice();
+      }
+    }
+
+  /** @return the contents of a frame: its heap view if it has one,
+   * otherwise its off-heap slice.  Use absolute gets and puts.
+   */
+  public ByteBuffer buffer(int frameNo)
+    {
+      return views[frameNo] != null ? wrapped[frameNo] : slices[frameNo];
+    }
+
+  /** @return the heap view of a frame, copied from the slice the
+   * first time it is asked for.
+   */
+  public byte[] array(int frameNo)
+    {
+      byte[] view = views[frameNo];
+      if (view == null) {
+	view = spare.isEmpty() ? new byte[pageSize] : spare.pop();
+	slices[frameNo].duplicate().get(view);
+	views[frameNo] = view;
+	wrapped[frameNo] = ByteBuffer.wrap(view);
+	viewCount++;
+      }
+      return view;
+    }
+
+  /** @return the heap view of a frame, as array, which is not
+   * recycled when the frame is released: the caller may keep pointing
+   * into it, at the bytes the frame had then.
+   */
+  public byte[] retain(int frameNo)
+    {
+      byte[] view = array(frameNo);
+      retained[frameNo] = true;
+      return view;
+    }
+
+  /** Copies the heap view of a frame, if it has one, back to the
+   * slice and recycles the array unless it was retained.  Called when the frame is no longer
+   * pinned, or before it is given to another page.
+   */
+  void release(int frameNo)
+    {
+      byte[] view = views[frameNo];
+      if (view != null) {
+	slices[frameNo].duplicate().put(view);
+	views[frameNo] = null;
+	wrapped[frameNo] = null;
+	if (retained[frameNo])
+	  retained[frameNo] = false;
+	else
+	  spare.push(view);
+      }
+    }
+
+  /** @return a heap copy of the contents of a frame. */
+  byte[] copy(int frameNo)
+    {
+      byte[] copy = new byte[pageSize];
+      buffer(frameNo).duplicate().get(copy);
+      return copy;
+    }
+
+  /** @return how many times a frame was copied into a heap view. */
+  int getViewCount() { return viewCount; }
+
+  /** Resets the view count. */
+  void resetViewCount() { viewCount = 0; }
+}
@@ -0,0 +1,72 @@
+/* File FrameDesc.java */
+
+package bufmgr;
+
+import java.util.concurrent.atomic.*;
+import global.*;
+
+/** A frame description class. It describes each page in the buffer
+ * pool, the page number in the file, whether it is dirty or not,
+ * its pin count, and the pin count change when pinning or unpinning 
+ * a page.
+ */
+class FrameDesc implements GlobalConst{
+  
+  /** The page within file, or INVALID_PAGE if the frame is empty. */
+  public PageId pageNo;     
+  
+  /** the dirty bit, 1 (TRUE) stands for this frame is altered,
+   *0 (FALSE) for clean frames.
+   */
+  public volatile boolean dirty;     
+                         
+  /** The pin count for the page in this frame, atomic so that
+   * the concurrent buffer manager can pin without a global lock.
+   */
+  public final AtomicInteger pin_cnt;   
+
+  /** Creates a FrameDesc object, initialize pageNo, dirty and 
+   * pin_count.
+   */
+  public FrameDesc() {
+  
+    pageNo = new PageId();
+    pageNo.pid = INVALID_PAGE;
+    dirty   = false;
+    pin_cnt = new AtomicInteger(0);
+    
+  }
+  
+  
+  
+  /** Returns the pin count of a certain frame page. 
+   *
+   * @return the pin count number.
+   */
+  public int pin_count() { return(pin_cnt.get()); }
+  
+  /** Increments the pin count of a certain frame page when the
+   * page is pinned.
+   *
+   * @return the incremented pin count.
+   */
+  public int pin() { return(pin_cnt.incrementAndGet()); }
+  
+  /** Decrements the pin count of a frame when the page is 
+   * unpinned.  If the pin count is equal to or less than
+   * zero, the pin count will be zero.
+   *
+   * @return the decremented pin count.
+   */
+  public int unpin() {
+    
+    int cnt;
+    do {
+      cnt = pin_cnt.get();
+      if (cnt <= 0)
+	return 0;
+    } while (!pin_cnt.compareAndSet(cnt, cnt - 1));
+    
+    return(cnt - 1);
+  }
+}
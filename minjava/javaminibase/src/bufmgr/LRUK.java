@@ -0,0 +1,202 @@
+/* File LRUK.java */
+
+package bufmgr;
+
+import java.util.*;
+import diskmgr.*;
+import global.*;
+
+  /**
+   * class LRUK is a subclass of class Replacer using the LRU-K
+   * algorithm (O'Neil et al.) with K = 2 for page replacement.
+   * The victim is the unpinned frame whose K-th most recent reference
+   * is oldest; a page referenced fewer than K times counts as
+   * infinitely old, so pages touched once by a scan go before pages
+   * an index keeps coming back to.  Back-to-back references to the
+   * same page count as one, and the history of evicted pages is kept
+   * for a while so a page read again soon does not start over.
+   */
+class LRUK extends Replacer {
+
+  /** number of references remembered per page */
+  private static final int K = 2;
+
+  /**
+   * private field
+   * hist[frame][i] is the logical time of the (i+1)-th most recent
+   * reference to the page in the frame, 0 if there was none
+   */
+  private long hist[][];
+
+  /**
+   * private field
+   * logical clock, one tick per reference
+   */
+  private long clock;
+
+  /**
+   * private field
+   * frame referenced last, for folding correlated references
+   */
+  private int lastFrame;
+
+  /**
+   * private field
+   * histories of recently evicted pages, by pid
+   */
+  private LinkedHashMap<Integer, long[]> retained;
+
+  /**
+   * Records a reference to the page in the given frame.
+   * @param frameNo	the frame number
+   */
+  private void reference(int frameNo)
+  {
+    clock++;
+    long h[] = hist[frameNo];
+    if (frameNo != lastFrame) {
+      for (int i = K-1; i > 0; i--)
+	h[i] = h[i-1];
+    }
+    h[0] = clock;
+    lastFrame = frameNo;
+  }
+
+  /**
+   * Calling super class the same method
+   * Initializing the history with number of buffer allocated
+   * by buffer manager
+   *
+   * @param	mgr	a BufMgr object
+   * @see	BufMgr
+   * @see	Replacer
+   */
+  public void setBufferManager( BufMgr mgr )
+  {
+    super.setBufferManager(mgr);
+    final int numBuffers = mgr.getNumBuffers();
+    hist = new long[numBuffers][K];
+    clock = 0;
+    lastFrame = -1;
+    retained = new LinkedHashMap<Integer, long[]>() {
+	protected boolean removeEldestEntry(Map.Entry<Integer, long[]> eldest) {
+	  return size() > numBuffers;
+	}
+      };
+  }
+
+/* public methods */
+
+  /**
+   * Class constructor
+   */
+  public LRUK(BufMgr mgrArg)
+  {
+    super(mgrArg);
+  }
+
+  /**
+   * calll super class the same method
+   * pin the page in the given frame number
+   * and record the reference
+   *
+   * @param	 frameNo	 the frame number to pin
+   * @exception  InvalidFrameNumberException
+   */
+  public void pin(int frameNo) throws InvalidFrameNumberException
+  {
+    super.pin(frameNo);
+    reference(frameNo);
+  }
+
+  /**
+   * A new page is in the frame: pick up its retained history, if any,
+   * and record this reference.
+   *
+   * @param	frameNo	the frame number
+   * @param	pid	page now held by the frame
+   */
+  public void loaded(int frameNo, int pid)
+  {
+    long old[] = retained.remove(pid);
+    if (old != null)
+      System.arraycopy(old, 0, hist[frameNo], 0, K);
+    else
+      Arrays.fill(hist[frameNo], 0);
+    lastFrame = -1;
+    reference(frameNo);
+  }
+
+  /**
+   * Frees the frame and forgets its history.
+   *
+   * @param	frameNo	the frame number
+   * @exception PagePinnedException
+   */
+  public void free(int frameNo) throws PagePinnedException
+  {
+    super.free(frameNo);
+    Arrays.fill(hist[frameNo], 0);
+  }
+
+  /**
+   * Finding a free frame in the buffer pool
+   * or choosing a page to replace using LRU-K policy
+   *
+   * @return 	return the frame number
+   * @exception BufferPoolExceededException if every frame is pinned
+   */
+  public int pick_victim() throws BufferPoolExceededException
+  {
+    int numBuffers = mgr.getNumBuffers();
+    FrameDesc frames[] = mgr.frameTable();
+    int victim = -1;
+
+    for (int f = 0; f < numBuffers; f++) {
+      if (state_bit[f].state == Pinned)
+	continue;
+      if (frames[f].pageNo.pid == INVALID_PAGE) {
+	victim = f;       // empty frame, take it
+	break;
+      }
+      if (victim < 0
+	  || hist[f][K-1] < hist[victim][K-1]
+	  || (hist[f][K-1] == hist[victim][K-1] && hist[f][0] < hist[victim][0]))
+	victim = f;
+    }
+
+    if (victim < 0)
+      throw new BufferPoolExceededException (null, "BUFMGR: BUFFER_EXCEEDED.");
+
+    if (frames[victim].pageNo.pid != INVALID_PAGE)
+      retained.put(frames[victim].pageNo.pid, hist[victim].clone());
+
+    state_bit[victim].state = Pinned;
+    frames[victim].pin();
+    return victim;
+  }
+
+  /**
+   * get the page replacement policy name
+   *
+   * @return	return the name of replacement policy used
+   */
+  public String name() { return "LRU-K"; }
+
+  /**
+   * print out the information of frame usage
+   */
+  public void info()
+  {
+    super.info();
+
+    System.out.print( "LRU-" + K + " REPLACEMENT");
+    for (int i = 0; i < hist.length; i++) {
+      if (i % 5 == 0)
+	System.out.println( );
+      System.out.print( "\t" + i + ":" + hist[i][K-1]);
+    }
+    System.out.println();
+  }
+
+}
@@ -0,0 +1,250 @@
+/* File PageCleaner.java */
+
+package bufmgr;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import diskmgr.*;
+import global.*;
+
+/** The background page cleaner of a BufMgr.
+ * <p>
+ * On every miss, before the replacer picks a victim, the thread using
+ * the buffer manager calls runAhead.  It looks at the frames just
+ * ahead of the clock hand and, for each unpinned dirty one, copies the
+ * page into the write queue and marks the frame clean, so that when
+ * the hand gets there the frame can be reused without a write.  Only
+ * that thread ever looks at the frames.
+ * <p>
+ * The cleaner thread takes the whole queue at a time, sorted by page
+ * number, and writes each run of consecutive pages with one
+ * DB.write_pages call.
+ * <p>
+ * Before the buffer manager reads or writes a page itself it calls
+ * awaitPages, which waits until no copy of those pages is waiting to
+ * be written, so the disk never goes back to an older version.
+ */
+class PageCleaner implements GlobalConst, Runnable {
+
+  /** the buffer manager whose frames are cleaned */
+  private BufMgr mgr;
+
+  /** the database the pages belong to, kept in case SystemDefs
+   * opens another one before the queue is written */
+  private DB db;
+
+  /** frames to keep clean ahead of the clock hand */
+  private int ahead;
+
+  /** next frame to look at */
+  private int hand = 0;
+
+  /** page number -> copy of the page, waiting to be written */
+  private TreeMap<Integer, byte[]> queue = new TreeMap<Integer, byte[]>();
+
+  /** pages taken from the queue and being written */
+  private TreeMap<Integer, byte[]> writing = new TreeMap<Integer, byte[]>();
+
+  /** set by stop() */
+  private boolean stopped = false;
+
+  /** the first error of a background write, reported by awaitPages */
+  private Exception failure = null;
+
+  /** pages written and write calls made by the cleaner thread */
+  private AtomicInteger pagesWritten = new AtomicInteger();
+  private AtomicInteger writeCalls = new AtomicInteger();
+
+  private Thread thread;
+
+  /** Starts a cleaner that keeps cleanPercent of the pool clean
+   * ahead of the clock hand.
+   *
+   * @param mgr the buffer manager.
+   * @param cleanPercent share of the pool, 1 to 100.
+   */
+  PageCleaner(BufMgr mgr, int cleanPercent)
+    {
+      this.mgr = mgr;
+      db = SystemDefs.JavabaseDB;
+      int numBuffers = mgr.getNumBuffers();
+      ahead = Math.max(1, Math.min(numBuffers, numBuffers * cleanPercent / 100));
+
+      thread = new Thread(this, "PageCleaner");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+
+  /** Called before each victim is picked.  Queues the dirty unpinned
+   * frames among the next ahead frames after the clock hand.  With a
+   * replacer that has no hand it sweeps the pool a few frames at a time.
+   */
+  void runAhead()
+    {
+      FrameDesc[] frames = mgr.frmeTable;
+      int numBuffers = frames.length;
+      int clock = mgr.replacer.head;
+      int todo;
+
+      if (clock < 0) {
+	todo = Math.min(numBuffers, 4);
+      }
+      else {
+	// frames between the hand and the end of the window still to look at
+	int start = (clock + 1) % numBuffers;
+	int done = (hand - start + numBuffers) % numBuffers;
+	if (done >= ahead) {
+	  // the clock hand has passed us
+	  hand = start;
+	  done = 0;
+	}
+	todo = ahead - done;
+      }
+
+      synchronized (this) {
+	for (; todo > 0 && queue.size() < ahead; todo--) {
+	  FrameDesc frame = frames[hand];
+	  if (frame.dirty && frame.pin_count() == 0
+	      && frame.pageNo.pid != INVALID_PAGE) {
+	    queue.put(frame.pageNo.pid, mgr.copyFrame(hand));
+	    frame.dirty = false;
+	  }
+	  hand = (hand + 1) % numBuffers;
+	}
+	notifyAll();
+      }
+    }
+
+
+  /** Waits until none of pages first .. first+count-1 is waiting to be
+   * written by the cleaner.
+   *
+   * @exception BufMgrException if a background write has failed.
+   */
+  synchronized void awaitPages(int first, int count)
+    throws BufMgrException
+    {
+      while (failure == null
+	     && (pending(queue, first, count) || pending(writing, first, count))) {
+	try {
+	  wait();
+	}
+	catch (InterruptedException e) {
+	  throw new BufMgrException(e, "PageCleaner: interrupted");
+	}
+      }
+      if (failure != null)
+	throw new BufMgrException(failure, "PageCleaner: background write failed");
+    }
+
+
+  private static boolean pending(TreeMap<Integer, byte[]> pages, int first, int count)
+    {
+      Integer pid = pages.ceilingKey(first);
+      return pid != null && pid < first + count;
+    }
+
+
+  /** Waits until every queued page has been written.
+   *
+   * @exception BufMgrException if a background write has failed.
+   */
+  void drain()
+    throws BufMgrException
+    {
+      awaitPages(0, Integer.MAX_VALUE);
+    }
+
+
+  /** Writes what is queued and stops the cleaner thread.
+   *
+   * @exception BufMgrException if a background write has failed.
+   */
+  void stop()
+    throws BufMgrException
+    {
+      drain();
+      synchronized (this) {
+	stopped = true;
+	notifyAll();
+      }
+    }
+
+
+  int getPagesWritten() { return pagesWritten.get(); }
+
+  int getWriteCalls() { return writeCalls.get(); }
+
+  void resetCounts() { pagesWritten.set(0); writeCalls.set(0); }
+
+
+  /** The cleaner thread. */
+  public void run()
+    {
+      while (true) {
+	synchronized (this) {
+	  while (queue.isEmpty() && !stopped) {
+	    try {
+	      wait();
+	    }
+	    catch (InterruptedException e) {
+	      return;
+	    }
+	  }
+	  if (queue.isEmpty())
+	    return;
+	  writing = queue;
+	  queue = new TreeMap<Integer, byte[]>();
+	}
+
+	Exception error = null;
+	try {
+	  writeRuns(writing);
+	}
+	catch (Exception e) {
+	  error = e;
+	}
+
+	synchronized (this) {
+	  if (error != null && failure == null)
+	    failure = error;
+	  writing = new TreeMap<Integer, byte[]>();
+	  notifyAll();
+	}
+      }
+    }
+
+
+  /** Writes the pages, one DB.write_pages call per run of
+   * consecutive page numbers. */
+  private void writeRuns(TreeMap<Integer, byte[]> pages)
+    throws Exception
+    {
+      Page[] run = new Page[pages.size()];
+      int first = INVALID_PAGE;
+      int count = 0;
+
+      for (Map.Entry<Integer, byte[]> e : pages.entrySet()) {
+	int pid = e.getKey();
+	if (count > 0 && pid != first + count) {
+	  writeRun(first, run, count);
+	  count = 0;
+	}
+	if (count == 0)
+	  first = pid;
+	run[count++] = new Page(e.getValue());
+      }
+      if (count > 0)
+	writeRun(first, run, count);
+    }
+
+
+  private void writeRun(int first, Page[] run, int count)
+    throws Exception
+    {
+      db.write_pages(new PageId(first), run, count);
+      pagesWritten.addAndGet(count);
+      writeCalls.incrementAndGet();
+    }
+}
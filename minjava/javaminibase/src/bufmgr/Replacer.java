@@ -96,6 +96,17 @@ abstract class Replacer implements GlobalConst
   }
   
 
+  /** Tells the replacer which page has just been brought into a frame
+   * returned by pick_victim.  Policies that keep a history of pages
+   * (LRU-K, 2Q, ARC) override it; the default does nothing.
+   *
+   * @param frameNo frame number of the page.
+   * @param pid page number now held by the frame.
+   */
+  public void loaded( int frameNo, int pid )
+  {
+  }
+
   /** Must pin the returned frame. */
   public abstract int pick_victim() throws BufferPoolExceededException, PagePinnedException;     
  
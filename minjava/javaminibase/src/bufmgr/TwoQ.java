@@ -0,0 +1,220 @@
+/* File TwoQ.java */
+
+package bufmgr;
+
+import java.util.*;
+import diskmgr.*;
+import global.*;
+
+  /**
+   * class TwoQ is a subclass of class Replacer using the full 2Q
+   * algorithm (Johnson and Shasha) for page replacement.
+   * A page read for the first time goes to the FIFO queue A1in; only a
+   * page read again after it has been evicted from A1in (its pid is
+   * still remembered in the ghost queue A1out) is admitted to the LRU
+   * queue Am.  A scan therefore cycles through A1in without disturbing
+   * the hot pages in Am.
+   */
+class TwoQ extends Replacer {
+
+  /** share of the frames A1in may hold before it is the victim queue */
+  private static final int KIN_PERCENT = 25;
+
+  /** number of evicted pids remembered in A1out, as a share of frames */
+  private static final int KOUT_PERCENT = 50;
+
+  /**
+   * private fields
+   * resident frames, oldest first: A1in in arrival order, Am in
+   * least recently used order
+   */
+  private LinkedHashSet<Integer> a1in, am;
+
+  /**
+   * private field
+   * pids evicted from A1in, oldest first
+   */
+  private LinkedHashSet<Integer> a1out;
+
+  /**
+   * private field
+   * unpinned frames holding no page, on neither A1in nor Am
+   */
+  private LinkedHashSet<Integer> free;
+
+  private int kin, kout;
+
+  /**
+   * Calling super class the same method
+   * Initializing the queues for the number of buffer allocated
+   * by buffer manager
+   *
+   * @param	mgr	a BufMgr object
+   * @see	BufMgr
+   * @see	Replacer
+   */
+  public void setBufferManager( BufMgr mgr )
+  {
+    super.setBufferManager(mgr);
+    int numBuffers = mgr.getNumBuffers();
+    kin = Math.max(1, numBuffers * KIN_PERCENT / 100);
+    kout = Math.max(1, numBuffers * KOUT_PERCENT / 100);
+    a1in = new LinkedHashSet<Integer>();
+    am = new LinkedHashSet<Integer>();
+    a1out = new LinkedHashSet<Integer>();
+    free = new LinkedHashSet<Integer>();
+    for (int f = 0; f < numBuffers; f++)
+      free.add(f);
+  }
+
+/* public methods */
+
+  /**
+   * Class constructor
+   */
+  public TwoQ(BufMgr mgrArg)
+  {
+    super(mgrArg);
+  }
+
+  /**
+   * calll super class the same method
+   * pin the page in the given frame number;
+   * a page in Am moves to the most recently used end
+   *
+   * @param	 frameNo	 the frame number to pin
+   * @exception  InvalidFrameNumberException
+   */
+  public void pin(int frameNo) throws InvalidFrameNumberException
+  {
+    super.pin(frameNo);
+    if (am.remove(frameNo))
+      am.add(frameNo);
+    else if (!a1in.contains(frameNo))
+      free.remove(frameNo);
+  }
+
+  /**
+   * calll super class the same method
+   * unpin the page in the given frame number; a frame pick_victim
+   * gave out that got no page goes back to the free frames
+   *
+   * @param	 frameNo	 the frame number to unpin
+   * @exception  InvalidFrameNumberException
+   * @exception  PageUnpinnedException
+   */
+  public boolean unpin(int frameNo) throws InvalidFrameNumberException, PageUnpinnedException
+  {
+    boolean bst = super.unpin(frameNo);
+    if (state_bit[frameNo].state != Pinned && !a1in.contains(frameNo) && !am.contains(frameNo))
+      free.add(frameNo);
+    return bst;
+  }
+
+  /**
+   * A new page is in the frame: it goes to Am if A1out remembers it,
+   * otherwise to the tail of A1in.
+   *
+   * @param	frameNo	the frame number
+   * @param	pid	page now held by the frame
+   */
+  public void loaded(int frameNo, int pid)
+  {
+    if (a1out.remove(pid))
+      am.add(frameNo);
+    else
+      a1in.add(frameNo);
+  }
+
+  /**
+   * Frees the frame and moves it from its queue to the free frames.
+   *
+   * @param	frameNo	the frame number
+   * @exception PagePinnedException
+   */
+  public void free(int frameNo) throws PagePinnedException
+  {
+    super.free(frameNo);
+    a1in.remove(frameNo);
+    am.remove(frameNo);
+    free.add(frameNo);
+  }
+
+  /**
+   * @return the oldest unpinned frame of the queue, -1 if none
+   */
+  private int oldestUnpinned(LinkedHashSet<Integer> queue)
+  {
+    for (Integer f : queue)
+      if (state_bit[f].state != Pinned)
+	return f;
+    return -1;
+  }
+
+  /**
+   * Finding a free frame in the buffer pool
+   * or choosing a page to replace using 2Q policy
+   *
+   * @return 	return the frame number
+   * @exception BufferPoolExceededException if every frame is pinned
+   */
+  public int pick_victim() throws BufferPoolExceededException
+  {
+    FrameDesc frames[] = mgr.frameTable();
+    int victim = -1;
+
+    // a free frame holds no page
+    if (!free.isEmpty()) {
+      victim = free.iterator().next();
+      free.remove(victim);
+    }
+    else {
+      boolean fromA1in = a1in.size() > kin;
+      victim = oldestUnpinned(fromA1in ? a1in : am);
+      if (victim < 0) {
+	fromA1in = !fromA1in;
+	victim = oldestUnpinned(fromA1in ? a1in : am);
+      }
+      if (victim < 0)
+	throw new BufferPoolExceededException (null, "BUFMGR: BUFFER_EXCEEDED.");
+
+      if (fromA1in) {
+	a1in.remove(victim);
+	int pid = frames[victim].pageNo.pid;
+	if (pid != INVALID_PAGE) {
+	  a1out.add(pid);
+	  if (a1out.size() > kout)
+	    a1out.remove(a1out.iterator().next());
+	}
+      }
+      else
+	am.remove(victim);
+    }
+
+    state_bit[victim].state = Pinned;
+    frames[victim].pin();
+    return victim;
+  }
+
+  /**
+   * get the page replacement policy name
+   *
+   * @return	return the name of replacement policy used
+   */
+  public String name() { return "2Q"; }
+
+  /**
+   * print out the information of frame usage
+   */
+  public void info()
+  {
+    super.info();
+
+    System.out.println( "2Q REPLACEMENT");
+    System.out.println( "A1in:\t" + a1in);
+    System.out.println( "Am:\t" + am);
+    System.out.println( "A1out:\t" + a1out);
+    System.out.println( "free:\t" + free);
+  }
+
+}
@@ -27,7 +27,7 @@ public class IndexCatalog extends Heapfile
     {
       super(filename);
       
-      tuple = new Tuple(Tuple.max_size);
+      tuple = new Tuple(Tuple.max_size());
       attrs = new AttrType[7];
       
       attrs[0] = new AttrType(AttrType.attrString);
@@ -559,7 +559,7 @@ public class IndexCatalog extends Heapfile
 	throw new IndexCatalogException(e,"getTupleStructure");
       }
       
-      tuple = new Tuple(Tuple.max_size);
+      tuple = new Tuple(Tuple.max_size());
       if (tuple == null)
 	throw new Catalognomem(null, "Catalog, No Enough Memory!");
       
@@ -27,7 +27,7 @@ public class RelCatalog extends Heapfile
     {
         super(filename);
       
-      tuple = new Tuple(Tuple.max_size);
+      tuple = new Tuple(Tuple.max_size());
       
       attrs = new AttrType[5];
       attrs[0] = new AttrType(AttrType.attrString);
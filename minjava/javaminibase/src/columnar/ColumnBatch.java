@@ -0,0 +1,97 @@
+/*
+ * File - ColumnBatch.java
+ *
+ * Description -
+ *		One batch of a ColumnBatchScan: the values of some columns
+ *		at a run of consecutive positions, as primitive vectors.
+ */
+package columnar;
+
+import global.AttrType;
+
+/*
+ * Row r of the batch is position getFirstPosition() + r.  Vector i holds
+ * the values of the i-th column the scan was opened on: getInts(i) for
+ * an int column, getFloats(i) for a real one and getStrings(i) for a
+ * string one.  The vectors hold every row, the deleted ones too; the
+ * selection vector lists, in order, the rows that are not deleted, so
+ * a filter or an aggregate is a loop over
+ *
+ *     for (int k = 0; k < batch.getSelectedCount(); k++)
+ *       ... values[batch.getSelection()[k]] ...
+ *
+ * A scan refills the same batch on every call.
+ */
+public class ColumnBatch {
+
+  int[] types;
+  int[][] ints;
+  float[][] floats;
+  String[][] strings;
+  int[] selection;
+  int selected;
+  int size;
+  int firstPosition;
+
+  ColumnBatch(int[] types, int capacity) {
+    this.types = types;
+    this.ints = new int[types.length][];
+    this.floats = new float[types.length][];
+    this.strings = new String[types.length][];
+    for (int i = 0; i < types.length; i++) {
+      switch (types[i]) {
+        case AttrType.attrInteger:
+          ints[i] = new int[capacity];
+          break;
+        case AttrType.attrReal:
+          floats[i] = new float[capacity];
+          break;
+        default:
+          strings[i] = new String[capacity];
+          break;
+      }
+    }
+    this.selection = new int[capacity];
+  }
+
+  // Number of rows, deleted or not
+  public int getSize() {
+    return size;
+  }
+
+  // Position of row 0
+  public int getFirstPosition() {
+    return firstPosition;
+  }
+
+  // Position of row r
+  public int getPosition(int r) {
+    return firstPosition + r;
+  }
+
+  // Attribute type of vector i
+  public int getType(int i) {
+    return types[i];
+  }
+
+  public int[] getInts(int i) {
+    return ints[i];
+  }
+
+  public float[] getFloats(int i) {
+    return floats[i];
+  }
+
+  public String[] getStrings(int i) {
+    return strings[i];
+  }
+
+  // Rows that are not deleted, the first getSelectedCount() entries
+  public int[] getSelection() {
+    return selection;
+  }
+
+  public int getSelectedCount() {
+    return selected;
+  }
+}
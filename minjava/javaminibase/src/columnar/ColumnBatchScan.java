@@ -0,0 +1,163 @@
+/*
+ * File - ColumnBatchScan.java
+ *
+ * Description -
+ *		A scan over some of the columns of a columnar file that
+ *		returns them a batch of positions at a time.
+ */
+package columnar;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+import global.AttrType;
+import global.Convert;
+import global.RID;
+import heap.Heapfile;
+import heap.HFBufMgrException;
+import heap.HFDiskMgrException;
+import heap.HFException;
+import heap.InvalidTupleSizeException;
+import heap.Scan;
+import heap.Tuple;
+
+/*
+ * Only the heapfiles of the requested columns are read.  Int and real
+ * columns are read a page at a time with Scan.getNextInts and
+ * getNextFloats, which is one bulk decode per dense page; string
+ * columns value by value, except dictionary-encoded ones, whose codes
+ * are read like an int column and looked up in the dictionary.  As with TupleScan, the n-th record of a
+ * column is taken to be at position n.  The deleted positions are read
+ * once, when the scan is opened.
+ */
+public class ColumnBatchScan {
+
+  private Scan[] scans;
+  private ColumnDictionary[] dictionaries;
+  private int[] codes;
+  private ColumnBatch batch;
+  private int batchSize;
+  private BitSet deleted;
+  private int position = 0;
+  private boolean done = false;
+
+  // Constructor Summary
+  public ColumnBatchScan(Columnarfile cf, int[] columns, int batchSize)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      IOException,
+      CFException {
+    if (batchSize <= 0) {
+      throw new CFException(null, "batch size must be positive");
+    }
+    int[] types = new int[columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      if (columns[i] < 1 || columns[i] > Columnarfile.numColumns) {
+        throw new CFException(null, "Column number out of range");
+      }
+      types[i] = cf.type[columns[i] - 1].attrType;
+    }
+    this.batchSize = batchSize;
+    this.batch = new ColumnBatch(types, batchSize);
+    this.deleted = cf.getDeletedPositions();
+    this.scans = new Scan[columns.length];
+    this.dictionaries = new ColumnDictionary[columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      scans[i] = new Heapfile(cf.get_fileName() + "." + Integer.toString(columns[i])).openScan();
+      dictionaries[i] = cf.getDictionary(columns[i]);
+      if (dictionaries[i] != null && codes == null) {
+        codes = new int[batchSize];
+      }
+    }
+  }
+
+  // Closes the ColumnBatchScan object
+  public void closeBatchScan() {
+    for (int i = 0; i < scans.length; i++) {
+      if (scans[i] != null) {
+        scans[i].closescan();
+        scans[i] = null;
+      }
+    }
+    done = true;
+  }
+
+  /*
+   * Retrieve the next batch: up to batchSize positions following the
+   * last batch, null at the end of the file.
+   */
+  public ColumnBatch getNext()
+      throws InvalidTupleSizeException,
+      IOException,
+      CFException {
+    if (done) {
+      return null;
+    }
+    int size = -1;
+    for (int i = 0; i < scans.length; i++) {
+      int n = fill(i);
+      if (size != -1 && n != size) {
+        throw new CFException(null, "columns of different lengths");
+      }
+      size = n;
+    }
+    if (size <= 0) {
+      closeBatchScan();
+      return null;
+    }
+
+    batch.firstPosition = position;
+    batch.size = size;
+    int k = 0;
+    for (int r = 0; r < size; r++) {
+      if (!deleted.get(position + r)) {
+        batch.selection[k++] = r;
+      }
+    }
+    batch.selected = k;
+    position += size;
+    return batch;
+  }
+
+  // fills vector i with up to batchSize values, returns how many
+  private int fill(int i)
+      throws InvalidTupleSizeException,
+      IOException {
+    int n = 0, got;
+    switch (batch.types[i]) {
+      case AttrType.attrInteger:
+        while (n < batchSize
+            && (got = scans[i].getNextInts(batch.ints[i], n, batchSize - n)) > 0) {
+          n += got;
+        }
+        break;
+      case AttrType.attrReal:
+        while (n < batchSize
+            && (got = scans[i].getNextFloats(batch.floats[i], n, batchSize - n)) > 0) {
+          n += got;
+        }
+        break;
+      default:
+        if (dictionaries[i] != null) {
+          while (n < batchSize
+              && (got = scans[i].getNextInts(codes, n, batchSize - n)) > 0) {
+            n += got;
+          }
+          for (int r = 0; r < n; r++) {
+            batch.strings[i][r] = dictionaries[i].decode(codes[r]);
+          }
+          break;
+        }
+        RID rid = new RID();
+        Tuple t;
+        while (n < batchSize && (t = scans[i].getNext(rid)) != null) {
+          byte[] data = t.getTupleByteArray();
+          batch.strings[i][n++] = Convert.getStrValue(0, data, data.length);
+        }
+        break;
+    }
+    return n;
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * File - ColumnDictionary.java
+ *
+ * Description -
+ *		The distinct values of a dictionary-encoded string column of a
+ *		columnar file, and the integer code each value is stored as.
+ */
+package columnar;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+
+import diskmgr.DB;
+import global.Convert;
+import global.RID;
+import global.SystemDefs;
+import heap.Heapfile;
+import heap.Scan;
+import heap.Tuple;
+
+/*
+ * The column's heapfile holds one 4-byte code per tuple, on dense pages
+ * like an int column, and the dictionary the values: value n is the one
+ * stored as code n.  The dictionary is kept in "name.column.dict", one
+ * record per value holding its code and the bytes the value was first
+ * inserted as, and in memory, one per column and database, shared by
+ * all the Columnarfile objects opened on the file.
+ *
+ * Codes are handed out in order of first insert and never change;
+ * values are not dropped when their last tuple is deleted.  The codes
+ * keep no order, so only equality can be decided on a code alone: a
+ * range predicate is decided once per distinct value instead.
+ */
+public class ColumnDictionary {
+
+  // database -> column heapfile -> its dictionary
+  private static WeakHashMap<DB, HashMap<String, ColumnDictionary>> dictionaries =
+      new WeakHashMap<DB, HashMap<String, ColumnDictionary>>();
+
+  private Heapfile file;
+  private ArrayList<byte[]> bytes = new ArrayList<byte[]>();
+  private ArrayList<String> values = new ArrayList<String>();
+  private HashMap<String, Integer> codes = new HashMap<String, Integer>();
+
+  private ColumnDictionary() {
+  }
+
+  // The dictionary of a column (1-based) of a columnar file, read on first use
+  static synchronized ColumnDictionary get(String name, int column) throws CFException {
+    HashMap<String, ColumnDictionary> files = dictionaries.get(SystemDefs.JavabaseDB);
+    if (files == null) {
+      files = new HashMap<String, ColumnDictionary>();
+      dictionaries.put(SystemDefs.JavabaseDB, files);
+    }
+    String fileName = fileName(name, column);
+    ColumnDictionary dictionary = files.get(fileName);
+    if (dictionary == null) {
+      dictionary = new ColumnDictionary();
+      try {
+        dictionary.file = new Heapfile(fileName);
+        dictionary.read();
+      } catch (Exception e) {
+        throw new CFException(e, "dictionary could not be read");
+      }
+      files.put(fileName, dictionary);
+    }
+    return dictionary;
+  }
+
+  // Drops the dictionary of a column and its file
+  static synchronized void delete(String name, int column) throws CFException {
+    String fileName = fileName(name, column);
+    HashMap<String, ColumnDictionary> files = dictionaries.get(SystemDefs.JavabaseDB);
+    if (files != null) {
+      files.remove(fileName);
+    }
+    try {
+      if (SystemDefs.JavabaseDB.get_file_entry(fileName) != null) {
+        new Heapfile(fileName).deleteFile();
+      }
+    } catch (Exception e) {
+      throw new CFException(e, "dictionary file could not be deleted");
+    }
+  }
+
+  private static String fileName(String name, int column) {
+    return name + "." + Integer.toString(column) + ".dict";
+  }
+
+  private void read() throws Exception {
+    Scan scan = file.openScan();
+    RID rid = new RID();
+    Tuple t;
+    try {
+      while ((t = scan.getNext(rid)) != null) {
+        byte[] rec = t.getTupleByteArray();
+        byte[] data = new byte[rec.length - 4];
+        System.arraycopy(rec, 4, data, 0, data.length);
+        put(Convert.getIntValue(0, rec), data);
+      }
+    } finally {
+      scan.closescan();
+    }
+  }
+
+  private void put(int code, byte[] data) throws Exception {
+    while (bytes.size() <= code) {
+      bytes.add(null);
+      values.add(null);
+    }
+    String value = Convert.getStrValue(0, data, data.length);
+    bytes.set(code, data);
+    values.set(code, value);
+    codes.put(value, code);
+  }
+
+  // The code of the value in data, given one if the value is new
+  synchronized int encode(byte[] data) throws CFException {
+    try {
+      String value = Convert.getStrValue(0, data, data.length);
+      Integer code = codes.get(value);
+      if (code != null) {
+        return code;
+      }
+      int next = values.size();
+      byte[] rec = new byte[4 + data.length];
+      Convert.setIntValue(next, 0, rec);
+      System.arraycopy(data, 0, rec, 4, data.length);
+      file.insertRecord(rec);
+      put(next, data.clone());
+      return next;
+    } catch (Exception e) {
+      throw new CFException(e, "dictionary insert failed");
+    }
+  }
+
+  // The code of a value, -1 if no tuple ever had it
+  public synchronized int lookup(String value) {
+    Integer code = codes.get(value);
+    return code == null ? -1 : code;
+  }
+
+  // The value stored as the code
+  public synchronized String decode(int code) {
+    return values.get(code);
+  }
+
+  // The value stored as the code, as the bytes it was inserted as
+  public synchronized byte[] valueBytes(int code) {
+    return bytes.get(code).clone();
+  }
+
+  // The number of distinct values, the codes are 0 to size()-1
+  public synchronized int size() {
+    return values.size();
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * File - ColumnarHeader.java
+ *
+ * Description -
+ *		The metadata of a columnar file, as read from its "name.hdr"
+ *		heapfile.
+ */
+package columnar;
+
+import java.util.HashMap;
+import java.util.WeakHashMap;
+
+import diskmgr.DB;
+import global.Convert;
+import global.RID;
+import global.SystemDefs;
+import heap.Heapfile;
+import heap.Scan;
+import heap.Tuple;
+
+/*
+ * "name.hdr" holds four records: the number of columns and the type
+ * of each, the sizes of the string columns, the column names, 50 bytes
+ * each, and the encoding of each column.  Files written before columns
+ * could be encoded have no fourth record: every column is plain.
+ *
+ * A header is read once per columnar file and database, the first time
+ * the file is opened, and kept until the file is deleted; the
+ * Columnarfile(String) constructor copies it instead of scanning
+ * "name.hdr" again.  A header is never changed once written, so it is
+ * not written back.
+ */
+class ColumnarHeader {
+
+  // database -> columnar file -> its header
+  private static WeakHashMap<DB, HashMap<String, ColumnarHeader>> headers =
+      new WeakHashMap<DB, HashMap<String, ColumnarHeader>>();
+
+  int numColumns;
+  int[] types;
+  short[] strSizes; // null when there are none
+  String[] columnNames;
+  byte[] encodings;
+
+  private ColumnarHeader() {
+  }
+
+  // The header of a columnar file, read on first use
+  static synchronized ColumnarHeader get(String name) throws CFException {
+    HashMap<String, ColumnarHeader> files = headers.get(SystemDefs.JavabaseDB);
+    if (files == null) {
+      files = new HashMap<String, ColumnarHeader>();
+      headers.put(SystemDefs.JavabaseDB, files);
+    }
+    ColumnarHeader header = files.get(name);
+    if (header == null) {
+      header = new ColumnarHeader();
+      try {
+        header.read(Heapfile.open(name + ".hdr"));
+      } catch (CFException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new CFException(e, "header could not be read");
+      }
+      files.put(name, header);
+    }
+    return header;
+  }
+
+  // Drops the header of a columnar file that is deleted
+  static synchronized void forget(String name) {
+    HashMap<String, ColumnarHeader> files = headers.get(SystemDefs.JavabaseDB);
+    if (files != null) {
+      files.remove(name);
+    }
+  }
+
+  private void read(Heapfile hdr) throws Exception {
+    RID rid = new RID();
+    Scan scan = hdr.openScan();
+    try {
+      Tuple tuple = scan.getNext(rid);
+      if (tuple == null) {
+        throw new CFException(null, "file corrupted");
+      }
+      byte[] data = tuple.getTupleByteArray();
+      numColumns = Convert.getShortValue(0, data);
+      types = new int[numColumns];
+      for (int i = 0; i < numColumns; i++) {
+        types[i] = Convert.getIntValue(2 + 4 * i, data);
+      }
+      tuple = scan.getNext(rid);
+      if (tuple == null) {
+        throw new CFException(null, "file corrupted");
+      }
+      data = tuple.getTupleByteArray();
+      short strSizesLength = Convert.getShortValue(0, data);
+      if (strSizesLength > 0) {
+        strSizes = new short[strSizesLength];
+      }
+      for (int i = 0; i < strSizesLength; i++) {
+        strSizes[i] = Convert.getShortValue(2 + 2 * i, data);
+      }
+      tuple = scan.getNext(rid);
+      if (tuple == null) {
+        throw new CFException(null, "file corrupted");
+      }
+      data = tuple.getTupleByteArray();
+      if (Convert.getShortValue(0, data) != numColumns) {
+        throw new CFException(null, "file corrupted");
+      }
+      columnNames = new String[numColumns];
+      for (int i = 0; i < numColumns; i++) {
+        columnNames[i] = Convert.getStrValue(2 + 50 * i, data, 50);
+      }
+      encodings = new byte[numColumns];
+      tuple = scan.getNext(rid);
+      if (tuple != null) {
+        data = tuple.getTupleByteArray();
+        System.arraycopy(data, 2, encodings, 0, numColumns);
+      }
+    } finally {
+      scan.closescan();
+    }
+  }
+}
@@ -0,0 +1,294 @@
+/*
+ * File - ColumnarLoader.java
+ *
+ * Description -
+ *		Loads rows into a columnar file in one pass, a batch of
+ *		rows at a time, each column written by its own writer.
+ */
+package columnar;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import bitmap.BitMapFile;
+import bitmap.CBitMapFile;
+import btree.BTreeFile;
+import btree.IntegerKey;
+import btree.KeyClass;
+import btree.StringKey;
+import bufmgr.ConcurrentBufMgr;
+import global.AttrType;
+import global.Convert;
+import global.IntegerValueClass;
+import global.RID;
+import global.StringValueClass;
+import global.SystemDefs;
+import global.ValueClass;
+import heap.Heapfile;
+
+/*
+ * add takes the values of a row, each as addToColumnarColumn takes
+ * it, into a buffer per column.  Every batchRows rows the buffer of
+ * each column goes to the writer of the column, which appends it to
+ * the column's heapfile with Heapfile.insertRecords, a pin per data
+ * page rather than one per value, and adds the values to the zone map
+ * and to the btree, bitmap and compressed bitmap indexes the column
+ * has.  A writer keeps its heapfile and index files open for the whole
+ * load, where addToColumnarColumn opens them for every value.
+ *
+ * With a ConcurrentBufMgr (a SystemDefs made with bm_stripes above 0)
+ * each column has a writer thread, fed through a queue of two batches
+ * so that add does not get far ahead of the writers.  A BufMgr is for
+ * one thread at a time: the batches are then written by the thread
+ * calling add, one column after the other.
+ *
+ * The rows take the positions after the tuples already in the file; a
+ * writer checks that its column gives each batch the same positions.
+ */
+public class ColumnarLoader {
+
+  // the end of the batches, for a writer thread
+  private static final byte[][] END = new byte[0][];
+
+  private Columnarfile cf;
+  private int numColumns;
+  private int batchRows;
+  private byte[][][] buffers; // column -> row -> value
+  private int buffered = 0;
+  private int rows = 0;
+  private Writer[] writers;
+  private Thread[] threads;
+
+  /*
+   * Opens the columns of a columnar file, and the index files they
+   * have, for loading batches of batchRows rows; with a
+   * ConcurrentBufMgr, starts a writer thread per column.
+   */
+  public ColumnarLoader(Columnarfile cf, int batchRows) throws CFException {
+    this.cf = cf;
+    this.numColumns = cf.type.length;
+    this.batchRows = batchRows;
+    buffers = new byte[numColumns][batchRows][];
+    writers = new Writer[numColumns];
+    try {
+      int position = Heapfile.open(cf.get_fileName() + ".1").getRecCnt();
+      ZoneMap zoneMap = cf.getZoneMap();
+      for (int c = 0; c < numColumns; c++) {
+        writers[c] = new Writer(c, position, zoneMap);
+      }
+    } catch (CFException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CFException(e, "columnar loader could not be opened");
+    }
+    if (SystemDefs.JavabaseBM instanceof ConcurrentBufMgr) {
+      threads = new Thread[numColumns];
+      for (int c = 0; c < numColumns; c++) {
+        threads[c] = new Thread(writers[c], "ColumnarLoader-" + (c + 1));
+        threads[c].start();
+      }
+    }
+  }
+
+  // Adds a row, a value per column
+  public void add(byte[][] row) throws CFException {
+    for (int c = 0; c < numColumns; c++) {
+      buffers[c][buffered] = row[c];
+    }
+    buffered++;
+    rows++;
+    if (buffered == batchRows) {
+      flush();
+    }
+  }
+
+  // the buffered rows go to the writers
+  private void flush() throws CFException {
+    if (buffered == 0) {
+      return;
+    }
+    for (int c = 0; c < numColumns; c++) {
+      byte[][] batch = buffers[c];
+      if (buffered < batchRows) {
+        batch = new byte[buffered][];
+        System.arraycopy(buffers[c], 0, batch, 0, buffered);
+      }
+      if (threads == null) {
+        writers[c].write(batch);
+      } else {
+        writers[c].put(batch);
+        buffers[c] = new byte[batchRows][];
+      }
+    }
+    buffered = 0;
+  }
+
+  /*
+   * Writes the rows left, waits for the writers and closes the files,
+   * returns the number of rows loaded.  The first error of a writer is
+   * thrown here.
+   */
+  public int finish() throws CFException {
+    CFException failure = null;
+    try {
+      flush();
+    } catch (CFException e) {
+      failure = e;
+    }
+    if (threads != null) {
+      for (int c = 0; c < numColumns; c++) {
+        writers[c].put(END);
+      }
+      for (int c = 0; c < numColumns; c++) {
+        try {
+          threads[c].join();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+    for (int c = 0; c < numColumns; c++) {
+      writers[c].close();
+      if (failure == null && writers[c].failure != null) {
+        failure = writers[c].failure;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    return rows;
+  }
+
+  // Writes the batches of a column
+  private class Writer implements Runnable {
+
+    private int column; // 0-based
+    private int position; // of the next value
+    private ZoneMap zoneMap;
+    private Heapfile hf;
+    private BTreeFile btf;
+    private BitMapFile bmf;
+    private CBitMapFile cbmf;
+    private ArrayBlockingQueue<byte[][]> queue = new ArrayBlockingQueue<byte[][]>(2);
+    private CFException failure;
+
+    Writer(int column, int position, ZoneMap zoneMap) throws Exception {
+      this.column = column;
+      this.position = position;
+      this.zoneMap = zoneMap;
+      String name = cf.get_fileName();
+      int columnNo = column + 1;
+      hf = Heapfile.open(name + "." + columnNo);
+      if (cf.type[column].attrType == AttrType.attrReal) {
+        return;
+      }
+      if (SystemDefs.JavabaseDB.get_file_entry(name + ".btree" + columnNo) != null) {
+        btf = new BTreeFile(name + ".btree" + columnNo);
+      }
+      if (SystemDefs.JavabaseDB.get_file_entry(name + ".bitmap" + columnNo) != null) {
+        bmf = new BitMapFile(name + ".bitmap" + columnNo);
+        bmf.setSrcColumnarFile(cf);
+        bmf.setMappedColumn(columnNo);
+        bmf.setMapType(cf.type[column].attrType);
+      }
+      if (SystemDefs.JavabaseDB.get_file_entry(name + ".cbitmap" + columnNo) != null) {
+        cbmf = new CBitMapFile(name + ".cbitmap" + columnNo);
+        cbmf.setSrcColumnarFile(cf);
+        cbmf.setMappedColumn(columnNo);
+        cbmf.setMapType(cf.type[column].attrType);
+      }
+    }
+
+    void put(byte[][] batch) throws CFException {
+      try {
+        queue.put(batch);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CFException(e, "columnar loader interrupted");
+      }
+    }
+
+    public void run() {
+      try {
+        byte[][] batch;
+        while ((batch = queue.take()) != END) {
+          // after an error the batches are taken, not written, so that
+          // add does not wait for room in the queue
+          if (failure == null) {
+            try {
+              write(batch);
+            } catch (CFException e) {
+              failure = e;
+            }
+          }
+        }
+      } catch (InterruptedException e) {
+        failure = new CFException(e, "columnar loader interrupted");
+      }
+    }
+
+    void write(byte[][] values) throws CFException {
+      int n = values.length;
+      try {
+        byte[][] recs = new byte[n][];
+        for (int k = 0; k < n; k++) {
+          recs[k] = cf.encodeValue(column + 1, values[k]);
+        }
+        RID[] rids = new RID[n];
+        int first = hf.insertRecords(recs, n, rids);
+        if (first != position) {
+          throw new CFException(null, "Insertion failed: position mismatch");
+        }
+        for (int k = 0; k < n; k++) {
+          zoneMap.add(column + 1, rids[k], values[k]);
+          if (btf != null) {
+            btf.insert(key(values[k]), rids[k]);
+          }
+          if (bmf != null) {
+            bmf.Insert(value(values[k]), first + k);
+          }
+          if (cbmf != null) {
+            cbmf.Insert(value(values[k]), first + k);
+          }
+        }
+        position += n;
+      } catch (CFException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new CFException(e, "columnar loader write failed");
+      }
+    }
+
+    private KeyClass key(byte[] data) throws IOException {
+      if (cf.type[column].attrType == AttrType.attrInteger) {
+        return new IntegerKey(Convert.getIntValue(0, data));
+      }
+      return new StringKey(Convert.getStrValue(0, data, data.length));
+    }
+
+    private ValueClass value(byte[] data) throws IOException {
+      if (cf.type[column].attrType == AttrType.attrInteger) {
+        return new IntegerValueClass(Convert.getIntValue(0, data));
+      }
+      return new StringValueClass(Convert.getStrValue(0, data, data.length));
+    }
+
+    void close() {
+      try {
+        if (btf != null) {
+          btf.close();
+        }
+        if (bmf != null) {
+          bmf.close();
+        }
+        if (cbmf != null) {
+          cbmf.close();
+        }
+      } catch (Exception e) {
+        if (failure == null) {
+          failure = new CFException(e, "columnar loader could not close the indexes");
+        }
+      }
+    }
+  }
+}
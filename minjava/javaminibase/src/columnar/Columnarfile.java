@@ -17,14 +17,16 @@ import bufmgr.ReplacerException;
 import diskmgr.*;
 import global.*;
 import heap.*;
-import index.IndexUtils;
 import iterator.CondExpr;
-import iterator.FileScan;
 import iterator.FldSpec;
-import iterator.RelSpec;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class Columnarfile implements GlobalConst {
   public static int numColumns;
@@ -34,6 +36,10 @@ public class Columnarfile implements GlobalConst {
 
   private String _fileName;
   private boolean _file_deleted;
+  // the dictionary of each dictionary-encoded column, null for the others
+  private ColumnDictionary[] dictionaries;
+  // the int columns stored on packed pages
+  private boolean[] packed;
 
   public String get_fileName() {
     return _fileName;
@@ -65,51 +71,23 @@ public class Columnarfile implements GlobalConst {
       throw new CFException(null, "file does not exist");
     }
     this._fileName = name;
-    Heapfile hdr = new Heapfile(name + ".hdr");
-    RID rid = new RID();
-    Scan scan = hdr.openScan();
-    try {
-      Tuple tuple = scan.getNext(rid);
-      if (tuple == null) {
-        throw new CFException(null, "file corrupted");
-      }
-      byte[] data = tuple.getTupleByteArray();
-      Columnarfile.numColumns = Convert.getShortValue(0, data);
-      this.type = new AttrType[Columnarfile.numColumns];
-      for (int i = 0; i < Columnarfile.numColumns; i++) {
-        this.type[i] = new AttrType(Convert.getIntValue(2 + 4 * i, data));
-      }
-      tuple = scan.getNext(rid);
-      if (tuple == null) {
-        throw new CFException(null, "file corrupted");
-      }
-      data = tuple.getTupleByteArray();
-      short strSizesLength = Convert.getShortValue(0, data);
-      if (strSizesLength == 0) {
-        this.strSizes = null;
-      } else {
-        this.strSizes = new short[strSizesLength];
-      }
-      for (int i = 0; i < strSizesLength; i++) {
-        this.strSizes[i] = Convert.getShortValue(2 + 2 * i, data);
-      }
-      tuple = scan.getNext(rid);
-      if (tuple == null) {
-        throw new CFException(null, "file corrupted");
-      }
-      data = tuple.getTupleByteArray();
-      short columnNamesLength = Convert.getShortValue(0, data);
-      if (columnNamesLength != Columnarfile.numColumns) {
-        throw new CFException(null, "file corrupted");
-      }
-      this.columnNames = new String[columnNamesLength];
-      for (int i = 0; i < Columnarfile.numColumns; i++) {
-        this.columnNames[i] = Convert.getStrValue(2 + 50 * i, data, 50);
+    // the header is read once, and each file opened on it gets a copy:
+    // BatchInsert sets its own column types
+    ColumnarHeader header = ColumnarHeader.get(name);
+    Columnarfile.numColumns = header.numColumns;
+    this.type = new AttrType[header.numColumns];
+    for (int i = 0; i < header.numColumns; i++) {
+      this.type[i] = new AttrType(header.types[i]);
+    }
+    this.strSizes = header.strSizes == null ? null : header.strSizes.clone();
+    this.columnNames = header.columnNames.clone();
+    this.dictionaries = new ColumnDictionary[header.numColumns];
+    this.packed = new boolean[header.numColumns];
+    for (int i = 0; i < header.numColumns; i++) {
+      if (header.encodings[i] == ENCODING_DICTIONARY) {
+        this.dictionaries[i] = ColumnDictionary.get(name, i + 1);
       }
-    } catch (Exception e) {
-      e.printStackTrace();
-    } finally {
-      scan.closescan();
+      this.packed[i] = header.encodings[i] == ENCODING_PACKED;
     }
   }
 
@@ -133,9 +111,64 @@ public class Columnarfile implements GlobalConst {
       FileIOException,
       InvalidPageNumberException,
       DiskMgrException {
+    this(name, numColumns, type, sSizes, colNames, (byte[]) null);
+  }
+
+  /*
+   * As above, with the string columns for which dictionaryEncoded[i] is
+   * true stored dictionary encoded: an int code per tuple, on dense
+   * pages, and the distinct values once, in "name.columnid.dict".
+   * A null dictionaryEncoded stores every column plain.
+   */
+  public Columnarfile(String name, int numColumns, AttrType[] type,
+      short[] sSizes, String[] colNames, boolean[] dictionaryEncoded)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      IOException,
+      InvalidSlotNumberException,
+      InvalidTupleSizeException,
+      SpaceNotAvailableException,
+      CFException,
+      FileIOException,
+      InvalidPageNumberException,
+      DiskMgrException {
+    this(name, numColumns, type, sSizes, colNames, dictionaryEncodings(dictionaryEncoded));
+  }
+
+  /*
+   * As above, with the encoding of each column given: ENCODING_PLAIN,
+   * ENCODING_DICTIONARY for a string column, or ENCODING_PACKED for an
+   * int column stored on packed pages, each compressed with the
+   * encoding that suits its values (see heap.PackedInts).  A null
+   * encodings stores every column plain.
+   */
+  public Columnarfile(String name, int numColumns, AttrType[] type,
+      short[] sSizes, String[] colNames, byte[] encodings)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      IOException,
+      InvalidSlotNumberException,
+      InvalidTupleSizeException,
+      SpaceNotAvailableException,
+      CFException,
+      FileIOException,
+      InvalidPageNumberException,
+      DiskMgrException {
     if (SystemDefs.JavabaseDB.get_file_entry(name + ".hdr") != null) {
       throw new CFException(null, "file alread exists");
     }
+    if (encodings != null) {
+      for (int i = 0; i < encodings.length; i++) {
+        if (encodings[i] == ENCODING_DICTIONARY && type[i].attrType != AttrType.attrString) {
+          throw new CFException(null, "only string columns can be dictionary encoded");
+        }
+        if (encodings[i] == ENCODING_PACKED && type[i].attrType != AttrType.attrInteger) {
+          throw new CFException(null, "only int columns can be packed");
+        }
+      }
+    }
     _file_deleted = true;
     Columnarfile.numColumns = numColumns;
     this.type = type;
@@ -166,24 +199,59 @@ public class Columnarfile implements GlobalConst {
       Convert.setStrValue(this.columnNames[i], 2 + 50 * i, data);
     }
     hdr.insertRecord(data);
+    data = new byte[2 + Columnarfile.numColumns];
+    Convert.setShortValue((short) Columnarfile.numColumns, 0, data);
+    this.dictionaries = new ColumnDictionary[numColumns];
+    this.packed = new boolean[numColumns];
     for (int i = 0; i < numColumns; i++) {
-      new Heapfile(name + "." + Integer.toString(i + 1));
+      data[2 + i] = encodings == null ? ENCODING_PLAIN : encodings[i];
+      if (data[2 + i] == ENCODING_DICTIONARY) {
+        this.dictionaries[i] = ColumnDictionary.get(name, i + 1);
+      }
+      this.packed[i] = data[2 + i] == ENCODING_PACKED;
     }
-    new Heapfile(name + ".deleted");
-    try {
-      new BTreeFile(
-          name + ".deletedBTree",
-          AttrType.attrInteger,
-          4, // keysize
-          DeleteFashion.FULL_DELETE)
-          .close();
-    } catch (Exception e) {
-      e.printStackTrace();
-      throw new CFException(e, "Unable to create btree deleted file");
+    hdr.insertRecord(data);
+    // int and real columns, and the codes of dictionary-encoded ones,
+    // are packed onto dense pages, or packed int columns onto packed
+    // pages
+    for (int i = 0; i < numColumns; i++) {
+      new Heapfile(name + "." + Integer.toString(i + 1),
+          packed[i] ? Heapfile.PACKED_INTS
+              : dictionaries[i] != null ? 4 : valueWidth(type[i]));
     }
+    new Heapfile(name + ".delvec");
+    new Heapfile(name + ".zone");
     _file_deleted = false;
   }
 
+  // the encodings of the columns, in the fourth record of "name.hdr"
+  public static final byte ENCODING_PLAIN = 0;
+  public static final byte ENCODING_DICTIONARY = 1;
+  public static final byte ENCODING_PACKED = 2;
+
+  // The encodings of the boolean[] constructor
+  private static byte[] dictionaryEncodings(boolean[] dictionaryEncoded) {
+    if (dictionaryEncoded == null) {
+      return null;
+    }
+    byte[] encodings = new byte[dictionaryEncoded.length];
+    for (int i = 0; i < dictionaryEncoded.length; i++) {
+      encodings[i] = dictionaryEncoded[i] ? ENCODING_DICTIONARY : ENCODING_PLAIN;
+    }
+    return encodings;
+  }
+
+  // Width of the values of a fixed-width column type, 0 for strings
+  public static int valueWidth(AttrType attrType) {
+    switch (attrType.attrType) {
+      case AttrType.attrInteger:
+      case AttrType.attrReal:
+        return 4;
+      default:
+        return 0;
+    }
+  }
+
   // Delete all relevant files from the database.
   public void deleteColumnarFile()
       throws FileAlreadyDeletedException,
@@ -191,6 +259,7 @@ public class Columnarfile implements GlobalConst {
     if (_file_deleted)
       throw new FileAlreadyDeletedException(null, "file alread deleted");
     boolean isCFException = false;
+    ColumnarHeader.forget(_fileName);
     try {
       Heapfile hdr = new Heapfile(_fileName + ".hdr");
       hdr.deleteFile();
@@ -210,19 +279,29 @@ public class Columnarfile implements GlobalConst {
       }
     }
     try {
-      Heapfile deleted = new Heapfile(_fileName + ".deleted");
-      deleted.deleteFile();
+      DeletionVector.delete(_fileName);
+      deleteLegacyDeletedFiles();
     } catch (Exception e) {
       isCFException = true;
-      System.err.println("FileName :" + _fileName + ".deleted"
+      System.err.println("FileName :" + _fileName + ".delvec"
           + " deleteColumnarFile: " + e);
     }
+    for (int i = 0; i < numColumns; i++) {
+      if (dictionaries[i] != null) {
+        try {
+          ColumnDictionary.delete(_fileName, i + 1);
+        } catch (Exception e) {
+          isCFException = true;
+          System.err.println("FileName :" + _fileName + "." + Integer.toString(i + 1)
+              + ".dict deleteColumnarFile: " + e);
+        }
+      }
+    }
     try {
-      BTreeFile deleted = new BTreeFile(_fileName + ".deletedBTree");
-      deleted.destroyFile();
+      ZoneMap.delete(_fileName);
     } catch (Exception e) {
       isCFException = true;
-      System.err.println("FileName :" + _fileName + ".deletedBTree"
+      System.err.println("FileName :" + _fileName + ".zone"
           + " deleteColumnarFile: " + e);
     }
     if (isCFException) {
@@ -250,13 +329,15 @@ public class Columnarfile implements GlobalConst {
     for (int i = 0; i < fldCnt + 1; i++) {
       fldOffset[i] = Convert.getShortValue(2 * (i + 1), tuplePtr);
     }
+    ZoneMap zoneMap = getZoneMap();
     for (int i = 0; i < fldCnt; i++) {
       int length = fldOffset[i + 1] - fldOffset[i];
       byte[] data = new byte[length];
       System.arraycopy(tuplePtr, fldOffset[i], data, 0, length);
-      Heapfile hf = new Heapfile(_fileName + "." + Integer.toString(i + 1));
-      Heapfile.RIDPosition ridPosition = hf.insertRecordRaw(data);
+      Heapfile hf = Heapfile.open(_fileName + "." + Integer.toString(i + 1));
+      Heapfile.RIDPosition ridPosition = hf.insertRecordRaw(encodeValue(i + 1, data));
       recordIDs[i] = ridPosition.rid;
+      zoneMap.add(i + 1, ridPosition.rid, data);
       if (position != -1 && position != ridPosition.position) {
         throw new CFException(null, "Insertion failed: position mismatch");
       } else {
@@ -272,8 +353,8 @@ public class Columnarfile implements GlobalConst {
       Exception {
     Tuple[] tupleByte2DArray = new Tuple[numColumns];
     for (int i = 0; i < numColumns; i++) {
-      Heapfile hf = new Heapfile(_fileName + "." + Integer.toString(i + 1));
-      tupleByte2DArray[i] = hf.getRecordNoCheck(tid.recordIDs[i]);
+      Heapfile hf = Heapfile.open(_fileName + "." + Integer.toString(i + 1));
+      tupleByte2DArray[i] = decodeValue(i + 1, hf.getRecordNoCheck(tid.recordIDs[i]));
     }
     return getTupleFromColTuples(tupleByte2DArray);
   }
@@ -296,8 +377,8 @@ public class Columnarfile implements GlobalConst {
     Tuple[] tupleByte2DArray = new Tuple[numColumns];
     for (int i = 0; i < numColumns; i++) {
       if (Arrays.asList(projOffset).contains(i + 1)) {
-        Heapfile hf = new Heapfile(_fileName + "." + Integer.toString(i + 1));
-        tupleByte2DArray[i] = hf.getRecordNoCheck(tid.recordIDs[i]);
+        Heapfile hf = Heapfile.open(_fileName + "." + Integer.toString(i + 1));
+        tupleByte2DArray[i] = decodeValue(i + 1, hf.getRecordNoCheck(tid.recordIDs[i]));
       } else {
         byte[] data = null;
         switch (type[i].attrType) {
@@ -333,7 +414,7 @@ public class Columnarfile implements GlobalConst {
   }
 
   public Tuple getTupleFromColTuples(Tuple[] colTupleArray) throws IOException {
-    byte[] data = new byte[MINIBASE_PAGESIZE];
+    byte[] data = new byte[SystemDefs.JavabasePageSize];
     Convert.setShortValue((short) numColumns, 0, data);
     short[] fldOffset = new short[numColumns + 1];
     fldOffset[0] = (short) (2 * (numColumns + 2));
@@ -381,13 +462,13 @@ public class Columnarfile implements GlobalConst {
 		InvalidTupleSizeException,
 		Exception
 	{
-		Heapfile hf = new Heapfile(_fileName + "." + Integer.toString(column));
+		Heapfile hf = Heapfile.open(_fileName + "." + Integer.toString(column));
 		Tuple t = hf.getRecord(tid.recordIDs[column - 1]);
 		if (t == null)
 		{
 			throw new CFException(null, "Invalid TID");
 		}
-		byte[] data = t.getTupleByteArray();
+		byte[] data = decodeValue(column, t).getTupleByteArray();
 		switch (type[column - 1].attrType)
 		{
 			case AttrType.attrInteger:
@@ -409,7 +490,7 @@ public class Columnarfile implements GlobalConst {
       HFDiskMgrException,
       HFBufMgrException,
       IOException {
-    return new Heapfile(_fileName + ".1").getRecCnt();
+    return Heapfile.open(_fileName + ".1").getRecCnt();
   }
 
   // Initiate a sequential scan of tuples.
@@ -429,10 +510,92 @@ public class Columnarfile implements GlobalConst {
       IOException,
       HFBufMgrException,
       HFDiskMgrException {
-    Heapfile hf = new Heapfile(_fileName + "." + Integer.toString(columnNo));
+    Heapfile hf = Heapfile.open(_fileName + "." + Integer.toString(columnNo));
+    if (isDictionaryEncoded(columnNo)) {
+      return new DictionaryScan(hf, null, dictionaries[columnNo - 1]);
+    }
     return hf.openScan();
   }
 
+  // Initiate a scan along a given column that passes over the data pages
+  // on which, by the zone map, none of the predicates on the column can
+  // hold. Scan.getPosition gives the position of each value.
+  public Scan openColumnScan(int columnNo, CondExpr[] preds)
+      throws HFException,
+      InvalidTupleSizeException,
+      IOException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      CFException {
+    for (int i = 0; i < preds.length; i++) {
+      if (preds[i].operand1.symbol.offset != columnNo) {
+        throw new CFException(null, "predicate on another column");
+      }
+    }
+    Heapfile hf = Heapfile.open(_fileName + "." + Integer.toString(columnNo));
+    if (isDictionaryEncoded(columnNo)) {
+      return new DictionaryScan(hf, getZoneMap().pageFilter(preds), dictionaries[columnNo - 1]);
+    }
+    return hf.openScan(getZoneMap().pageFilter(preds));
+  }
+
+  // Is the column (1-based) stored as dictionary codes?
+  public boolean isDictionaryEncoded(int column) {
+    return column >= 1 && column <= dictionaries.length
+        && dictionaries[column - 1] != null;
+  }
+
+  // Is the int column (1-based) stored on packed pages?
+  public boolean isPacked(int column) {
+    return column >= 1 && column <= packed.length && packed[column - 1];
+  }
+
+  // The dictionary of a column (1-based), null for a plain column
+  public ColumnDictionary getDictionary(int column) {
+    return isDictionaryEncoded(column) ? dictionaries[column - 1] : null;
+  }
+
+  // The record a column's (1-based) heapfile stores for a value
+  byte[] encodeValue(int column, byte[] data) throws CFException {
+    if (!isDictionaryEncoded(column)) {
+      return data;
+    }
+    byte[] code = new byte[4];
+    try {
+      Convert.setIntValue(dictionaries[column - 1].encode(data), 0, code);
+    } catch (IOException e) {
+      throw new CFException(e, "dictionary encoding failed");
+    }
+    return code;
+  }
+
+  // The value of a record read from a column's (1-based) heapfile
+  private Tuple decodeValue(int column, Tuple record) throws IOException {
+    if (!isDictionaryEncoded(column)) {
+      return record;
+    }
+    byte[] data = dictionaries[column - 1].valueBytes(
+        Convert.getIntValue(0, record.getTupleByteArray()));
+    return new Tuple(data, 0, data.length);
+  }
+
+  // The min/max zones of the data pages of the columns
+  public ZoneMap getZoneMap() throws CFException {
+    return ZoneMap.get(this);
+  }
+
+  // Initiate a scan of the given columns (1-based) that returns their
+  // values batchSize positions at a time, as primitive vectors.
+  public ColumnBatchScan openColumnBatchScan(int[] columns, int batchSize)
+      throws HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      InvalidTupleSizeException,
+      IOException,
+      CFException {
+    return new ColumnBatchScan(this, columns, batchSize);
+  }
+
   // Updates the specified record in the columnar file.
   public boolean updateTuple(TID tid, Tuple newtuple) {
     boolean status = true;
@@ -473,9 +636,14 @@ public class Columnarfile implements GlobalConst {
     int length = fldOffset[column + 1] - fldOffset[column];
     byte[] data = new byte[length];
     System.arraycopy(newTuplePtr, fldOffset[column], data, 0, length);
-    Tuple newColTuple = new Tuple(data, 0, length);
-    Heapfile hf = new Heapfile(_fileName + "." + Integer.toString(column));
-    return hf.updateRecord(tid.recordIDs[column], newColTuple);
+    byte[] stored = encodeValue(column, data);
+    Tuple newColTuple = new Tuple(stored, 0, stored.length);
+    Heapfile hf = Heapfile.open(_fileName + "." + Integer.toString(column));
+    if (!hf.updateRecord(tid.recordIDs[column], newColTuple)) {
+      return false;
+    }
+    getZoneMap().add(column, tid.recordIDs[column], data);
+    return true;
   }
 
 	/*
@@ -488,8 +656,9 @@ public class Columnarfile implements GlobalConst {
 		try
 		{
 			//either create or open an existing Heapfile of "<columnar-file-name>.<column-#>"
-			Heapfile heapfile = new Heapfile(_fileName + "." + Integer.toString(column + 1));
-			RID rid = heapfile.insertRecord(data);
+			Heapfile heapfile = Heapfile.open(_fileName + "." + Integer.toString(column + 1));
+			RID rid = heapfile.insertRecord(encodeValue(column + 1, data));
+			getZoneMap().add(column + 1, rid, data);
 			//currently no indexes support Real typed variables
 			if( AttrType.attrReal != type[column].attrType )
 			{
@@ -657,6 +826,19 @@ public class Columnarfile implements GlobalConst {
 		throws GetFileEntryException, ConstructPageException,
 		IOException, AddFileEntryException, HFBufMgrException,
 		HFException, HFDiskMgrException
+	{
+		return createBitMapIndex(columnNo, value, compressed, CBitMapFile.FORMAT_BYTE_RUNS);
+	}
+
+	/*
+	 * As above, with the pages of a compressed bitmap in the given format:
+	 * CBitMapFile.FORMAT_BYTE_RUNS, the byte-wide runs of CBMPage, or
+	 * CBitMapFile.FORMAT_WORDS, the word-aligned runs of WBMPage.
+	 */
+	public boolean createBitMapIndex(int columnNo, ValueClass value, boolean compressed, int format)
+		throws GetFileEntryException, ConstructPageException,
+		IOException, AddFileEntryException, HFBufMgrException,
+		HFException, HFDiskMgrException
 	{
 		boolean createdNewBitmap = false;
 		//create the name of the file that is being created
@@ -686,12 +868,12 @@ public class Columnarfile implements GlobalConst {
 					if( AttrType.attrInteger == keyTypeArg )
 					{
 						IntegerValueClass valueType = new IntegerValueClass();
-						tmpBMF = new CBitMapFile(bmFileName, this, columnNo, valueType);
+						tmpBMF = new CBitMapFile(bmFileName, this, columnNo, valueType, format);
 					}
 					else
 					{
 						StringValueClass valueType = new StringValueClass();
-						tmpBMF = new CBitMapFile(bmFileName, this, columnNo, valueType);
+						tmpBMF = new CBitMapFile(bmFileName, this, columnNo, valueType, format);
 					}
 					tmpBMF.close();
 				}
@@ -809,7 +991,7 @@ public class Columnarfile implements GlobalConst {
 		}
 	}
 
-  // add the tuple to a heapfile tracking the deleted tuples from the columnar
+  // mark the position of the tuple in the deletion vector of the columnar
   // file
   public boolean markTupleDeleted(TID tid)
       throws IOException,
@@ -824,37 +1006,15 @@ public class Columnarfile implements GlobalConst {
       HFDiskMgrException,
       CFException {
 
-    if (isTupleMarkedDeleted(tid.position)) {
-      return true;
-    }
-
-    Tuple tuple = new Tuple();
-    short numTidFlds = (short) (2 + numColumns * 2);
-    int offest = 2 * (1 + numTidFlds + 1);
-    AttrType[] attrType = new AttrType[numTidFlds];
-    for (int i = 0; i < numTidFlds; i++) {
-      attrType[i] = new AttrType(AttrType.attrInteger);
-    }
-    try {
-      tuple.setHdr(numTidFlds, attrType, null);
-    } catch (InvalidTypeException e) {
-      e.printStackTrace();
-    }
-    byte[] tupleData = tuple.getTupleByteArray();
-    tid.writeToByteArray(tupleData, offest);
-    RID rid = new Heapfile(_fileName + ".deleted").insertRecord(tupleData);
-    try {
-      BTreeFile btf = new BTreeFile(_fileName + ".deletedBTree");
-      btf.insert(new IntegerKey(tid.position), rid);
-      btf.close();
-    } catch (Exception e) {
-      e.printStackTrace();
+    if (getDeletionVector().mark(tid.position)) {
+      getZoneMap().markDeleted(tid.position);
     }
     return true;
 
   }
 
-  // merge all deleted tuples from the file and all from all index files.
+  // remove all deleted tuples from the file, compacting every data page
+  // that holds one, then free the data pages left empty
   public boolean purgeAllDeletedTuples()
       throws IOException,
       HFDiskMgrException,
@@ -864,81 +1024,214 @@ public class Columnarfile implements GlobalConst {
       InvalidSlotNumberException,
       CFException,
       Exception {
-    Heapfile deletedHf = new Heapfile(_fileName + ".deleted");
+    compactDeletedTuples(Integer.MAX_VALUE);
+    deleteLegacyDeletedFiles();
 
-    // setting up the Iterator for deleted sorted scan
-    short numTidFlds = (short) (2 + numColumns * 2);
-    int offset = 2 * (1 + numTidFlds + 1);
-    AttrType[] attrType = new AttrType[numTidFlds];
-    for (int i = 0; i < numTidFlds; i++) {
-      attrType[i] = new AttrType(AttrType.attrInteger);
-    }
-    FldSpec[] projlist = new FldSpec[numTidFlds];
-    for (int i = 0; i < numTidFlds; i++) {
-      projlist[i] = new FldSpec(new RelSpec(RelSpec.outer), i + 1);
+    // purging Data pages and Directory pages
+    for (int i = 0; i < numColumns; i++) {
+      Heapfile hf = Heapfile.open(_fileName + "." + Integer.toString(i + 1));
+      hf.purgeDataPages();
+      hf.purgeDirPages();
     }
-    FileScan deletedFileScan = new FileScan(
-        _fileName + ".deleted",
-        attrType,
-        null, // strSizes[]
-        (short) numTidFlds, // in_flds
-        numTidFlds, // out_flds
-        projlist,
-        null // condExpr
-    );
+    ZoneMap.rebuild(this);
+
+    return true;
+  }
 
-    Tuple tuple = deletedFileScan.get_next();
-    while (tuple != null) {
-      TID tid = new TID(tuple.getTupleByteArray(), offset);
-      // System.out.println("Purging TID: " + tid.position);
-      boolean isDeleted = this._deleteTuple(tid, true);
-      if (isDeleted == false) {
-        throw new CFException(null, "purgeAllDeletedTuples failed: deletedfile");
+  /*
+   * Removes tuples marked deleted from the data pages that hold them, a
+   * batch of at most maxPages data pages, over all columns, a call (but
+   * at least one tuple), and returns how many it removed, 0 once there
+   * is nothing left it can remove.  Only those pages are rewritten (see
+   * Heapfile.compactPage): the other records stay where they are and
+   * the tuples after a removed one move down a position.  The deletion
+   * vector, the zone maps and the btree indexes of the columns are
+   * brought up to date, and so are the bitmap indexes, keyed by
+   * position, from the first position removed on.
+   *
+   * A packed page whose values would no longer fit it keeps the tuples,
+   * still marked deleted, until enough of its values are deleted.
+   */
+  public int compactDeletedTuples(int maxPages) throws CFException {
+    try {
+      DeletionVector vector = getDeletionVector();
+      ZoneMap zoneMap = getZoneMap();
+      BitSet deleted = vector.positions();
+      Heapfile[] hf = new Heapfile[numColumns];
+      for (int c = 0; c < numColumns; c++) {
+        hf[c] = Heapfile.open(_fileName + "." + Integer.toString(c + 1));
+      }
+
+      BitSet batch = new BitSet();
+      HashMap<Integer, RID[]> rids = new HashMap<Integer, RID[]>();
+      List<HashMap<Integer, BitSet>> pages = null;
+      for (int from = 0; batch.isEmpty(); ) {
+        int p = deleted.nextSetBit(from);
+        if (p < 0) {
+          return 0;
+        }
+        // the next deleted positions, as long as the pages holding
+        // them stay within maxPages
+        pages = byPage(batch, rids);
+        int touched = 0;
+        for (; p >= 0; p = deleted.nextSetBit(p + 1)) {
+          RID[] r = new RID[numColumns];
+          int added = 0;
+          for (int c = 0; c < numColumns; c++) {
+            r[c] = hf[c].getRidFromPosition(p);
+            if (!pages.get(c).containsKey(r[c].pageNo.pid)) {
+              added++;
+            }
+          }
+          if (!batch.isEmpty() && touched + added > maxPages) {
+            break;
+          }
+          touched += added;
+          batch.set(p);
+          rids.put(p, r);
+          for (int c = 0; c < numColumns; c++) {
+            slotsOf(pages.get(c), r[c].pageNo.pid).set(r[c].slotNo);
+          }
+          from = p + 1;
+        }
+
+        // leave out the tuples of packed pages that cannot take them
+        // out, until all the pages left can
+        boolean changed = true;
+        while (changed && !batch.isEmpty()) {
+          changed = false;
+          for (int c = 0; c < numColumns && !changed; c++) {
+            if (!packed[c]) {
+              continue;
+            }
+            for (Map.Entry<Integer, BitSet> e : pages.get(c).entrySet()) {
+              if (!hf[c].canCompactPage(new PageId(e.getKey()), e.getValue())) {
+                for (int q = batch.nextSetBit(0); q >= 0; q = batch.nextSetBit(q + 1)) {
+                  if (rids.get(q)[c].pageNo.pid == e.getKey()) {
+                    batch.clear(q);
+                  }
+                }
+                changed = true;
+                break;
+              }
+            }
+          }
+          if (changed) {
+            pages = byPage(batch, rids);
+          }
+        }
       }
-      tuple = deletedFileScan.get_next();
-    }
-    deletedFileScan.close();
 
-    // purging
-    boolean isDeleted = false;
-    TupleScan tupleScan = this.openTupleScan();
-    TID tid = new TID(Columnarfile.numColumns, -1, new RID[numColumns]);
-    Tuple toBeReinserted = new Tuple();
-    TID toBeReinsertedTID = new TID(Columnarfile.numColumns);
-    tuple = tupleScan.getNext(tid);
-    while (tuple != null) {
-      toBeReinserted = new Tuple(tuple);
-      toBeReinsertedTID.copyTid(tid);
-      tuple = tupleScan.getNext(tid);
-      isDeleted = this._deleteTuple(toBeReinsertedTID, true);
-      if (isDeleted == false) {
-        throw new CFException(null, "purgeAllDeletedTuples failed: delete");
+      for (int c = 0; c < numColumns; c++) {
+        fixBTreeEntries(c, hf[c], pages.get(c));
+        for (Map.Entry<Integer, BitSet> e : pages.get(c).entrySet()) {
+          hf[c].compactPage(new PageId(e.getKey()), e.getValue());
+          zoneMap.compacted(c + 1, e.getKey(), e.getValue().cardinality());
+        }
       }
-      toBeReinsertedTID = this.insertTuple(toBeReinserted.getTupleByteArray());
-      if (toBeReinsertedTID == null) {
-        throw new CFException(null, "purgeAllDeletedTuples failed: reinsert");
+      vector.remove(batch);
+      shiftBitMapIndexes(batch);
+      return batch.cardinality();
+    } catch (CFException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CFException(e, "compactDeletedTuples failed");
+    }
+  }
+
+  // the slots of the batch on each data page of each column
+  private List<HashMap<Integer, BitSet>> byPage(BitSet batch, HashMap<Integer, RID[]> rids) {
+    List<HashMap<Integer, BitSet>> pages = new ArrayList<HashMap<Integer, BitSet>>(numColumns);
+    for (int c = 0; c < numColumns; c++) {
+      pages.add(new HashMap<Integer, BitSet>());
+    }
+    for (int p = batch.nextSetBit(0); p >= 0; p = batch.nextSetBit(p + 1)) {
+      RID[] r = rids.get(p);
+      for (int c = 0; c < numColumns; c++) {
+        slotsOf(pages.get(c), r[c].pageNo.pid).set(r[c].slotNo);
       }
     }
-    tupleScan.closetuplescan();
-    deletedHf.deleteFile();
-    deletedHf = new Heapfile(_fileName + ".deleted");
+    return pages;
+  }
 
-    new BTreeFile(_fileName + ".deletedBTree").destroyFile();
-    new BTreeFile(
-        _fileName + ".deletedBTree",
-        AttrType.attrInteger,
-        4, // keysize
-        DeleteFashion.FULL_DELETE)
-        .close();
+  private static BitSet slotsOf(HashMap<Integer, BitSet> pages, int pid) {
+    BitSet slots = pages.get(pid);
+    if (slots == null) {
+      slots = new BitSet();
+      pages.put(pid, slots);
+    }
+    return slots;
+  }
 
-    // purging Data pages and Directory pages
-    for (int i = 0; i < numColumns; i++) {
-      Heapfile hf = new Heapfile(_fileName + "." + Integer.toString(i + 1));
-      hf.purgeDataPages();
-      hf.purgeDirPages();
+  /*
+   * The btree index of a column (0-based), if it has one, loses the
+   * entries of the records about to be removed from the pages, and the
+   * records after them on each page get the slot they are moving to.
+   */
+  private void fixBTreeEntries(int column, Heapfile hf, HashMap<Integer, BitSet> pages)
+      throws Exception {
+    String btFileName = _fileName + ".btree" + Integer.toString(column + 1);
+    if (type[column].attrType == AttrType.attrReal
+        || SystemDefs.JavabaseDB.get_file_entry(btFileName) == null) {
+      return;
+    }
+    BTreeFile btf = new BTreeFile(btFileName);
+    try {
+      int records = hf.getRecCnt();
+      for (Map.Entry<Integer, BitSet> e : pages.entrySet()) {
+        PageId pid = new PageId(e.getKey());
+        BitSet slots = e.getValue();
+        int removed = 0;
+        for (int p = hf.getPositionFromRid(new RID(pid, 0)); p < records; p++) {
+          RID rid = hf.getRidFromPosition(p);
+          if (rid.pageNo.pid != pid.pid) {
+            break;
+          }
+          boolean gone = slots.get(rid.slotNo);
+          if (!gone && removed == 0) {
+            continue;
+          }
+          byte[] value = decodeValue(column + 1, hf.getRecordNoCheck(rid)).getTupleByteArray();
+          KeyClass key = type[column].attrType == AttrType.attrInteger
+              ? (KeyClass) new IntegerKey(Convert.getIntValue(0, value))
+              : new StringKey(Convert.getStrValue(0, value, value.length));
+          // a record the index holds no entry for keeps none
+          if (btf.Delete(key, rid) && !gone) {
+            btf.insert(key, new RID(pid, rid.slotNo - removed));
+          }
+          if (gone) {
+            removed++;
+          }
+        }
+      }
+    } finally {
+      btf.close();
     }
+  }
 
-    return true;
+  // the bitmap indexes of the columns lose the removed positions, the
+  // positions after them moving down (see BitMapBuilder.remove)
+  private void shiftBitMapIndexes(BitSet removed) throws Exception {
+    for (int c = 1; c <= numColumns; c++) {
+      String bmFileName = _fileName + ".bitmap" + Integer.toString(c);
+      if (SystemDefs.JavabaseDB.get_file_entry(bmFileName) != null) {
+        BitMapFile bmf = new BitMapFile(bmFileName);
+        try {
+          new BitMapBuilder(BitMapBuilder.FORMAT_BITMAP).remove(bmf.getIndexBTree(), removed);
+        } finally {
+          bmf.close();
+        }
+      }
+      String cbmFileName = _fileName + ".cbitmap" + Integer.toString(c);
+      if (SystemDefs.JavabaseDB.get_file_entry(cbmFileName) != null) {
+        CBitMapFile cbmf = new CBitMapFile(cbmFileName);
+        try {
+          new BitMapBuilder(cbmf.getFormat()).remove(cbmf.getIndexBTree(), removed);
+        } finally {
+          cbmf.close();
+        }
+      }
+    }
   }
 
   // return the position of the rid in the columnar files otherwise -1
@@ -948,7 +1241,7 @@ public class Columnarfile implements GlobalConst {
       HFException,
       HFBufMgrException,
       HFDiskMgrException {
-    Heapfile hf = new Heapfile(_fileName + "." + Integer.toString(column));
+    Heapfile hf = Heapfile.open(_fileName + "." + Integer.toString(column));
     try {
       return hf.getPositionFromRid(rid);
     } catch (Exception e) {
@@ -965,7 +1258,7 @@ public class Columnarfile implements GlobalConst {
       HFBufMgrException,
       HFDiskMgrException,
       CFException {
-    Heapfile hf = new Heapfile(_fileName + "." + Integer.toString(column));
+    Heapfile hf = Heapfile.open(_fileName + "." + Integer.toString(column));
     try {
       return hf.getRidFromPosition(position);
     } catch (Exception e) {
@@ -1026,53 +1319,29 @@ public class Columnarfile implements GlobalConst {
     return new TID(numColumns, position, recordIDs);
   }
 
-  private boolean _deleteTuple(TID tid, boolean isPreserveDirPages)
-      throws InvalidSlotNumberException,
-      InvalidTupleSizeException,
-      HFException,
-      HFBufMgrException,
-      HFDiskMgrException,
-      Exception {
-    boolean isDeleted = true;
-    for (int i = 0; i < numColumns; i++) {
-      Heapfile colHf = new Heapfile(_fileName + "." + Integer.toString(i + 1));
-      boolean isColDeleted = false;
-      if (isPreserveDirPages) {
-        isColDeleted = colHf.deleteRecordPreserveDirPages(tid.recordIDs[i]);
-      } else {
-        isColDeleted = colHf.deleteRecord(tid.recordIDs[i]);
-      }
-      if (isColDeleted == false)
-        isDeleted = false;
-    }
-    return isDeleted;
+  // Return the positions marked deleted that have not been purged yet
+  public BitSet getDeletedPositions() throws CFException {
+    return getDeletionVector().positions();
   }
 
   public boolean isTupleMarkedDeleted(int position) throws CFException {
-    CondExpr[] condExpr = new CondExpr[2];
-    condExpr[0] = new CondExpr();
-    condExpr[0].op = new AttrOperator(AttrOperator.aopEQ);
-    condExpr[0].type1 = new AttrType(AttrType.attrSymbol);
-    condExpr[0].type2 = new AttrType(AttrType.attrInteger);
-    condExpr[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), 2);
-    condExpr[0].operand2.integer = position;
-    condExpr[0].next = null;
-    condExpr[1] = null;
-    KeyDataEntry entry = null;
-    try {
-      BTreeFile btf = new BTreeFile(_fileName + ".deletedBTree");
-      BTFileScan btscan = (BTFileScan) IndexUtils.BTree_scan(condExpr, btf);
-      entry = btscan.get_next();
-      ((BTFileScan) btscan).DestroyBTreeFileScan();
-      btf.close();
-    } catch (Exception e) {
-      e.printStackTrace();
-      throw new CFException(e, "isTupleMarkedDeleted failed");
+    return getDeletionVector().isDeleted(position);
+  }
+
+  // The deletion vector of the file, see DeletionVector
+  public DeletionVector getDeletionVector() throws CFException {
+    return DeletionVector.get(this);
+  }
+
+  // the "name.deleted" heapfile and "name.deletedBTree" of files created
+  // before the deletion vector
+  private void deleteLegacyDeletedFiles() throws Exception {
+    if (SystemDefs.JavabaseDB.get_file_entry(_fileName + ".deleted") != null) {
+      new Heapfile(_fileName + ".deleted").deleteFile();
     }
-    if (entry != null) {
-      return true;
+    if (SystemDefs.JavabaseDB.get_file_entry(_fileName + ".deletedBTree") != null) {
+      new BTreeFile(_fileName + ".deletedBTree").destroyFile();
     }
-    return false;
   }
 
 }
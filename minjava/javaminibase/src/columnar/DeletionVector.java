@@ -0,0 +1,237 @@
+/*
+ * File - DeletionVector.java
+ *
+ * Description -
+ *		The positions of a columnar file marked deleted and not
+ *		purged yet, as one bit per position.
+ */
+package columnar;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+
+import diskmgr.DB;
+import global.Convert;
+import global.PageId;
+import global.RID;
+import global.SystemDefs;
+import heap.HFPage;
+import heap.Heapfile;
+import heap.Scan;
+import heap.Tuple;
+
+/*
+ * The bits are kept in "name.delvec", a heapfile next to "name.hdr",
+ * in chunks of as many 64-bit words as fit one record on a page, and
+ * in memory, one vector per columnar file and database, shared by all
+ * the Columnarfile objects opened on it.  The vector is read once, on
+ * first use, so isDeleted is a bit test and scans take the whole set
+ * to skip deleted positions with BitSet operations.
+ *
+ * mark writes back only the chunk of the position, in place.  remove,
+ * which compactDeletedTuples calls once it has taken tuples out of
+ * the file, shifts the positions after them down and writes back the
+ * chunks from the first of them on.  A columnar file from before the
+ * vector, with a "name.deleted" heapfile of TIDs instead, gets its
+ * vector built from that file on first use.
+ */
+public class DeletionVector {
+
+  // database -> columnar file -> its deletion vector
+  private static WeakHashMap<DB, HashMap<String, DeletionVector>> vectors =
+      new WeakHashMap<DB, HashMap<String, DeletionVector>>();
+
+  private String name;
+  private BitSet bits = new BitSet();
+  private int words; // words per chunk
+  private Heapfile file;
+  private ArrayList<RID> chunks = new ArrayList<RID>(); // chunk -> its record
+
+  private DeletionVector(String name) {
+    this.name = name;
+    this.words = (SystemDefs.JavabasePageSize - HFPage.DPFIXED
+        - 2 * HFPage.SIZE_OF_SLOT - 4) / 8;
+  }
+
+  // Returns the deletion vector of a columnar file, reading it once
+  public static synchronized DeletionVector get(Columnarfile cf) throws CFException {
+    HashMap<String, DeletionVector> files = vectors.get(SystemDefs.JavabaseDB);
+    if (files == null) {
+      files = new HashMap<String, DeletionVector>();
+      vectors.put(SystemDefs.JavabaseDB, files);
+    }
+    DeletionVector dv = files.get(cf.get_fileName());
+    if (dv == null) {
+      dv = new DeletionVector(cf.get_fileName());
+      try {
+        boolean exists =
+            SystemDefs.JavabaseDB.get_file_entry(cf.get_fileName() + ".delvec") != null;
+        dv.file = new Heapfile(cf.get_fileName() + ".delvec");
+        if (exists) {
+          dv.read();
+        } else {
+          dv.upgrade();
+        }
+      } catch (Exception e) {
+        throw new CFException(e, "deletion vector could not be read");
+      }
+      files.put(cf.get_fileName(), dv);
+    }
+    return dv;
+  }
+
+  // Drops the deletion vector of a columnar file and its "name.delvec" file
+  static synchronized void delete(String name) throws CFException {
+    HashMap<String, DeletionVector> files = vectors.get(SystemDefs.JavabaseDB);
+    if (files != null) {
+      files.remove(name);
+    }
+    try {
+      if (SystemDefs.JavabaseDB.get_file_entry(name + ".delvec") != null) {
+        new Heapfile(name + ".delvec").deleteFile();
+      }
+    } catch (Exception e) {
+      throw new CFException(e, "deletion vector file could not be deleted");
+    }
+  }
+
+  private void read() throws Exception {
+    Scan scan = file.openScan();
+    RID rid = new RID();
+    Tuple t;
+    try {
+      while ((t = scan.getNext(rid)) != null) {
+        byte[] rec = t.getTupleByteArray();
+        int chunk = Convert.getIntValue(0, rec);
+        long[] w = new long[words];
+        for (int i = 0; i < words; i++) {
+          w[i] = ((long) Convert.getIntValue(4 + 8 * i, rec) << 32)
+              | (Convert.getIntValue(8 + 8 * i, rec) & 0xFFFFFFFFL);
+        }
+        BitSet b = BitSet.valueOf(w);
+        int base = chunk * words * 64;
+        for (int p = b.nextSetBit(0); p >= 0; p = b.nextSetBit(p + 1)) {
+          bits.set(base + p);
+        }
+        while (chunks.size() <= chunk) {
+          chunks.add(null);
+        }
+        chunks.set(chunk, new RID(new PageId(rid.pageNo.pid), rid.slotNo));
+      }
+    } finally {
+      scan.closescan();
+    }
+  }
+
+  // the positions of the TIDs in a legacy "name.deleted"
+  private void upgrade() throws Exception {
+    if (SystemDefs.JavabaseDB.get_file_entry(name + ".deleted") == null) {
+      return;
+    }
+    Heapfile legacy = new Heapfile(name + ".deleted");
+    Scan scan = legacy.openScan();
+    RID rid = new RID();
+    Tuple t;
+    try {
+      while ((t = scan.getNext(rid)) != null) {
+        // a tuple of 2 + 2 * columns ints holding a TID, as
+        // markTupleDeleted wrote it; the position follows numRIDs
+        byte[] rec = t.getTupleByteArray();
+        int fields = Convert.getShortValue(0, rec);
+        bits.set(Convert.getIntValue(2 * (1 + fields + 1) + 4, rec));
+      }
+    } finally {
+      scan.closescan();
+    }
+    for (int c = 0; c * words * 64 < bits.length(); c++) {
+      write(c);
+    }
+  }
+
+  private void write(int chunk) throws Exception {
+    byte[] rec = new byte[4 + 8 * words];
+    Convert.setIntValue(chunk, 0, rec);
+    int base = chunk * words * 64;
+    long[] w = bits.get(base, base + words * 64).toLongArray();
+    for (int i = 0; i < w.length; i++) {
+      Convert.setIntValue((int) (w[i] >>> 32), 4 + 8 * i, rec);
+      Convert.setIntValue((int) w[i], 8 + 8 * i, rec);
+    }
+    while (chunks.size() <= chunk) {
+      chunks.add(null);
+    }
+    RID rid = chunks.get(chunk);
+    if (rid != null) {
+      file.updateRecord(rid, new Tuple(rec, 0, rec.length));
+    } else {
+      chunks.set(chunk, file.insertRecord(rec));
+    }
+  }
+
+  // Is the position marked deleted?
+  public synchronized boolean isDeleted(int position) {
+    return bits.get(position);
+  }
+
+  /*
+   * Marks the position deleted, returns false if it already was.
+   */
+  synchronized boolean mark(int position) throws CFException {
+    if (bits.get(position)) {
+      return false;
+    }
+    bits.set(position);
+    try {
+      write(position / (words * 64));
+    } catch (Exception e) {
+      throw new CFException(e, "deletion vector update failed");
+    }
+    return true;
+  }
+
+  /*
+   * The tuples at the given positions, all of them marked, were
+   * removed from the file: the positions after each drop by one.
+   */
+  synchronized void remove(BitSet removed) throws CFException {
+    int first = removed.nextSetBit(0);
+    if (first < 0) {
+      return;
+    }
+    int chunks = this.chunks.size();
+    BitSet left = new BitSet();
+    int shift = 0;
+    for (int p = bits.nextSetBit(0); p >= 0; p = bits.nextSetBit(p + 1)) {
+      if (removed.get(p)) {
+        shift++;
+      } else {
+        left.set(p - shift);
+      }
+    }
+    bits = left;
+    try {
+      for (int c = first / (words * 64); c < chunks; c++) {
+        write(c);
+      }
+    } catch (Exception e) {
+      throw new CFException(e, "deletion vector update failed");
+    }
+  }
+
+  // A copy of the positions marked deleted
+  public synchronized BitSet positions() {
+    return (BitSet) bits.clone();
+  }
+
+  // The first position from the given one on that is not marked deleted
+  public synchronized int nextLive(int position) {
+    return bits.nextClearBit(position);
+  }
+
+  // The number of positions marked deleted
+  public synchronized int count() {
+    return bits.cardinality();
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * File - DictionaryScan.java
+ *
+ * Description -
+ *		A scan of the heapfile of a dictionary-encoded column that
+ *		returns its values rather than their codes.
+ */
+package columnar;
+
+import java.io.IOException;
+
+import global.Convert;
+import global.RID;
+import heap.Heapfile;
+import heap.InvalidTupleSizeException;
+import heap.PageFilter;
+import heap.Scan;
+import heap.Tuple;
+
+/*
+ * getNext returns the bytes each value was inserted as, so the scan
+ * reads like one of a plain string column.  getNextInts, getCode and
+ * getNextCode give the codes themselves, for callers that work on
+ * codes and look values up in the column's ColumnDictionary.
+ */
+public class DictionaryScan extends Scan {
+
+  private ColumnDictionary dictionary;
+  private int code = -1;
+
+  // Constructor Summary
+  public DictionaryScan(Heapfile hf, PageFilter filter, ColumnDictionary dictionary)
+      throws InvalidTupleSizeException,
+      IOException {
+    super(hf, filter);
+    this.dictionary = dictionary;
+  }
+
+  // Retrieve the next value in a sequential scan
+  public Tuple getNext(RID rid)
+      throws InvalidTupleSizeException,
+      IOException {
+    if (getNextCode(rid) < 0) {
+      return null;
+    }
+    byte[] data = dictionary.valueBytes(code);
+    return new Tuple(data, 0, data.length);
+  }
+
+  // Retrieve the code of the next value, -1 at the end of the file
+  public int getNextCode(RID rid)
+      throws InvalidTupleSizeException,
+      IOException {
+    Tuple t = super.getNext(rid);
+    code = t == null ? -1 : Convert.getIntValue(0, t.getTupleByteArray());
+    return code;
+  }
+
+  // The code of the value getNext or getNextCode last returned
+  public int getCode() {
+    return code;
+  }
+
+  // The dictionary of the column
+  public ColumnDictionary getDictionary() {
+    return dictionary;
+  }
+}
@@ -15,7 +15,6 @@ import global.TID;
 import heap.HFBufMgrException;
 import heap.HFDiskMgrException;
 import heap.HFException;
-import heap.Heapfile;
 import heap.InvalidTupleSizeException;
 import heap.Scan;
 import heap.Tuple;
@@ -37,9 +36,7 @@ public class TupleScan {
     this.scanArray = new Scan[Columnarfile.numColumns];
     this.cf = cf;
     for (int i = 0; i < Columnarfile.numColumns; i++) {
-      String fileName = cf.get_fileName() + "." + Integer.toString(i + 1);
-      Heapfile hf = new Heapfile(fileName);
-      scanArray[i] = hf.openScan();
+      scanArray[i] = cf.openColumnScan(i + 1);
     }
   }
 
@@ -0,0 +1,446 @@
+/*
+ * File - ZoneMap.java
+ *
+ * Description -
+ *		The minimum and maximum value of every data page of every
+ *		column of a columnar file, with the number of tuples on the
+ *		page marked deleted, for scans to pass over pages that
+ *		cannot hold a match.
+ */
+package columnar;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.WeakHashMap;
+
+import diskmgr.DB;
+import global.AttrOperator;
+import global.AttrType;
+import global.Convert;
+import global.PageId;
+import global.RID;
+import global.SystemDefs;
+import heap.Heapfile;
+import heap.PageFilter;
+import heap.Scan;
+import heap.Tuple;
+import iterator.CondExpr;
+
+/*
+ * The zones are kept in "name.zone", a heapfile next to "name.hdr", one
+ * record per column and data page, and in memory, one map per columnar
+ * file and database, shared by all the Columnarfile objects opened on
+ * it.  The map is read on first use, or built with one scan of every
+ * column for a file that has no "name.zone" yet.
+ *
+ * Columnarfile keeps the zones up to date: an insert widens the zone of
+ * the page each value went to, markTupleDeleted counts the tuple on its
+ * pages, and compactDeletedTuples takes them off again; the range of a
+ * compacted page is kept, as it still bounds the values left.
+ * purgeAllDeletedTuples builds the map again.  A zone record is only written when the zone changes.
+ * The file has no null values, so only deleted tuples are counted.
+ *
+ * A predicate "column op constant" can only hold on a page if the
+ * constant is in the right place against the page's range; a page
+ * whose tuples are all marked deleted holds no match at all.  A page
+ * with no zone is always kept.
+ */
+public class ZoneMap {
+
+  // database -> columnar file -> its zones
+  private static WeakHashMap<DB, HashMap<String, ZoneMap>> maps =
+      new WeakHashMap<DB, HashMap<String, ZoneMap>>();
+
+  static class Zone {
+    int pid;
+    int deleted = 0;
+    boolean empty = true;
+    double min, max; // int and real columns
+    String smin, smax; // string columns
+    RID rid = null; // its record in "name.zone"
+    int length = 0;
+
+    Zone(int pid) {
+      this.pid = pid;
+    }
+  }
+
+  private String name;
+  private int[] types;
+  private List<HashMap<Integer, Zone>> zones;
+  private Heapfile file;
+
+  private ZoneMap(String name, AttrType[] type) {
+    this.name = name;
+    this.types = new int[type.length];
+    this.zones = new ArrayList<HashMap<Integer, Zone>>(type.length);
+    for (int i = 0; i < type.length; i++) {
+      types[i] = type[i].attrType;
+      zones.add(new HashMap<Integer, Zone>());
+    }
+  }
+
+  // Returns the zone map of a columnar file, reading or building it
+  public static synchronized ZoneMap get(Columnarfile cf) throws CFException {
+    HashMap<String, ZoneMap> files = maps.get(SystemDefs.JavabaseDB);
+    if (files == null) {
+      files = new HashMap<String, ZoneMap>();
+      maps.put(SystemDefs.JavabaseDB, files);
+    }
+    ZoneMap zm = files.get(cf.get_fileName());
+    if (zm == null) {
+      zm = new ZoneMap(cf.get_fileName(), cf.type);
+      try {
+        if (SystemDefs.JavabaseDB.get_file_entry(cf.get_fileName() + ".zone") == null) {
+          zm.file = new Heapfile(cf.get_fileName() + ".zone");
+          zm.build(cf);
+        } else {
+          zm.file = new Heapfile(cf.get_fileName() + ".zone");
+          zm.read();
+        }
+      } catch (Exception e) {
+        throw new CFException(e, "zone map could not be read");
+      }
+      files.put(cf.get_fileName(), zm);
+    }
+    return zm;
+  }
+
+  // Drops the zone map of a columnar file and its "name.zone" file
+  static synchronized void delete(String name) throws CFException {
+    HashMap<String, ZoneMap> files = maps.get(SystemDefs.JavabaseDB);
+    if (files != null) {
+      files.remove(name);
+    }
+    try {
+      if (SystemDefs.JavabaseDB.get_file_entry(name + ".zone") != null) {
+        new Heapfile(name + ".zone").deleteFile();
+      }
+    } catch (Exception e) {
+      throw new CFException(e, "zone file could not be deleted");
+    }
+  }
+
+  // Builds the zone map of a columnar file again, from its columns
+  static synchronized ZoneMap rebuild(Columnarfile cf) throws CFException {
+    delete(cf.get_fileName());
+    return get(cf);
+  }
+
+  // one scan of every column, then the deleted positions
+  private void build(Columnarfile cf) throws Exception {
+    BitSet deleted = cf.getDeletedPositions();
+    for (int c = 0; c < types.length; c++) {
+      Heapfile hf = new Heapfile(name + "." + Integer.toString(c + 1));
+      Scan scan = cf.openColumnScan(c + 1);
+      RID rid = new RID();
+      Tuple t;
+      while ((t = scan.getNext(rid)) != null) {
+        include(zone(c, rid.pageNo.pid), c, t.getTupleByteArray());
+      }
+      scan.closescan();
+      for (int p = deleted.nextSetBit(0); p >= 0; p = deleted.nextSetBit(p + 1)) {
+        zone(c, hf.getRidFromPosition(p).pageNo.pid).deleted++;
+      }
+    }
+    for (int c = 0; c < types.length; c++) {
+      for (Zone z : zones.get(c).values()) {
+        write(c, z);
+      }
+    }
+  }
+
+  private void read() throws Exception {
+    Scan scan = file.openScan();
+    RID rid = new RID();
+    Tuple t;
+    try {
+      while ((t = scan.getNext(rid)) != null) {
+        byte[] rec = t.getTupleByteArray();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(rec));
+        int c = in.readShort();
+        Zone z = zone(c, in.readInt());
+        z.deleted = in.readInt();
+        z.empty = in.readBoolean();
+        if (!z.empty) {
+          switch (types[c]) {
+            case AttrType.attrInteger:
+              z.min = in.readInt();
+              z.max = in.readInt();
+              break;
+            case AttrType.attrReal:
+              z.min = in.readFloat();
+              z.max = in.readFloat();
+              break;
+            default:
+              z.smin = in.readUTF();
+              z.smax = in.readUTF();
+              break;
+          }
+        }
+        z.rid = new RID(new PageId(rid.pageNo.pid), rid.slotNo);
+        z.length = rec.length;
+      }
+    } finally {
+      scan.closescan();
+    }
+  }
+
+  private void write(int c, Zone z) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeShort(c);
+    out.writeInt(z.pid);
+    out.writeInt(z.deleted);
+    out.writeBoolean(z.empty);
+    if (!z.empty) {
+      switch (types[c]) {
+        case AttrType.attrInteger:
+          out.writeInt((int) z.min);
+          out.writeInt((int) z.max);
+          break;
+        case AttrType.attrReal:
+          out.writeFloat((float) z.min);
+          out.writeFloat((float) z.max);
+          break;
+        default:
+          out.writeUTF(z.smin);
+          out.writeUTF(z.smax);
+          break;
+      }
+    }
+    out.flush();
+    byte[] rec = bytes.toByteArray();
+    if (z.rid != null && z.length == rec.length) {
+      file.updateRecord(z.rid, new Tuple(rec, 0, rec.length));
+      return;
+    }
+    if (z.rid != null) {
+      file.deleteRecord(z.rid);
+    }
+    z.rid = file.insertRecord(rec);
+    z.length = rec.length;
+  }
+
+  private Zone zone(int c, int pid) {
+    Zone z = zones.get(c).get(pid);
+    if (z == null) {
+      z = new Zone(pid);
+      zones.get(c).put(pid, z);
+    }
+    return z;
+  }
+
+  // widens the zone to the value, returns true if it changed
+  private boolean include(Zone z, int c, byte[] data) throws IOException {
+    if (types[c] == AttrType.attrString) {
+      String s = Convert.getStrValue(0, data, data.length);
+      if (z.empty) {
+        z.smin = z.smax = s;
+      } else if (s.compareTo(z.smin) < 0) {
+        z.smin = s;
+      } else if (s.compareTo(z.smax) > 0) {
+        z.smax = s;
+      } else {
+        return false;
+      }
+    } else {
+      double v = types[c] == AttrType.attrInteger
+          ? Convert.getIntValue(0, data)
+          : Convert.getFloValue(0, data);
+      if (z.empty) {
+        z.min = z.max = v;
+      } else if (v < z.min) {
+        z.min = v;
+      } else if (v > z.max) {
+        z.max = v;
+      } else {
+        return false;
+      }
+    }
+    z.empty = false;
+    return true;
+  }
+
+  // A value of the column (1-based) went to the record rid
+  synchronized void add(int column, RID rid, byte[] data) throws CFException {
+    try {
+      Zone z = zone(column - 1, rid.pageNo.pid);
+      if (include(z, column - 1, data) || z.rid == null) {
+        write(column - 1, z);
+      }
+    } catch (Exception e) {
+      throw new CFException(e, "zone map update failed");
+    }
+  }
+
+  // The tuple at the position was marked deleted
+  synchronized void markDeleted(int position) throws CFException {
+    try {
+      for (int c = 0; c < types.length; c++) {
+        Heapfile hf = new Heapfile(name + "." + Integer.toString(c + 1));
+        Zone z = zone(c, hf.getRidFromPosition(position).pageNo.pid);
+        z.deleted++;
+        write(c, z);
+      }
+    } catch (Exception e) {
+      throw new CFException(e, "zone map update failed");
+    }
+  }
+
+  // Deleted tuples were removed from a data page of the column (1-based)
+  synchronized void compacted(int column, int pid, int removed) throws CFException {
+    Zone z = zones.get(column - 1).get(pid);
+    if (z == null) {
+      return;
+    }
+    z.deleted = Math.max(0, z.deleted - removed);
+    try {
+      write(column - 1, z);
+    } catch (Exception e) {
+      throw new CFException(e, "zone map update failed");
+    }
+  }
+
+  /*
+   * Can the predicate p, on the column (1-based) it names, hold on the
+   * data page pid with recct records?
+   */
+  public synchronized boolean mayMatch(int pid, int recct, CondExpr p) {
+    if (recct == 0) {
+      return false;
+    }
+    int c = p.operand1.symbol.offset - 1;
+    Zone z = zones.get(c).get(pid);
+    if (z == null || z.empty) {
+      return true;
+    }
+    if (z.deleted >= recct) {
+      return false;
+    }
+    int lo, hi; // the page's minimum and maximum against the constant
+    switch (types[c]) {
+      case AttrType.attrInteger:
+        lo = compare(z.min, p.operand2.integer);
+        hi = compare(z.max, p.operand2.integer);
+        break;
+      case AttrType.attrReal:
+        lo = compare(z.min, p.operand2.real);
+        hi = compare(z.max, p.operand2.real);
+        break;
+      default:
+        lo = z.smin.compareTo(p.operand2.string);
+        hi = z.smax.compareTo(p.operand2.string);
+        break;
+    }
+    switch (p.op.attrOperator) {
+      case AttrOperator.aopEQ:
+        return lo <= 0 && hi >= 0;
+      case AttrOperator.aopLT:
+        return lo < 0;
+      case AttrOperator.aopLE:
+        return lo <= 0;
+      case AttrOperator.aopGT:
+        return hi > 0;
+      case AttrOperator.aopGE:
+        return hi >= 0;
+      case AttrOperator.aopNE:
+      case AttrOperator.aopNOT:
+        return lo != 0 || hi != 0;
+      default:
+        return true;
+    }
+  }
+
+  // as TupleUtils compares numbers
+  private static int compare(double a, double b) {
+    return a < b ? -1 : a > b ? 1 : 0;
+  }
+
+  /*
+   * A filter for a scan of one column that keeps the pages on which
+   * at least one of the predicates, all on that column, may hold.
+   */
+  public PageFilter pageFilter(final CondExpr[] preds) {
+    return new PageFilter() {
+      public boolean keep(PageId pageId, int recct) {
+        for (CondExpr p : preds) {
+          if (mayMatch(pageId.pid, recct, p)) {
+            return true;
+          }
+        }
+        return false;
+      }
+    };
+  }
+
+  /*
+   * The positions a filter of "column op constant" predicates may hold
+   * at, from the zones alone: for each CondExpr the union of the
+   * position ranges of the pages on which one of its predicates may
+   * hold, and the intersection of those over the CondExprs.  Null for
+   * no filter.
+   */
+  public BitSet candidates(CondExpr[] filter) throws CFException {
+    if (filter == null || filter.length == 0 || filter[0] == null) {
+      return null;
+    }
+    BitSet result = null;
+    try {
+      for (int i = 0; i < filter.length && filter[i] != null; i++) {
+        BitSet clause = new BitSet();
+        for (CondExpr p = filter[i]; p != null; p = p.next) {
+          Heapfile hf = Heapfile.open(name + "." + Integer.toString(p.operand1.symbol.offset));
+          PageId[] pages = hf.getDataPages();
+          int[] counts = hf.getDataPageRecCnts();
+          int start = 0;
+          for (int k = 0; k < pages.length; k++) {
+            if (mayMatch(pages[k].pid, counts[k], p)) {
+              clause.set(start, start + counts[k]);
+            }
+            start += counts[k];
+          }
+        }
+        if (result == null) {
+          result = clause;
+        } else {
+          result.and(clause);
+        }
+      }
+    } catch (Exception e) {
+      throw new CFException(e, "zone map lookup failed");
+    }
+    return result;
+  }
+
+  /*
+   * The data pages, over all columns, that hold none of the given
+   * positions.
+   */
+  public int prunedPages(BitSet positions) throws CFException {
+    int pruned = 0;
+    try {
+      for (int c = 0; c < types.length; c++) {
+        int[] counts = Heapfile.open(name + "." + Integer.toString(c + 1)).getDataPageRecCnts();
+        int start = 0;
+        for (int k = 0; k < counts.length; k++) {
+          int next = positions.nextSetBit(start);
+          if (next < 0 || next >= start + counts[k]) {
+            pruned++;
+          }
+          start += counts[k];
+        }
+      }
+    } catch (Exception e) {
+      throw new CFException(e, "zone map lookup failed");
+    }
+    return pruned;
+  }
+}
@@ -3,13 +3,19 @@
 package diskmgr;
 
 import java.io.*;
+import java.nio.*;
+import java.util.*;
 import bufmgr.*;
 import global.*;
 
 public class DB implements GlobalConst {
 
   
-  private static final int bits_per_page = MAX_SPACE * 8;
+  /** Page sizes a database can be created with.  HFPage keeps its
+   * slot offsets in shorts, which caps a page at 16 KB.
+   */
+  public static final int[] SUPPORTED_PAGE_SIZES =
+  { MINIBASE_PAGESIZE, 4096, 8192, 16384 };
   
   
   /** Open the database with the given name.
@@ -30,9 +36,10 @@ public class DB implements GlobalConst {
 	 PCounter.initialize();
    
     name = fname;
+    entries.clear();
     
-    // Creaat a random access file
-    fp = new RandomAccessFile(fname, "rw");
+    // Open the page store on the DB file
+    fp = PageStore.open(backend, fname);
     
     PageId pageId = new PageId();
     Page apage = new Page();
@@ -41,19 +48,63 @@ public class DB implements GlobalConst {
     num_pages = 1;	//temporary num_page value for pinpage to work
     
     pinPage(pageId, apage, false /*read disk*/);
+    page_size = apage.getpage().length;
+    bits_per_page = page_size * 8;
     
     
     DBFirstPage firstpg = new DBFirstPage();
     firstpg.openPage(apage);
     num_pages = firstpg.getNumDBPages();
+    int stored_size = firstpg.getPageSize();
     
     unpinPage(pageId, false /* undirty*/);
+    
+    // the buffer pool frames must have been sized from this header
+    if (stored_size != page_size)
+      throw new DiskMgrException(null, "DB page size is " + stored_size
+				 + ", buffer frames are " + page_size);
+  }
+  
+  /** Read the page size recorded in the first page of an existing
+   * database, without going through the buffer manager.  Used to size
+   * the buffer pool before the database is opened.  Nothing here
+   * checks the value: a file written before the page size was
+   * recorded holds part of a file entry at that offset, so callers
+   * check it with isSupportedPageSize.
+   *
+   * @param backend page store backend name
+   * @param fname DB_name
+   * @return the page size field of the first page
+   *
+   * @exception IOException I/O errors
+   */
+  public static int readPageSize(String backend, String fname)
+    throws IOException {
+
+    PageStore store = PageStore.open(backend, fname);
+    byte [] header = new byte[DBFirstPage.PAGE_SIZE + 4];
+    try {
+      store.read(0, header);
+    }
+    finally {
+      store.close();
+    }
+    return Convert.getIntValue(DBFirstPage.PAGE_SIZE, header);
   }
   
   /** default constructor.
    */
   public DB() { }
   
+  /** Constructor selecting how the DB file is accessed.
+   *
+   * @param backend page store backend name (see PageStore),
+   *        null for the default RandomAccessFile I/O
+   */
+  public DB(String backend) {
+    this.backend = backend;
+  }
+  
   
   /** DB Constructors.
    * Create a database with the specified number of pages where the page
@@ -72,20 +123,47 @@ public class DB implements GlobalConst {
 	   InvalidPageNumberException,
 	   FileIOException,
 	   DiskMgrException {
+    openDB(fname, num_pgs, MINIBASE_PAGESIZE);
+  }
+  
+  /** DB Constructors.
+   * Create a database with the specified number of pages and page size.
+   * The page size is recorded in the first page; the buffer pool must
+   * already have frames of that size.
+   *
+   * @param name DB name
+   * @param num_pages number of pages in DB
+   * @param pgsize page size in bytes, one of SUPPORTED_PAGE_SIZES
+   *
+   * @exception IOException I/O errors
+   * @exception InvalidPageNumberException invalid page number
+   * @exception FileIOException file I/O error
+   * @exception DiskMgrException error caused by other layers
+   */
+  public void openDB( String fname, int num_pgs, int pgsize)
+    throws IOException, 
+	   InvalidPageNumberException,
+	   FileIOException,
+	   DiskMgrException {
+    
+    if (!isSupportedPageSize(pgsize))
+      throw new DiskMgrException(null, "Unsupported page size " + pgsize);
     
     name = new String(fname);
+    entries.clear();
+    page_size = pgsize;
+    bits_per_page = page_size * 8;
     num_pages = (num_pgs > 2) ? num_pgs : 2;
     
     File DBfile = new File(name);
     
     DBfile.delete();
     
-    // Creaat a random access file
-    fp = new RandomAccessFile(fname, "rw");
+    // Open the page store on the DB file
+    fp = PageStore.open(backend, fname);
     
     // Make the file num_pages pages long, filled with zeroes.
-    fp.seek((long)(num_pages*MINIBASE_PAGESIZE-1));
-    fp.writeByte(0);
+    fp.setLength((long)num_pages*page_size);
     
     // Initialize space map and directory pages.
     
@@ -95,9 +173,15 @@ public class DB implements GlobalConst {
     pageId.pid = 0;
     pinPage(pageId, apage, true /*no diskIO*/);
     
+    if (apage.getpage().length != page_size) {
+      unpinPage(pageId, false /*undirty*/);
+      throw new DiskMgrException(null, "Buffer frames do not match page size " + page_size);
+    }
+    
     DBFirstPage firstpg = new DBFirstPage(apage);
     
     firstpg.setNumDBPages(num_pages);
+    firstpg.setPageSize(page_size);
     unpinPage(pageId, true /*dirty*/);
     
     // Calculate how many pages are needed for the space map.  Reserve pages
@@ -144,13 +228,14 @@ public class DB implements GlobalConst {
     if((pageno.pid < 0)||(pageno.pid >= num_pages))
       throw new InvalidPageNumberException(null, "BAD_PAGE_NUMBER");
     
-    // Seek to the correct page
-    fp.seek((long)(pageno.pid *MINIBASE_PAGESIZE));
-    
-    // Read the appropriate number of bytes.
-    byte [] buffer = apage.getpage();  //new byte[MINIBASE_PAGESIZE];
+    // Read the appropriate number of bytes at the page offset, an
+    // off-heap frame straight into its buffer.
     try{
-      fp.read(buffer);
+      ByteBuffer frame = apage.getBuffer();
+      if (frame.isDirect())
+	fp.read((long)pageno.pid *page_size, frame.duplicate());
+      else
+	fp.read((long)pageno.pid *page_size, apage.getpage());
 	PCounter.readIncrement();
     }
     catch (IOException e) {
@@ -159,6 +244,44 @@ public class DB implements GlobalConst {
     
   }
   
+  /** Read a run of consecutive pages with a single request to the
+   * page store, for sequential read-ahead.  Every page read counts
+   * in PCounter, as with read_page.
+   *
+   * @param first pageId of the first page of the run
+   * @param pages page objects that hold the contents of the run
+   * @param count number of pages in the run
+   *
+   * @exception InvalidPageNumberException invalid page number
+   * @exception FileIOException file I/O error
+   * @exception IOException I/O errors
+   */
+  public void read_pages(PageId first, Page[] pages, int count)
+    throws InvalidPageNumberException,
+	   FileIOException,
+	   IOException {
+
+    if((first.pid < 0)||(count < 1)||(first.pid + count > num_pages))
+      throw new InvalidPageNumberException(null, "BAD_PAGE_NUMBER");
+
+    byte [] buffer = new byte[count * page_size];
+    try{
+      fp.read((long)first.pid *page_size, buffer);
+    }
+    catch (IOException e) {
+      throw new FileIOException(e, "DB file I/O error");
+    }
+
+    for (int i = 0; i < count; i++) {
+      ByteBuffer frame = pages[i].getBuffer();
+      if (frame.isDirect())
+	frame.duplicate().put(buffer, i * page_size, page_size);
+      else
+	System.arraycopy(buffer, i * page_size, pages[i].getpage(), 0, page_size);
+      PCounter.readIncrement();
+    }
+  }
+
   /** Write the contents in a page object to the specified page.
    *
    * @param pageno pageId will be wrote to disk
@@ -176,12 +299,13 @@ public class DB implements GlobalConst {
     if((pageno.pid < 0)||(pageno.pid >= num_pages))
       throw new InvalidPageNumberException(null, "INVALID_PAGE_NUMBER");
     
-    // Seek to the correct page
-    fp.seek((long)(pageno.pid *MINIBASE_PAGESIZE));
-    
-    // Write the appropriate number of bytes.
+    // Write the appropriate number of bytes at the page offset.
     try{
-      fp.write(apage.getpage());
+      ByteBuffer frame = apage.getBuffer();
+      if (frame.isDirect())
+	fp.write((long)pageno.pid *page_size, frame.duplicate());
+      else
+	fp.write((long)pageno.pid *page_size, apage.getpage());
 	PCounter.writeIncrement();
     }
     catch (IOException e) {
@@ -190,6 +314,46 @@ public class DB implements GlobalConst {
     
   }
   
+  /** Write a run of consecutive pages with a single request to the
+   * page store, for the background page cleaner.  Every page written
+   * counts in PCounter, as with write_page.
+   *
+   * @param first pageId of the first page of the run
+   * @param pages page objects that hold the contents of the run
+   * @param count number of pages in the run
+   *
+   * @exception InvalidPageNumberException invalid page number
+   * @exception FileIOException file I/O error
+   * @exception IOException I/O errors
+   */
+  public void write_pages(PageId first, Page[] pages, int count)
+    throws InvalidPageNumberException,
+	   FileIOException,
+	   IOException {
+
+    if((first.pid < 0)||(count < 1)||(first.pid + count > num_pages))
+      throw new InvalidPageNumberException(null, "INVALID_PAGE_NUMBER");
+
+    byte [] buffer = new byte[count * page_size];
+    for (int i = 0; i < count; i++) {
+      ByteBuffer frame = pages[i].getBuffer();
+      if (frame.isDirect())
+	frame.duplicate().get(buffer, i * page_size, page_size);
+      else
+	System.arraycopy(pages[i].getpage(), 0, buffer, i * page_size, page_size);
+    }
+
+    try{
+      fp.write((long)first.pid *page_size, buffer);
+    }
+    catch (IOException e) {
+      throw new FileIOException(e, "DB file I/O error");
+    }
+
+    for (int i = 0; i < count; i++)
+      PCounter.writeIncrement();
+  }
+
   /** Allocate a set of pages where the run size is taken to be 1 by default.
    *  Gives back the page number of the first page of the allocated run.
    *  with default run_size =1
@@ -225,7 +389,7 @@ public class DB implements GlobalConst {
    * @exception IOException I/O errors
    * @exception DiskMgrException error caused by other layers
    */
-  public void allocate_page(PageId start_page_num, int runsize)
+  public synchronized void allocate_page(PageId start_page_num, int runsize)
     throws OutOfSpaceException, 
 	   InvalidRunSizeException, 
 	   InvalidPageNumberException, 
@@ -322,7 +486,7 @@ public class DB implements GlobalConst {
    * @exception IOException I/O errors
    * @exception DiskMgrException error caused by other layers
    */
-  public void deallocate_page(PageId start_page_num, int run_size)
+  public synchronized void deallocate_page(PageId start_page_num, int run_size)
     throws InvalidRunSizeException, 
 	   InvalidPageNumberException, 
 	   IOException, 
@@ -371,7 +535,7 @@ public class DB implements GlobalConst {
    * @exception IOException I/O errors
    * @exception DiskMgrException error caused by other layers
    */
-  public void add_file_entry(String fname, PageId start_page_num)
+  public synchronized void add_file_entry(String fname, PageId start_page_num)
     throws FileNameTooLongException, 
 	   InvalidPageNumberException, 
 	   InvalidRunSizeException,
@@ -475,6 +639,7 @@ public class DB implements GlobalConst {
     dp.setFileEntry(start_page_num, fname, free_slot);
     
     unpinPage(hpid, true /* dirty*/);
+    entries.put(fname, Integer.valueOf(start_page_num.pid));
     
   }
   
@@ -488,7 +653,7 @@ public class DB implements GlobalConst {
    * @exception InvalidPageNumberException invalid page number
    * @exception DiskMgrException error caused by other layers
    */
-  public void delete_file_entry(String fname)
+  public synchronized void delete_file_entry(String fname)
     throws FileEntryNotFoundException, 
 	   IOException,
 	   FileIOException,
@@ -556,10 +721,14 @@ public class DB implements GlobalConst {
     dp.setFileEntry(tmppid, "\0", slot);
     
     unpinPage(hpid, true /*dirty*/);
+    entries.put(fname, Integer.valueOf(INVALID_PAGE));
     
   }
   
   /** Get the entry corresponding to the given file.
+   * The answer for each name, whether the file exists or not, is kept
+   * in memory once the directory pages have been walked for it, so
+   * looking a file up again costs no page pin.
    *
    * @param name file entry name
    *
@@ -568,12 +737,16 @@ public class DB implements GlobalConst {
    * @exception InvalidPageNumberException invalid page number
    * @exception DiskMgrException error caused by other layers
    */
-  public PageId get_file_entry(String name)
+  public synchronized PageId get_file_entry(String name)
     throws IOException,
 	   FileIOException,
 	   InvalidPageNumberException, 
 	   DiskMgrException {
 
+    Integer known = entries.get(name);
+    if (known != null)
+      return known.intValue() == INVALID_PAGE ? null : new PageId(known.intValue());
+    
     Page apage = new Page();
     boolean found = false;
     int slot = 0;
@@ -629,11 +802,13 @@ public class DB implements GlobalConst {
     if(!found)  // Entry not found - don't post error, just fail.
       {    
 	//  System.out.println("entry NOT found");
+	entries.put(name, Integer.valueOf(INVALID_PAGE));
 	return null;
       }
     
     PageId startpid = new PageId();
     dp.getFileEntry(startpid, slot);
+    entries.put(name, Integer.valueOf(startpid.pid));
     return startpid;
   }
   
@@ -641,7 +816,16 @@ public class DB implements GlobalConst {
    */
   public String db_name(){return name;}
   public int db_num_pages(){return num_pages;}
-  public int db_page_size(){return MINIBASE_PAGESIZE;}
+  public String db_backend(){return fp != null ? fp.name() : backend;}
+  public int db_page_size(){return page_size;}
+  
+  /** @return whether a database can be created with this page size */
+  public static boolean isSupportedPageSize(int pgsize) {
+    for (int i = 0; i < SUPPORTED_PAGE_SIZES.length; i++)
+      if (SUPPORTED_PAGE_SIZES[i] == pgsize)
+	return true;
+    return false;
+  }
   
   /** Print out the space map of the database.
    * The space map is a bitmap showing which
@@ -661,7 +845,7 @@ public class DB implements GlobalConst {
     {
       
       System.out.println ("********  IN DUMP");
-      int num_map_pages = (num_pages + bits_per_page -1)/bits_per_page;
+        int num_map_pages = (num_pages + bits_per_page -1)/bits_per_page;
       int bit_number = 0;
       
       // This loop goes over each page in the space map.
@@ -723,10 +907,17 @@ public class DB implements GlobalConst {
       
     }
   
-  private RandomAccessFile fp;
+  private PageStore fp;
+  private String backend = PageStore.DEFAULT;
   private int num_pages;
+  private int page_size = MINIBASE_PAGESIZE;
+  private int bits_per_page = MINIBASE_PAGESIZE * 8;
   private String name;
   
+  /** file name -> first page of the file, INVALID_PAGE for a name
+   * known not to be in the directory */
+  private HashMap<String, Integer> entries = new HashMap<String, Integer>();
+  
   
   /** Set runsize bits starting from start to value specified
    */
@@ -852,7 +1043,7 @@ public class DB implements GlobalConst {
 interface PageUsedBytes
 {
   int DIR_PAGE_USED_BYTES = 8 + 8;
-  int FIRST_PAGE_USED_BYTES = DIR_PAGE_USED_BYTES + 4;
+  int FIRST_PAGE_USED_BYTES = DIR_PAGE_USED_BYTES + 4 + 4;
 }
 
 /** Super class of the directory page and first page
@@ -888,7 +1079,7 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
       
       PageId temppid = getNextPage();
       
-      int num_entries  = (MAX_SPACE - pageusedbytes) /SIZE_OF_FILE_ENTRY; 
+      int num_entries  = (data.length - pageusedbytes) /SIZE_OF_FILE_ENTRY; 
       setNumOfEntries(num_entries);
       
       for ( int index=0; index < num_entries; ++index )
@@ -942,6 +1133,14 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
       return Convert.getIntValue(NUM_OF_ENTRIES, data);
     }
   
+  /**
+   * @return offset of the first file entry on this page
+   */
+  protected int startFileEntries()
+    {
+      return START_FILE_ENTRIES;
+    }
+  
   /**
    * initialize file entries as empty
    * @param empty invalid page number (=-1)
@@ -950,9 +1149,12 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
    */
   private void initFileEntry(int empty, int entryNo)
     throws IOException {
-    int position = START_FILE_ENTRIES + entryNo * SIZE_OF_FILE_ENTRY;
+    int position = startFileEntries() + entryNo * SIZE_OF_FILE_ENTRY;
     Convert.setIntValue (empty, position, data);
-  } 
+    // the page may be a reused frame: give the entry an empty name,
+    // since the directory walks read the name of every entry
+    Convert.setStrValue ("", position + 4, data);
+  }
   
   /**
    * set file entry
@@ -964,7 +1166,7 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
   public  void setFileEntry(PageId pageNo, String fname, int entryNo)
     throws IOException {
 
-    int position = START_FILE_ENTRIES + entryNo * SIZE_OF_FILE_ENTRY;
+    int position = startFileEntries() + entryNo * SIZE_OF_FILE_ENTRY;
     Convert.setIntValue (pageNo.pid, position, data);
     Convert.setStrValue (fname, position +4, data);	
   }
@@ -979,7 +1181,7 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
   public String getFileEntry(PageId pageNo, int entryNo)
     throws IOException {
 
-    int position = START_FILE_ENTRIES + entryNo * SIZE_OF_FILE_ENTRY;
+    int position = startFileEntries() + entryNo * SIZE_OF_FILE_ENTRY;
     pageNo.pid = Convert.getIntValue (position, data);
     return (Convert.getStrValue (position+4, data, MAX_NAME + 2));
   }
@@ -991,7 +1193,9 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
  */
 class DBFirstPage extends DBHeaderPage {
 
-  protected static final int NUM_DB_PAGE = MINIBASE_PAGESIZE -4;
+  /** page size of the DB, in front of the file entries so that it
+   * can be read before the page size is known */
+  protected static final int PAGE_SIZE = START_FILE_ENTRIES;
   
   /**
    * Default construtor 
@@ -1026,7 +1230,7 @@ class DBFirstPage extends DBHeaderPage {
   public void setNumDBPages(int num)
     throws IOException	
     {
-      Convert.setIntValue (num, NUM_DB_PAGE, data);
+      Convert.setIntValue (num, data.length - 4, data);
     }
   
   /**
@@ -1037,9 +1241,36 @@ class DBFirstPage extends DBHeaderPage {
   public int getNumDBPages()
     throws IOException {
 
-    return (Convert.getIntValue(NUM_DB_PAGE, data));
+    return (Convert.getIntValue(data.length - 4, data));
+  }
+  
+  /**
+   * set the page size of the DB
+   * @param size page size in bytes
+   * @exception IOException I/O errors
+   */
+  public void setPageSize(int size)
+    throws IOException	
+    {
+      Convert.setIntValue (size, PAGE_SIZE, data);
+    }
+  
+  /**
+   * return the page size of the DB
+   * @return page size in bytes
+   * @exception IOException I/O errors
+   */
+  public int getPageSize()
+    throws IOException {
+
+    return (Convert.getIntValue(PAGE_SIZE, data));
   }
   
+  protected int startFileEntries()
+    {
+      return PAGE_SIZE + 4;
+    }
+  
 }
 
 /**
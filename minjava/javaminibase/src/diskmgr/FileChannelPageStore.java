@@ -0,0 +1,74 @@
+/* File FileChannelPageStore.java */
+
+package diskmgr;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/** Page I/O through FileChannel positional reads and writes.  Each
+ * page costs one pread/pwrite instead of a seek plus a read/write,
+ * and the channel position is never touched.
+ */
+class FileChannelPageStore extends PageStore {
+
+  private RandomAccessFile file;
+  private FileChannel channel;
+  
+  FileChannelPageStore(String fname)
+    throws IOException {
+    file = new RandomAccessFile(fname, "rw");
+    channel = file.getChannel();
+  }
+  
+  public String name() { return FILE_CHANNEL; }
+  
+  public void read(long offset, byte[] buf)
+    throws IOException {
+    ByteBuffer bb = ByteBuffer.wrap(buf);
+    while (bb.hasRemaining()) {
+      // stop at end of file, like RandomAccessFile.read
+      if (channel.read(bb, offset + bb.position()) < 0)
+	break;
+    }
+  }
+  
+  public void write(long offset, byte[] buf)
+    throws IOException {
+    ByteBuffer bb = ByteBuffer.wrap(buf);
+    while (bb.hasRemaining())
+      channel.write(bb, offset + bb.position());
+  }
+  
+  /* a direct buffer is filled by the channel with no copy on the heap */
+  public void read(long offset, ByteBuffer buf)
+    throws IOException {
+    int start = buf.position();
+    while (buf.hasRemaining()) {
+      if (channel.read(buf, offset + buf.position() - start) < 0)
+	break;
+    }
+  }
+  
+  public void write(long offset, ByteBuffer buf)
+    throws IOException {
+    int start = buf.position();
+    while (buf.hasRemaining())
+      channel.write(buf, offset + buf.position() - start);
+  }
+  
+  public void setLength(long length)
+    throws IOException {
+    long size = channel.size();
+    if (size > length)
+      channel.truncate(length);
+    else if (size < length)
+      channel.write(ByteBuffer.wrap(new byte[1]), length-1);
+  }
+  
+  public void close()
+    throws IOException {
+    channel.close();
+    file.close();
+  }
+}
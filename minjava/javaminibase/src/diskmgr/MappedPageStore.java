@@ -0,0 +1,134 @@
+/* File MappedPageStore.java */
+
+package diskmgr;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/** Page I/O against MappedByteBuffer regions covering the DB file.
+ * A page read or write is a memory copy; the OS writes dirty regions
+ * back on its own and on close().  Regions are mapped lazily, so only
+ * the parts of the file that are touched take address space.
+ */
+class MappedPageStore extends PageStore {
+
+  /** bytes per mapped region, a multiple of any page size */
+  private static final int REGION_SIZE = 1 << 24;
+  
+  private RandomAccessFile file;
+  private FileChannel channel;
+  private long length;
+  private ArrayList<MappedByteBuffer> regions = new ArrayList<MappedByteBuffer>();
+  
+  MappedPageStore(String fname)
+    throws IOException {
+    file = new RandomAccessFile(fname, "rw");
+    channel = file.getChannel();
+    length = channel.size();
+  }
+  
+  public String name() { return MAPPED; }
+  
+  public synchronized void read(long offset, byte[] buf)
+    throws IOException {
+    int done = 0;
+    while (done < buf.length && offset + done < length) {
+      ByteBuffer bb = region(offset + done);
+      int n = Math.min(buf.length - done, bb.remaining());
+      bb.get(buf, done, n);
+      done += n;
+    }
+  }
+  
+  public synchronized void write(long offset, byte[] buf)
+    throws IOException {
+    if (offset + buf.length > length)
+      setLength(offset + buf.length);
+    
+    int done = 0;
+    while (done < buf.length) {
+      ByteBuffer bb = region(offset + done);
+      int n = Math.min(buf.length - done, bb.remaining());
+      bb.put(buf, done, n);
+      done += n;
+    }
+  }
+  
+  public synchronized void read(long offset, ByteBuffer buf)
+    throws IOException {
+    long done = 0;
+    while (buf.hasRemaining() && offset + done < length) {
+      ByteBuffer bb = region(offset + done);
+      int n = Math.min(buf.remaining(), bb.remaining());
+      bb.limit(bb.position() + n);
+      buf.put(bb);
+      done += n;
+    }
+  }
+  
+  public synchronized void write(long offset, ByteBuffer buf)
+    throws IOException {
+    if (offset + buf.remaining() > length)
+      setLength(offset + buf.remaining());
+    
+    long done = 0;
+    while (buf.hasRemaining()) {
+      ByteBuffer bb = region(offset + done);
+      int n = Math.min(buf.remaining(), bb.remaining());
+      ByteBuffer part = buf.duplicate();
+      part.limit(part.position() + n);
+      bb.put(part);
+      buf.position(buf.position() + n);
+      done += n;
+    }
+  }
+  
+  public synchronized void setLength(long newLength)
+    throws IOException {
+    // the last region may have been mapped short, map it again on demand
+    force();
+    regions.clear();
+    long size = channel.size();
+    if (size > newLength)
+      channel.truncate(newLength);
+    else if (size < newLength)
+      channel.write(ByteBuffer.wrap(new byte[1]), newLength-1);
+    length = channel.size();
+  }
+  
+  public synchronized void close()
+    throws IOException {
+    force();
+    regions.clear();
+    channel.close();
+    file.close();
+  }
+  
+  /** @return a view of the region holding offset, positioned there */
+  private ByteBuffer region(long offset)
+    throws IOException {
+    int idx = (int)(offset / REGION_SIZE);
+    while (regions.size() <= idx)
+      regions.add(null);
+    
+    MappedByteBuffer map = regions.get(idx);
+    if (map == null) {
+      long start = (long)idx * REGION_SIZE;
+      long size = Math.min(REGION_SIZE, length - start);
+      map = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+      regions.set(idx, map);
+    }
+    
+    ByteBuffer bb = map.duplicate();
+    bb.position((int)(offset - (long)idx * REGION_SIZE));
+    return bb;
+  }
+  
+  private void force() {
+    for (MappedByteBuffer map : regions)
+      if (map != null)
+	map.force();
+  }
+}
@@ -17,13 +17,13 @@ public class PCounter
 	}
 
 	//create an incrementor for reads
-	public static void readIncrement()
+	public static synchronized void readIncrement()
 	{
 		rcounter++;
 	}
 
 	//create a increment for writes
-	public static void writeIncrement()
+	public static synchronized void writeIncrement()
 	{
 		wcounter++;
 	}
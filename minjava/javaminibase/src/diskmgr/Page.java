@@ -2,7 +2,9 @@
 
 package diskmgr;
 
+import java.nio.ByteBuffer;
 import global.*;
+import bufmgr.FrameArena;
 
  /**
   * class Page
@@ -17,7 +19,7 @@ public class Page implements GlobalConst{
   
   public Page()  
     {
-      data = new byte[MAX_SPACE];
+      data = new byte[SystemDefs.JavabasePageSize];
       
     }
   
@@ -30,28 +32,122 @@ public class Page implements GlobalConst{
     }
   
   /**
-   * return the data byte array
+   * Constructor of class Page, over a frame of an off-heap buffer pool
+   * (see bufmgr.FrameArena)
+   */
+  public Page(FrameArena arena, int frameNo)
+    {
+      setFrame(arena, frameNo);
+    }
+  
+  /**
+   * return the data byte array.  A page over an off-heap frame gets
+   * the frame's heap view, copied in the first time it is asked for.
    * @return 	the byte array of the page
    */
   public byte [] getpage()
     {
+      if (arena != null)
+	return arena.array(frameNo);
       return data;
       
     }
   
+  /**
+   * return the data byte array, as getpage, to a caller that keeps a
+   * reference into it once the page is unpinned, such as a Tuple
+   * pointing at a record.  The heap view of an off-heap frame is then
+   * not recycled for another frame.
+   * @return 	the byte array of the page
+   */
+  public byte [] retainpage()
+    {
+      if (arena != null)
+	return arena.retain(frameNo);
+      return data;
+    }
+  
   /**
    * set the page with the given byte array
    * @param 	array   a byte array of page size
    */
   public void setpage(byte [] array)
     {
+      arena = null;
       data = array;
     }
   
+  /**
+   * make this page share the bytes of another page, its frame if it
+   * is over an off-heap frame, without copying them to an array
+   * @param 	apage   the page to share
+   */
+  public void setpage(Page apage)
+    {
+      if (apage.arena != null)
+	setFrame(apage.arena, apage.frameNo);
+      else
+	setpage(apage.data);
+    }
+  
+  /**
+   * set the page over a frame of an off-heap buffer pool.  Pages that
+   * use the data field directly (see bufferAccess) get the frame's
+   * heap view at once.
+   * @param 	arena   the frames of the buffer pool
+   * @param 	frameNo the frame
+   */
+  public void setFrame(FrameArena arena, int frameNo)
+    {
+      if (bufferAccess()) {
+	this.arena = arena;
+	this.frameNo = frameNo;
+	data = null;
+      }
+      else {
+	this.arena = null;
+	data = arena.array(frameNo);
+      }
+    }
+  
+  /**
+   * return a big-endian ByteBuffer over the page, for reading and
+   * writing fields with absolute gets and puts: the frame's buffer
+   * for a page over an off-heap frame, otherwise a buffer over the
+   * data byte array that follows setpage and any later change of
+   * the array.
+   * @return 	the ByteBuffer of the page
+   */
+  public ByteBuffer getBuffer()
+    {
+      if (arena != null)
+	return arena.buffer(frameNo);
+      if (buffer == null || buffer.array() != data)
+	buffer = ByteBuffer.wrap(data);
+      return buffer;
+    }
+  
+  /**
+   * whether this page reaches its bytes only through getpage and
+   * getBuffer, so that it can work on an off-heap frame in place.
+   * Subclasses that use the data field directly return false.
+   */
+  protected boolean bufferAccess()
+    {
+      return true;
+    }
+  
   /**
    * protected field: An array of bytes (for the page). 
    * 
    */
   protected byte [] data;
   
+  /** ByteBuffer over data, made by getBuffer. */
+  private ByteBuffer buffer;
+  
+  /** the off-heap frames the page is over, null for a byte array */
+  private FrameArena arena;
+  private int frameNo;
+  
 }
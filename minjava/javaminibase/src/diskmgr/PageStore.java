@@ -0,0 +1,120 @@
+/* File PageStore.java */
+
+package diskmgr;
+
+import java.io.*;
+import java.nio.*;
+
+/** A PageStore moves whole pages between the DB file and memory.
+ * DB does all of its page I/O through one of these, so the way the
+ * file is accessed can be chosen when the database is opened:
+ * <ul>
+ * <li> "RandomAccessFile" - seek followed by read/write (the default)
+ * <li> "FileChannel" - positional reads/writes on a FileChannel
+ * <li> "Mapped" - MappedByteBuffer regions covering the DB file
+ * </ul>
+ * Pages may be read and written from several threads at once (see
+ * bufmgr.ConcurrentBufMgr), so every backend must be thread safe.
+ */
+public abstract class PageStore {
+
+  public static final String RANDOM_ACCESS = "RandomAccessFile";
+  public static final String FILE_CHANNEL = "FileChannel";
+  public static final String MAPPED = "Mapped";
+
+  /** the backend used when none (or an unknown one) is given */
+  public static final String DEFAULT = RANDOM_ACCESS;
+  
+  /** Open a page store of the requested kind on the given file.
+   *
+   * @param backend name of the backend, null for the default
+   * @param fname name of the DB file
+   *
+   * @exception IOException I/O errors
+   */
+  public static PageStore open(String backend, String fname)
+    throws IOException {
+
+    if (backend == null || backend.compareTo(RANDOM_ACCESS) == 0)
+      return new RandomAccessPageStore(fname);
+    else if (backend.compareTo(FILE_CHANNEL) == 0)
+      return new FileChannelPageStore(fname);
+    else if (backend.compareTo(MAPPED) == 0)
+      return new MappedPageStore(fname);
+    
+    System.err.println("PageStore: Unknown, Use " + DEFAULT + "\n");
+    return new RandomAccessPageStore(fname);
+  }
+  
+  /** @return the name of this backend */
+  public abstract String name();
+  
+  /** Read buf.length bytes starting at the given file offset.
+   *
+   * @param offset byte offset in the file
+   * @param buf buffer to fill
+   *
+   * @exception IOException I/O errors
+   */
+  public abstract void read(long offset, byte[] buf)
+    throws IOException;
+  
+  /** Write buf at the given file offset.
+   *
+   * @param offset byte offset in the file
+   * @param buf bytes to write
+   *
+   * @exception IOException I/O errors
+   */
+  public abstract void write(long offset, byte[] buf)
+    throws IOException;
+  
+  /** Read buf.remaining() bytes starting at the given file offset
+   * into buf, from its position on.  This goes through a byte array;
+   * a backend that can fill a ByteBuffer itself, an off-heap frame in
+   * particular, does so instead.
+   *
+   * @param offset byte offset in the file
+   * @param buf buffer to fill
+   *
+   * @exception IOException I/O errors
+   */
+  public void read(long offset, ByteBuffer buf)
+    throws IOException {
+    byte[] bytes = new byte[buf.remaining()];
+    read(offset, bytes);
+    buf.put(bytes);
+  }
+  
+  /** Write the bytes of buf from its position to its limit at the
+   * given file offset.  This goes through a byte array, unless the
+   * backend can write a ByteBuffer itself.
+   *
+   * @param offset byte offset in the file
+   * @param buf bytes to write
+   *
+   * @exception IOException I/O errors
+   */
+  public void write(long offset, ByteBuffer buf)
+    throws IOException {
+    byte[] bytes = new byte[buf.remaining()];
+    buf.get(bytes);
+    write(offset, bytes);
+  }
+  
+  /** Make the file exactly length bytes long.
+   *
+   * @param length new length of the file in bytes
+   *
+   * @exception IOException I/O errors
+   */
+  public abstract void setLength(long length)
+    throws IOException;
+  
+  /** Flush outstanding writes and release the file.
+   *
+   * @exception IOException I/O errors
+   */
+  public abstract void close()
+    throws IOException;
+}
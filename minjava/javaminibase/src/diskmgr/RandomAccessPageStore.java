@@ -0,0 +1,50 @@
+/* File RandomAccessPageStore.java */
+
+package diskmgr;
+
+import java.io.*;
+
+/** The original DB page I/O: seek the RandomAccessFile, then a
+ * blocking read or write of the page.
+ */
+class RandomAccessPageStore extends PageStore {
+
+  private RandomAccessFile fp;
+  
+  RandomAccessPageStore(String fname)
+    throws IOException {
+    fp = new RandomAccessFile(fname, "rw");
+  }
+  
+  public String name() { return RANDOM_ACCESS; }
+  
+  public synchronized void read(long offset, byte[] buf)
+    throws IOException {
+    fp.seek(offset);
+    fp.read(buf);
+  }
+  
+  public synchronized void write(long offset, byte[] buf)
+    throws IOException {
+    fp.seek(offset);
+    fp.write(buf);
+  }
+  
+  public synchronized void setLength(long length)
+    throws IOException {
+    // Make the file length bytes long, filled with zeroes.
+    long size = fp.length();
+    if (size > length) {
+      fp.setLength(length);
+    }
+    else if (size < length) {
+      fp.seek(length-1);
+      fp.writeByte(0);
+    }
+  }
+  
+  public synchronized void close()
+    throws IOException {
+    fp.close();
+  }
+}
@@ -1,5 +1,6 @@
 package driver;
 
+import bitmap.CBitMapFile;
 import columnar.*;
 import diskmgr.PCounter;
 import global.*;
@@ -14,7 +15,25 @@ public class BatchInsert{
 	//do nothing constructor
 	public BatchInsert(){}
 	
+    // rows the loader buffers before handing them to the column writers
+    private static final int LOAD_BATCH_ROWS = 4096;
+
+    // page table stripes of the buffer manager of a load, so that the
+    // column writers can share it
+    private static final int LOAD_BM_STRIPES = 16;
+
     public static void batchInsert(String fileName, String columnDB, String columnarName, int colCount) {
+        batchInsert(fileName, columnDB, columnarName, colCount, null);
+    }
+
+    /*
+     * As above, also creating, for each column i with a non-null
+     * indexTypes[i] ("BTREE", "BITMAP", "CBITMAP" or
+     * "WBITMAP", a compressed bitmap of word-aligned runs), that index, in
+     * the same pass over the input file as the rows.
+     */
+    public static void batchInsert(String fileName, String columnDB, String columnarName, int colCount,
+            String[] indexTypes) {
         
         // Extracting command line arguments
         String dataFileName = fileName;
@@ -41,7 +60,9 @@ public class BatchInsert{
                 System.out.println("DB doesn't exists, Creating new DB.");
                 SystemDefs.MINIBASE_RESTART_FLAG = false;
             }
-            SystemDefs sysdef = new SystemDefs( columnDBName, 10000, GlobalConst.NUMBUF, "Clock");
+            // a buffer manager the column writers of the loader can share
+            SystemDefs sysdef = new SystemDefs( columnDBName, 10000, GlobalConst.NUMBUF, "Clock",
+                    null, GlobalConst.MINIBASE_PAGESIZE, LOAD_BM_STRIPES);
         } catch (Exception e) {
            
             // SystemDefs.MINIBASE_RESTART_FLAG = false;
@@ -58,6 +79,10 @@ public class BatchInsert{
             // Initialize attribute types array
             AttrType[] attributeTypes = new AttrType[numColumns];
             String[] columnNames = new String[numColumns];
+            // string columns are stored dictionary encoded: an int code
+            // per row and every distinct value once; int columns on
+            // packed pages, each compressed to suit its values
+            byte[] encodings = new byte[numColumns];
 
             int sSize = 0;
             // Parse attribute types from the first line of the data file
@@ -80,16 +105,19 @@ public class BatchInsert{
 				{
                     case "int":
                         attributeTypes[i] = new AttrType(AttrType.attrInteger);
+                        encodings[i] = Columnarfile.ENCODING_PACKED;
                         break;
                     case "float":
                         attributeTypes[i] = new AttrType(AttrType.attrReal);
                         break;
                     case "string":
                         attributeTypes[i] = new AttrType(AttrType.attrString);
+                        encodings[i] = Columnarfile.ENCODING_DICTIONARY;
                         sSize++;
                         break;
                     default:
                         attributeTypes[i] = new AttrType(AttrType.attrString);
+                        encodings[i] = Columnarfile.ENCODING_DICTIONARY;
                         sSize++;
                         break;
                 }
@@ -118,74 +146,105 @@ public class BatchInsert{
             } catch (Exception e) {
                 System.out.println("Columnar File " + columnarFileName + " does not exist. Creating a new one...");
                 try {
-                    columnarFile = new Columnarfile(columnarFileName, numColumns, attributeTypes, strSizes, columnNames);
+                    columnarFile = new Columnarfile(columnarFileName, numColumns, attributeTypes, strSizes, columnNames, encodings);
                 } catch (Exception ex) {
                     ex.printStackTrace();
                 }
             }
             
-			//go over each record in the input file column-by-column
-			//reseting to the start of the input file once each column
-			//has been inserted
-			//This is not faster than going row-by-row in practice, but
-			//requires fewer page reads/writes than a row-by-row approach
-            int recordCount = 0;
-			for( int i = 0; i < numColumns; i++ )
+			// indexes asked for are created first, on the rows already
+			// in the file, and the loader adds the new rows to them
+			if (indexTypes != null)
 			{
-				System.out.println("Working Column " + i);
-				BufferedReader br2 = new BufferedReader(new FileReader(dataFileName));
-				//skip first line of column specifiers
-				br2.readLine();
-				
-				while ((line = br2.readLine()) != null)
+				for (int i = 0; i < numColumns; i++)
 				{
-					// Split the line into values using a delimiter (e.g., space)
-					String[] values = line.split("\\s+");
-						
-					try
+					if (indexTypes[i] == null)
+						continue;
+					switch (indexTypes[i])
+					{
+						case "BTREE":
+							columnarFile.createBTreeIndex(i + 1);
+							break;
+						case "BITMAP":
+							columnarFile.createBitMapIndex(i + 1, null, false);
+							break;
+						case "CBITMAP":
+							columnarFile.createBitMapIndex(i + 1, null, true);
+							break;
+						case "WBITMAP":
+							columnarFile.createBitMapIndex(i + 1, null, true, CBitMapFile.FORMAT_WORDS);
+							break;
+						default:
+							throw new IllegalArgumentException("Invalid index type: " + indexTypes[i]);
+					}
+				}
+			}
+
+			//read the input file once, each row into per-column buffers
+			//that the loader hands to a writer per column a batch at a time
+			long start = System.currentTimeMillis();
+			ColumnarLoader loader = new ColumnarLoader(columnarFile, LOAD_BATCH_ROWS);
+			int recordCount = 0;
+			String[] values = new String[numColumns];
+			try
+			{
+				while ((line = br.readLine()) != null)
+				{
+					if (split(line, values) < numColumns)
+						continue;
+					byte[][] row = new byte[numColumns][];
+					for (int i = 0; i < numColumns; i++)
 					{
-						byte [] data;
 						switch (attributeTypes[i].attrType)
 						{
 							case AttrType.attrInteger:
-								data = new byte[4];
-								Convert.setIntValue(Integer.parseInt(values[i]), 0, data);
-								columnarFile.addToColumnarColumn(i, data);
+								row[i] = new byte[4];
+								Convert.setIntValue(Integer.parseInt(values[i]), 0, row[i]);
 								break;
 							case AttrType.attrReal:
-								data = new byte[4];
-								Convert.setFloValue(Float.parseFloat(values[i]), 0, data);
-								columnarFile.addToColumnarColumn(i, data);
+								row[i] = new byte[4];
+								Convert.setFloValue(Float.parseFloat(values[i]), 0, row[i]);
 								break;
 							default:
-								data = new byte[GlobalConst.MAX_NAME];
-								Convert.setStrValue(values[i], 0, data);
-								columnarFile.addToColumnarColumn(i, data);
-								break;       
-						}
-						
-						recordCount++;
-						
-						if(recordCount%5000 == 0)
-						{
-							System.out.println("Column " + i + " inserted " + recordCount + " records...");
+								row[i] = new byte[GlobalConst.MAX_NAME];
+								Convert.setStrValue(values[i], 0, row[i]);
+								break;
 						}
-						
-					} catch (Exception e) {
-						// Handle any errors that occur during insertion
-						e.printStackTrace();
+					}
+					loader.add(row);
+
+					recordCount++;
+					if(recordCount%100000 == 0)
+					{
+						System.out.println("Read " + recordCount + " records...");
 					}
 				}
-				//reset record counter
-				recordCount = 0;
-				//close and release this buffered reader
-				br2.close();
 			}
-            
+			finally
+			{
+				loader.finish();
+			}
+			long millis = Math.max(1, System.currentTimeMillis() - start);
+
             SystemDefs.JavabaseBM.flushAllPages();
             System.out.println("Batch Insert Read Count:- "+PCounter.rcounter);
             System.out.println("Batch Insert Write Count:- "+PCounter.wcounter);
+            System.out.println("Synchronous Page Writes:- "+SystemDefs.JavabaseBM.getSyncWriteCount());
+            System.out.println("Background Page Writes:- "+SystemDefs.JavabaseBM.getBackgroundWriteCount());
             System.out.println("Tuple Count:- "+ columnarFile.getTupleCnt());
+            System.out.println("Rows/second:- " + (recordCount * 1000L / millis));
+            // the pages of each packed column against the dense pages of
+            // the same values
+            for (int i = 0; i < numColumns; i++)
+            {
+                if (!columnarFile.isPacked(i + 1))
+                    continue;
+                Heapfile hf = new Heapfile(columnarFileName + "." + Integer.toString(i + 1));
+                int pages = hf.getDataPages().length;
+                int dense = (hf.getRecCnt() + HFPage.denseCapacity(4) - 1) / HFPage.denseCapacity(4);
+                System.out.println("Column " + columnNames[i] + " Pages:- " + pages + " (" + dense
+                    + " dense, compression ratio " + String.format("%.2f", pages == 0 ? 1.0 : (double) dense / pages) + ")");
+            }
 			
 			//close the top level buffered reader
 			br.close();
@@ -195,4 +254,27 @@ public class BatchInsert{
         }
 		
     }
+
+    /*
+     * Splits a line on runs of whitespace into values, as
+     * split("\\s+") would, without a regular expression or an array
+     * per line.  Returns the number of values found, at most
+     * values.length.
+     */
+    private static int split(String line, String[] values) {
+        int n = 0;
+        int length = line.length();
+        int i = 0;
+        while (n < values.length) {
+            while (i < length && Character.isWhitespace(line.charAt(i)))
+                i++;
+            if (i == length)
+                break;
+            int from = i;
+            while (i < length && !Character.isWhitespace(line.charAt(i)))
+                i++;
+            values[n++] = line.substring(from, i);
+        }
+        return n;
+    }
 }
@@ -244,9 +244,13 @@ public class ComplexQueryProgram
 				expr[0].next = getExpr(operatorB, valueB, columnBNumber, types);
 			}
 
+			if (ColumnarLateScan.supports(expr, types)) {
+				executeLateScan(columnarFile, Sprojection, projtypes, expr, isDelete);
+				return;
+			}
+
 			// open columnar file scan
 			ColumnarFileScan cfscan;
-			BTreeFile btf = null;
 			try {
 				cfscan = new ColumnarFileScan(
 								columnarFile.get_fileName(),
@@ -256,7 +260,6 @@ public class ComplexQueryProgram
 								(short) Sprojection.length,
 								Sprojection,
 								expr);
-				btf = new BTreeFile(columnarFile.get_fileName() + ".deletedBTree");
 			} catch (Exception e) {
 				System.err.println("[x] Error opening file scan");
 				throw new CFException(e, "Error opening ColumnarFileScan");
@@ -280,7 +283,6 @@ public class ComplexQueryProgram
 				// close columnar file scan
 				try {
 					cfscan.close();
-					btf.close();
 				} catch (Exception e) {
 					System.err.println("[x] Error closing ColumnarFileScan");
 					throw new CFException(e, "Error closing ColumnarFileScan");
@@ -296,6 +298,57 @@ public class ComplexQueryProgram
     }
 
 
+	/*
+	 * Runs a FILESCAN or COLUMNSCAN query through a ColumnarLateScan:
+	 * only the filter columns are scanned, and only the projected columns
+	 * of the matching positions are read. The page reads of the two steps
+	 * are printed apart.
+	 */
+	private static void executeLateScan( Columnarfile columnarFile, FldSpec[] projlist, AttrType[] projtypes,
+										CondExpr[] expr, boolean isDelete )
+		throws CFException
+	{
+		ColumnarLateScan lscan;
+		try {
+			lscan = new ColumnarLateScan(
+							columnarFile.get_fileName(),
+							columnarFile.type,
+							columnarFile.strSizes,
+							(short) Columnarfile.numColumns,
+							(short) projlist.length,
+							projlist,
+							expr);
+		} catch (Exception e) {
+			System.err.println("[x] Error opening late scan");
+			throw new CFException(e, "Error opening ColumnarLateScan");
+		}
+
+		try {
+			TID tid = new TID(Columnarfile.numColumns);
+			Tuple tuple = lscan.get_next(tid);
+			while (tuple != null) {
+				tuple.print(projtypes);
+				if (isDelete) {
+					columnarFile.markTupleDeleted(tid);
+				}
+				tuple = lscan.get_next(tid);
+			}
+		} catch (Exception e) {
+			System.err.println("[x] Error getting next tuple");
+			throw new CFException(e, "Error getting next tuple");
+		} finally {
+			lscan.close();
+		}
+
+		// Output the number of disk pages read and written
+		System.out.println("Number of disk pages read for the filter: " + lscan.getPredicateReads());
+		System.out.println("Number of disk pages read for the projection: " + lscan.getFetchReads());
+		System.out.println("Number of column pages scanned: " + lscan.getPagesScanned());
+		System.out.println("Number of column pages pruned by zone maps: " + lscan.getPagesPruned());
+		System.out.println("Number of disk pages read: " + PCounter.getReadCount());
+		System.out.println("Number of disk pages written: " + PCounter.getWriteCount());
+	}
+
 	static Columnarfile colscan_f = null;
 	static Scan[] colscan_scans = null;
 	static AttrType[] colscan_evalTypes = null;
@@ -401,6 +454,11 @@ public class ComplexQueryProgram
 			{
 				expr[0].next = getExpr(operatorB, valueB, columnBNumber, types);
 			}
+
+			if (ColumnarLateScan.supports(expr, types)) {
+				executeLateScan(columnarFile, projlist, projtypes, expr, isDelete);
+				return;
+			}
 			
 			// reconstructing the expr to get the column numbers to scan
 			int[] colNumToScan = null;
@@ -421,12 +479,10 @@ public class ComplexQueryProgram
 		
 			// open column scans
 			Scan[] scans = new Scan[colNumToScan.length];
-			BTreeFile btf = null;
 			try {
 			for (int i = 0; i < colNumToScan.length; i++) {
 				scans[i] = columnarFile.openColumnScan(colNumToScan[i]);
 			}
-			btf = new BTreeFile(columnarFile.get_fileName() + ".deletedBTree");
 			} catch (Exception e) {
 				System.err.println("[x] Error opening column scan");
 				throw new CFException(e, "Error opening column scan");
@@ -299,6 +299,7 @@ public class DBDriver
 								System.out.println("[1] BTree");
 								System.out.println("[2] Bitmap");
 								System.out.println("[3] Compressed Bitmap");
+								System.out.println("[4] Word-Aligned Compressed Bitmap");
 								idxPick = cliReader.getChoice();
 								switch( idxPick )
 								{
@@ -308,6 +309,8 @@ public class DBDriver
 										break;
 									case 3: indexType = "CBITMAP";
 										break;
+									case 4: indexType = "WBITMAP";
+										break;
 									default: System.out.println("Invalid/Unsupported Index");
 										break;
 								}
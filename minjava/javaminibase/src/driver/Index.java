@@ -1,5 +1,6 @@
 package driver;
 
+import bitmap.CBitMapFile;
 import columnar.Columnarfile;
 import diskmgr.PCounter;
 import global.AttrType;
@@ -112,6 +113,9 @@ public class Index {
                 indexCreated = columnarFile.createBitMapIndex(columnIndex, valueClass, false);
 			} else if (indexType.equals("CBITMAP")) {
                 indexCreated = columnarFile.createBitMapIndex(columnIndex, valueClass, true);
+			} else if (indexType.equals("WBITMAP")) {
+                indexCreated = columnarFile.createBitMapIndex(columnIndex, valueClass, true,
+                        CBitMapFile.FORMAT_WORDS);
             }
 
             // Print whether the index was successfully created or not
@@ -5,7 +5,8 @@ public interface GlobalConst {
   public static final int MINIBASE_MAXARRSIZE = 50;
   public static final int NUMBUF = 50;
 
-  /** Size of page. */
+  /** Default size of page.  The open database's page size is
+   *  SystemDefs.JavabasePageSize. */
   public static final int MINIBASE_PAGESIZE = 1024;           // in bytes
 
   /** Size of each frame. */
@@ -11,6 +11,13 @@ public class SystemDefs {
 
       public static String JavabaseDBName;
       public static String JavabaseLogName;
+      /** page size of the open database, every page layout derives from it */
+      public static int JavabasePageSize = GlobalConst.MINIBASE_PAGESIZE;
+      /**
+       * true to have the next init create a BufMgr whose frames are
+       * off-heap (see bufmgr.FrameArena); not used with stripes
+       */
+      public static boolean JavabaseBMOffHeap = false;
       public static boolean MINIBASE_RESTART_FLAG = false;
       public static String MINIBASE_DBNAME;
 
@@ -19,6 +26,39 @@ public class SystemDefs {
 
       public SystemDefs(String dbname, int num_pgs, int bufpoolsize,
                   String replacement_policy) {
+            this(dbname, num_pgs, bufpoolsize, replacement_policy, null);
+      }
+
+      /**
+       * Same as above, but also chooses how the DB file is read and
+       * written: PageStore.RANDOM_ACCESS (the default when null),
+       * PageStore.FILE_CHANNEL or PageStore.MAPPED.
+       */
+      public SystemDefs(String dbname, int num_pgs, int bufpoolsize,
+                  String replacement_policy, String page_store) {
+            this(dbname, num_pgs, bufpoolsize, replacement_policy, page_store,
+                        GlobalConst.MINIBASE_PAGESIZE);
+      }
+
+      /**
+       * Same as above, but a new database is created with page_size
+       * byte pages (see DB.SUPPORTED_PAGE_SIZES).  An existing database
+       * keeps the page size recorded in its header.
+       */
+      public SystemDefs(String dbname, int num_pgs, int bufpoolsize,
+                  String replacement_policy, String page_store, int page_size) {
+            this(dbname, num_pgs, bufpoolsize, replacement_policy, page_store,
+                        page_size, 0);
+      }
+
+      /**
+       * Same as above, but with bm_stripes above 0 the buffer manager
+       * is a ConcurrentBufMgr of that many page table stripes, which
+       * several threads can share.  It only replaces by "Clock".
+       */
+      public SystemDefs(String dbname, int num_pgs, int bufpoolsize,
+                  String replacement_policy, String page_store, int page_size,
+                  int bm_stripes) {
             int logsize;
 
             String real_logname = new String(dbname);
@@ -35,12 +75,29 @@ public class SystemDefs {
             }
 
             init(real_dbname, real_logname, num_pgs, logsize,
-                        bufpoolsize, replacement_policy);
+                        bufpoolsize, replacement_policy, page_store, page_size,
+                        bm_stripes);
       }
 
       public void init(String dbname, String logname,
                   int num_pgs, int maxlogsize,
                   int bufpoolsize, String replacement_policy) {
+            init(dbname, logname, num_pgs, maxlogsize, bufpoolsize,
+                        replacement_policy, null, GlobalConst.MINIBASE_PAGESIZE);
+      }
+
+      public void init(String dbname, String logname,
+                  int num_pgs, int maxlogsize,
+                  int bufpoolsize, String replacement_policy,
+                  String page_store, int page_size) {
+            init(dbname, logname, num_pgs, maxlogsize, bufpoolsize,
+                        replacement_policy, page_store, page_size, 0);
+      }
+
+      public void init(String dbname, String logname,
+                  int num_pgs, int maxlogsize,
+                  int bufpoolsize, String replacement_policy,
+                  String page_store, int page_size, int bm_stripes) {
 
             boolean status = true;
             JavabaseBM = null;
@@ -49,9 +106,33 @@ public class SystemDefs {
             JavabaseLogName = null;
             JavabaseCatalog = null;
 
+            boolean open_existing = (MINIBASE_RESTART_FLAG) || (num_pgs == 0);
+
             try {
-                  JavabaseBM = new BufMgr(bufpoolsize, replacement_policy);
-                  JavabaseDB = new DB();
+                  // buffer frames are sized from the page size, so an
+                  // existing database has its header read first
+                  if (open_existing) {
+                        JavabasePageSize = DB.readPageSize(page_store, dbname);
+                        // a header written before the page size was
+                        // recorded holds a file entry at that offset
+                        if (!DB.isSupportedPageSize(JavabasePageSize)) {
+                              throw new IllegalArgumentException(dbname
+                                          + ": unsupported or pre-page-size database format"
+                                          + " (page size field " + JavabasePageSize + ")");
+                        }
+                  } else if (DB.isSupportedPageSize(page_size)) {
+                        JavabasePageSize = page_size;
+                  } else {
+                        throw new IllegalArgumentException("Unsupported page size " + page_size);
+                  }
+                  if (bm_stripes > 0) {
+                        JavabaseBM = new ConcurrentBufMgr(bufpoolsize, replacement_policy,
+                                    bm_stripes);
+                  } else {
+                        JavabaseBM = new BufMgr(bufpoolsize, replacement_policy,
+                                    JavabaseBMOffHeap);
+                  }
+                  JavabaseDB = new DB(page_store);
                   /*
                    * JavabaseCatalog = new Catalog();
                    */
@@ -65,7 +146,7 @@ public class SystemDefs {
             JavabaseLogName = new String(logname);
             MINIBASE_DBNAME = new String(JavabaseDBName);
 
-            if ((MINIBASE_RESTART_FLAG) || (num_pgs == 0)) {// open an existing database
+            if (open_existing) {// open an existing database
                   try {
                         JavabaseDB.openDB(dbname); 
                   } catch (Exception e) {
@@ -75,7 +156,7 @@ public class SystemDefs {
                   }
             } else {
                   try {
-                        JavabaseDB.openDB(dbname, num_pgs);
+                        JavabaseDB.openDB(dbname, num_pgs, JavabasePageSize);
                         JavabaseBM.flushAllPages();
                   } catch (Exception e) {
                         System.err.println("" + e);
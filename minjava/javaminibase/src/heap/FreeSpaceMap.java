@@ -0,0 +1,398 @@
+package heap;
+
+
+/** File FreeSpaceMap.java */
+
+
+import java.util.*;
+import global.*;
+import diskmgr.*;
+
+/** FreeSpaceMap: an in-memory copy of the directory of a heap file.
+ * <p>
+ * It holds, in directory order, one entry per DataPageInfo record:
+ * the directory page and slot of the record, and the pageId, recct and
+ * availspace of the data page, plus the space left on each directory
+ * page.  Heapfile finds the data page for an insert, and the directory
+ * entry of a record, here instead of walking the directory.
+ * <p>
+ * A max tree over availspace gives the first data page, in directory
+ * order, with room for a record in O(log n), which is the page the
+ * directory walk used to pick; a Fenwick tree over recct gives the
+ * number of records before a data page, the position prefix, in
+ * O(log n), and maps a position back to its data page by walking
+ * down the tree, also in O(log n).
+ * <p>
+ * For a file of dense pages (see HFPage.initDense) the map also knows
+ * how many values a data page holds.  As long as every data page but
+ * the last is full, which is how a column that is only appended to
+ * grows, the map is packed: a position is its data page number times
+ * that capacity plus its slot, and the trees are not needed to map
+ * one to the other.
+ * <p>
+ * There is one map per heap file and database, shared by all the
+ * Heapfile objects opened on the file.  It is built on first use with
+ * one walk over the directory pages.  Changes that only touch one entry
+ * or add one are applied in place; for the others Heapfile calls
+ * clear() and the map is built again when it is next needed.
+ */
+class FreeSpaceMap implements GlobalConst {
+
+  /** database -> first directory page of a file -> its map */
+  private static WeakHashMap<DB, HashMap<Integer, FreeSpaceMap>> maps =
+    new WeakHashMap<DB, HashMap<Integer, FreeSpaceMap>>();
+
+  /** true once the map holds the whole directory */
+  private boolean built = false;
+
+  /** number of entries */
+  private int n = 0;
+
+  /** entries, in directory order */
+  private int[] dirPid = new int[0];
+  private int[] dirSlot = new int[0];
+  private int[] dataPid = new int[0];
+  private int[] recct = new int[0];
+  private int[] avail = new int[0];
+
+  /** entry index of each data page */
+  private HashMap<Integer, Integer> index = new HashMap<Integer, Integer>();
+
+  /** directory pages in order, with their free space and number of entries */
+  private int ndirs = 0;
+  private int[] dirs = new int[0];
+  private int[] dirRoom = new int[0];
+  private int[] dirCount = new int[0];
+
+  /** capacity of the trees, a power of two >= n */
+  private int cap = 0;
+
+  /** max tree over avail: node k covers 2k and 2k+1, leaf i is cap+i */
+  private int[] maxTree = new int[0];
+
+  /** Fenwick tree over recct, 1-based */
+  private int[] fenwick = new int[0];
+
+  /** value width and values per data page of a file of dense pages,
+   * 0 for a file of slotted pages */
+  private int valueWidth = 0;
+  private int valueCap = 0;
+
+  /** true for a file of packed pages of ints */
+  private boolean packedInts = false;
+
+  /** true while every entry but the last holds valueCap records */
+  private boolean packed = false;
+
+
+  /** Returns the map of the heap file whose first directory page is
+   * given, in the open database.
+   */
+  static synchronized FreeSpaceMap get(PageId firstDirPageId)
+  {
+    HashMap<Integer, FreeSpaceMap> files = maps.get(SystemDefs.JavabaseDB);
+    if (files == null) {
+      files = new HashMap<Integer, FreeSpaceMap>();
+      maps.put(SystemDefs.JavabaseDB, files);
+    }
+    FreeSpaceMap fsm = files.get(firstDirPageId.pid);
+    if (fsm == null) {
+      fsm = new FreeSpaceMap();
+      files.put(firstDirPageId.pid, fsm);
+    }
+    return fsm;
+  }
+
+  /** Drops the map of a heap file that is being deleted. */
+  static synchronized void forget(PageId firstDirPageId)
+  {
+    HashMap<Integer, FreeSpaceMap> files = maps.get(SystemDefs.JavabaseDB);
+    if (files != null)
+      files.remove(firstDirPageId.pid);
+  }
+
+
+  synchronized boolean isBuilt() { return built; }
+
+  /** Marks the map as out of date, to be built again. */
+  synchronized void clear()
+  {
+    built = false;
+    n = 0;
+    ndirs = 0;
+    index.clear();
+    cap = 0;
+    maxTree = new int[0];
+    fenwick = new int[0];
+    packed = false;
+  }
+
+  /** Ends building: the directory has been walked. */
+  synchronized void setBuilt()
+  {
+    rebuildTrees(n);
+    built = true;
+  }
+
+  synchronized int size() { return n; }
+
+  /** Sets the value width read from the first directory page. */
+  synchronized void setValueWidth(int width)
+  {
+    packedInts = width == Heapfile.PACKED_INTS;
+    valueWidth = Math.max(0, width);
+    valueCap = valueWidth > 0 ? HFPage.denseCapacity(valueWidth) : 0;
+  }
+
+  synchronized int getValueWidth() { return valueWidth; }
+
+  synchronized boolean isPackedInts() { return packedInts; }
+
+  synchronized int getDirPid(int i) { return dirPid[i]; }
+
+  synchronized int getDirSlot(int i) { return dirSlot[i]; }
+
+  synchronized int getDataPid(int i) { return dataPid[i]; }
+
+  synchronized int getRecct(int i) { return recct[i]; }
+
+  synchronized int dirCount() { return ndirs; }
+
+  synchronized int getDir(int d) { return dirs[d]; }
+
+
+  /** Returns the entry index of a data page, -1 if the file has no
+   * such data page. */
+  synchronized int find(int pid)
+  {
+    Integer i = index.get(pid);
+    return i == null ? -1 : i.intValue();
+  }
+
+
+  /** Returns the first entry, in directory order, whose data page has
+   * at least len bytes available, -1 if there is none. */
+  synchronized int firstFit(int len)
+  {
+    if (n == 0 || maxTree[1] < len)
+      return -1;
+    int k = 1;
+    while (k < cap)
+      k = (maxTree[2 * k] >= len) ? 2 * k : 2 * k + 1;
+    return k - cap;
+  }
+
+
+  /** Returns the number of records on the data pages before entry i. */
+  synchronized int prefix(int i)
+  {
+    int sum = 0;
+    for (int k = i; k > 0; k -= k & -k)
+      sum += fenwick[k];
+    return sum;
+  }
+
+
+  /** Returns the position of a record: the number of records on the
+   * data pages before its own, plus its slot number.  Returns -1 if the
+   * file has no such data page.
+   */
+  synchronized int positionOf(RID rid)
+  {
+    Integer i = index.get(rid.pageNo.pid);
+    if (i == null)
+      return -1;
+    if (packed)
+      return i.intValue() * valueCap + rid.slotNo;
+    return prefix(i.intValue()) + rid.slotNo;
+  }
+
+
+  /** Finds the record at a position, the inverse of positionOf.
+   *
+   * @param position the position
+   * @param rid set to the record
+   * @return false if the position is past the last record
+   */
+  synchronized boolean ridAt(int position, RID rid)
+  {
+    if (position < 0)
+      return false;
+
+    if (packed) {
+      int k = position / valueCap;
+      int rest = position - k * valueCap;
+      if (k >= n || (k == n - 1 && rest >= recct[k]))
+	return false;
+      rid.pageNo.pid = dataPid[k];
+      rid.slotNo = rest;
+      return true;
+    }
+
+    // the largest k with prefix(k) <= position, walking down the
+    // Fenwick tree; entry k then holds the record
+    int k = 0;
+    int rest = position;
+    for (int step = Integer.highestOneBit(Math.max(n, 1)); step > 0; step >>= 1) {
+      if (k + step <= n && fenwick[k + step] <= rest) {
+	k += step;
+	rest -= fenwick[k];
+      }
+    }
+    if (k >= n)
+      return false;
+
+    rid.pageNo.pid = dataPid[k];
+    rid.slotNo = rest;
+    return true;
+  }
+
+
+  /** Returns the first directory page with at least len bytes
+   * available, -1 if there is none. */
+  synchronized int dirWithRoom(int len)
+  {
+    for (int d = 0; d < ndirs; d++)
+      if (dirRoom[d] >= len)
+	return d;
+    return -1;
+  }
+
+
+  /** Adds a directory page after the last one. */
+  synchronized void addDir(int pid, int room)
+  {
+    if (ndirs == dirs.length) {
+      int len = Math.max(4, 2 * ndirs);
+      dirs = Arrays.copyOf(dirs, len);
+      dirRoom = Arrays.copyOf(dirRoom, len);
+      dirCount = Arrays.copyOf(dirCount, len);
+    }
+    dirs[ndirs] = pid;
+    dirRoom[ndirs] = room;
+    dirCount[ndirs] = 0;
+    ndirs++;
+  }
+
+
+  /** Adds the DataPageInfo record at slot of directory page d.
+   * While building the records are given in directory order; later
+   * the record may have filled a hole left by a deleted one, and the
+   * entry goes where a walk would find it.
+   *
+   * @param d the directory page, as returned by dirWithRoom or
+   *        dirCount()-1
+   * @param slot slot number of the record on the directory page
+   * @param pid the data page
+   * @param count recct of the data page
+   * @param space availspace of the data page
+   * @param room space left on the directory page
+   * @return the index of the entry
+   */
+  synchronized int addPage(int d, int slot, int pid, int count, int space, int room)
+  {
+    int i = 0;
+    for (int e = 0; e <= d; e++)
+      i += dirCount[e];
+    while (i > 0 && dirPid[i - 1] == dirs[d] && dirSlot[i - 1] > slot)
+      i--;
+
+    if (n == dataPid.length) {
+      int len = Math.max(16, 2 * n);
+      dirPid = Arrays.copyOf(dirPid, len);
+      dirSlot = Arrays.copyOf(dirSlot, len);
+      dataPid = Arrays.copyOf(dataPid, len);
+      recct = Arrays.copyOf(recct, len);
+      avail = Arrays.copyOf(avail, len);
+    }
+    int move = n - i;
+    System.arraycopy(dirPid, i, dirPid, i + 1, move);
+    System.arraycopy(dirSlot, i, dirSlot, i + 1, move);
+    System.arraycopy(dataPid, i, dataPid, i + 1, move);
+    System.arraycopy(recct, i, recct, i + 1, move);
+    System.arraycopy(avail, i, avail, i + 1, move);
+    dirPid[i] = dirs[d];
+    dirSlot[i] = slot;
+    dataPid[i] = pid;
+    recct[i] = count;
+    avail[i] = space;
+    n++;
+    dirCount[d]++;
+    dirRoom[d] = room;
+
+    if (move > 0)
+      for (int e = i; e < n; e++)
+	index.put(dataPid[e], e);
+    else
+      index.put(pid, i);
+
+    if (!built)
+      return i;
+    if (move > 0 || n > cap)
+      rebuildTrees(n);
+    else {
+      if (n > 1 && recct[n - 2] != valueCap)
+	packed = false;
+      append(i);
+    }
+    return i;
+  }
+
+
+  /** Sets recct and availspace of entry i. */
+  synchronized void update(int i, int count, int space)
+  {
+    if (i < n - 1 && count != valueCap)
+      packed = false;
+    for (int k = i + 1; k <= cap; k += k & -k)
+      fenwick[k] += count - recct[i];
+    recct[i] = count;
+    avail[i] = space;
+    int k = cap + i;
+    maxTree[k] = space;
+    for (k >>= 1; k >= 1; k >>= 1)
+      maxTree[k] = Math.max(maxTree[2 * k], maxTree[2 * k + 1]);
+  }
+
+
+  /** Adds the last entry, i == n-1 < cap, to the trees. */
+  private void append(int i)
+  {
+    // a Fenwick node covers (k - lowbit(k), k]
+    int k = i + 1;
+    fenwick[k] = recct[i] + prefix(i) - prefix(k - (k & -k));
+    int m = cap + i;
+    maxTree[m] = avail[i];
+    for (m >>= 1; m >= 1; m >>= 1)
+      maxTree[m] = Math.max(maxTree[2 * m], maxTree[2 * m + 1]);
+  }
+
+
+  private void rebuildTrees(int size)
+  {
+    packed = valueCap > 0;
+    for (int i = 0; i < n - 1; i++)
+      if (recct[i] != valueCap)
+	packed = false;
+
+    cap = 1;
+    while (cap < size)
+      cap *= 2;
+
+    maxTree = new int[2 * cap];
+    Arrays.fill(maxTree, -1);
+    for (int i = 0; i < n; i++)
+      maxTree[cap + i] = avail[i];
+    for (int k = cap - 1; k >= 1; k--)
+      maxTree[k] = Math.max(maxTree[2 * k], maxTree[2 * k + 1]);
+
+    fenwick = new int[cap + 1];
+    for (int i = 0; i < n; i++) {
+      int k = i + 1;
+      fenwick[k] += recct[i];
+      int parent = k + (k & -k);
+      if (parent <= cap)
+	fenwick[parent] += fenwick[k];
+    }
+  }
+}
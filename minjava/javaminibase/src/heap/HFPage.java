@@ -4,6 +4,9 @@ package heap;
 
 import java.io.*;
 import java.lang.*;
+import java.nio.*;
+import java.util.Arrays;
+import java.util.BitSet;
 
 import global.*;
 import diskmgr.*;
@@ -21,6 +24,27 @@ interface ConstSlot {
  * Class heap file page.
  * The design assumes that records are kept compacted when
  * deletions are performed.
+ * <p>
+ * A page set up with initDense is a dense page instead: it holds
+ * fixed-width values packed one after the other, with no slot
+ * directory.  The header is the same, except that the type field is
+ * DENSE_PAGE and usedPtr holds the value width; it is followed by a
+ * bitmap of the deleted slots and then the values, so that slot i is
+ * at a fixed offset.  A 4-byte value takes 4 bytes and a bit instead
+ * of 4 bytes and a 4-byte slot.  As on a slotted page, an insert
+ * reuses the first deleted slot, and freeSpace counts the bytes of the
+ * values the page still has room for.
+ * <p>
+ * A page set up with initPacked is a packed page: it holds 4-byte int
+ * values, compressed with the encoding that suits the values the page
+ * was loaded with (frame of reference, delta or run-length, see
+ * PackedInts), and a bitmap of the deleted slots that grows back from
+ * the end of the page.  The type field is PACKED_PAGE, usedPtr holds
+ * the bytes of the encoded values and freeSpace the bytes left.  Values
+ * are only appended, deleted slots are not reused, and once a value
+ * does not fit the page is full: its freeSpace drops to 0.  A record
+ * read from a packed page is a copy; updateRecord of Heapfile writes
+ * it back through setPackedValue.
  */
 
 public class HFPage extends Page
@@ -37,6 +61,12 @@ public class HFPage extends Page
   public static final int NEXT_PAGE = 12;
   public static final int CUR_PAGE = 16;
 
+  /** type of a dense page */
+  public static final short DENSE_PAGE = 0x0DE5;
+
+  /** type of a packed page */
+  public static final short PACKED_PAGE = 0x0C0D;
+
   /*
    * Warning:
    * These items must all pack tight, (no padding) for
@@ -94,7 +124,7 @@ public class HFPage extends Page
    */
 
   public HFPage(Page page) {
-    data = page.getpage();
+    setpage(page);
   }
 
   /**
@@ -105,7 +135,7 @@ public class HFPage extends Page
    */
 
   public void openHFpage(Page apage) {
-    data = apage.getpage();
+    setpage(apage);
   }
 
   /**
@@ -121,25 +151,218 @@ public class HFPage extends Page
   public void init(PageId pageNo, Page apage)
     throws IOException
     {
-      data = apage.getpage();
+      setpage(apage);
       
       slotCnt = 0;                // no slots in use
-      Convert.setShortValue (slotCnt, SLOT_CNT, data);
+      getBuffer().putShort(SLOT_CNT, slotCnt);
       
       curPage.pid = pageNo.pid;
-      Convert.setIntValue (curPage.pid, CUR_PAGE, data);
+      getBuffer().putInt(CUR_PAGE, curPage.pid);
       
       nextPage.pid = prevPage.pid = INVALID_PAGE;
-      Convert.setIntValue (prevPage.pid, PREV_PAGE, data);
-      Convert.setIntValue (nextPage.pid, NEXT_PAGE, data);
+      getBuffer().putInt(PREV_PAGE, prevPage.pid);
+      getBuffer().putInt(NEXT_PAGE, nextPage.pid);
       
-      usedPtr = (short) MAX_SPACE;  // offset in data array (grow backwards)
-      Convert.setShortValue (usedPtr, USED_PTR, data);
+      usedPtr = (short) getBuffer().capacity();  // offset in data array (grow backwards)
+      getBuffer().putShort(USED_PTR, usedPtr);
       
-      freeSpace = (short) (MAX_SPACE - DPFIXED);    // amount of space available
-      Convert.setShortValue (freeSpace, FREE_SPACE, data);
+      freeSpace = (short) (getBuffer().capacity() - DPFIXED);    // amount of space available
+      getBuffer().putShort(FREE_SPACE, freeSpace);
       
+      type = 0;
+      getBuffer().putShort(TYPE, type);
+    }
+
+  /**
+   * Constructor of class HFPage
+   * initialize a new dense page, holding values of the given width
+   *
+   * @param pageNo the page number of a new page to be initialized
+   * @param apage  the Page to be initialized
+   * @param width  the width of the values in bytes
+   * @exception IOException I/O errors
+   */
+
+  public void initDense(PageId pageNo, Page apage, int width)
+    throws IOException
+    {
+      init(pageNo, apage);
+
+      type = DENSE_PAGE;
+      getBuffer().putShort(TYPE, type);
+
+      usedPtr = (short) width;
+      getBuffer().putShort(USED_PTR, usedPtr);
+
+      int capacity = denseCapacity(getBuffer().capacity(), width);
+      freeSpace = (short) (capacity * width);
+      getBuffer().putShort(FREE_SPACE, freeSpace);
+
+      // no slot deleted
+      Arrays.fill(getpage(), DPFIXED, DPFIXED + (capacity + 7) / 8, (byte) 0);
+    }
+
+  /**
+   * @param pageSize the page size
+   * @param width the width of the values in bytes
+   * @return the number of values a dense page holds: each takes its
+   *         width and one bit of the deleted bitmap
+   */
+  public static int denseCapacity(int pageSize, int width) {
+    return (pageSize - DPFIXED) * 8 / (8 * width + 1);
+  }
+
+  /**
+   * @param width the width of the values in bytes
+   * @return the number of values a dense page of the open database holds
+   */
+  public static int denseCapacity(int width) {
+    return denseCapacity(SystemDefs.JavabasePageSize, width);
+  }
+
+  /**
+   * @return true if this is a dense page
+   */
+  public boolean isDense() {
+    return getBuffer().getShort(TYPE) == DENSE_PAGE;
+  }
+
+  /* offset of the first value on a dense page */
+  private int denseValues(int width) {
+    return DPFIXED + (denseCapacity(getBuffer().capacity(), width) + 7) / 8;
+  }
+
+  private boolean denseDeleted(int slotno) {
+    return (getBuffer().get(DPFIXED + (slotno >> 3)) & (1 << (slotno & 7))) != 0;
+  }
+
+  /**
+   * Constructor of class HFPage
+   * initialize a new packed page, holding encoded 4-byte int values
+   *
+   * @param pageNo the page number of a new page to be initialized
+   * @param apage  the Page to be initialized
+   * @exception IOException I/O errors
+   */
+
+  public void initPacked(PageId pageNo, Page apage)
+    throws IOException
+    {
+      init(pageNo, apage);
+
+      type = PACKED_PAGE;
+      getBuffer().putShort(TYPE, type);
+
+      usedPtr = 0;
+      getBuffer().putShort(USED_PTR, usedPtr);
+
+      freeSpace = (short) PackedInts.room(getpage(), 0);
+      getBuffer().putShort(FREE_SPACE, freeSpace);
+
+      PackedInts.init(getBuffer());
     }
+
+  /**
+   * @return true if this is a packed page
+   */
+  public boolean isPacked() {
+    return getBuffer().getShort(TYPE) == PACKED_PAGE;
+  }
+
+  /**
+   * @return the encoding of the values of a packed page: "for",
+   *         "delta" or "rle"
+   */
+  public String getPackedEncoding() {
+    return PackedInts.name(getBuffer().get(PackedInts.ENC));
+  }
+
+  /* the deleted bitmap of a packed page is at the end, byte 0 last */
+  private int packedBit(int slotno) {
+    return getBuffer().capacity() - 1 - (slotno >> 3);
+  }
+
+  private boolean packedDeleted(int slotno) {
+    return (getBuffer().get(packedBit(slotno)) & (1 << (slotno & 7))) != 0;
+  }
+
+  /**
+   * Replaces the value in a slot of a packed page, encoding the values
+   * of the page again.
+   *
+   * @param slotno the slot
+   * @param value the new value
+   * @return false, with the page unchanged, if the values no longer
+   *         fit the page
+   * @exception IOException I/O errors
+   */
+  public boolean setPackedValue(int slotno, int value)
+      throws IOException {
+    return PackedInts.set(getpage(), getBuffer(), getSlotCnt(), slotno, value);
+  }
+
+  /**
+   * Finds the runs of equal values in slots slotno to slotno+count-1
+   * of a file of 4-byte int records, leaving out empty slots.  Run r
+   * holds values[off+r] in the lengths[off+r] slots from starts[off+r]
+   * on.  The runs of a run-length encoded packed page are read as they
+   * are stored, with no value decoded.
+   *
+   * @param slotno the first slot
+   * @param count the number of slots
+   * @param values the value of each run
+   * @param starts the first slot of each run
+   * @param lengths the slots of each run
+   * @param off where the first run goes
+   * @return the number of runs, at most count
+   * @exception IOException I/O errors
+   */
+  public int getIntRuns(int slotno, int count, int[] values, int[] starts,
+			int[] lengths, int off)
+      throws IOException {
+    int end = slotno + count;
+    int n = off;
+    if (isPacked()) {
+      int[] runValues = new int[count];
+      int[] runStarts = new int[count];
+      int runs = PackedInts.runs(getpage(), getBuffer(), getSlotCnt(), slotno, count,
+				 runValues, runStarts, 0);
+      // each run ends where the next one starts; the deleted slots
+      // split them
+      for (int r = 0; r < runs; r++) {
+	int stop = r + 1 < runs ? runStarts[r + 1] : end;
+	int value = runValues[r];
+	for (int i = runStarts[r]; i < stop; ) {
+	  while (i < stop && packedDeleted(i))
+	    i++;
+	  int from = i;
+	  while (i < stop && !packedDeleted(i))
+	    i++;
+	  if (i > from) {
+	    values[n] = value;
+	    starts[n] = from;
+	    lengths[n] = i - from;
+	    n++;
+	  }
+	}
+      }
+      return n - off;
+    }
+    for (int i = slotno; i < end; i++) {
+      if (getSlotLength(i) == EMPTY_SLOT)
+	continue;
+      int value = getBuffer().getInt(getSlotOffset(i));
+      if (n > off && values[n - 1] == value && starts[n - 1] + lengths[n - 1] == i)
+	lengths[n - 1]++;
+      else {
+	values[n] = value;
+	starts[n] = i;
+	lengths[n] = 1;
+	n++;
+      }
+    }
+    return n - off;
+  }
 	
 	/**
 	 * short cut to access the pinPage function in bufmgr package.
@@ -187,7 +410,7 @@ public class HFPage extends Page
 		for(int sltNo = 0; sltNo < slotCnt; sltNo++)
 		{
 			int checkOffset = getSlotOffset( sltNo );
-			int checkPosition = Convert.getIntValue(checkOffset + posOffsetInData, data);
+			int checkPosition = getBuffer().getInt(checkOffset + posOffsetInData);
 			if( checkPosition == Position )
 			{
 				matchedSlot = sltNo;
@@ -302,7 +525,7 @@ public class HFPage extends Page
    */
 
   public byte[] getHFpageArray() {
-    return data;
+    return retainpage();
   }
 
   /**
@@ -315,11 +538,11 @@ public class HFPage extends Page
     int i, n;
     int length, offset;
 
-    curPage.pid = Convert.getIntValue(CUR_PAGE, data);
-    nextPage.pid = Convert.getIntValue(NEXT_PAGE, data);
-    usedPtr = Convert.getShortValue(USED_PTR, data);
-    freeSpace = Convert.getShortValue(FREE_SPACE, data);
-    slotCnt = Convert.getShortValue(SLOT_CNT, data);
+    curPage.pid = getBuffer().getInt(CUR_PAGE);
+    nextPage.pid = getBuffer().getInt(NEXT_PAGE);
+    usedPtr = getBuffer().getShort(USED_PTR);
+    freeSpace = getBuffer().getShort(FREE_SPACE);
+    slotCnt = getBuffer().getShort(SLOT_CNT);
 
     System.out.println("dumpPage");
     System.out.println("curPage= " + curPage.pid);
@@ -328,9 +551,17 @@ public class HFPage extends Page
     System.out.println("freeSpace= " + freeSpace);
     System.out.println("slotCnt= " + slotCnt);
 
+    if (isDense()) {
+      // usedPtr is the value width
+      for (i = 0; i < slotCnt; i++)
+        if (denseDeleted(i))
+          System.out.println("slotNo " + i + " deleted");
+      return;
+    }
+
     for (i = 0, n = DPFIXED; i < slotCnt; n += SIZE_OF_SLOT, i++) {
-      length = Convert.getShortValue(n, data);
-      offset = Convert.getShortValue(n + 2, data);
+      length = getBuffer().getShort(n);
+      offset = getBuffer().getShort(n + 2);
       System.out.println("slotNo " + i + " offset= " + offset);
       System.out.println("slotNo " + i + " length= " + length);
     }
@@ -343,7 +574,7 @@ public class HFPage extends Page
    */
   public PageId getPrevPage()
       throws IOException {
-    prevPage.pid = Convert.getIntValue(PREV_PAGE, data);
+    prevPage.pid = getBuffer().getInt(PREV_PAGE);
     return prevPage;
   }
 
@@ -356,7 +587,7 @@ public class HFPage extends Page
   public void setPrevPage(PageId pageNo)
       throws IOException {
     prevPage.pid = pageNo.pid;
-    Convert.setIntValue(prevPage.pid, PREV_PAGE, data);
+    getBuffer().putInt(PREV_PAGE, prevPage.pid);
   }
 
   /**
@@ -365,7 +596,7 @@ public class HFPage extends Page
    */
   public PageId getNextPage()
       throws IOException {
-    nextPage.pid = Convert.getIntValue(NEXT_PAGE, data);
+    nextPage.pid = getBuffer().getInt(NEXT_PAGE);
     return nextPage;
   }
 
@@ -378,7 +609,7 @@ public class HFPage extends Page
   public void setNextPage(PageId pageNo)
       throws IOException {
     nextPage.pid = pageNo.pid;
-    Convert.setIntValue(nextPage.pid, NEXT_PAGE, data);
+    getBuffer().putInt(NEXT_PAGE, nextPage.pid);
   }
 
   /**
@@ -387,7 +618,7 @@ public class HFPage extends Page
    */
   public PageId getCurPage()
       throws IOException {
-    curPage.pid = Convert.getIntValue(CUR_PAGE, data);
+    curPage.pid = getBuffer().getInt(CUR_PAGE);
     return curPage;
   }
 
@@ -400,7 +631,7 @@ public class HFPage extends Page
   public void setCurPage(PageId pageNo)
       throws IOException {
     curPage.pid = pageNo.pid;
-    Convert.setIntValue(curPage.pid, CUR_PAGE, data);
+    getBuffer().putInt(CUR_PAGE, curPage.pid);
   }
 
   /**
@@ -409,7 +640,7 @@ public class HFPage extends Page
    */
   public short getType()
       throws IOException {
-    type = Convert.getShortValue(TYPE, data);
+    type = getBuffer().getShort(TYPE);
     return type;
   }
 
@@ -422,7 +653,7 @@ public class HFPage extends Page
   public void setType(short valtype)
       throws IOException {
     type = valtype;
-    Convert.setShortValue(type, TYPE, data);
+    getBuffer().putShort(TYPE, type);
   }
 
   /**
@@ -431,7 +662,7 @@ public class HFPage extends Page
    */
   public short getSlotCnt()
       throws IOException {
-    slotCnt = Convert.getShortValue(SLOT_CNT, data);
+    slotCnt = getBuffer().getShort(SLOT_CNT);
     return slotCnt;
   }
 
@@ -446,8 +677,8 @@ public class HFPage extends Page
   public void setSlot(int slotno, int length, int offset)
       throws IOException {
     int position = DPFIXED + slotno * SIZE_OF_SLOT;
-    Convert.setShortValue((short) length, position, data);
-    Convert.setShortValue((short) offset, position + 2, data);
+    getBuffer().putShort(position, (short) length);
+    getBuffer().putShort(position + 2, (short) offset);
   }
 
   /**
@@ -457,8 +688,12 @@ public class HFPage extends Page
    */
   public short getSlotLength(int slotno)
       throws IOException {
+    if (isDense())
+      return denseDeleted(slotno) ? EMPTY_SLOT : getBuffer().getShort(USED_PTR);
+    if (isPacked())
+      return packedDeleted(slotno) ? EMPTY_SLOT : (short) 4;
     int position = DPFIXED + slotno * SIZE_OF_SLOT;
-    short val = Convert.getShortValue(position, data);
+    short val = getBuffer().getShort(position);
     return val;
   }
 
@@ -469,8 +704,15 @@ public class HFPage extends Page
    */
   public short getSlotOffset(int slotno)
       throws IOException {
+    if (isDense()) {
+      int width = getBuffer().getShort(USED_PTR);
+      return (short) (denseValues(width) + slotno * width);
+    }
+    // the values of a packed page are not stored at an offset
+    if (isPacked())
+      return EMPTY_SLOT;
     int position = DPFIXED + slotno * SIZE_OF_SLOT;
-    short val = Convert.getShortValue(position + 2, data);
+    short val = getBuffer().getShort(position + 2);
     return val;
   }
 
@@ -486,6 +728,11 @@ public class HFPage extends Page
   public RID insertRecord ( byte [] record)		
     throws IOException
     {
+      if (isDense())
+	return insertDense(record);
+      if (isPacked())
+	return insertPacked(record);
+      
       RID rid = new RID();
       
       int recLen = record.length;
@@ -495,14 +742,14 @@ public class HFPage extends Page
       // This is an upper bound check. May not actually need a slot
       // if we can find an empty one.
       
-      freeSpace = Convert.getShortValue (FREE_SPACE, data);
+      freeSpace = getBuffer().getShort(FREE_SPACE);
       if (spaceNeeded > freeSpace) {
 			return null;
 	
       } else {
 	
 		// look for an empty slot
-		slotCnt = Convert.getShortValue (SLOT_CNT, data); 
+		slotCnt = getBuffer().getShort(SLOT_CNT); 
 		int i; 
 		short length;
 		for (i= 0; i < slotCnt; i++) 
@@ -516,33 +763,103 @@ public class HFPage extends Page
 		  {           
 			// adjust free space        
 			freeSpace -= spaceNeeded;
-			Convert.setShortValue (freeSpace, FREE_SPACE, data);
+			getBuffer().putShort(FREE_SPACE, freeSpace);
 			
 			slotCnt++;
-			Convert.setShortValue (slotCnt, SLOT_CNT, data);
+			getBuffer().putShort(SLOT_CNT, slotCnt);
 			
 		  }
 		else {
 		  // reusing an existing slot
 		  freeSpace -= recLen;
-		  Convert.setShortValue (freeSpace, FREE_SPACE, data);
+		  getBuffer().putShort(FREE_SPACE, freeSpace);
 		}
 			
-		usedPtr = Convert.getShortValue (USED_PTR, data);
+		usedPtr = getBuffer().getShort(USED_PTR);
 			usedPtr -= recLen;    // adjust usedPtr
-		Convert.setShortValue (usedPtr, USED_PTR, data);
+		getBuffer().putShort(USED_PTR, usedPtr);
 		
 		//insert the slot info onto the data page
 		setSlot(i, recLen, usedPtr);   
 		
 		// insert data onto the data page
-		System.arraycopy (record, 0, data, usedPtr, recLen);
-		curPage.pid = Convert.getIntValue (CUR_PAGE, data);
+		ByteBuffer buf = getBuffer().duplicate();
+		buf.position(usedPtr);
+		buf.put(record, 0, recLen);
+		curPage.pid = getBuffer().getInt(CUR_PAGE);
 		rid.pageNo.pid = curPage.pid;
 		rid.slotNo = i;
 		return   rid ;
       }
     } 
+
+  /* insertRecord on a dense page: the value goes into the next slot */
+  private RID insertDense(byte[] record)
+    throws IOException
+    {
+      int width = getBuffer().getShort(USED_PTR);
+      freeSpace = getBuffer().getShort(FREE_SPACE);
+      if (record.length != width || freeSpace < width)
+	return null;
+
+      // look for a deleted slot, unless the free space is all after
+      // the last slot
+      slotCnt = getBuffer().getShort(SLOT_CNT);
+      int i = slotCnt;
+      if (freeSpace > (denseCapacity(getBuffer().capacity(), width) - slotCnt) * width)
+	for (i = 0; i < slotCnt && !denseDeleted(i); i++)
+	  ;
+
+      if (i == slotCnt) {
+	slotCnt++;
+	getBuffer().putShort(SLOT_CNT, slotCnt);
+      }
+      else
+	getpage()[DPFIXED + (i >> 3)] &= (byte) ~(1 << (i & 7));
+      System.arraycopy(record, 0, getpage(), denseValues(width) + i * width, width);
+
+      RID rid = new RID();
+      rid.pageNo.pid = getBuffer().getInt(CUR_PAGE);
+      rid.slotNo = i;
+
+      freeSpace -= width;
+      getBuffer().putShort(FREE_SPACE, freeSpace);
+      return rid;
+    }
+
+  /* insertRecord on a packed page: the value is appended, and when it
+   * does not fit the page is full from then on */
+  private RID insertPacked(byte[] record)
+    throws IOException
+    {
+      slotCnt = getBuffer().getShort(SLOT_CNT);
+      if (record.length != 4 || getBuffer().getShort(FREE_SPACE) == 0)
+	return null;
+
+      // a slot past the last 8 needs a new byte of the bitmap, which
+      // the encoded values may have used
+      int bit = packedBit(slotCnt);
+      byte[] page = getpage();
+      byte old = page[bit];
+      if ((slotCnt & 7) == 0)
+	page[bit] = 0;
+      if (!PackedInts.append(page, getBuffer(), slotCnt, Convert.getIntValue(0, record))) {
+	page[bit] = old;
+	freeSpace = 0;
+	getBuffer().putShort(FREE_SPACE, freeSpace);
+	return null;
+      }
+
+      RID rid = new RID();
+      rid.pageNo.pid = getBuffer().getInt(CUR_PAGE);
+      rid.slotNo = slotCnt;
+
+      slotCnt++;
+      getBuffer().putShort(SLOT_CNT, slotCnt);
+      freeSpace = (short) PackedInts.room(getpage(), slotCnt);
+      getBuffer().putShort(FREE_SPACE, freeSpace);
+      return rid;
+    }
   
   /**
    * delete the record with the specified rid
@@ -558,7 +875,25 @@ public class HFPage extends Page
       InvalidSlotNumberException {
     int slotNo = rid.slotNo;
     short recLen = getSlotLength(slotNo);
-    slotCnt = Convert.getShortValue(SLOT_CNT, data);
+    slotCnt = getBuffer().getShort(SLOT_CNT);
+
+    if (isDense()) {
+      if ((slotNo < 0) || (slotNo >= slotCnt) || (recLen <= 0))
+        throw new InvalidSlotNumberException(null, "HEAPFILE: INVALID_SLOTNO");
+      getpage()[DPFIXED + (slotNo >> 3)] |= (byte) (1 << (slotNo & 7));
+      freeSpace = getBuffer().getShort(FREE_SPACE);
+      freeSpace += recLen;
+      getBuffer().putShort(FREE_SPACE, freeSpace);
+      return;
+    }
+
+    // the value stays encoded: the slot is only marked deleted
+    if (isPacked()) {
+      if ((slotNo < 0) || (slotNo >= slotCnt) || (recLen <= 0))
+        throw new InvalidSlotNumberException(null, "HEAPFILE: INVALID_SLOTNO");
+      getpage()[packedBit(slotNo)] |= (byte) (1 << (slotNo & 7));
+      return;
+    }
 
     // first check if the record being deleted is actually valid
     if ((slotNo >= 0) && (slotNo < slotCnt) && (recLen > 0)) {
@@ -568,12 +903,13 @@ public class HFPage extends Page
 
       // offset of record being deleted
       int offset = getSlotOffset(slotNo);
-      usedPtr = Convert.getShortValue(USED_PTR, data);
+      usedPtr = getBuffer().getShort(USED_PTR);
       int newSpot = usedPtr + recLen;
       int size = offset - usedPtr;
 
       // shift bytes to the right
-      System.arraycopy(data, usedPtr, data, newSpot, size);
+      byte[] page = getpage();
+      System.arraycopy(page, usedPtr, page, newSpot, size);
 
       // now need to adjust offsets of all valid slots that refer
       // to the left of the record being removed. (by the size of the hole)
@@ -584,19 +920,19 @@ public class HFPage extends Page
           chkoffset = getSlotOffset(i);
           if (chkoffset < offset) {
             chkoffset += recLen;
-            Convert.setShortValue((short) chkoffset, n + 2, data);
+            getBuffer().putShort(n + 2, (short) chkoffset);
           }
         }
       }
 
       // move used Ptr forwar
       usedPtr += recLen;
-      Convert.setShortValue(usedPtr, USED_PTR, data);
+      getBuffer().putShort(USED_PTR, usedPtr);
 
       // increase freespace by size of hole
-      freeSpace = Convert.getShortValue(FREE_SPACE, data);
+      freeSpace = getBuffer().getShort(FREE_SPACE);
       freeSpace += recLen;
-      Convert.setShortValue(freeSpace, FREE_SPACE, data);
+      getBuffer().putShort(FREE_SPACE, freeSpace);
 
       setSlot(slotNo, EMPTY_SLOT, 0); // mark slot free
     } else {
@@ -604,6 +940,76 @@ public class HFPage extends Page
     }
   }
 
+  /**
+   * Removes the records in the given slots, and the empty slots, and
+   * moves the records after them down, so that the records left hold
+   * slots 0 to n-1 in the order they had.  The records of a slotted
+   * page are inserted again into the emptied page, the values of a
+   * dense page moved in place and those of a packed page encoded again.
+   *
+   * @param remove the slots to remove
+   * @return the number of records left, -1, with the page unchanged,
+   *         if the values of a packed page no longer fit it
+   * @exception IOException I/O errors
+   */
+  public int compact(BitSet remove)
+      throws IOException {
+    slotCnt = getBuffer().getShort(SLOT_CNT);
+    int m = 0;
+
+    if (isPacked()) {
+      BitSet gone = (BitSet) remove.clone();
+      for (int i = 0; i < slotCnt; i++)
+        if (packedDeleted(i))
+          gone.set(i);
+      m = PackedInts.remove(getpage(), getBuffer(), slotCnt, gone);
+      if (m < 0)
+        return -1;
+      Arrays.fill(getpage(), getBuffer().capacity() - (slotCnt + 7) / 8, getBuffer().capacity(), (byte) 0);
+      freeSpace = (short) PackedInts.room(getpage(), m);
+    }
+
+    else if (isDense()) {
+      int width = getBuffer().getShort(USED_PTR);
+      int values = denseValues(width);
+      for (int i = 0; i < slotCnt; i++) {
+        if (remove.get(i) || denseDeleted(i))
+          continue;
+        if (m != i)
+          System.arraycopy(getpage(), values + i * width, getpage(), values + m * width, width);
+        m++;
+      }
+      int capacity = denseCapacity(getBuffer().capacity(), width);
+      Arrays.fill(getpage(), DPFIXED, DPFIXED + (capacity + 7) / 8, (byte) 0);
+      freeSpace = (short) ((capacity - m) * width);
+    }
+
+    else {
+      byte[][] kept = new byte[slotCnt][];
+      for (int i = 0; i < slotCnt; i++) {
+        short length = getSlotLength(i);
+        if (remove.get(i) || length == EMPTY_SLOT)
+          continue;
+        kept[m++] = Arrays.copyOfRange(getpage(), getSlotOffset(i), getSlotOffset(i) + length);
+      }
+      PageId prev = new PageId(getPrevPage().pid);
+      PageId next = new PageId(getNextPage().pid);
+      short pageType = getType();
+      init(getCurPage(), this);
+      setPrevPage(prev);
+      setNextPage(next);
+      setType(pageType);
+      for (int i = 0; i < m; i++)
+        insertRecord(kept[i]);
+      return m;
+    }
+
+    slotCnt = (short) m;
+    getBuffer().putShort(SLOT_CNT, slotCnt);
+    getBuffer().putShort(FREE_SPACE, freeSpace);
+    return m;
+  }
+
   /**
    * @return RID of first record on page, null if page contains no records.
    * @exception IOException I/O errors
@@ -615,7 +1021,7 @@ public class HFPage extends Page
     RID rid = new RID();
     // find the first non-empty slot
 
-    slotCnt = Convert.getShortValue(SLOT_CNT, data);
+    slotCnt = getBuffer().getShort(SLOT_CNT);
 
     int i;
     short length;
@@ -631,7 +1037,7 @@ public class HFPage extends Page
     // found a non-empty slot
 
     rid.slotNo = i;
-    curPage.pid = Convert.getIntValue(CUR_PAGE, data);
+    curPage.pid = getBuffer().getInt(CUR_PAGE);
     rid.pageNo.pid = curPage.pid;
 
     return rid;
@@ -647,7 +1053,7 @@ public class HFPage extends Page
   public RID nextRecord(RID curRid)
       throws IOException {
     RID rid = new RID();
-    slotCnt = Convert.getShortValue(SLOT_CNT, data);
+    slotCnt = getBuffer().getShort(SLOT_CNT);
 
     int i = curRid.slotNo;
     short length;
@@ -665,7 +1071,7 @@ public class HFPage extends Page
     // found a non-empty slot
 
     rid.slotNo = i;
-    curPage.pid = Convert.getIntValue(CUR_PAGE, data);
+    curPage.pid = getBuffer().getInt(CUR_PAGE);
     rid.pageNo.pid = curPage.pid;
 
     return rid;
@@ -690,17 +1096,22 @@ public class HFPage extends Page
     byte[] record;
     PageId pageNo = new PageId();
     pageNo.pid = rid.pageNo.pid;
-    curPage.pid = Convert.getIntValue(CUR_PAGE, data);
+    curPage.pid = getBuffer().getInt(CUR_PAGE);
     int slotNo = rid.slotNo;
 
     // length of record being returned
     recLen = getSlotLength(slotNo);
-    slotCnt = Convert.getShortValue(SLOT_CNT, data);
+    slotCnt = getBuffer().getShort(SLOT_CNT);
     if ((slotNo >= 0) && (slotNo < slotCnt) && (recLen > 0)
         && (pageNo.pid == curPage.pid)) {
+      if (isPacked())
+        return packedRecord(slotNo);
       offset = getSlotOffset(slotNo);
       record = new byte[recLen];
-      System.arraycopy(data, offset, record, 0, recLen);
+      // straight from the frame, with no copy of the whole page
+      ByteBuffer buf = getBuffer().duplicate();
+      buf.position(offset);
+      buf.get(record, 0, recLen);
       Tuple tuple = new Tuple(record, 0, recLen);
       return tuple;
     }
@@ -730,18 +1141,22 @@ public class HFPage extends Page
     PageId pageNo = new PageId();
     pageNo.pid = rid.pageNo.pid;
 
-    curPage.pid = Convert.getIntValue(CUR_PAGE, data);
+    curPage.pid = getBuffer().getInt(CUR_PAGE);
     int slotNo = rid.slotNo;
 
     // length of record being returned
     recLen = getSlotLength(slotNo);
-    slotCnt = Convert.getShortValue(SLOT_CNT, data);
+    slotCnt = getBuffer().getShort(SLOT_CNT);
 
     if ((slotNo >= 0) && (slotNo < slotCnt) && (recLen > 0)
         && (pageNo.pid == curPage.pid)) {
 
+      // a value of a packed page has no bytes on the page to point at
+      if (isPacked())
+        return packedRecord(slotNo);
       offset = getSlotOffset(slotNo);
-      Tuple tuple = new Tuple(data, offset, recLen);
+      // the tuple points into the page, after it is unpinned as well
+      Tuple tuple = new Tuple(retainpage(), offset, recLen);
       return tuple;
     }
 
@@ -751,6 +1166,14 @@ public class HFPage extends Page
 
   }
 
+  /* the value in a slot of a packed page, as a 4-byte record */
+  private Tuple packedRecord(int slotno)
+      throws IOException {
+    byte[] record = new byte[4];
+    Convert.setIntValue(PackedInts.get(getpage(), getBuffer(), slotCnt, slotno), 0, record);
+    return new Tuple(record, 0, 4);
+  }
+
   /**
    * returns the amount of available space on the page.
    * 
@@ -759,10 +1182,87 @@ public class HFPage extends Page
    */
   public int available_space()
       throws IOException {
-    freeSpace = Convert.getShortValue(FREE_SPACE, data);
+    freeSpace = getBuffer().getShort(FREE_SPACE);
+    if (isDense() || isPacked())
+      return freeSpace;
     return (freeSpace - SIZE_OF_SLOT);
   }
 
+  /**
+   * Copies the first 4 bytes, as an int, of the records in slots
+   * slotno to slotno+count-1 into values, skipping empty slots.  On a
+   * dense page of 4-byte values this is one bulk read, on a packed page
+   * one decode of the block.
+   *
+   * @param slotno the first slot
+   * @param count the number of slots
+   * @param values the array to fill, from values[off] on
+   * @param off where the first value goes
+   * @return the number of values copied
+   * @exception IOException I/O errors
+   */
+  public int getIntValues(int slotno, int count, int[] values, int off)
+      throws IOException {
+    int n = off;
+    if (isPacked()) {
+      PackedInts.decode(getpage(), getBuffer(), getSlotCnt(), slotno, count, values, off);
+      for (int i = 0; i < count; i++)
+        if (!packedDeleted(slotno + i))
+          values[n++] = values[off + i];
+      return n - off;
+    }
+    if (isDense() && getBuffer().getShort(USED_PTR) == 4) {
+      ByteBuffer buf = getBuffer().duplicate();
+      buf.position(denseValues(4) + slotno * 4);
+      buf.asIntBuffer().get(values, off, count);
+      for (int i = 0; i < count; i++)
+        if (!denseDeleted(slotno + i))
+          values[n++] = values[off + i];
+      return n - off;
+    }
+    for (int i = slotno; i < slotno + count; i++)
+      if (getSlotLength(i) != EMPTY_SLOT)
+        values[n++] = getBuffer().getInt(getSlotOffset(i));
+    return n - off;
+  }
+
+  /**
+   * Copies the first 4 bytes, as a float, of the records in slots
+   * slotno to slotno+count-1 into values, skipping empty slots.  On a
+   * dense page of 4-byte values this is one bulk read.
+   *
+   * @param slotno the first slot
+   * @param count the number of slots
+   * @param values the array to fill, from values[off] on
+   * @param off where the first value goes
+   * @return the number of values copied
+   * @exception IOException I/O errors
+   */
+  public int getFloatValues(int slotno, int count, float[] values, int off)
+      throws IOException {
+    int n = off;
+    if (isPacked()) {
+      int[] ints = new int[count];
+      n += getIntValues(slotno, count, ints, 0);
+      for (int i = off; i < n; i++)
+        values[i] = Float.intBitsToFloat(ints[i - off]);
+      return n - off;
+    }
+    if (isDense() && getBuffer().getShort(USED_PTR) == 4) {
+      ByteBuffer buf = getBuffer().duplicate();
+      buf.position(denseValues(4) + slotno * 4);
+      buf.asFloatBuffer().get(values, off, count);
+      for (int i = 0; i < count; i++)
+        if (!denseDeleted(slotno + i))
+          values[n++] = values[off + i];
+      return n - off;
+    }
+    for (int i = slotno; i < slotno + count; i++)
+      if (getSlotLength(i) != EMPTY_SLOT)
+        values[n++] = getBuffer().getFloat(getSlotOffset(i));
+    return n - off;
+  }
+
   /**
    * Determining if the page is empty
    * 
@@ -774,7 +1274,7 @@ public class HFPage extends Page
     int i;
     short length;
     // look for an empty slot
-    slotCnt = Convert.getShortValue(SLOT_CNT, data);
+    slotCnt = getBuffer().getShort(SLOT_CNT);
 
     for (i = 0; i < slotCnt; i++) {
       length = getSlotLength(i);
@@ -800,8 +1300,8 @@ public class HFPage extends Page
     short length;
     short offset;
 
-    slotCnt = Convert.getShortValue(SLOT_CNT, data);
-    freeSpace = Convert.getShortValue(FREE_SPACE, data);
+    slotCnt = getBuffer().getShort(SLOT_CNT);
+    freeSpace = getBuffer().getShort(FREE_SPACE);
 
     while (current_scan_posn < slotCnt) {
       length = getSlotLength(current_scan_posn);
@@ -836,8 +1336,8 @@ public class HFPage extends Page
       // Adjust amount of free space on page and slotCnt
       freeSpace += SIZE_OF_SLOT * (slotCnt - first_free_slot);
       slotCnt = (short) first_free_slot;
-      Convert.setShortValue(freeSpace, FREE_SPACE, data);
-      Convert.setShortValue(slotCnt, SLOT_CNT, data);
+      getBuffer().putShort(FREE_SPACE, freeSpace);
+      getBuffer().putShort(SLOT_CNT, slotCnt);
     }
   }
 
@@ -1,6 +1,7 @@
 package heap;
 
 import java.io.*;
+import java.util.*;
 import diskmgr.*;
 import bufmgr.*;
 import global.*;
@@ -25,6 +26,15 @@ import global.*;
  *  directory page; for any given HeapFile insertion, it is likely
  *  that at least one of those referenced data pages will have
  *  enough free space to satisfy the request.
+ *
+ *  A file created with a value width holds records of exactly that
+ *  many bytes, and its data pages are dense pages (see
+ *  HFPage.initDense) instead of slotted ones.  The width is kept in
+ *  the type field of the first directory page.  A file created with
+ *  PACKED_INTS for a width holds 4-byte ints on packed pages (see
+ *  HFPage.initPacked), each compressed with the encoding that suits
+ *  its values; a page holds as many of them as fit, so the positions
+ *  of its records come from the record counts of the pages before.
  */
 
 
@@ -48,13 +58,20 @@ public class Heapfile implements Filetype,  GlobalConst {
   private     boolean     _file_deleted;
   private     String 	 _fileName;
   private static int tempfilecount = 0;
+
+  /** database -> file name -> the handle open() gives out for it */
+  private static WeakHashMap<DB, HashMap<String, Heapfile>> openFiles =
+    new WeakHashMap<DB, HashMap<String, Heapfile>>();
+
+  /** the value width of a file of 4-byte ints on packed pages */
+  public static final int PACKED_INTS = -4;
   
   
   
   /* get a new datapage from the buffer manager and initialize dpinfo
      @param dpinfop the information in the new HFPage
   */
-  private HFPage _newDatapage(DataPageInfo dpinfop)
+  private HFPage _newDatapage(DataPageInfo dpinfop, int valueWidth)
     throws HFException,
 	   HFBufMgrException,
 	   HFDiskMgrException,
@@ -70,7 +87,12 @@ public class Heapfile implements Filetype,  GlobalConst {
       // initialize internal values of the new page:
       
       HFPage hfpage = new HFPage();
-      hfpage.init(pageId, apage);
+      if (valueWidth == PACKED_INTS)
+	hfpage.initPacked(pageId, apage);
+      else if (valueWidth > 0)
+	hfpage.initDense(pageId, apage, valueWidth);
+      else
+	hfpage.init(pageId, apage);
       
       dpinfop.pageId.pid = pageId.pid;
       dpinfop.recct = 0;
@@ -96,114 +118,97 @@ public class Heapfile implements Filetype,  GlobalConst {
 	   HFDiskMgrException,
 	   Exception
     {
-      PageId currentDirPageId = new PageId(_firstDirPageId.pid);
+      FreeSpaceMap fsm = _freeSpaceMap();
+      int i = fsm.find(rid.pageNo.pid);
+      
+      if (i < 0)
+	{
+	  // no data page of this file holds the user record
+	  dirPageId.pid = dataPageId.pid = INVALID_PAGE;
+	  return false;
+	}
       
+      PageId currentDirPageId = new PageId(fsm.getDirPid(i));
       HFPage currentDirPage = new HFPage();
       HFPage currentDataPage = new HFPage();
-      RID currentDataPageRid = new RID();
-      PageId nextDirPageId = new PageId();
-      // datapageId is stored in dpinfo.pageId 
-      
       
-      pinPage(currentDirPageId, currentDirPage, false/*read disk*/);
+      pinPage(currentDirPageId, currentDirPage, false/*Rddisk*/);
+      try{
+	pinPage(rid.pageNo, currentDataPage, false/*Rddisk*/);
+	
+	//check error;need unpin currentDirPage
+      }catch (Exception e)
+	{
+	  unpinPage(currentDirPageId, false/*undirty*/);
+	  dirpage = null;
+	  datapage = null;
+	  throw e;
+	}
       
-      Tuple atuple = new Tuple();
+      // ASSERTIONS:
+      // - currentDataPage, currentDirPage pinned
       
-      while (currentDirPageId.pid != INVALID_PAGE)
-	{// Start While01
-	  // ASSERTIONS:
-	  //  currentDirPage, currentDirPageId valid and pinned and Locked.
-	  
-	  for( currentDataPageRid = currentDirPage.firstRecord();
-	       currentDataPageRid != null;
-	       currentDataPageRid = currentDirPage.nextRecord(currentDataPageRid))
-	    {
-	      try{
-		atuple = currentDirPage.getRecord(currentDataPageRid);
-	      }
-	      catch (InvalidSlotNumberException e)// check error! return false(done) 
-		{
-		  return false;
-		}
-	      
-	      DataPageInfo dpinfo = new DataPageInfo(atuple);
-	      try{
-		pinPage(dpinfo.pageId, currentDataPage, false/*Rddisk*/);
-		
-		
-		//check error;need unpin currentDirPage
-	      }catch (Exception e)
-		{
-		  unpinPage(currentDirPageId, false/*undirty*/);
-		  dirpage = null;
-		  datapage = null;
-		  throw e;
-		}
-	      
-	      
-	      
-	      // ASSERTIONS:
-	      // - currentDataPage, currentDataPageRid, dpinfo valid
-	      // - currentDataPage pinned
-	      
-	      if(dpinfo.pageId.pid==rid.pageNo.pid)
-		{
-		  atuple = currentDataPage.returnRecord(rid);
-		  // found user's record on the current datapage which itself
-		  // is indexed on the current dirpage.  Return both of these.
-		  
-		  dirpage.setpage(currentDirPage.getpage());
-		  dirPageId.pid = currentDirPageId.pid;
-		  
-		  datapage.setpage(currentDataPage.getpage());
-		  dataPageId.pid = dpinfo.pageId.pid;
-		  
-		  rpDataPageRid.pageNo.pid = currentDataPageRid.pageNo.pid;
-		  rpDataPageRid.slotNo = currentDataPageRid.slotNo;
-		  return true;
-		}
-	      else
-		{
-		  // user record not found on this datapage; unpin it
-		  // and try the next one
-		  unpinPage(dpinfo.pageId, false /*undirty*/);
-		  
-		}
-	      
-	    }
-	  
-	  // if we would have found the correct datapage on the current
-	  // directory page we would have already returned.
-	  // therefore:
-	  // read in next directory page:
-	  
-	  nextDirPageId = currentDirPage.getNextPage();
-	  try{
-	    unpinPage(currentDirPageId, false /*undirty*/);
-	  }
-	  catch(Exception e) {
-	    throw new HFException (e, "heapfile,_find,unpinpage failed");
-	  }
-	  
-	  currentDirPageId.pid = nextDirPageId.pid;
-	  if(currentDirPageId.pid != INVALID_PAGE)
-	    {
-	      pinPage(currentDirPageId, currentDirPage, false/*Rdisk*/);
-	      if(currentDirPage == null)
-		throw new HFException(null, "pinPage return null page");  
-	    }
-	  
-	  
-	} // end of While01
-      // checked all dir pages and all data pages; user record not found:(
+      currentDataPage.returnRecord(rid);
+      // found user's record on the datapage which itself
+      // is indexed on the directory page.  Return both of these.
       
-      dirPageId.pid = dataPageId.pid = INVALID_PAGE;
+      dirpage.setpage(currentDirPage);
+      dirPageId.pid = currentDirPageId.pid;
       
-      return false;   
+      datapage.setpage(currentDataPage);
+      dataPageId.pid = rid.pageNo.pid;
       
+      rpDataPageRid.pageNo.pid = currentDirPageId.pid;
+      rpDataPageRid.slotNo = fsm.getDirSlot(i);
+      return true;
       
     } // end of _findDatapage		     
   
+  /* Returns the free-space map of this file, walking the directory
+     once to build it if it is not up to date.
+  */
+  private FreeSpaceMap _freeSpaceMap()
+    throws InvalidSlotNumberException, 
+	   InvalidTupleSizeException, 
+	   HFBufMgrException,
+	   IOException
+    {
+      FreeSpaceMap fsm = FreeSpaceMap.get(_firstDirPageId);
+      synchronized (fsm) {
+	if (fsm.isBuilt())
+	  return fsm;
+	
+	fsm.clear();
+	PageId currentDirPageId = new PageId(_firstDirPageId.pid);
+	HFPage currentDirPage = new HFPage();
+	
+	while (currentDirPageId.pid != INVALID_PAGE)
+	  {
+	    pinPage(currentDirPageId, currentDirPage, false/*Rdisk*/);
+	    if (currentDirPageId.pid == _firstDirPageId.pid)
+	      fsm.setValueWidth(currentDirPage.getType());
+	    fsm.addDir(currentDirPageId.pid, currentDirPage.available_space());
+	    int d = fsm.dirCount() - 1;
+	    
+	    for (RID rid = currentDirPage.firstRecord();
+		 rid != null;
+		 rid = currentDirPage.nextRecord(rid))
+	      {
+		DataPageInfo dpinfo = new DataPageInfo(currentDirPage.returnRecord(rid));
+		fsm.addPage(d, rid.slotNo, dpinfo.pageId.pid, dpinfo.recct,
+			    dpinfo.availspace, currentDirPage.available_space());
+	      }
+	    
+	    PageId nextDirPageId = currentDirPage.getNextPage();
+	    unpinPage(currentDirPageId, false /*undirty*/);
+	    currentDirPageId.pid = nextDirPageId.pid;
+	  }
+	
+	fsm.setBuilt();
+	return fsm;
+      }
+    }
+  
   /** Initialize.  A null name produces a temporary heapfile which will be
    * deleted by the destructor.  If the name already denotes a file, the
    * file is opened; otherwise, a new empty file is created.
@@ -219,6 +224,30 @@ public class Heapfile implements Filetype,  GlobalConst {
 	   HFDiskMgrException,
 	   IOException
 	   
+    {
+      this(name, 0);
+    }
+  
+  /** Initialize, as Heapfile(name).  A file that is created here
+   * holds records of exactly valueWidth bytes on dense data pages;
+   * 0 gives the usual slotted pages, PACKED_INTS packed pages of ints.
+   * An existing file keeps the format it was created with.
+   *
+   * @param name the file name, null for a temporary file
+   * @param valueWidth the record length, 0 for records of any length,
+   *                   PACKED_INTS for packed ints
+   *
+   * @exception HFException heapfile exception
+   * @exception HFBufMgrException exception thrown from bufmgr layer
+   * @exception HFDiskMgrException exception thrown from diskmgr layer
+   * @exception IOException I/O errors
+   */
+  public  Heapfile(String name, int valueWidth) 
+    throws HFException, 
+	   HFBufMgrException,
+	   HFDiskMgrException,
+	   IOException
+	   
     {
       // Give us a prayer of destructing cleanly if construction fails.
       _file_deleted = true;
@@ -270,6 +299,7 @@ public class Heapfile implements Filetype,  GlobalConst {
 	  
 	  add_file_entry(_fileName, _firstDirPageId);
 	  // check error(new exception: Could not add file entry
+	  FreeSpaceMap.forget(_firstDirPageId);
 	  
 	  HFPage firstDirPage = new HFPage();
 	  firstDirPage.init(_firstDirPageId, apage);
@@ -277,6 +307,7 @@ public class Heapfile implements Filetype,  GlobalConst {
 	  
 	  firstDirPage.setNextPage(pageId);
 	  firstDirPage.setPrevPage(pageId);
+	  firstDirPage.setType((short) valueWidth);
 	  unpinPage(_firstDirPageId, true /*dirty*/ );
 	  
 	  
@@ -291,6 +322,48 @@ public class Heapfile implements Filetype,  GlobalConst {
       
     } // end of constructor 
   
+  /** Return a handle on the file with the given name, creating the
+   * file if there is none, as Heapfile(name).  The handle is made once
+   * per file and database and given to every caller after, until the
+   * file is deleted; a handle holds no page pinned, so callers can
+   * share it.
+   *
+   * @param name the file name
+   *
+   * @exception HFException heapfile exception
+   * @exception HFBufMgrException exception thrown from bufmgr layer
+   * @exception HFDiskMgrException exception thrown from diskmgr layer
+   * @exception IOException I/O errors
+   */
+  public static synchronized Heapfile open(String name) 
+    throws HFException, 
+	   HFBufMgrException,
+	   HFDiskMgrException,
+	   IOException
+    {
+      HashMap<String, Heapfile> files = openFiles.get(SystemDefs.JavabaseDB);
+      if (files == null)
+	{
+	  files = new HashMap<String, Heapfile>();
+	  openFiles.put(SystemDefs.JavabaseDB, files);
+	}
+      Heapfile hf = files.get(name);
+      if (hf == null || hf._file_deleted)
+	{
+	  hf = new Heapfile(name);
+	  files.put(name, hf);
+	}
+      return hf;
+    }
+  
+  /* Drops the handle open() gives out for a file that is deleted. */
+  private static synchronized void _forget(String name)
+    {
+      HashMap<String, Heapfile> files = openFiles.get(SystemDefs.JavabaseDB);
+      if (files != null)
+	files.remove(name);
+    }
+  
   /** Return number of records in file.
    *
    * @exception InvalidSlotNumberException invalid slot number
@@ -307,48 +380,90 @@ public class Heapfile implements Filetype,  GlobalConst {
 	   IOException
 	   
     {
-      int answer = 0;
-      PageId currentDirPageId = new PageId(_firstDirPageId.pid);
-      
-      PageId nextDirPageId = new PageId(0);
-      
-      HFPage currentDirPage = new HFPage();
-      Page pageinbuffer = new Page();
-      
-      while(currentDirPageId.pid != INVALID_PAGE)
-	{
-	   pinPage(currentDirPageId, currentDirPage, false);
-	   
-	   RID rid = new RID();
-	   Tuple atuple;
-	   for (rid = currentDirPage.firstRecord();
-	        rid != null;	// rid==NULL means no more record
-	        rid = currentDirPage.nextRecord(rid))
-	     {
-	       atuple = currentDirPage.getRecord(rid);
-	       DataPageInfo dpinfo = new DataPageInfo(atuple);
-	       
-	       answer += dpinfo.recct;
-	     }
-	   
-	   // ASSERTIONS: no more record
-           // - we have read all datapage records on
-           //   the current directory page.
-	   
-	   nextDirPageId = currentDirPage.getNextPage();
-	   unpinPage(currentDirPageId, false /*undirty*/);
-	   currentDirPageId.pid = nextDirPageId.pid;
-	}
-      
-      // ASSERTIONS:
-      // - if error, exceptions
-      // - if end of heapfile reached: currentDirPageId == INVALID_PAGE
-      // - if not yet end of heapfile: currentDirPageId valid
-      
-      
-      return answer;
+      // the sum of recct over all data pages
+      FreeSpaceMap fsm = _freeSpaceMap();
+      return fsm.prefix(fsm.size());
     } // end of getRecCnt
   
+  /** Return the record length of a file of dense pages, 0 for a file
+   * of slotted or packed pages.
+   *
+   * @exception InvalidSlotNumberException invalid slot number
+   * @exception InvalidTupleSizeException invalid tuple size
+   * @exception HFBufMgrException exception thrown from bufmgr layer
+   * @exception IOException I/O errors
+   */
+  public int getValueWidth() 
+    throws InvalidSlotNumberException, 
+	   InvalidTupleSizeException, 
+	   HFBufMgrException,
+	   IOException
+    {
+      return _freeSpaceMap().getValueWidth();
+    }
+
+  /** Tell if the file holds 4-byte ints on packed pages.
+   *
+   * @exception InvalidSlotNumberException invalid slot number
+   * @exception InvalidTupleSizeException invalid tuple size
+   * @exception HFBufMgrException exception thrown from bufmgr layer
+   * @exception IOException I/O errors
+   */
+  public boolean isPackedInts() 
+    throws InvalidSlotNumberException, 
+	   InvalidTupleSizeException, 
+	   HFBufMgrException,
+	   IOException
+    {
+      return _freeSpaceMap().isPackedInts();
+    }
+  
+  /** Return the data pages of the file in directory order, which is
+   * the order of the positions of their records.
+   *
+   * @exception InvalidSlotNumberException invalid slot number
+   * @exception InvalidTupleSizeException invalid tuple size
+   * @exception HFBufMgrException exception thrown from bufmgr layer
+   * @exception IOException I/O errors
+   */
+  public PageId[] getDataPages() 
+    throws InvalidSlotNumberException, 
+	   InvalidTupleSizeException, 
+	   HFBufMgrException,
+	   IOException
+    {
+      FreeSpaceMap fsm = _freeSpaceMap();
+      synchronized (fsm) {
+	PageId[] pages = new PageId[fsm.size()];
+	for (int i = 0; i < pages.length; i++)
+	  pages[i] = new PageId(fsm.getDataPid(i));
+	return pages;
+      }
+    }
+  
+  /** Return the number of records on each data page, in the order of
+   * getDataPages.
+   *
+   * @exception InvalidSlotNumberException invalid slot number
+   * @exception InvalidTupleSizeException invalid tuple size
+   * @exception HFBufMgrException exception thrown from bufmgr layer
+   * @exception IOException I/O errors
+   */
+  public int[] getDataPageRecCnts() 
+    throws InvalidSlotNumberException, 
+	   InvalidTupleSizeException, 
+	   HFBufMgrException,
+	   IOException
+    {
+      FreeSpaceMap fsm = _freeSpaceMap();
+      synchronized (fsm) {
+	int[] counts = new int[fsm.size()];
+	for (int i = 0; i < counts.length; i++)
+	  counts[i] = fsm.getRecct(i);
+	return counts;
+      }
+    }
+  
   /** Insert record into file, return its Rid.
    *
    * @param recPtr pointer of the record
@@ -409,235 +524,241 @@ public class Heapfile implements Filetype,  GlobalConst {
 	   HFDiskMgrException,
 	   IOException
     {
-      int dpinfoLen = 0;	
-      int position = 0;
       int recLen = recPtr.length;
-      boolean found;
-      RID currentDataPageRid = new RID();
-      Page pageinbuffer = new Page();
-      HFPage currentDirPage = new HFPage();
-      HFPage currentDataPage = new HFPage();
+      FreeSpaceMap fsm = _freeSpaceMap();
+      boolean done = false;
       
-      HFPage nextDirPage = new HFPage(); 
-      PageId currentDirPageId = new PageId(_firstDirPageId.pid);
-      PageId nextDirPageId = new PageId();  // OK
+      if (fsm.getValueWidth() > 0 && recLen != fsm.getValueWidth())
+	throw new InvalidTupleSizeException(null, "record length is not the value width");
+      if (fsm.isPackedInts() && recLen != 4)
+	throw new InvalidTupleSizeException(null, "record is not a 4-byte int");
       
-      pinPage(currentDirPageId, currentDirPage, false/*Rdisk*/);
+      try {
+	HFPage currentDirPage = new HFPage();
+	HFPage currentDataPage = new HFPage();
+	PageId currentDirPageId = new PageId();
+	RID currentDataPageRid = new RID();
+	DataPageInfo dpinfo = new DataPageInfo();
+	
+	// the first data page, in directory order, which can
+	// accomodate the record
+	int i = fsm.firstFit(recLen);
+	
+	if (i >= 0)
+	  {
+	    currentDirPageId.pid = fsm.getDirPid(i);
+	    currentDataPageRid.pageNo.pid = currentDirPageId.pid;
+	    currentDataPageRid.slotNo = fsm.getDirSlot(i);
+	    dpinfo.pageId.pid = fsm.getDataPid(i);
+	    
+	    pinPage(currentDirPageId, currentDirPage, false/*Rdisk*/);
+	    pinPage(dpinfo.pageId, currentDataPage, false/*Rdisk*/);
+	  }
+	else
+	  {
+	    // no data page has enough space: add one.  Its DataPageInfo
+	    // record goes on the first directory page with room for it;
+	    // if there is none, append a new directory page after the
+	    // last one.
+	    int d = fsm.dirWithRoom(DataPageInfo.size);
+	    if (d >= 0)
+	      {
+		currentDirPageId.pid = fsm.getDir(d);
+		pinPage(currentDirPageId, currentDirPage, false/*Rdisk*/);
+	      }
+	    else
+	      {
+		PageId lastDirPageId = new PageId(fsm.getDir(fsm.dirCount() - 1));
+		HFPage lastDirPage = new HFPage();
+		Page pageinbuffer = new Page();
+		
+		PageId nextDirPageId = newPage(pageinbuffer, 1);
+		// need check error!
+		if(nextDirPageId == null)
+		  throw new HFException(null, "can't new pae");
+		
+		// initialize new directory page
+		currentDirPage.init(nextDirPageId, pageinbuffer);
+		PageId temppid = new PageId(INVALID_PAGE);
+		currentDirPage.setNextPage(temppid);
+		currentDirPage.setPrevPage(lastDirPageId);
+		
+		// update the last directory page and unpin it
+		pinPage(lastDirPageId, lastDirPage, false/*Rdisk*/);
+		lastDirPage.setNextPage(nextDirPageId);
+		unpinPage(lastDirPageId, true/*dirty*/);
+		
+		// remark that MINIBASE_BM->newPage already
+		// pinned the new directory page!
+		currentDirPageId.pid = nextDirPageId.pid;
+		fsm.addDir(currentDirPageId.pid, currentDirPage.available_space());
+		d = fsm.dirCount() - 1;
+	      }
+	    
+	    currentDataPage = _newDatapage(dpinfo, fsm.isPackedInts()
+					   ? PACKED_INTS : fsm.getValueWidth()); 
+	    // currentDataPage is pinned: insert its record
+	    // into the directory page
+	    
+	    Tuple atuple = dpinfo.convertToTuple();
+	    byte [] tmpData = atuple.getTupleByteArray();
+	    currentDataPageRid = currentDirPage.insertRecord(tmpData);
+	    
+	    // need catch error here!
+	    if(currentDataPageRid == null)
+	      throw new HFException(null, "no space to insert rec.");  
+	    
+	    i = fsm.addPage(d, currentDataPageRid.slotNo, dpinfo.pageId.pid,
+			    dpinfo.recct, dpinfo.availspace,
+			    currentDirPage.available_space());
+	  }
+	
+	// ASSERTIONS:
+	// - currentDirPageId, currentDirPage valid and pinned
+	// - dpinfo.pageId, currentDataPageRid valid
+	// - currentDataPage is pinned!
+	
+	if ((dpinfo.pageId).pid == INVALID_PAGE) // check error!
+	  throw new HFException(null, "invalid PageId");
+	
+	if (!(currentDataPage.available_space() >= recLen))
+	  throw new SpaceNotAvailableException(null, "no available space");
+	
+	RID rid;
+	rid = currentDataPage.insertRecord(recPtr);
+	
+	Tuple atuple = currentDirPage.returnRecord(currentDataPageRid);
+	DataPageInfo dpinfo_ondirpage = new DataPageInfo(atuple);
+	
+	// a packed page can turn a value down although it had bytes
+	// free, when the value does not compress as well as the others:
+	// it is full then, and the value goes to another page
+	if (rid != null)
+	  dpinfo_ondirpage.recct++;
+	dpinfo_ondirpage.availspace = currentDataPage.available_space();
+	dpinfo_ondirpage.flushToTuple();
+	
+	unpinPage(dpinfo.pageId, true /* = DIRTY */);
+	unpinPage(currentDirPageId, true /* = DIRTY */);
+	
+	fsm.update(i, dpinfo_ondirpage.recct, dpinfo_ondirpage.availspace);
+	done = true;
+	
+	if (rid == null)
+	  return insertRecordRaw(recPtr);
+	return new RIDPosition(rid, fsm.prefix(i) + rid.slotNo);
+      }
+      finally {
+	if (!done)
+	  fsm.clear();
+      }
       
-      found = false;
-      Tuple atuple;
-      DataPageInfo dpinfo = new DataPageInfo();
-      while (found == false)
-	{ //Start While01
-	  // look for suitable dpinfo-struct
-	  for (currentDataPageRid = currentDirPage.firstRecord();
-	       currentDataPageRid != null;
-	       currentDataPageRid = 
-		 currentDirPage.nextRecord(currentDataPageRid))
+    }
+  
+  /** Insert n records into file, as insertRecordRaw would one after
+   * the other, but fill the last data page with as many of them as it
+   * takes under a single pin of it and of its directory page.
+   * used only in columnar file, by ColumnarLoader
+   *
+   * @param recs the records
+   * @param n the number of records
+   * @param rids set to the rid of each record
+   *
+   * @exception InvalidSlotNumberException invalid slot number
+   * @exception InvalidTupleSizeException invalid tuple size
+   * @exception SpaceNotAvailableException no space left
+   * @exception HFException heapfile exception
+   * @exception HFBufMgrException exception thrown from bufmgr layer
+   * @exception HFDiskMgrException exception thrown from diskmgr layer
+   * @exception IOException I/O errors
+   *
+   * @return the position of the first record; the others follow it
+   */
+  public int insertRecords(byte[][] recs, int n, RID[] rids) 
+    throws InvalidSlotNumberException,  
+	   InvalidTupleSizeException,
+	   SpaceNotAvailableException,
+	   HFException,
+	   HFBufMgrException,
+	   HFDiskMgrException,
+	   IOException
+    {
+      int first = -1;
+      int k = 0;
+      while (k < n)
+	{
+	  // the first record of a page goes where insertRecordRaw puts
+	  // it, the records after it on the same page
+	  RIDPosition rp = insertRecordRaw(recs[k]);
+	  if (first < 0)
+	    first = rp.position;
+	  else if (rp.position != first + k)
+	    throw new HFException(null, "records not appended");
+	  rids[k++] = rp.rid;
+	  k = _fillPage(rp.rid.pageNo, recs, k, n, rids);
+	}
+      return first;
+    }
+  
+  /* Appends records k, k+1, ... to a data page for as long as it takes
+   * them, if it is the last page of the file and has no empty slot, so
+   * that they get the positions after the records already on it.
+   * Returns the first record left. */
+  private int _fillPage(PageId pageId, byte[][] recs, int k, int n, RID[] rids)
+    throws InvalidSlotNumberException,  
+	   InvalidTupleSizeException,
+	   HFBufMgrException,
+	   IOException
+    {
+      FreeSpaceMap fsm = _freeSpaceMap();
+      int i = fsm.find(pageId.pid);
+      if (k == n || i != fsm.size() - 1)
+	return k;
+      
+      boolean done = false;
+      try {
+	PageId dirPageId = new PageId(fsm.getDirPid(i));
+	RID dataPageRid = new RID(new PageId(dirPageId.pid), fsm.getDirSlot(i));
+	HFPage dirPage = new HFPage();
+	HFPage dataPage = new HFPage();
+	pinPage(dirPageId, dirPage, false/*Rdisk*/);
+	try {
+	  pinPage(pageId, dataPage, false/*Rdisk*/);
+	}
+	catch (HFBufMgrException e) {
+	  unpinPage(dirPageId, false);
+	  throw e;
+	}
+	
+	DataPageInfo dpinfo = new DataPageInfo(dirPage.returnRecord(dataPageRid));
+	int start = k;
+	if (dataPage.getSlotCnt() == dpinfo.recct)
+	  while (k < n && dataPage.available_space() >= recs[k].length)
 	    {
-        position += dpinfo.recct;
-	      atuple = currentDirPage.getRecord(currentDataPageRid);
-	      
-	      dpinfo = new DataPageInfo(atuple);
-	      
-	      // need check the record length == DataPageInfo'slength
-	      
-	       if(recLen <= dpinfo.availspace)
-		 {
-		   found = true;
-		   break;
-		 }  
+	      RID rid = dataPage.insertRecord(recs[k]);
+	      if (rid == null)
+		break;
+	      rids[k++] = rid;
 	    }
-	  
-	  // two cases:
-	  // (1) found == true:
-	  //     currentDirPage has a datapagerecord which can accomodate
-	  //     the record which we have to insert
-	  // (2) found == false:
-	  //     there is no datapagerecord on the current directory page
-	  //     whose corresponding datapage has enough space free
-	  //     several subcases: see below
-	  if(found == false)
-	    { //Start IF01
-	      // case (2)
-	      
-	      //System.out.println("no datapagerecord on the current directory is OK");
-	      //System.out.println("dirpage availspace "+currentDirPage.available_space());
-	      
-	      // on the current directory page is no datapagerecord which has
-	      // enough free space
-	      //
-	      // two cases:
-	      //
-	      // - (2.1) (currentDirPage->available_space() >= sizeof(DataPageInfo):
-	      //         if there is enough space on the current directory page
-	      //         to accomodate a new datapagerecord (type DataPageInfo),
-	      //         then insert a new DataPageInfo on the current directory
-	      //         page
-	      // - (2.2) (currentDirPage->available_space() <= sizeof(DataPageInfo):
-	      //         look at the next directory page, if necessary, create it.
-	      
-	      if(currentDirPage.available_space() >= dpinfo.size)
-		{ 
-        position += dpinfo.recct;
-		  //Start IF02
-		  // case (2.1) : add a new data page record into the
-		  //              current directory page
-		  currentDataPage = _newDatapage(dpinfo); 
-		  // currentDataPage is pinned! and dpinfo->pageId is also locked
-		  // in the exclusive mode  
-		  
-		  // didn't check if currentDataPage==NULL, auto exception
-		  
-		  
-		  // currentDataPage is pinned: insert its record
-		  // calling a HFPage function
-		  
-		  
-		  
-		  atuple = dpinfo.convertToTuple();
-		  
-		  byte [] tmpData = atuple.getTupleByteArray();
-		  currentDataPageRid = currentDirPage.insertRecord(tmpData);
-		  
-		  RID tmprid = currentDirPage.firstRecord();
-		  
-		  
-		  // need catch error here!
-		  if(currentDataPageRid == null)
-		    throw new HFException(null, "no space to insert rec.");  
-		  
-		  // end the loop, because a new datapage with its record
-		  // in the current directorypage was created and inserted into
-		  // the heapfile; the new datapage has enough space for the
-		  // record which the user wants to insert
-		  
-		  found = true;
-		  
-		} //end of IF02
-	      else
-		{  //Start else 02
-		  // case (2.2)
-		  nextDirPageId = currentDirPage.getNextPage();
-		  // two sub-cases:
-		  //
-		  // (2.2.1) nextDirPageId != INVALID_PAGE:
-		  //         get the next directory page from the buffer manager
-		  //         and do another look
-		  // (2.2.2) nextDirPageId == INVALID_PAGE:
-		  //         append a new directory page at the end of the current
-		  //         page and then do another loop
-		    
-		  if (nextDirPageId.pid != INVALID_PAGE) 
-		    { //Start IF03
-		      // case (2.2.1): there is another directory page:
-		      unpinPage(currentDirPageId, false);
-		      
-		      currentDirPageId.pid = nextDirPageId.pid;
-		      
-		      pinPage(currentDirPageId,
-						    currentDirPage, false);
-		      
-		      
-		      
-		      // now go back to the beginning of the outer while-loop and
-		      // search on the current directory page for a suitable datapage
-		    } //End of IF03
-		  else
-		    {  //Start Else03
-		      // case (2.2): append a new directory page after currentDirPage
-		      //             since it is the last directory page
-		      nextDirPageId = newPage(pageinbuffer, 1);
-		      // need check error!
-		      if(nextDirPageId == null)
-			throw new HFException(null, "can't new pae");
-		      
-		      // initialize new directory page
-		      nextDirPage.init(nextDirPageId, pageinbuffer);
-		      PageId temppid = new PageId(INVALID_PAGE);
-		      nextDirPage.setNextPage(temppid);
-		      nextDirPage.setPrevPage(currentDirPageId);
-		      
-		      // update current directory page and unpin it
-		      // currentDirPage is already locked in the Exclusive mode
-		      currentDirPage.setNextPage(nextDirPageId);
-		      unpinPage(currentDirPageId, true/*dirty*/);
-		      
-		      currentDirPageId.pid = nextDirPageId.pid;
-		      currentDirPage = new HFPage(nextDirPage);
-		      
-		      // remark that MINIBASE_BM->newPage already
-		      // pinned the new directory page!
-		      // Now back to the beginning of the while-loop, using the
-		      // newly created directory page.
-		      
-		    } //End of else03
-		} // End of else02
-	      // ASSERTIONS:
-	      // - if found == true: search will end and see assertions below
-	      // - if found == false: currentDirPage, currentDirPageId
-	      //   valid and pinned
-	      
-	    }//end IF01
-	  else
-	    { //Start else01
-	      // found == true:
-	      // we have found a datapage with enough space,
-	      // but we have not yet pinned the datapage:
-	      
-	      // ASSERTIONS:
-	      // - dpinfo valid
-	      
-	      // System.out.println("find the dirpagerecord on current page");
-	      
-	      pinPage(dpinfo.pageId, currentDataPage, false);
-	      //currentDataPage.openHFpage(pageinbuffer);
-	      
-	      
-	    }//End else01
-	} //end of While01
-      
-      // ASSERTIONS:
-      // - currentDirPageId, currentDirPage valid and pinned
-      // - dpinfo.pageId, currentDataPageRid valid
-      // - currentDataPage is pinned!
-      
-      if ((dpinfo.pageId).pid == INVALID_PAGE) // check error!
-	throw new HFException(null, "invalid PageId");
-      
-      if (!(currentDataPage.available_space() >= recLen))
-	throw new SpaceNotAvailableException(null, "no available space");
-      
-      if (currentDataPage == null)
-	throw new HFException(null, "can't find Data page");
-      
-      
-      RID rid;
-      rid = currentDataPage.insertRecord(recPtr);
-      
-      dpinfo.recct++;
-      dpinfo.availspace = currentDataPage.available_space();
-      
-      
-      unpinPage(dpinfo.pageId, true /* = DIRTY */);
-      
-      // DataPage is now released
-      atuple = currentDirPage.returnRecord(currentDataPageRid);
-      DataPageInfo dpinfo_ondirpage = new DataPageInfo(atuple);
-      
-      
-      dpinfo_ondirpage.availspace = dpinfo.availspace;
-      dpinfo_ondirpage.recct = dpinfo.recct;
-      dpinfo_ondirpage.pageId.pid = dpinfo.pageId.pid;
-      dpinfo_ondirpage.flushToTuple();
-      
-      
-      unpinPage(currentDirPageId, true /* = DIRTY */);
-      
-      
-      position +=rid.slotNo;
-      return new RIDPosition(rid, position);
-      
+	
+	boolean dirty = k > start;
+	if (dirty)
+	  {
+	    dpinfo.recct += k - start;
+	    dpinfo.availspace = dataPage.available_space();
+	    dpinfo.flushToTuple();
+	  }
+	unpinPage(pageId, dirty);
+	unpinPage(dirPageId, dirty);
+	
+	fsm.update(i, dpinfo.recct, dpinfo.availspace);
+	done = true;
+	return k;
+      }
+      finally {
+	if (!done)
+	  fsm.clear();
+      }
     }
   
   /** Delete record from file with given rid.
@@ -700,6 +821,9 @@ public class Heapfile implements Filetype,  GlobalConst {
 	  
 	  unpinPage(currentDirPageId, true /* = DIRTY */);
 	  
+	  FreeSpaceMap fsm = _freeSpaceMap();
+	  fsm.update(fsm.find(currentDataPageId.pid), pdpinfo.recct, pdpinfo.availspace);
+	  
 	  
 	}
       else
@@ -710,6 +834,9 @@ public class Heapfile implements Filetype,  GlobalConst {
 	  //   a) it's not the first directory page, and 
 	  //   b) we've removed the last DataPageInfo record on it.
 	  
+	  // the directory changes shape: build the free-space map again
+	  FreeSpaceMap.get(_firstDirPageId).clear();
+	  
 	  // delete empty datapage: (does it get unpinned automatically? -NO, Ranjani)
 	  unpinPage(currentDataPageId, false /*undirty*/);
 	  
@@ -824,6 +951,23 @@ public class Heapfile implements Filetype,  GlobalConst {
       Tuple atuple = new Tuple();
       atuple = dataPage.returnRecord(rid);
       
+      // the values of a packed page are encoded together: the page
+      // encodes them again with the new one, if they still fit it
+      if (dataPage.isPacked())
+	{
+	  if (newtuple.getLength() != 4
+	      || !dataPage.setPackedValue(rid.slotNo, Convert.getIntValue(0, newtuple.getTupleByteArray())))
+	    {
+	      unpinPage(currentDataPageId, false /*undirty*/);
+	      unpinPage(currentDirPageId, false /*undirty*/);
+	      
+	      throw new InvalidUpdateException(null, "value does not fit its packed page");
+	    }
+	  unpinPage(currentDataPageId, true /* = DIRTY */);
+	  unpinPage(currentDirPageId, false /*undirty*/);
+	  return true;
+	}
+      
       // Assume update a record with a record whose length is equal to
       // the original record
       
@@ -915,6 +1059,21 @@ public class Heapfile implements Filetype,  GlobalConst {
     }
   
   
+  /** Initiate a sequential scan of the data pages a filter keeps.
+   * @exception InvalidTupleSizeException Invalid tuple size
+   * @exception IOException I/O errors
+   *
+   * @param filter decides which data pages are read
+   */
+  public Scan openScan(PageFilter filter) 
+    throws InvalidTupleSizeException,
+	   IOException
+    {
+      Scan newscan = new Scan(this, filter);
+      return newscan;
+    }
+  
+  
   /** Delete the file from the database.
    *
    * @exception InvalidSlotNumberException invalid slot number
@@ -981,6 +1140,9 @@ public class Heapfile implements Filetype,  GlobalConst {
 	}
       
       delete_file_entry( _fileName );
+      FreeSpaceMap.forget(_firstDirPageId);
+      if (_ftype == ORDINARY)
+	_forget(_fileName);
     }
 	
 	public PageId getFirstDirPageId()
@@ -1088,6 +1250,18 @@ public class Heapfile implements Filetype,  GlobalConst {
 
   } // end of delete_file_entry
 
+  /** Returns the position of a record: the number of records on the
+   * data pages before its own, in directory order, plus its slot
+   * number.  Read from the free-space map, without pinning any page
+   * once the map is built.
+   *
+   * @param rid the record
+   *
+   * @exception HFException the file has no such record
+   * @exception Exception other exception
+   *
+   * @return the position
+   */
   public int getPositionFromRid(RID rid)
       throws InvalidSlotNumberException,
       InvalidTupleSizeException,
@@ -1095,53 +1269,23 @@ public class Heapfile implements Filetype,  GlobalConst {
       HFBufMgrException,
       HFDiskMgrException,
       Exception {
-    int position = 0;
-    PageId currentDirPageId = new PageId(_firstDirPageId.pid);
-
-    HFPage currentDirPage = new HFPage();
-    HFPage currentDataPage = new HFPage();
-    RID currentDataPageRid = new RID();
-    PageId nextDirPageId = new PageId();
-    // datapageId is stored in dpinfo.pageId
-
-    pinPage(currentDirPageId, currentDirPage, false /* read disk */);
-
-    Tuple atuple;
-    while (currentDirPageId.pid != INVALID_PAGE) {
-      for (currentDataPageRid = currentDirPage
-          .firstRecord(); currentDataPageRid != null; currentDataPageRid = currentDirPage
-              .nextRecord(currentDataPageRid)) {
-        atuple = currentDirPage.getRecord(currentDataPageRid);
-        DataPageInfo dpinfo = new DataPageInfo(atuple);
-        if (dpinfo.pageId.pid == rid.pageNo.pid) {
-          position += rid.slotNo;
-          try {
-            unpinPage(currentDirPageId, false /* undirty */);
-          } catch (Exception e) {
-            throw new HFException(e, "heapfile,_find,unpinpage failed");
-          }
-          return position;
-        }
-        position += dpinfo.recct;
-      }
-      nextDirPageId = currentDirPage.getNextPage();
-      try {
-        unpinPage(currentDirPageId, false /* undirty */);
-      } catch (Exception e) {
-        throw new HFException(e, "heapfile,_find,unpinpage failed");
-      }
-
-      currentDirPageId.pid = nextDirPageId.pid;
-      if (currentDirPageId.pid != INVALID_PAGE) {
-        pinPage(currentDirPageId, currentDirPage, false /* Rdisk */);
-        if (currentDirPage == null) {
-          throw new HFException(null, "pinPage return null page");
-        }
-      }
+    int position = _freeSpaceMap().positionOf(rid);
+    if (position < 0) {
+      throw new HFException(null, "record not found");
     }
-    throw new HFException(null, "record not found");
+    return position;
   }
 
+  /** Returns the record at a position, the inverse of
+   * getPositionFromRid.
+   *
+   * @param position the position
+   *
+   * @exception HFException the position is past the last record
+   * @exception Exception other exception
+   *
+   * @return the rid of the record
+   */
   public RID getRidFromPosition(int position)
       throws InvalidSlotNumberException,
       InvalidTupleSizeException,
@@ -1150,66 +1294,10 @@ public class Heapfile implements Filetype,  GlobalConst {
       HFDiskMgrException,
       Exception {
     RID rid = new RID();
-    int pos = position;
-    PageId currentDirPageId = new PageId(_firstDirPageId.pid);
-
-    HFPage currentDirPage = new HFPage();
-    HFPage currentDataPage = new HFPage();
-    RID currentDataPageRid = new RID();
-    PageId nextDirPageId = new PageId();
-    // datapageId is stored in dpinfo.pageId
-
-    pinPage(currentDirPageId, currentDirPage, false /* read disk */);
-
-    Tuple atuple;
-    int eachFullRecct = 0;
-    while (currentDirPageId.pid != INVALID_PAGE) {
-      nextDirPageId = currentDirPage.getNextPage();
-
-      if (currentDirPageId.pid == _firstDirPageId.pid &&
-          currentDirPage.firstRecord() != null) {
-        atuple = currentDirPage.getRecord(currentDirPage.firstRecord());
-        DataPageInfo dpinfo = new DataPageInfo(atuple);
-        eachFullRecct = dpinfo.recct;
-      }
-      if (currentDirPage.available_space() <= DataPageInfo.size &&
-          nextDirPageId.pid != INVALID_PAGE &&
-          pos - eachFullRecct * currentDirPage.getSlotCnt() >= 0) {
-        pos -= eachFullRecct * currentDirPage.getSlotCnt();
-      } else {
-        for (currentDataPageRid = currentDirPage.firstRecord(); //
-            currentDataPageRid != null; //
-            currentDataPageRid = currentDirPage.nextRecord(currentDataPageRid)) {
-          atuple = currentDirPage.getRecord(currentDataPageRid);
-          DataPageInfo dpinfo = new DataPageInfo(atuple);
-          if (pos - dpinfo.recct < 0) {
-            rid.pageNo.pid = dpinfo.pageId.pid;
-            rid.slotNo = pos;
-            try {
-              unpinPage(currentDirPageId, false /* undirty */);
-            } catch (Exception e) {
-              throw new HFException(e, "heapfile,_find,unpinpage failed");
-            }
-            return rid;
-          }
-          pos -= dpinfo.recct;
-        }
-      }
-      try {
-        unpinPage(currentDirPageId, false /* undirty */);
-      } catch (Exception e) {
-        throw new HFException(e, "heapfile,_find,unpinpage failed");
-      }
-
-      currentDirPageId.pid = nextDirPageId.pid;
-      if (currentDirPageId.pid != INVALID_PAGE) {
-        pinPage(currentDirPageId, currentDirPage, false /* Rdisk */);
-        if (currentDirPage == null) {
-          throw new HFException(null, "pinPage return null page");
-        }
-      }
+    if (!_freeSpaceMap().ridAt(position, rid)) {
+      throw new HFException(null, "record not found");
     }
-    throw new HFException(null, "record not found");
+    return rid;
   }
 
   public boolean deleteRecordPreserveDirPages(RID rid)
@@ -1252,9 +1340,96 @@ public class Heapfile implements Filetype,  GlobalConst {
     pdpinfo.flushToTuple(); // Write to the buffer pool
     unpinPage(currentDataPageId, true /* = DIRTY */);
     unpinPage(currentDirPageId, true /* = DIRTY */);
+
+    FreeSpaceMap fsm = _freeSpaceMap();
+    fsm.update(fsm.find(currentDataPageId.pid), pdpinfo.recct, pdpinfo.availspace);
     return status;
   }
 
+  /** Removes the records in the given slots of a data page and moves
+   * the records after them down (see HFPage.compact), so that the
+   * positions of all the records after them, on this page and the
+   * pages after it, drop by the number removed.  The page is sealed:
+   * its DataPageInfo says it has no room left, so that an insert never
+   * puts a record in front of records of later positions.  A page left
+   * empty stays in the directory until purgeDataPages.
+   *
+   * @param pageId the data page
+   * @param slots the slots to remove
+   *
+   * @exception HFException the file has no such data page
+   * @exception Exception other exception
+   *
+   * @return the number of records left on the page, -1, with the page
+   *         unchanged, if its values are packed and would no longer
+   *         fit it
+   */
+  public int compactPage(PageId pageId, java.util.BitSet slots)
+      throws InvalidSlotNumberException,
+      InvalidTupleSizeException,
+      HFException,
+      HFBufMgrException,
+      HFDiskMgrException,
+      Exception {
+    FreeSpaceMap fsm = _freeSpaceMap();
+    int i = fsm.find(pageId.pid);
+    if (i < 0) {
+      throw new HFException(null, "data page not found");
+    }
+    PageId dirPageId = new PageId(fsm.getDirPid(i));
+    RID dataPageRid = new RID(new PageId(dirPageId.pid), fsm.getDirSlot(i));
+    HFPage dirPage = new HFPage();
+    HFPage dataPage = new HFPage();
+    pinPage(dirPageId, dirPage, false);
+    try {
+      pinPage(pageId, dataPage, false);
+    } catch (HFBufMgrException e) {
+      unpinPage(dirPageId, false);
+      throw e;
+    }
+
+    int left = dataPage.compact(slots);
+    if (left < 0) {
+      unpinPage(pageId, false);
+      unpinPage(dirPageId, false);
+      return left;
+    }
+    DataPageInfo dpinfo = new DataPageInfo(dirPage.returnRecord(dataPageRid));
+    dpinfo.recct = left;
+    dpinfo.availspace = 0;
+    dpinfo.flushToTuple();
+    unpinPage(pageId, true);
+    unpinPage(dirPageId, true);
+
+    fsm.update(i, left, 0);
+    return left;
+  }
+
+  /** Tells whether compactPage can remove the records in the given
+   * slots of a data page, which it always can but for a packed page
+   * whose values would no longer fit it.  Nothing is written.
+   *
+   * @param pageId the data page
+   * @param slots the slots to remove
+   *
+   * @exception Exception other exception
+   */
+  public boolean canCompactPage(PageId pageId, java.util.BitSet slots)
+      throws HFBufMgrException,
+      IOException {
+    HFPage dataPage = new HFPage();
+    pinPage(pageId, dataPage, false);
+    try {
+      if (!dataPage.isPacked()) {
+        return true;
+      }
+      byte[] copy = dataPage.getpage().clone();
+      return new HFPage(new Page(copy)).compact(slots) >= 0;
+    } finally {
+      unpinPage(pageId, false);
+    }
+  }
+
   public boolean purgeDataPages()
       throws IOException,
       InvalidTupleSizeException,
@@ -1278,6 +1453,9 @@ public class Heapfile implements Filetype,  GlobalConst {
     // HFPage currentDataPage = new HFPage();
     // PageId currentDataPageId = new PageId();
 
+    // data pages are removed: build the free-space map again
+    FreeSpaceMap.get(_firstDirPageId).clear();
+
     int totalRecct = 0;
     while (true) {
       for (RID currentDataPageRid = currentDirPage.firstRecord(); //
@@ -1328,9 +1506,71 @@ public class Heapfile implements Filetype,  GlobalConst {
       }
     }
     //System.out.println("Total records: " + totalRecct);
+    if (status) {
+      try {
+        _packDirectory();
+      } catch (HFBufMgrException e) {
+        status = false;
+        e.printStackTrace();
+      }
+    }
     return status;
   }
 
+  /* Moves the DataPageInfo records of the directory up, in order, so
+   * that no directory page has a hole and all but the last are full,
+   * and frees the directory pages left empty.  A data page added later
+   * then gets its record after all the others, and the positions of
+   * its records come after theirs. */
+  private void _packDirectory()
+      throws HFBufMgrException,
+      IOException,
+      InvalidSlotNumberException {
+    java.util.ArrayList<byte[]> records = new java.util.ArrayList<byte[]>();
+    java.util.ArrayList<PageId> dirs = new java.util.ArrayList<PageId>();
+    HFPage dirPage = new HFPage();
+    PageId dirPageId = new PageId(_firstDirPageId.pid);
+    while (dirPageId.pid != INVALID_PAGE) {
+      pinPage(dirPageId, dirPage, false);
+      dirs.add(new PageId(dirPageId.pid));
+      for (RID rid = dirPage.firstRecord(); rid != null; rid = dirPage.nextRecord(rid)) {
+        records.add(dirPage.getRecord(rid).getTupleByteArray());
+      }
+      PageId next = dirPage.getNextPage();
+      unpinPage(dirPageId, false);
+      dirPageId.pid = next.pid;
+    }
+
+    int r = 0;
+    int used = 0;
+    for (int d = 0; d < dirs.size(); d++) {
+      if (d > 0 && r == records.size()) {
+        break;
+      }
+      pinPage(dirs.get(d), dirPage, false);
+      PageId prev = new PageId(dirPage.getPrevPage().pid);
+      PageId next = new PageId(dirPage.getNextPage().pid);
+      short type = dirPage.getType();
+      dirPage.init(dirs.get(d), dirPage);
+      dirPage.setPrevPage(prev);
+      dirPage.setNextPage(next);
+      while (r < records.size() && dirPage.insertRecord(records.get(r)) != null) {
+        r++;
+      }
+      // the first directory page keeps the value width of the file
+      dirPage.setType(type);
+      used = d + 1;
+      if (r == records.size() || used == dirs.size()) {
+        dirPage.setNextPage(new PageId(INVALID_PAGE));
+      }
+      unpinPage(dirs.get(d), true);
+    }
+    for (int d = used; d < dirs.size(); d++) {
+      freePage(dirs.get(d));
+    }
+    FreeSpaceMap.get(_firstDirPageId).clear();
+  }
+
   public boolean purgeDirPages() throws IOException {
     boolean status = true;
     PageId currentDirPageId = new PageId(_firstDirPageId.pid);
@@ -1349,6 +1589,9 @@ public class Heapfile implements Filetype,  GlobalConst {
       return status;
     }
 
+    // directory pages are removed: build the free-space map again
+    FreeSpaceMap.get(_firstDirPageId).clear();
+
     while (true) {
       nextDirPageId = currentDirPage.getNextPage();
       prevDirPageId = currentDirPage.getPrevPage();
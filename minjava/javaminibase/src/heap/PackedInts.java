@@ -0,0 +1,466 @@
+/* File PackedInts.java */
+
+package heap;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The encodings of the values of a packed page (see HFPage.initPacked).
+ * <p>
+ * The values of a packed page are stored in one of three encodings:
+ * <ul>
+ * <li> FOR, frame of reference: value i is base plus an unsigned
+ *      offset of bits bits, bit-packed, so a page of values 0 to 100
+ *      takes 7 bits a value and a page of one value none;
+ * <li> DELTA: value 0 is base and value i is value i-1 plus step plus
+ *      an offset of bits bits, so that sorted or evenly spaced values
+ *      take few bits or none;
+ * <li> RLE: runs of equal values, 4 bytes of value and a 2-byte
+ *      length each.
+ * </ul>
+ * The page keeps the statistics that give the size of each encoding
+ * of its values (min and max, min and max difference of consecutive
+ * values, number of runs), and append chooses from them: a value is
+ * written in place when the current encoding takes it and is not much
+ * larger than the smallest, else the page is encoded again, with the
+ * smallest.  The header follows DPFIXED; usedPtr holds the bytes of
+ * the encoded values.  The deleted bitmap is the page owner's.
+ */
+final class PackedInts {
+
+  static final byte RLE = 1;
+  static final byte FOR = 2;
+  static final byte DELTA = 3;
+
+  /* the header, after the one of HFPage */
+  static final int ENC = HFPage.DPFIXED;
+  static final int BITS = ENC + 1;
+  static final int RUNS = ENC + 2;
+  static final int BASE = ENC + 4;
+  static final int STEP = ENC + 8;
+  static final int MIN = ENC + 12;
+  static final int MAX = ENC + 16;
+  static final int MIN_DELTA = ENC + 20;
+  static final int MAX_DELTA = ENC + 24;
+  static final int LAST = ENC + 28;
+  static final int VERSION = ENC + 32;
+
+  /** offset of the encoded values */
+  static final int VALUES = ENC + 36;
+
+  /** bytes of a run of RLE */
+  static final int RUN_SIZE = 6;
+
+  private PackedInts() {}
+
+  /** Sets up the header of a page without values. */
+  static void init(ByteBuffer buf)
+  {
+    buf.put(ENC, FOR);
+    buf.put(BITS, (byte) 0);
+    buf.putShort(RUNS, (short) 0);
+    for (int k = BASE; k < VALUES; k += 4)
+      buf.putInt(k, 0);
+  }
+
+  /** @return the bits of an offset of at most range */
+  static int bitsFor(long range)
+  {
+    return 64 - Long.numberOfLeadingZeros(range);
+  }
+
+  /* bytes of n values of bits bits */
+  private static int packedBytes(long n, int bits)
+  {
+    return (int) ((n * bits + 7) / 8);
+  }
+
+  /** @return the name of an encoding */
+  static String name(int encoding)
+  {
+    switch (encoding) {
+    case RLE:
+      return "rle";
+    case FOR:
+      return "for";
+    case DELTA:
+      return "delta";
+    default:
+      return "none";
+    }
+  }
+
+  /* bytes of the encodings of n values with the given statistics */
+  private static int cost(int encoding, int n, int min, int max,
+			  int minDelta, int maxDelta, int runs)
+  {
+    switch (encoding) {
+    case RLE:
+      return runs * RUN_SIZE;
+    case DELTA:
+      return n <= 1 ? 0 : packedBytes(n - 1, bitsFor((long) maxDelta - minDelta));
+    default:
+      return packedBytes(n, bitsFor((long) max - min));
+    }
+  }
+
+  /* the smallest encoding; FOR is read the fastest, one value without
+   * the others, so DELTA has to save a sixteenth on it to be chosen */
+  private static int smallest(int n, int min, int max, int minDelta, int maxDelta, int runs)
+  {
+    int best = FOR;
+    int bestCost = cost(FOR, n, min, max, minDelta, maxDelta, runs);
+    if (cost(DELTA, n, min, max, minDelta, maxDelta, runs) < bestCost - bestCost / 16) {
+      best = DELTA;
+      bestCost = cost(DELTA, n, min, max, minDelta, maxDelta, runs);
+    }
+    if (cost(RLE, n, min, max, minDelta, maxDelta, runs) < bestCost)
+      best = RLE;
+    return best;
+  }
+
+  /* do the encoded values and a bitmap of n slots fit the page? */
+  private static boolean fits(byte[] data, int bytes, int n)
+  {
+    return n <= Short.MAX_VALUE && VALUES + bytes + (n + 7) / 8 <= data.length;
+  }
+
+  /** @return the bytes left on a page of n values */
+  static int room(byte[] data, int n)
+  {
+    return data.length - VALUES - ByteBuffer.wrap(data).getShort(HFPage.USED_PTR) - (n + 7) / 8;
+  }
+
+  /**
+   * Appends a value to the n values of a page.
+   *
+   * @return false if the page has no room for it
+   */
+  static boolean append(byte[] data, ByteBuffer buf, int n, int value)
+  {
+    int min = value, max = value, minDelta = 0, maxDelta = 0, runs = 1;
+    int last = buf.getInt(LAST);
+    int delta = value - last;
+    if (n > 0) {
+      min = Math.min(buf.getInt(MIN), value);
+      max = Math.max(buf.getInt(MAX), value);
+      minDelta = n == 1 ? delta : Math.min(buf.getInt(MIN_DELTA), delta);
+      maxDelta = n == 1 ? delta : Math.max(buf.getInt(MAX_DELTA), delta);
+      runs = buf.getShort(RUNS) + (value == last ? 0 : 1);
+    }
+
+    int best = smallest(n + 1, min, max, minDelta, maxDelta, runs);
+    int bestCost = cost(best, n + 1, min, max, minDelta, maxDelta, runs);
+
+    // can the value go in place?
+    int encoding = buf.get(ENC);
+    int bits = buf.get(BITS);
+    int inPlace = -1;
+    long offset = 0;
+    if (n > 0) {
+      switch (encoding) {
+      case RLE:
+	inPlace = runs * RUN_SIZE;
+	break;
+      case DELTA:
+	offset = (long) delta - buf.getInt(STEP);
+	if (n > 1 && offset >= 0 && offset < (1L << bits))
+	  inPlace = packedBytes(n, bits);
+	break;
+      default:
+	offset = (long) value - buf.getInt(BASE);
+	if (offset >= 0 && offset < (1L << bits))
+	  inPlace = packedBytes(n + 1, bits);
+	break;
+      }
+    }
+
+    if (inPlace >= 0 && inPlace <= bestCost + bestCost / 4 + 8
+	&& fits(data, inPlace, n + 1)) {
+      switch (encoding) {
+      case RLE:
+	int run = VALUES + (buf.getShort(RUNS) - 1) * RUN_SIZE;
+	if (value == last)
+	  buf.putChar(run + 4, (char) (buf.getChar(run + 4) + 1));
+	else {
+	  buf.putInt(run + RUN_SIZE, value);
+	  buf.putChar(run + RUN_SIZE + 4, (char) 1);
+	}
+	break;
+      case DELTA:
+	putBits(data, (long) (n - 1) * bits, bits, offset);
+	break;
+      default:
+	putBits(data, (long) n * bits, bits, offset);
+	break;
+      }
+      buf.putShort(HFPage.USED_PTR, (short) inPlace);
+    }
+    else {
+      if (!fits(data, bestCost, n + 1))
+	return false;
+      int[] values = new int[n + 1];
+      decode(data, buf, n, 0, n, values, 0);
+      values[n] = value;
+      encode(data, buf, best, values, n + 1, min, minDelta, maxDelta);
+    }
+
+    buf.putInt(MIN, min);
+    buf.putInt(MAX, max);
+    buf.putInt(MIN_DELTA, minDelta);
+    buf.putInt(MAX_DELTA, maxDelta);
+    buf.putShort(RUNS, (short) runs);
+    buf.putInt(LAST, value);
+    buf.putInt(VERSION, buf.getInt(VERSION) + 1);
+    return true;
+  }
+
+  /**
+   * Replaces value slotno of the n values of a page, encoding them
+   * again.
+   *
+   * @return false, with the page unchanged, if they no longer fit
+   */
+  static boolean set(byte[] data, ByteBuffer buf, int n, int slotno, int value)
+  {
+    int[] values = new int[n];
+    decode(data, buf, n, 0, n, values, 0);
+    values[slotno] = value;
+    return store(data, buf, values, n);
+  }
+
+  /**
+   * Removes the values in the slots set in gone from the n values of a
+   * page, encoding the others again, in their order, as values 0 to
+   * m-1.  The page owner clears its deleted bitmap.
+   *
+   * @return the number m of values left, or -1, with the page
+   *         unchanged, if they no longer fit
+   */
+  static int remove(byte[] data, ByteBuffer buf, int n, BitSet gone)
+  {
+    int[] values = new int[n];
+    decode(data, buf, n, 0, n, values, 0);
+    int m = 0;
+    for (int i = 0; i < n; i++)
+      if (!gone.get(i))
+	values[m++] = values[i];
+    if (m == 0) {
+      init(buf);
+      buf.putShort(HFPage.USED_PTR, (short) 0);
+      Arrays.fill(data, VALUES, data.length, (byte) 0);
+      return 0;
+    }
+    return store(data, buf, values, m) ? m : -1;
+  }
+
+  /* encodes the n values with the smallest encoding, if it fits */
+  private static boolean store(byte[] data, ByteBuffer buf, int[] values, int n)
+  {
+    int min = values[0], max = values[0], minDelta = 0, maxDelta = 0, runs = 1;
+    for (int i = 1; i < n; i++) {
+      int delta = values[i] - values[i - 1];
+      min = Math.min(min, values[i]);
+      max = Math.max(max, values[i]);
+      minDelta = i == 1 ? delta : Math.min(minDelta, delta);
+      maxDelta = i == 1 ? delta : Math.max(maxDelta, delta);
+      if (delta != 0)
+	runs++;
+    }
+    int best = smallest(n, min, max, minDelta, maxDelta, runs);
+    if (!fits(data, cost(best, n, min, max, minDelta, maxDelta, runs), n))
+      return false;
+
+    encode(data, buf, best, values, n, min, minDelta, maxDelta);
+    buf.putInt(MIN, min);
+    buf.putInt(MAX, max);
+    buf.putInt(MIN_DELTA, minDelta);
+    buf.putInt(MAX_DELTA, maxDelta);
+    buf.putShort(RUNS, (short) runs);
+    buf.putInt(LAST, values[n - 1]);
+    buf.putInt(VERSION, buf.getInt(VERSION) + 1);
+    return true;
+  }
+
+  /* writes the n values in the encoding, which the caller made sure fits */
+  private static void encode(byte[] data, ByteBuffer buf, int encoding, int[] values, int n,
+			     int min, int minDelta, int maxDelta)
+  {
+    int bits = 0;
+    int bytes;
+    Arrays.fill(data, VALUES, data.length - (n + 7) / 8, (byte) 0);
+    switch (encoding) {
+    case RLE:
+      int runs = 0;
+      for (int i = 0; i < n; i++) {
+	int run = VALUES + (runs - 1) * RUN_SIZE;
+	if (i > 0 && values[i] == values[i - 1])
+	  buf.putChar(run + 4, (char) (buf.getChar(run + 4) + 1));
+	else {
+	  buf.putInt(run + RUN_SIZE, values[i]);
+	  buf.putChar(run + RUN_SIZE + 4, (char) 1);
+	  runs++;
+	}
+      }
+      bytes = runs * RUN_SIZE;
+      break;
+    case DELTA:
+      bits = n <= 1 ? 0 : bitsFor((long) maxDelta - minDelta);
+      buf.putInt(BASE, values[0]);
+      buf.putInt(STEP, minDelta);
+      for (int i = 1; i < n; i++)
+	putBits(data, (long) (i - 1) * bits, bits, (long) (values[i] - values[i - 1]) - minDelta);
+      bytes = packedBytes(n - 1, bits);
+      break;
+    default:
+      int max = min;
+      for (int i = 0; i < n; i++)
+	max = Math.max(max, values[i]);
+      bits = bitsFor((long) max - min);
+      buf.putInt(BASE, min);
+      for (int i = 0; i < n; i++)
+	putBits(data, (long) i * bits, bits, (long) values[i] - min);
+      bytes = packedBytes(n, bits);
+      break;
+    }
+    buf.put(ENC, (byte) encoding);
+    buf.put(BITS, (byte) bits);
+    buf.putShort(HFPage.USED_PTR, (short) bytes);
+  }
+
+  /**
+   * Decodes values slotno to slotno+count-1 of the n values of a page
+   * into values[off] on.
+   */
+  static void decode(byte[] data, ByteBuffer buf, int n, int slotno, int count,
+		     int[] values, int off)
+  {
+    if (count == 0)
+      return;
+    int bits = buf.get(BITS);
+    int base = buf.getInt(BASE);
+    switch (buf.get(ENC)) {
+    case RLE:
+      int run = VALUES;
+      int start = 0;
+      int length = buf.getChar(run + 4);
+      // the run of slotno
+      while (start + length <= slotno) {
+	start += length;
+	run += RUN_SIZE;
+	length = buf.getChar(run + 4);
+      }
+      for (int i = 0; i < count; i++) {
+	if (slotno + i >= start + length) {
+	  start += length;
+	  run += RUN_SIZE;
+	  length = buf.getChar(run + 4);
+	}
+	values[off + i] = buf.getInt(run);
+      }
+      break;
+    case DELTA:
+      int step = buf.getInt(STEP);
+      int value = base;
+      if (bits == 0)
+	value = base + slotno * step;
+      else
+	for (int i = 1; i <= slotno; i++)
+	  value += step + (int) getBits(data, (long) (i - 1) * bits, bits);
+      for (int i = 0; i < count; i++) {
+	if (i > 0)
+	  value += step + (bits == 0 ? 0 : (int) getBits(data, (long) (slotno + i - 1) * bits, bits));
+	values[off + i] = value;
+      }
+      break;
+    default:
+      for (int i = 0; i < count; i++)
+	values[off + i] = base + (int) getBits(data, (long) (slotno + i) * bits, bits);
+      break;
+    }
+  }
+
+  /** @return value slotno of a page, without decoding the others
+   * where the encoding allows */
+  static int get(byte[] data, ByteBuffer buf, int n, int slotno)
+  {
+    int bits = buf.get(BITS);
+    if (buf.get(ENC) == FOR)
+      return buf.getInt(BASE) + (int) getBits(data, (long) slotno * bits, bits);
+    int[] value = new int[1];
+    decode(data, buf, n, slotno, 1, value, 0);
+    return value[0];
+  }
+
+  /**
+   * Finds the runs of equal values among values slotno to
+   * slotno+count-1 of a page.  Run r holds values[off+r] and starts
+   * at slot starts[off+r]; the runs of an RLE page are read as they
+   * are, the others are found by decoding.
+   *
+   * @return the number of runs
+   */
+  static int runs(byte[] data, ByteBuffer buf, int n, int slotno, int count,
+		  int[] values, int[] starts, int off)
+  {
+    int r = off;
+    if (buf.get(ENC) == RLE) {
+      int run = VALUES;
+      int start = 0;
+      int end = slotno + count;
+      while (start < end) {
+	int length = buf.getChar(run + 4);
+	if (start + length > slotno) {
+	  values[r] = buf.getInt(run);
+	  starts[r] = Math.max(start, slotno);
+	  r++;
+	}
+	start += length;
+	run += RUN_SIZE;
+      }
+      return r - off;
+    }
+    if ((buf.get(ENC) == FOR || buf.getInt(STEP) == 0) && buf.get(BITS) == 0) {
+      values[r] = buf.getInt(BASE);
+      starts[r] = slotno;
+      return 1;
+    }
+    int[] decoded = new int[count];
+    decode(data, buf, n, slotno, count, decoded, 0);
+    for (int i = 0; i < count; i++)
+      if (i == 0 || decoded[i] != decoded[i - 1]) {
+	values[r] = decoded[i];
+	starts[r] = slotno + i;
+	r++;
+      }
+    return r - off;
+  }
+
+  /* the bits bits at bit pos of the values, lowest bit first */
+  private static long getBits(byte[] data, long pos, int bits)
+  {
+    if (bits == 0)
+      return 0;
+    int at = VALUES + (int) (pos >>> 3);
+    int shift = (int) (pos & 7);
+    long word = 0;
+    for (int k = 0, need = (shift + bits + 7) >>> 3; k < need; k++)
+      word |= (long) (data[at + k] & 0xff) << (8 * k);
+    return (word >>> shift) & ((1L << bits) - 1);
+  }
+
+  /* sets the bits bits at bit pos of the values to offset */
+  private static void putBits(byte[] data, long pos, int bits, long offset)
+  {
+    int at = VALUES + (int) (pos >>> 3);
+    int shift = (int) (pos & 7);
+    long mask = ((1L << bits) - 1) << shift;
+    offset <<= shift;
+    for (int k = 0; mask >>> (8 * k) != 0; k++) {
+      int m = (int) (mask >>> (8 * k)) & 0xff;
+      data[at + k] = (byte) ((data[at + k] & ~m) | ((int) (offset >>> (8 * k)) & m));
+    }
+  }
+}
@@ -0,0 +1,23 @@
+package heap;
+
+
+/** File PageFilter.java */
+
+
+import global.*;
+
+/** PageFilter: decides, before a Scan reads a data page, whether it
+ * needs to.  It is asked with what the directory knows of the page,
+ * its id and the number of records on it, so a page turned down is
+ * never pinned.
+ *
+ * @see Heapfile#openScan(PageFilter)
+ */
+public interface PageFilter {
+
+  /** @param pageId the data page
+   * @param recct the number of records on it
+   * @return true if the scan is to read the page
+   */
+  boolean keep(PageId pageId, int recct);
+}
@@ -19,6 +19,12 @@ import diskmgr.*;
  *
  * An object of type scan will always have pinned one directory page
  * of the heapfile.
+ *
+ * A scan opened with a PageFilter asks it about every data page, from
+ * the page's directory entry, before the page is pinned, and passes
+ * over the pages it turns down without reading them.  getPosition
+ * still gives the position of the records it returns, and
+ * getPagesRead and getPagesSkipped count the pages read and passed.
  */
 public class Scan implements GlobalConst{
  
@@ -53,6 +59,28 @@ public class Scan implements GlobalConst{
 
     /** Status of next user status */
     private boolean nextUserStatus;
+
+    /** decides which data pages are read, null for all of them */
+    private PageFilter pageFilter = null;
+
+    /** record count of the current data page, from its directory entry */
+    private int datapageRecct = 0;
+
+    /** position of the first record of the current data page */
+    private int pagePosition = 0;
+
+    /** position of the record getNext last returned, or of the first
+     * value of the last block */
+    private int lastPosition = -1;
+
+    /** data pages read and passed over */
+    private int pagesRead = 0;
+    private int pagesSkipped = 0;
+
+    /** data pages of the current directory page, after the current
+     * one, that the last read-ahead hint already covered
+     */
+    private int readAheadLeft = 0;
     
      
     /** The constructor pins the first directory page in the file
@@ -72,6 +100,48 @@ public class Scan implements GlobalConst{
   }
 
 
+  /** As Scan(hf), reading only the data pages the filter keeps.
+   *
+   * @exception InvalidTupleSizeException Invalid tuple size
+   * @exception IOException I/O errors
+   *
+   * @param hf A HeapFile object
+   * @param filter decides which data pages are read
+   */
+  public Scan(Heapfile hf, PageFilter filter) 
+    throws InvalidTupleSizeException,
+	   IOException
+  {
+	pageFilter = filter;
+	init(hf);
+  }
+
+
+  /** @return the position in the file of the record getNext last
+   * returned, or of the first value of the last block, -1 before the
+   * first
+   */
+  public int getPosition()
+  {
+    return lastPosition;
+  }
+
+
+  /** @return the number of data pages the scan has read so far */
+  public int getPagesRead()
+  {
+    return pagesRead;
+  }
+
+
+  /** @return the number of data pages the filter made the scan pass
+   * over so far */
+  public int getPagesSkipped()
+  {
+    return pagesSkipped;
+  }
+
+
   
   /** Retrieve the next record in a sequential scan
    *
@@ -87,15 +157,23 @@ public class Scan implements GlobalConst{
   {
     Tuple recptrtuple = null;
     
-    if (nextUserStatus != true) {
+    while (true) {
+      if (nextUserStatus != true) {
         nextDataPage();
-    }
+      }
      
-    if (datapage == null)
-      return null;
+      if (datapage == null)
+        return null;
+
+      // a data page without records, such as one purging emptied
+      if (userrid != null)
+        break;
+      nextUserStatus = false;
+    }
     
     rid.pageNo.pid = userrid.pageNo.pid;    
     rid.slotNo = userrid.slotNo;
+    lastPosition = pagePosition + rid.slotNo;
          
     try {
       recptrtuple = datapage.getRecord(rid);
@@ -114,6 +192,162 @@ public class Scan implements GlobalConst{
   }
 
 
+  /** Retrieve the next records of a file of 4-byte int records, such
+   * as a dense column, a block at a time: the rest of the current data
+   * page, up to values.length of them.  On a dense page the block is
+   * read with one bulk decode, on a packed page with one decode of its
+   * encoding.
+   *
+   * @exception InvalidTupleSizeException Invalid tuple size
+   * @exception IOException I/O errors
+   *
+   * @param values the array to fill
+   * @return the number of values retrieved, 0 at the end of the file
+   */
+  public int getNextInts(int[] values)
+    throws InvalidTupleSizeException,
+	   IOException
+  {
+    return getNextInts(values, 0, values.length);
+  }
+
+
+  /** As getNextInts(values), filling values[off] to at most
+   * values[off+len-1].
+   *
+   * @exception InvalidTupleSizeException Invalid tuple size
+   * @exception IOException I/O errors
+   *
+   * @param values the array to fill
+   * @param off where the first value goes
+   * @param len the most values to retrieve
+   * @return the number of values retrieved, 0 at the end of the file
+   */
+  public int getNextInts(int[] values, int off, int len)
+    throws InvalidTupleSizeException,
+	   IOException
+  {
+    int count = 0;
+    while (count == 0 && len > 0) {
+      int first = nextBlock(len);
+      if (first < 0)
+	return 0;
+      count = datapage.getIntValues(first, userrid.slotNo - first + 1, values, off);
+      userrid = datapage.nextRecord(userrid);
+      nextUserStatus = (userrid != null);
+    }
+    return count;
+  }
+
+
+  /** Retrieve the next records of a file of 4-byte int records a
+   * block at a time, as getNextInts, but as runs of equal values at
+   * consecutive positions: run r holds values[r] at the lengths[r]
+   * positions from positions[r] on.  The runs of a run-length encoded
+   * packed page come as they are stored, so a predicate can be decided
+   * once a run.
+   *
+   * @exception InvalidTupleSizeException Invalid tuple size
+   * @exception IOException I/O errors
+   *
+   * @param values the value of each run
+   * @param positions the first position of each run
+   * @param lengths the positions of each run
+   * @return the number of runs retrieved, 0 at the end of the file
+   */
+  public int getNextIntRuns(int[] values, int[] positions, int[] lengths)
+    throws InvalidTupleSizeException,
+	   IOException
+  {
+    int count = 0;
+    while (count == 0 && values.length > 0) {
+      int first = nextBlock(values.length);
+      if (first < 0)
+	return 0;
+      count = datapage.getIntRuns(first, userrid.slotNo - first + 1,
+				  values, positions, lengths, 0);
+      for (int r = 0; r < count; r++)
+	positions[r] += pagePosition;
+      userrid = datapage.nextRecord(userrid);
+      nextUserStatus = (userrid != null);
+    }
+    return count;
+  }
+
+
+  /** Retrieve the next records of a file of 4-byte float records a
+   * block at a time, as getNextInts.
+   *
+   * @exception InvalidTupleSizeException Invalid tuple size
+   * @exception IOException I/O errors
+   *
+   * @param values the array to fill
+   * @return the number of values retrieved, 0 at the end of the file
+   */
+  public int getNextFloats(float[] values)
+    throws InvalidTupleSizeException,
+	   IOException
+  {
+    return getNextFloats(values, 0, values.length);
+  }
+
+
+  /** As getNextFloats(values), filling values[off] to at most
+   * values[off+len-1].
+   *
+   * @exception InvalidTupleSizeException Invalid tuple size
+   * @exception IOException I/O errors
+   *
+   * @param values the array to fill
+   * @param off where the first value goes
+   * @param len the most values to retrieve
+   * @return the number of values retrieved, 0 at the end of the file
+   */
+  public int getNextFloats(float[] values, int off, int len)
+    throws InvalidTupleSizeException,
+	   IOException
+  {
+    int count = 0;
+    while (count == 0 && len > 0) {
+      int first = nextBlock(len);
+      if (first < 0)
+	return 0;
+      count = datapage.getFloatValues(first, userrid.slotNo - first + 1, values, off);
+      userrid = datapage.nextRecord(userrid);
+      nextUserStatus = (userrid != null);
+    }
+    return count;
+  }
+
+
+  /** Moves to the next record, on the next data page if need be, and
+   * sets userrid to the last slot of the block of at most max slots
+   * that starts there.
+   *
+   * @return the first slot of the block, -1 at the end of the file
+   */
+  private int nextBlock(int max)
+    throws InvalidTupleSizeException,
+	   IOException
+  {
+    while (true) {
+      if (nextUserStatus != true)
+	nextDataPage();
+      if (datapage == null)
+	return -1;
+      // a data page without records
+      if (userrid == null) {
+	nextUserStatus = false;
+	continue;
+      }
+      int first = userrid.slotNo;
+      userrid.slotNo = Math.min(datapage.getSlotCnt(), first + max) - 1;
+      lastPosition = pagePosition + first;
+      return first;
+    }
+  }
+
+
     /** Position the scan cursor to the record with the given rid.
      * 
      * @exception InvalidTupleSizeException Invalid tuple size
@@ -256,11 +490,14 @@ public class Scan implements GlobalConst{
  
     dirpageId.pid = _hf._firstDirPageId.pid;  
     nextUserStatus = true;
+    pagePosition = 0;
+    lastPosition = -1;
 
     /** get first directory page and pin it */
     	try {
 	   dirpage  = new HFPage();
        	   pinPage(dirpageId, (Page) dirpage, false);	   
+	   readAheadLeft = 0;
        }
 
     	catch (Exception e) {
@@ -285,6 +522,7 @@ public class Scan implements GlobalConst{
       			    
     	dpinfo = new DataPageInfo(rectuple);
         datapageId.pid = dpinfo.pageId.pid;
+        datapageRecct = dpinfo.recct;
 
     } else {
 
@@ -313,6 +551,8 @@ public class Scan implements GlobalConst{
 	
            dirpage = new HFPage();
 	    pinPage(nextDirPageId, (Page )dirpage, false);
+	    dirpageId.pid = nextDirPageId.pid;
+	    readAheadLeft = 0;
 	
 	    }
 	
@@ -350,6 +590,7 @@ public class Scan implements GlobalConst{
 	  
 	  dpinfo = new DataPageInfo(rectuple);
 	  datapageId.pid = dpinfo.pageId.pid;
+	  datapageRecct = dpinfo.recct;
 	  
          } else {
 	   // heapfile empty
@@ -400,7 +641,6 @@ public class Scan implements GlobalConst{
   {
     DataPageInfo dpinfo;
     
-    boolean nextDataPageStatus;
     PageId nextDirPageId = new PageId();
     Tuple rectuple = null;
 
@@ -435,10 +675,11 @@ public class Scan implements GlobalConst{
 	  e.printStackTrace();
 	}
 	
-      } else {
+      } else if (keepPage(datapageId, datapageRecct)) {
 	
 	// pin first data page
 	try {
+	  readAhead();
 	  datapage  = new HFPage();
 	  pinPage(datapageId, (Page) datapage, false);
 	}
@@ -455,19 +696,22 @@ public class Scan implements GlobalConst{
 	
 	return true;
         }
+      // else the filter passes over the first data page
     }
   
   // ASSERTIONS:
   // - this->datapage, this->datapageId, this->datapageRid valid
-  // - current datapage pinned
+  // - current datapage pinned, unless the filter passed over it
 
     // unpin the current datapage
-    try{
-      unpinPage(datapageId, false /* no dirty */);
-        datapage = null;
-    }
-    catch (Exception e){
+    if (datapage != null) {
+      try{
+        unpinPage(datapageId, false /* no dirty */);
+      }
+      catch (Exception e){
       
+      }
+      datapage = null;
     }
           
     // read next datapagerecord from current directory page
@@ -477,11 +721,15 @@ public class Scan implements GlobalConst{
       return false;
     }
     
+    // data pages the filter turns down are passed over here
+    while (true) {
+    pagePosition += datapageRecct;
+    datapageRecct = 0;
     datapageRid = dirpage.nextRecord(datapageRid);
     
-    if (datapageRid == null) {
-      nextDataPageStatus = false;
-      // we have read all datapage records on the current directory page
+    // we have read all datapage records on the current directory page:
+    // go on to the next directory page that has one
+    while (datapageRid == null) {
       
       // get next directory page
       nextDirPageId = dirpage.getNextPage();
@@ -500,33 +748,31 @@ public class Scan implements GlobalConst{
 		    
       if (nextDirPageId.pid == INVALID_PAGE)
 	return false;
-      else {
-	// ASSERTION:
-	// - nextDirPageId has correct id of the page which is to get
 	
-	dirpageId = nextDirPageId;
+      // ASSERTION:
+      // - nextDirPageId has correct id of the page which is to get
 	
- 	try { 
-	  dirpage  = new HFPage();
-	  pinPage(dirpageId, (Page)dirpage, false);
-	}
+      dirpageId = nextDirPageId;
 	
-	catch (Exception e){
+      try { 
+	dirpage  = new HFPage();
+	pinPage(dirpageId, (Page)dirpage, false);
+	readAheadLeft = 0;
+      }
+	
+      catch (Exception e){
 	  
-	}
+      }
 	
-	if (dirpage == null)
-	  return false;
+      if (dirpage == null)
+	return false;
 	
-    	try {
-	  datapageRid = dirpage.firstRecord();
-	  nextDataPageStatus = true;
-	}
-	catch (Exception e){
-	  nextDataPageStatus = false;
-	  return false;
-	} 
+      try {
+	datapageRid = dirpage.firstRecord();
       }
+      catch (Exception e){
+	return false;
+      } 
     }
     
     // ASSERTION:
@@ -550,8 +796,13 @@ public class Scan implements GlobalConst{
                         
 	dpinfo = new DataPageInfo(rectuple);
 	datapageId.pid = dpinfo.pageId.pid;
+	datapageRecct = dpinfo.recct;
+	if (keepPage(datapageId, datapageRecct))
+	  break;
+    }
 	
  	try {
+	  readAhead();
 	  datapage = new HFPage();
 	  pinPage(dpinfo.pageId, (Page) datapage, false);
 	}
@@ -578,6 +829,56 @@ public class Scan implements GlobalConst{
   }
 
 
+  /** Asks the filter whether to read a data page, and counts the
+   * pages read and passed over.
+   */
+  private boolean keepPage(PageId pageId, int recct)
+  {
+    if (pageFilter != null && !pageFilter.keep(pageId, recct)) {
+      pagesSkipped++;
+      return false;
+    }
+    pagesRead++;
+    return true;
+  }
+
+
+  /** Called before each data page is pinned.  Once the pages of the
+   * last hint are used up, passes the buffer manager the next data
+   * pages listed on the current directory page, starting with the one
+   * at datapageRid, so that they can be read in one go.
+   */
+  private void readAhead()
+  {
+    if (readAheadLeft > 0) {
+      readAheadLeft--;
+      return;
+    }
+
+    int max = SystemDefs.JavabaseBM.getReadAhead();
+    if (max <= 0 || dirpage == null)
+      return;
+
+    PageId[] pageIds = new PageId[max];
+    int count = 0;
+    try {
+      for (RID rid = new RID(datapageRid.pageNo, datapageRid.slotNo);
+	   rid != null && count < max; rid = dirpage.nextRecord(rid)) {
+	DataPageInfo dpinfo = new DataPageInfo(dirpage.getRecord(rid));
+	if (pageFilter != null && !pageFilter.keep(dpinfo.pageId, dpinfo.recct))
+	  continue;
+	pageIds[count++] = new PageId(dpinfo.pageId.pid);
+      }
+    }
+    catch (Exception e) {
+      // only a hint, the pages are read when they are pinned
+    }
+
+    if (count > 1)
+      SystemDefs.JavabaseBM.prefetchPages(pageIds, count);
+    readAheadLeft = Math.max(0, count - 1);
+  }
+
   private boolean peekNext(RID rid) {
     
     if(this.userrid == null) return false;
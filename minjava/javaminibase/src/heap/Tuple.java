@@ -11,9 +11,12 @@ public class Tuple implements GlobalConst{
 
 
  /** 
-  * Maximum size of any tuple
+  * Maximum size of any tuple, one page of the open database
   */
-  public static final int max_size = MINIBASE_PAGESIZE;
+  public static int max_size()
+  {
+    return SystemDefs.JavabasePageSize;
+  }
 
  /** 
    * a byte array to hold data
@@ -51,9 +54,9 @@ public class Tuple implements GlobalConst{
   public  Tuple()
   {
        // Creat a new tuple
-       data = new byte[max_size];
+       data = new byte[max_size()];
        tuple_offset = 0;
-       tuple_length = max_size;
+       tuple_length = max_size();
   }
    
    /** Constructor
@@ -357,7 +360,7 @@ public class Tuple implements GlobalConst{
 public void setHdr (short numFlds,  AttrType types[], short strSizes[])
  throws IOException, InvalidTypeException, InvalidTupleSizeException		
 {
-  if((numFlds +2)*2 > max_size)
+  if((numFlds +2)*2 > max_size())
     throw new InvalidTupleSizeException (null, "TUPLE: TUPLE_TOOBIG_ERROR");
   
   fldCnt = numFlds;
@@ -423,7 +426,7 @@ public void setHdr (short numFlds,  AttrType types[], short strSizes[])
   
   tuple_length = fldOffset[numFlds] - tuple_offset;
 
-  if(tuple_length > max_size)
+  if(tuple_length > max_size())
    throw new InvalidTupleSizeException (null, "TUPLE: TUPLE_TOOBIG_ERROR");
 }
   public void setFldOffset(short[] fldOffset) {
@@ -189,14 +189,9 @@ public class ColumnIndexScan extends Iterator {
     String colNumStr = _relName.substring(_relName.lastIndexOf(".") + 1);
     int colNum = Integer.parseInt(colNumStr);
     Columnarfile cf = new Columnarfile(cfName);
-    RID rid = null;
     int pos = 0;
 
-    KeyDataEntry nextentry = null;
-    nextentry = indScan.get_next();
-    while (nextentry != null) {
-      rid = ((LeafData) nextentry.data).getData();
-      pos = cf.getPositionFromRid(rid, colNum);
+    while ((pos = nextPosition(cf, colNum)) >= 0) {
       if (!cf.isTupleMarkedDeleted(pos)) {
         AttrType[] attrType = new AttrType[1];
         attrType[0] = new AttrType(AttrType.attrInteger);
@@ -206,11 +201,37 @@ public class ColumnIndexScan extends Iterator {
         Jtuple.setIntFld(1, pos);
         return Jtuple;
       }
-      nextentry = indScan.get_next();
     }
     return null;
   }
 
+  /**
+   * the position of the next entry of the index scan, -1 after the last.
+   * Bitmap scans give their positions in batches, with no KeyDataEntry
+   * or RID made for each; a btree entry gives the RID of its position.
+   */
+  private int nextPosition(Columnarfile cf, int colNum)
+      throws ScanIteratorException, IOException, InvalidTupleSizeException, HFException,
+      HFBufMgrException, HFDiskMgrException {
+    if (indScan instanceof BMFileScan || indScan instanceof CBMFileScan) {
+      if (positions == null || nextPosition == positions.length) {
+        if (indScan instanceof BMFileScan)
+          positions = ((BMFileScan) indScan).get_next_positions(POSITION_BATCH);
+        else
+          positions = ((CBMFileScan) indScan).get_next_positions(POSITION_BATCH);
+        nextPosition = 0;
+        if (positions == null)
+          return -1;
+      }
+      return positions[nextPosition++];
+    }
+    KeyDataEntry nextentry = indScan.get_next();
+    if (nextentry == null)
+      return -1;
+    RID rid = ((LeafData) nextentry.data).getData();
+    return cf.getPositionFromRid(rid, colNum);
+  }
+
   /**
    * Cleaning up the index scan, does not remove either the original
    * relation or the index from the database.
@@ -230,11 +251,20 @@ public class ColumnIndexScan extends Iterator {
       }
       if (indScan instanceof BMFileScan) {
         try {
+          ((BMFileScan) indScan).closeBitmapScans();
           ((BitMapFile) indFile).close();
         } catch (Exception e) {
           throw new IndexException(e, "BM error in destroying index scan.");
         }
       }
+      if (indScan instanceof CBMFileScan) {
+        try {
+          ((CBMFileScan) indScan).closeCbitmapScans();
+          ((CBitMapFile) indFile).close();
+        } catch (Exception e) {
+          throw new IndexException(e, "CBM error in destroying index scan.");
+        }
+      }
 
       closeFlag = true;
     }
@@ -246,4 +276,9 @@ public class ColumnIndexScan extends Iterator {
   private Tuple Jtuple;
   private String _relName;
 
+  // positions a bitmap scan gave and get_next has not returned yet
+  private static final int POSITION_BATCH = 1024;
+  private int[] positions;
+  private int nextPosition;
+
 }
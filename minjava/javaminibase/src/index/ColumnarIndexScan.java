@@ -1,9 +1,17 @@
 package index;
 
 import java.io.IOException;
+import java.util.BitSet;
 
+import bitmap.BitMapFile;
+import bitmap.BitmapPredicate;
+import bitmap.CBitMapFile;
+import btree.IndexFile;
+import btree.IntegerKey;
+import btree.KeyClass;
 import btree.KeyDataEntry;
 import btree.LeafData;
+import btree.StringKey;
 import columnar.Columnarfile;
 import global.*;
 import heap.InvalidTupleSizeException;
@@ -11,9 +19,19 @@ import heap.InvalidTypeException;
 import heap.Tuple;
 import iterator.*;
 
+/*
+ * With bitmap or compressed bitmap indexes the predicates are not
+ * scanned one position at a time: they are turned into a
+ * bitmap.BitmapPredicate, evaluated into one bitmap of the matching
+ * positions, less those marked deleted, and get_next_pos scans that.
+ * With btree indexes each predicate is a ColumnIndexScan, and two of
+ * them are sorted and merged.
+ */
 public class ColumnarIndexScan extends Iterator {
 
   private ColumnIndexScan[] _columnIndexScan;
+  private BitSet _positions; // bitmap indexes: the positions left to return
+  private int _nextPos;
   private Sort[] _sort;
   private boolean _indexOnly;
   private String _relName;
@@ -26,6 +44,7 @@ public class ColumnarIndexScan extends Iterator {
   short[] strSizes;
   Tuple tuple1;
   Tuple tuple2;
+  private boolean _merging; // the first tuple of each sort has been read
   Tuple Jtuple;
 
   int[] colNumToScan;
@@ -92,6 +111,11 @@ public class ColumnarIndexScan extends Iterator {
       }
     }
 
+    if (index.indexType == IndexType.Bitmap || index.indexType == IndexType.Cbitmap) {
+      evaluateBitmaps(index, indName, expr);
+      return;
+    }
+
     // open column index scans
     _columnIndexScan = new ColumnIndexScan[colNumToScan.length];
     for (int i = 0; i < colNumToScan.length; i++) {
@@ -123,6 +147,154 @@ public class ColumnarIndexScan extends Iterator {
     }
   }
 
+  /*
+   * A scan of the positions of a columnar file satisfying a boolean tree
+   * of predicates over its bitmap indexes, whose files the caller opened
+   * and closes; the tuples are projected as by the constructor above.
+   */
+  public ColumnarIndexScan(
+      java.lang.String relName,
+      BitmapPredicate predicate,
+      AttrType[] types,
+      short[] str_sizes,
+      int noInFlds,
+      int noOutFlds,
+      FldSpec[] outFlds)
+      throws IndexException,
+      TupleUtilsException,
+      InvalidRelation,
+      IOException {
+
+    this.noInFlds = noInFlds;
+    this.noOutFlds = noOutFlds;
+    this.types = types;
+    this._relName = relName;
+    this.outFlds = outFlds;
+    Jtuple = new Tuple();
+    AttrType[] Jtypes = new AttrType[noOutFlds];
+    TupleUtils.setup_op_tuple(
+        Jtuple, Jtypes, types, noInFlds, str_sizes, outFlds, noOutFlds);
+    evaluate(predicate);
+  }
+
+  // the bitmap of the matching positions that are not marked deleted
+  private void evaluate(BitmapPredicate predicate) throws IndexException {
+    try {
+      Columnarfile f = new Columnarfile(_relName);
+      _positions = predicate.evaluate(f.getTupleCnt());
+      _positions.andNot(f.getDeletionVector().positions());
+      _nextPos = 0;
+    } catch (Exception e) {
+      throw new IndexException(e, "ColumnarIndexScan.java: bitmap predicate not evaluated");
+    }
+  }
+
+  /*
+   * The predicate of each column on its bitmap index, the two of them
+   * combined by AND or OR, evaluated at once.
+   */
+  private void evaluateBitmaps(IndexType index, String[] indName, CondExpr[][] expr)
+      throws IndexException {
+    IndexFile[] files = new IndexFile[colNumToScan.length];
+    try {
+      BitmapPredicate predicate = null;
+      for (int i = 0; i < colNumToScan.length; i++) {
+        String name = indName[colNumToScan[i] - 1];
+        if (index.indexType == IndexType.Bitmap) {
+          files[i] = new BitMapFile(name);
+        } else {
+          files[i] = new CBitMapFile(name);
+        }
+        BitmapPredicate column = bitmapPredicate(files[i], expr[i][0]);
+        if (predicate == null) {
+          predicate = column;
+        } else if (_tidJoin == TIDJoin.AND) {
+          predicate = BitmapPredicate.and(predicate, column);
+        } else {
+          predicate = BitmapPredicate.or(predicate, column);
+        }
+      }
+      evaluate(predicate);
+    } catch (IndexException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IndexException(e, "ColumnarIndexScan.java: bitmap index not opened");
+    } finally {
+      for (int i = 0; i < files.length; i++) {
+        try {
+          if (files[i] instanceof BitMapFile) {
+            ((BitMapFile) files[i]).close();
+          } else if (files[i] instanceof CBitMapFile) {
+            ((CBitMapFile) files[i]).close();
+          }
+        } catch (Exception e) {
+          throw new IndexException(e, "ColumnarIndexScan.java: bitmap index not closed");
+        }
+      }
+    }
+  }
+
+  /*
+   * The positions of one condition, symbol op value or value op
+   * symbol, on a bitmap index: a range of values of the index, less
+   * the value itself for < and >, or the complement of the value for
+   * !=.
+   */
+  private BitmapPredicate bitmapPredicate(IndexFile indFile, CondExpr cond)
+      throws InvalidSelectionException {
+    int op = cond.op.attrOperator;
+    KeyClass key;
+    if (cond.type1.attrType == AttrType.attrSymbol && cond.type2.attrType != AttrType.attrSymbol) {
+      key = keyOf(cond.operand2, cond.type2);
+    } else if (cond.type2.attrType == AttrType.attrSymbol && cond.type1.attrType != AttrType.attrSymbol) {
+      key = keyOf(cond.operand1, cond.type1);
+      // value op symbol is symbol op' value
+      switch (op) {
+        case AttrOperator.aopLT: op = AttrOperator.aopGT; break;
+        case AttrOperator.aopGT: op = AttrOperator.aopLT; break;
+        case AttrOperator.aopLE: op = AttrOperator.aopGE; break;
+        case AttrOperator.aopGE: op = AttrOperator.aopLE; break;
+      }
+    } else {
+      throw new InvalidSelectionException("ColumnarIndexScan.java: Invalid selection condition");
+    }
+    BitmapPredicate equal = values(indFile, key, key);
+    switch (op) {
+      case AttrOperator.aopEQ:
+        return equal;
+      case AttrOperator.aopNE:
+        return BitmapPredicate.not(equal);
+      case AttrOperator.aopLE:
+        return values(indFile, null, key);
+      case AttrOperator.aopLT:
+        return BitmapPredicate.andNot(values(indFile, null, key), equal);
+      case AttrOperator.aopGE:
+        return values(indFile, key, null);
+      case AttrOperator.aopGT:
+        return BitmapPredicate.andNot(values(indFile, key, null), equal);
+      default:
+        throw new InvalidSelectionException("ColumnarIndexScan.java: Invalid selection operator");
+    }
+  }
+
+  private BitmapPredicate values(IndexFile indFile, KeyClass lo, KeyClass hi) {
+    if (indFile instanceof BitMapFile) {
+      return BitmapPredicate.values((BitMapFile) indFile, lo, hi);
+    }
+    return BitmapPredicate.values((CBitMapFile) indFile, lo, hi);
+  }
+
+  private KeyClass keyOf(Operand operand, AttrType type) throws InvalidSelectionException {
+    switch (type.attrType) {
+      case AttrType.attrInteger:
+        return new IntegerKey(operand.integer);
+      case AttrType.attrString:
+        return new StringKey(operand.string);
+      default:
+        throw new InvalidSelectionException("ColumnarIndexScan.java: Only Integer and String keys are supported");
+    }
+  }
+
   public Tuple get_next()
       throws Exception {
     TID tid = get_next_TID();
@@ -148,6 +320,14 @@ public class ColumnarIndexScan extends Iterator {
 
   public Integer get_next_pos()
       throws Exception {
+    if (_positions != null) {
+      int pos = _positions.nextSetBit(_nextPos);
+      if (pos < 0) {
+        return null;
+      }
+      _nextPos = pos + 1;
+      return pos;
+    }
     Columnarfile f = new Columnarfile(_relName);
     if (colNumToScan.length == 1) {
       KeyDataEntry entry = _columnIndexScan[0].get_next_KeyDataEntry();
@@ -159,9 +339,10 @@ public class ColumnarIndexScan extends Iterator {
       return position;
     }
     if (_tidJoin == TIDJoin.AND) {
-      if (tuple1 == null || tuple2 == null) {
+      if (!_merging) {
         tuple1 = _sort[0].get_next();
         tuple2 = _sort[1].get_next();
+        _merging = true;
       }
       while (tuple1 != null && tuple2 != null) {
         int value1 = tuple1.getIntFld(1);
@@ -179,9 +360,10 @@ public class ColumnarIndexScan extends Iterator {
       return null;
     }
     if (_tidJoin == TIDJoin.OR) {
-      if (tuple1 == null || tuple2 == null) {
+      if (!_merging) {
         tuple1 = _sort[0].get_next();
         tuple2 = _sort[1].get_next();
+        _merging = true;
       }
       while (tuple1 != null || tuple2 != null) {
         if (tuple1 == null) {
@@ -215,7 +397,7 @@ public class ColumnarIndexScan extends Iterator {
 
   public void close() throws IOException, IndexException, SortException {
     if (!closeFlag) {
-      for (int i = 0; i < _columnIndexScan.length; i++) {
+      for (int i = 0; _columnIndexScan != null && i < _columnIndexScan.length; i++) {
         _columnIndexScan[i].close();
       }
       if (_sort != null) {
@@ -5,12 +5,26 @@ import heap.*;
 import global.*;
 import bufmgr.*;
 import columnar.Columnarfile;
+import columnar.DeletionVector;
 import columnar.TupleScan;
+import columnar.ZoneMap;
 import java.io.*;
+import java.util.BitSet;
 
 /**
  * open a heapfile and according to the condition expression to get
  * output file, call get_next to get all tuples
+ *
+ * When the zone maps of the columns (see columnar.ZoneMap) rule out
+ * some pages for the condition, the scan reads only the positions that
+ * are left, through the position to RID map of each column, instead of
+ * every tuple.  getPagesPruned and getPagesScanned tell how many data
+ * pages that kept from being read.
+ *
+ * Deleted tuples are skipped with the file's deletion vector (see
+ * columnar.DeletionVector), read once when the scan is opened: the
+ * candidate positions lose the deleted ones in one step, and the full
+ * scan tests one bit per tuple.
  */
 public class ColumnarFileScan extends Iterator {
   private AttrType[] _in1;
@@ -24,6 +38,11 @@ public class ColumnarFileScan extends Iterator {
   private int nOutFlds;
   private CondExpr[] OutputFilter;
   public FldSpec[] perm_mat;
+  private BitSet candidates = null;
+  private DeletionVector deleted;
+  private int next = 0;
+  private int pagesScanned = 0;
+  private int pagesPruned = 0;
 
   /**
    * constructor
@@ -81,12 +100,50 @@ public class ColumnarFileScan extends Iterator {
     }
 
     try {
-      scan = f.openTupleScan();
+      deleted = f.getDeletionVector();
+      int pages = 0, positions = 0;
+      for (int i = 0; i < in1_len; i++) {
+        Heapfile hf = new Heapfile(file_name + "." + Integer.toString(i + 1));
+        pages += hf.getDataPages().length;
+        positions = hf.getRecCnt();
+      }
+      if (ColumnarLateScan.supports(outFilter, in1)) {
+        ZoneMap zoneMap = f.getZoneMap();
+        BitSet left = zoneMap.candidates(outFilter);
+        if (left != null && left.cardinality() < positions) {
+          candidates = left;
+          candidates.andNot(deleted.positions());
+          pagesPruned = zoneMap.prunedPages(left);
+        }
+      }
+      pagesScanned = pages - pagesPruned;
     } catch (Exception e) {
-      throw new FileScanException(e, "openScan() failed");
+      throw new FileScanException(e, "zone map lookup failed");
+    }
+
+    if (candidates == null) {
+      try {
+        scan = f.openTupleScan();
+      } catch (Exception e) {
+        throw new FileScanException(e, "openScan() failed");
+      }
     }
   }
 
+  /**
+   * @return the data pages, over all columns, the scan reads
+   */
+  public int getPagesScanned() {
+    return pagesScanned;
+  }
+
+  /**
+   * @return the data pages, over all columns, the zone maps ruled out
+   */
+  public int getPagesPruned() {
+    return pagesPruned;
+  }
+
   /**
    * @return shows what input fields go where in the output tuple
    */
@@ -153,12 +210,26 @@ public class ColumnarFileScan extends Iterator {
       WrongPermat,
       Exception {
 
+    while (candidates != null) {
+      int position = candidates.nextSetBit(next);
+      if (position < 0) {
+        return null;
+      }
+      next = position + 1;
+      tid.copyTid(f.getTidFromPosition(position));
+      tuple1 = f.getTuple(tid);
+      if (PredEval.Eval(OutputFilter, tuple1, null, _in1, null) == true) {
+        Projection.Project(tuple1, _in1, Jtuple, perm_mat, nOutFlds);
+        return Jtuple;
+      }
+    }
+
     while (true) {
       if ((tuple1 = scan.getNext(tid)) == null) {
         return null;
       }
 
-      if (f.isTupleMarkedDeleted(tid.position)) {
+      if (deleted.isDeleted(tid.position)) {
         continue;
       }
 
@@ -176,7 +247,9 @@ public class ColumnarFileScan extends Iterator {
   public void close() {
 
     if (!closeFlag) {
-      scan.closetuplescan();
+      if (scan != null) {
+        scan.closetuplescan();
+      }
       closeFlag = true;
     }
   }
@@ -0,0 +1,487 @@
+package iterator;
+
+import heap.*;
+import global.*;
+import bufmgr.*;
+import diskmgr.PCounter;
+import columnar.Columnarfile;
+import columnar.ColumnDictionary;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A scan of a columnar file that materializes tuples late.  Where
+ * ColumnarFileScan rebuilds every column of every tuple before it
+ * evaluates the filter, this scan
+ * <ol>
+ * <li> scans only the columns the filter names, a block at a time and
+ *      passing over the pages the column's zone map rules out (see
+ *      columnar.ZoneMap), and turns every predicate into the list of
+ *      the positions it holds at; a dictionary-encoded string column
+ *      is scanned as its codes, with each predicate decided once per
+ *      distinct value, an equality by a single lookup, and a packed int
+ *      column as runs of equal values, with each predicate decided
+ *      once per run,
+ * <li> unions the lists of the predicates ORed in a CondExpr and
+ *      intersects the lists of the CondExprs of the filter,
+ * <li> fetches the projected columns of the surviving positions only,
+ *      in position order, through the position to RID map of each
+ *      column heapfile.
+ * </ol>
+ * Steps 1 and 2 run in the constructor; get_next does step 3 one tuple
+ * at a time.  Deleted positions never make it into the lists.  The page
+ * reads of the two parts are kept apart (getPredicateReads and
+ * getFetchReads) so they can be set against those of ColumnarFileScan,
+ * as are the filter column pages scanned and pruned (getPagesScanned
+ * and getPagesPruned).
+ *
+ * Only filters that compare a column of the outer relation with a
+ * constant of the column's type are taken, see supports().
+ */
+public class ColumnarLateScan extends Iterator {
+  // values read from a filter column at a time
+  public static final int BATCH_SIZE = 1024;
+
+  private AttrType[] _in1;
+  private Columnarfile f;
+  private Heapfile[] columns;
+  private ColumnDictionary[] dictionaries;
+  private Tuple Jtuple;
+  private int nOutFlds;
+  private BitSet positions;
+  private int next = 0;
+  private int predicateReads;
+  private int fetchReads = 0;
+  private int pagesScanned = 0;
+  private int pagesPruned = 0;
+  public FldSpec[] perm_mat;
+
+  /**
+   * constructor
+   *
+   * @param file_name  columnar file to be opened
+   * @param in1[]      array showing what the attributes of the input fields are.
+   * @param s1_sizes[] shows the length of the string fields.
+   * @param len_in1    number of attributes in the input tuple
+   * @param n_out_flds number of fields in the out tuple
+   * @param proj_list  shows what input fields go where in the output tuple
+   * @param outFilter  select expressions
+   * @exception IOException         some I/O fault
+   * @exception FileScanException   exception from this class
+   * @exception TupleUtilsException exception from this class
+   * @exception InvalidRelation     invalid relation
+   */
+  public ColumnarLateScan(String file_name,
+      AttrType in1[],
+      short s1_sizes[],
+      short len_in1,
+      int n_out_flds,
+      FldSpec[] proj_list,
+      CondExpr[] outFilter)
+      throws IOException,
+      FileScanException,
+      TupleUtilsException,
+      InvalidRelation {
+    if (!supports(outFilter, in1)) {
+      throw new FileScanException(null, "filter is not a set of column-constant comparisons");
+    }
+    _in1 = in1;
+
+    Jtuple = new Tuple();
+    AttrType[] Jtypes = new AttrType[n_out_flds];
+    TupleUtils.setup_op_tuple(
+        Jtuple, Jtypes, in1, len_in1, s1_sizes, proj_list, n_out_flds);
+    perm_mat = proj_list;
+    nOutFlds = n_out_flds;
+
+    int reads = PCounter.getReadCount();
+    try {
+      f = new Columnarfile(file_name);
+      columns = new Heapfile[len_in1];
+      dictionaries = new ColumnDictionary[len_in1];
+      for (int i = 0; i < len_in1; i++) {
+        columns[i] = new Heapfile(file_name + "." + Integer.toString(i + 1));
+        dictionaries[i] = f.getDictionary(i + 1);
+      }
+    } catch (Exception e) {
+      throw new FileScanException(e, "Open columnar file failed");
+    }
+
+    try {
+      positions = select(outFilter);
+    } catch (Exception e) {
+      throw new FileScanException(e, "Predicate scan failed");
+    }
+    predicateReads = PCounter.getReadCount() - reads;
+  }
+
+  /**
+   * Tells if the filter is one this scan takes: every predicate has a
+   * column of the outer relation on the left and a constant of that
+   * column's type on the right.
+   *
+   * @param filter the select expressions, null for none
+   * @param in1[]  the attribute types of the columns
+   * @return true if a ColumnarLateScan can evaluate the filter
+   */
+  public static boolean supports(CondExpr[] filter, AttrType in1[]) {
+    if (filter == null) {
+      return true;
+    }
+    for (int i = 0; i < filter.length && filter[i] != null; i++) {
+      for (CondExpr p = filter[i]; p != null; p = p.next) {
+        if (p.type1.attrType != AttrType.attrSymbol
+            || p.operand1.symbol.relation.key != RelSpec.outer) {
+          return false;
+        }
+        int column = p.operand1.symbol.offset;
+        if (column < 1 || column > in1.length
+            || p.type2.attrType != in1[column - 1].attrType) {
+          return false;
+        }
+        if (p.op.attrOperator > AttrOperator.aopNOT) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return shows what input fields go where in the output tuple
+   */
+  public FldSpec[] show() {
+    return perm_mat;
+  }
+
+  /**
+   * @return the number of positions that passed the filter
+   */
+  public int getPositionCount() {
+    return positions.cardinality();
+  }
+
+  /**
+   * @return the pages read to scan the filter columns
+   */
+  public int getPredicateReads() {
+    return predicateReads;
+  }
+
+  /**
+   * @return the pages read so far to fetch the projected columns
+   */
+  public int getFetchReads() {
+    return fetchReads;
+  }
+
+  /**
+   * @return the data pages of the filter columns that were scanned
+   */
+  public int getPagesScanned() {
+    return pagesScanned;
+  }
+
+  /**
+   * @return the data pages of the filter columns the zone map ruled out
+   */
+  public int getPagesPruned() {
+    return pagesPruned;
+  }
+
+  // steps 1 and 2: the positions that pass the filter
+  private BitSet select(CondExpr[] filter)
+      throws Exception {
+    int clauses = 0;
+    while (filter != null && clauses < filter.length && filter[clauses] != null) {
+      clauses++;
+    }
+    BitSet deleted = f.getDeletedPositions();
+    if (clauses == 0) {
+      BitSet all = new BitSet();
+      all.set(0, columns[0].getRecCnt());
+      all.andNot(deleted);
+      return all;
+    }
+
+    BitSet[] lists = new BitSet[clauses];
+    for (int i = 0; i < clauses; i++) {
+      lists[i] = new BitSet();
+    }
+    // each filter column is scanned once, for all the predicates on it
+    for (int c = 1; c <= _in1.length; c++) {
+      List<CondExpr> preds = new ArrayList<CondExpr>();
+      List<BitSet> into = new ArrayList<BitSet>();
+      for (int i = 0; i < clauses; i++) {
+        for (CondExpr p = filter[i]; p != null; p = p.next) {
+          if (p.operand1.symbol.offset == c) {
+            preds.add(p);
+            into.add(lists[i]);
+          }
+        }
+      }
+      if (!preds.isEmpty()) {
+        scanColumn(c, preds.toArray(new CondExpr[preds.size()]),
+            into.toArray(new BitSet[into.size()]), deleted);
+      }
+    }
+
+    for (int i = 1; i < clauses; i++) {
+      lists[0].and(lists[i]);
+    }
+    return lists[0];
+  }
+
+  // sets in lists[j] the live positions where preds[j] holds, reading
+  // only the pages of the column the zone map cannot rule out
+  private void scanColumn(int c, CondExpr[] preds, BitSet[] lists, BitSet deleted)
+      throws Exception {
+    Scan scan = f.openColumnScan(c, preds);
+    try {
+      int n;
+      switch (_in1[c - 1].attrType) {
+        case AttrType.attrInteger:
+          if (f.isPacked(c)) {
+            int[] values = new int[BATCH_SIZE];
+            int[] starts = new int[BATCH_SIZE];
+            int[] lengths = new int[BATCH_SIZE];
+            while ((n = scan.getNextIntRuns(values, starts, lengths)) > 0) {
+              for (int j = 0; j < preds.length; j++) {
+                int op = preds[j].op.attrOperator;
+                int ival = preds[j].operand2.integer;
+                for (int r = 0; r < n; r++) {
+                  if (holds(op, values[r] < ival ? -1 : values[r] > ival ? 1 : 0)) {
+                    lists[j].set(starts[r], starts[r] + lengths[r]);
+                  }
+                }
+              }
+            }
+            for (int j = 0; j < preds.length; j++) {
+              lists[j].andNot(deleted);
+            }
+            break;
+          }
+          int[] ints = new int[BATCH_SIZE];
+          while ((n = scan.getNextInts(ints)) > 0) {
+            int first = scan.getPosition();
+            for (int j = 0; j < preds.length; j++) {
+              int op = preds[j].op.attrOperator;
+              int ival = preds[j].operand2.integer;
+              for (int r = 0; r < n; r++) {
+                if (holds(op, ints[r] < ival ? -1 : ints[r] > ival ? 1 : 0)
+                    && !deleted.get(first + r)) {
+                  lists[j].set(first + r);
+                }
+              }
+            }
+          }
+          break;
+        case AttrType.attrReal:
+          float[] floats = new float[BATCH_SIZE];
+          while ((n = scan.getNextFloats(floats)) > 0) {
+            int first = scan.getPosition();
+            for (int j = 0; j < preds.length; j++) {
+              int op = preds[j].op.attrOperator;
+              float fval = preds[j].operand2.real;
+              for (int r = 0; r < n; r++) {
+                if (holds(op, floats[r] < fval ? -1 : floats[r] > fval ? 1 : 0)
+                    && !deleted.get(first + r)) {
+                  lists[j].set(first + r);
+                }
+              }
+            }
+          }
+          break;
+        default:
+          if (dictionaries[c - 1] != null) {
+            BitSet[] matching = new BitSet[preds.length];
+            for (int j = 0; j < preds.length; j++) {
+              matching[j] = codesMatching(dictionaries[c - 1], preds[j]);
+            }
+            int[] codes = new int[BATCH_SIZE];
+            while ((n = scan.getNextInts(codes)) > 0) {
+              int first = scan.getPosition();
+              for (int j = 0; j < preds.length; j++) {
+                for (int r = 0; r < n; r++) {
+                  if (matching[j].get(codes[r]) && !deleted.get(first + r)) {
+                    lists[j].set(first + r);
+                  }
+                }
+              }
+            }
+            break;
+          }
+          RID rid = new RID();
+          Tuple t;
+          while ((t = scan.getNext(rid)) != null) {
+            int position = scan.getPosition();
+            if (deleted.get(position)) {
+              continue;
+            }
+            byte[] data = t.getTupleByteArray();
+            String value = Convert.getStrValue(0, data, data.length);
+            for (int j = 0; j < preds.length; j++) {
+              if (holds(preds[j].op.attrOperator, value.compareTo(preds[j].operand2.string))) {
+                lists[j].set(position);
+              }
+            }
+          }
+          break;
+      }
+      pagesScanned += scan.getPagesRead();
+      pagesPruned += scan.getPagesSkipped();
+    } finally {
+      scan.closescan();
+    }
+  }
+
+  // the codes of the values of a dictionary the predicate holds for
+  private static BitSet codesMatching(ColumnDictionary dictionary, CondExpr p) {
+    BitSet codes = new BitSet();
+    String value = p.operand2.string;
+    if (p.op.attrOperator == AttrOperator.aopEQ) {
+      int code = dictionary.lookup(value);
+      if (code >= 0) {
+        codes.set(code);
+      }
+      return codes;
+    }
+    int size = dictionary.size();
+    for (int code = 0; code < size; code++) {
+      if (holds(p.op.attrOperator, dictionary.decode(code).compareTo(value))) {
+        codes.set(code);
+      }
+    }
+    return codes;
+  }
+
+  // the comparisons of PredEval.Eval
+  private static boolean holds(int op, int comp_res) {
+    switch (op) {
+      case AttrOperator.aopEQ:
+        return comp_res == 0;
+      case AttrOperator.aopLT:
+        return comp_res < 0;
+      case AttrOperator.aopGT:
+        return comp_res > 0;
+      case AttrOperator.aopNE:
+        return comp_res != 0;
+      case AttrOperator.aopLE:
+        return comp_res <= 0;
+      case AttrOperator.aopGE:
+        return comp_res >= 0;
+      case AttrOperator.aopNOT:
+        return comp_res != 0;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * @return the result tuple
+   * @exception JoinsException                 some join exception
+   * @exception IOException                    I/O errors
+   * @exception InvalidTupleSizeException      invalid tuple size
+   * @exception InvalidTypeException           tuple type not valid
+   * @exception PageNotReadException           exception from lower layer
+   * @exception PredEvalException              exception from PredEval class
+   * @exception UnknowAttrType                 attribute type unknown
+   * @exception FieldNumberOutOfBoundException array out of bounds
+   * @exception WrongPermat                    exception for wrong FldSpec
+   *                                           argument
+   * @exception Exception                      other exceptions
+   */
+  public Tuple get_next()
+      throws JoinsException,
+      IOException,
+      InvalidTupleSizeException,
+      InvalidTypeException,
+      PageNotReadException,
+      PredEvalException,
+      UnknowAttrType,
+      FieldNumberOutOfBoundException,
+      WrongPermat,
+      Exception {
+    TID tid = new TID(Columnarfile.numColumns);
+    return get_next(tid);
+  }
+
+  /**
+   * Step 3: fetches the projected columns of the next surviving
+   * position.  As with ColumnarFileScan.get_next(TID), the tid is set
+   * to the whole TID of the tuple, so it can be given to
+   * Columnarfile.markTupleDeleted; only the RIDs of the columns that
+   * are not projected cost no page reads.
+   *
+   * @param tid TID will be set the TID of the returned tuple
+   * @return the result tuple
+   * @exception Exception other exceptions
+   */
+  public Tuple get_next(TID tid)
+      throws JoinsException,
+      IOException,
+      InvalidTupleSizeException,
+      InvalidTypeException,
+      PageNotReadException,
+      PredEvalException,
+      UnknowAttrType,
+      FieldNumberOutOfBoundException,
+      WrongPermat,
+      Exception {
+    int position = positions.nextSetBit(next);
+    if (position < 0) {
+      return null;
+    }
+    next = position + 1;
+
+    int reads = PCounter.getReadCount();
+    RID[] recordIDs = new RID[columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      recordIDs[i] = columns[i].getRidFromPosition(position);
+    }
+    for (int i = 0; i < nOutFlds; i++) {
+      if (perm_mat[i].relation.key != RelSpec.outer) {
+        throw new WrongPermat("something went wrong in ColumnarLateScan.get_next");
+      }
+      int c = perm_mat[i].offset - 1;
+      byte[] data = columns[c].getRecordNoCheck(recordIDs[c]).getTupleByteArray();
+      switch (_in1[c].attrType) {
+        case AttrType.attrInteger:
+          Jtuple.setIntFld(i + 1, Convert.getIntValue(0, data));
+          break;
+        case AttrType.attrReal:
+          Jtuple.setFloFld(i + 1, Convert.getFloValue(0, data));
+          break;
+        case AttrType.attrString:
+          if (dictionaries[c] != null) {
+            Jtuple.setStrFld(i + 1, dictionaries[c].decode(Convert.getIntValue(0, data)));
+          } else {
+            Jtuple.setStrFld(i + 1, Convert.getStrValue(0, data, data.length));
+          }
+          break;
+        default:
+          throw new UnknowAttrType(null, "Don't know how to handle attrSymbol, attrNull");
+      }
+    }
+    fetchReads += PCounter.getReadCount() - reads;
+
+    tid.numRIDs = recordIDs.length;
+    tid.position = position;
+    tid.recordIDs = recordIDs;
+    return Jtuple;
+  }
+
+  /**
+   * implement the abstract method close() from super class Iterator
+   * to finish cleaning up
+   */
+  public void close() {
+    if (!closeFlag) {
+      positions = new BitSet();
+      closeFlag = true;
+    }
+  }
+
+}
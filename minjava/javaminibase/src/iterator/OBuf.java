@@ -39,7 +39,7 @@ public class OBuf implements GlobalConst{
       _temp_fd = temp_fd;
       
       dirty       = false;
-      t_per_pg    = MINIBASE_PAGESIZE / t_size;
+      t_per_pg    = SystemDefs.JavabasePageSize / t_size;
       t_in_buf    = n_pages * t_per_pg;
       t_wr_to_pg  = 0;
       t_wr_to_buf = 0;
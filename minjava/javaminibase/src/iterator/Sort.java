@@ -615,7 +615,7 @@ public class Sort extends Iterator implements GlobalConst
       }
     }
     else {
-      for (int k=0; k<_n_pages; k++) bufs[k] = new byte[MAX_SPACE];
+      for (int k=0; k<_n_pages; k++) bufs[k] = new byte[SystemDefs.JavabasePageSize];
     }
     
     first_time = true;
@@ -728,6 +728,10 @@ public class Sort extends Iterator implements GlobalConst
 	for (int i=0; i<_n_pages; i++) bufs_pids[i].pid = INVALID_PAGE;
       }
       
+      for (int i = 0; i_buf != null && i < i_buf.length; i++) {
+	i_buf[i].close();
+      }
+      
       for (int i = 0; i<temp_files.length; i++) {
 	if (temp_files[i] != null) {
 	  try {
@@ -41,7 +41,7 @@ public class SpoofIbuf implements GlobalConst  {
       t_proc    = 0;        t_in_buf     = 0;
       tot_t_proc= 0;
       curr_page = 0;        t_rd_from_pg = 0;
-      done      = false;    t_per_pg     = MINIBASE_PAGESIZE / t_size;
+      done      = false;    t_per_pg     = SystemDefs.JavabasePageSize / t_size;
      
       
       n_tuples = Ntuples;
@@ -71,7 +71,7 @@ public class SpoofIbuf implements GlobalConst  {
     {
       if (tot_t_proc == n_tuples) done = true;
       
-      if (done == true){buf = null; return null;}
+      if (done == true){close(); buf = null; return null;}
       if (t_proc == t_in_buf)
 	{
 	  try {
@@ -85,7 +85,7 @@ public class SpoofIbuf implements GlobalConst  {
       
       if (t_in_buf == 0)                        // No tuples read in?
 	{
-	  done = true; buf = null;return null;
+	  done = true; close(); buf = null;return null;
 	}
  
       buf.tupleSet(_bufs[curr_page],t_rd_from_pg*t_size,t_size); 
@@ -107,6 +107,7 @@ public class SpoofIbuf implements GlobalConst  {
   public  boolean empty()
     {
       if (tot_t_proc == n_tuples) done = true;
+      if (done) close();
       return done;
     }
   
@@ -145,6 +146,19 @@ public class SpoofIbuf implements GlobalConst  {
     }
   
   
+  /**
+   *close the scan of the run, which is done once it is used up, so
+   *that its pages are not left pinned when the run is deleted
+   */
+  void close()
+    {
+      if (hf_scan != null) {
+	hf_scan.closescan();
+	hf_scan = null;
+      }
+    }
+  
+  
   private  byte[][] _bufs;
   
   private  int   TEST_fd;
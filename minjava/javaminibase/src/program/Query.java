@@ -254,6 +254,18 @@ public class Query {
               vc1, vc2, op, isDelete);
         }
         break;
+      case "BITMAP_COUNT":
+      case "CBITMAP_COUNT":
+      case "BITMAP_GROUPCOUNT":
+      case "CBITMAP_GROUPCOUNT":
+        // counts from the bitmap indexes alone, without the tuples
+        if (isDelete) {
+          System.err.println("[x] Invalid access type for a delete: " + accessType);
+          throw new IllegalArgumentException("Invalid access type");
+        }
+        count = QueryHelper.executeBitMapCount(f.get_fileName(), accessType.startsWith("CBITMAP"),
+            vc1, (vc.length == 7) ? vc2 : null, op, accessType.endsWith("GROUPCOUNT"));
+        break;
       default:
         System.err.println("[x] Invalid access type: " + accessType);
         throw new IllegalArgumentException("Invalid access type");
@@ -394,11 +406,13 @@ public class Query {
       CondExpr[] expr,
       boolean isDelete)
       throws CFException {
+    if (ColumnarLateScan.supports(expr, f.type)) {
+      return execLateScan(f, projlist, projtypes, expr, isDelete);
+    }
     int count = 0;
 
     // open columnar file scan
     ColumnarFileScan cfscan;
-    BTreeFile btf = null;
     try {
       cfscan = new ColumnarFileScan(
           f.get_fileName(),
@@ -408,7 +422,6 @@ public class Query {
           (short) projlist.length,
           projlist,
           expr);
-      btf = new BTreeFile(f.get_fileName() + ".deletedBTree");
     } catch (Exception e) {
       System.err.println("[x] Error opening file scan");
       throw new CFException(e, "Error opening ColumnarFileScan");
@@ -433,7 +446,6 @@ public class Query {
       // close columnar file scan
       try {
         cfscan.close();
-        btf.close();
       } catch (Exception e) {
         System.err.println("[x] Error closing ColumnarFileScan");
         throw new CFException(e, "Error closing ColumnarFileScan");
@@ -442,6 +454,56 @@ public class Query {
     return count;
   }
 
+  // scans only the filter columns, then fetches the projected columns of
+  // the positions that pass; see iterator.ColumnarLateScan
+  private static int execLateScan(
+      Columnarfile f,
+      FldSpec[] projlist,
+      AttrType[] projtypes,
+      CondExpr[] expr,
+      boolean isDelete)
+      throws CFException {
+    int count = 0;
+
+    ColumnarLateScan lscan;
+    try {
+      lscan = new ColumnarLateScan(
+          f.get_fileName(),
+          f.type,
+          f.strSizes,
+          (short) Columnarfile.numColumns,
+          (short) projlist.length,
+          projlist,
+          expr);
+    } catch (Exception e) {
+      System.err.println("[x] Error opening late scan");
+      throw new CFException(e, "Error opening ColumnarLateScan");
+    }
+
+    try {
+      TID tid = new TID(Columnarfile.numColumns);
+      Tuple tuple = lscan.get_next(tid);
+      while (tuple != null) {
+        tuple.print(projtypes);
+        if (isDelete) {
+          f.markTupleDeleted(tid);
+        }
+        count++;
+        tuple = lscan.get_next(tid);
+      }
+    } catch (Exception e) {
+      System.err.println("[x] Error getting next tuple");
+      throw new CFException(e, "Error getting next tuple");
+    } finally {
+      lscan.close();
+    }
+    System.out.println("Filter Page Reads: " + lscan.getPredicateReads());
+    System.out.println("Fetch Page Reads: " + lscan.getFetchReads());
+    System.out.println("Pages Scanned: " + lscan.getPagesScanned());
+    System.out.println("Pages Pruned: " + lscan.getPagesPruned());
+    return count;
+  }
+
   static Columnarfile colscan_f = null;
   static Scan[] colscan_scans = null;
   static AttrType[] colscan_evalTypes = null;
@@ -503,6 +565,9 @@ public class Query {
       CondExpr[] expr,
       boolean isDelete)
       throws CFException {
+    if (ColumnarLateScan.supports(expr, f.type)) {
+      return execLateScan(f, projlist, projtypes, expr, isDelete);
+    }
     int count = 0;
 
     // reconstructing the expr to get the column numbers to scan
@@ -524,12 +589,10 @@ public class Query {
 
     // open column scans
     Scan[] scans = new Scan[colNumToScan.length];
-    BTreeFile btf = null;
     try {
       for (int i = 0; i < colNumToScan.length; i++) {
         scans[i] = f.openColumnScan(colNumToScan[i]);
       }
-      btf = new BTreeFile(f.get_fileName() + ".deletedBTree");
     } catch (Exception e) {
       System.err.println("[x] Error opening column scan");
       throw new CFException(e, "Error opening column scan");
@@ -616,7 +679,6 @@ public class Query {
         for (int i = 0; i < scans.length; i++) {
           scans[i].closescan();
         }
-        btf.close();
       } catch (Exception e) {
         System.err.println("[x] Error closing iterator");
         throw new CFException(e, "Error closing iterator");
@@ -653,7 +715,6 @@ public class Query {
     }
 
     ColumnarIndexScan ciscan;
-    BTreeFile btf = null;
     try {
       ciscan = new ColumnarIndexScan(
           f.get_fileName(), // relName
@@ -667,7 +728,6 @@ public class Query {
           projlist, // outFlds
           expr, // selects
           false); // indexOnly
-      btf = new BTreeFile(f.get_fileName() + ".deletedBTree");
     } catch (Exception e) {
       System.err.println("[x] Error opening index scan");
       throw new CFException(e, "Error opening ColumnarIndexScan");
@@ -688,7 +748,6 @@ public class Query {
     } finally {
       // close columnar file scan
       try {
-        btf.close();
         ciscan.close();
       } catch (Exception e) {
         System.err.println("[x] Error closing ColumnarFileScan");
@@ -1406,4 +1406,119 @@ public class QueryHelper {
     }
     return count;
   }
+
+  /*
+   * Method to count the matches of a query from Bitmap indexes alone
+   * Takes a columnar file, whether to use its compressed bitmaps, the
+   * conditions of the query (valueConstraintsC2 null for one condition,
+   * else combined by constraint), & whether to count each value of the
+   * column of the one condition (GROUP BY) rather than all matches.
+   * The counts come from the popcounts and run lengths of the bitmap
+   * pages, less the positions marked deleted; no tuple is read.
+   * Returns the total count.
+   */
+  public static int executeBitMapCount(String columnarFileName, boolean compressed,
+      String[] valueConstraintsC1, String[] valueConstraintsC2, int constraint, boolean groupBy) {
+    int total = 0;
+    IndexFile[] files = new IndexFile[2];
+    int[] columns = new int[2];
+    try {
+      Columnarfile columnarFile = new Columnarfile(columnarFileName);
+      BitmapPredicate predicate = countPredicate(columnarFile, compressed, valueConstraintsC1, files, columns, 0);
+      if (valueConstraintsC2 != null) {
+        if (groupBy) {
+          System.out.println("GROUP BY counts take one condition");
+          return 0;
+        }
+        BitmapPredicate predicateB = countPredicate(columnarFile, compressed, valueConstraintsC2, files, columns, 1);
+        if (AND_OP == constraint) {
+          predicate = BitmapPredicate.and(predicate, predicateB);
+        } else {
+          predicate = BitmapPredicate.or(predicate, predicateB);
+        }
+      }
+      BitSet deleted = columnarFile.getDeletionVector().positions();
+      if (groupBy) {
+        TreeMap<Object, Integer> counts = predicate.groupCount(deleted);
+        java.util.Iterator<Map.Entry<Object, Integer>> it = counts.entrySet().iterator();
+        while (it.hasNext()) {
+          Map.Entry<Object, Integer> entry = it.next();
+          System.out.println("{" + entry.getKey() + ", " + entry.getValue() + "}");
+          total += entry.getValue();
+        }
+      } else {
+        total = predicate.count(columnarFile.getTupleCnt(), deleted);
+        System.out.println("{" + total + "}");
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+    } finally {
+      for (int i = 0; i < files.length; i++) {
+        try {
+          if (files[i] instanceof BitMapFile) {
+            ((BitMapFile) files[i]).close();
+          } else if (files[i] instanceof CBitMapFile) {
+            ((CBitMapFile) files[i]).close();
+          }
+        } catch (Exception e) {
+          e.printStackTrace();
+        }
+      }
+    }
+    return total;
+  }
+
+  /*
+   * The predicate of one condition (in format "<column> <expression> <value>")
+   * on the bitmap index of its column, which is opened into files[i] for
+   * column columns[i]; the same index serves both conditions on one column
+   */
+  private static BitmapPredicate countPredicate(Columnarfile columnarFile, boolean compressed,
+      String[] valueConstraints, IndexFile[] files, int[] columns, int i) throws Exception {
+    String columnName = valueConstraints[0];
+    String operator = valueConstraints[1];
+    String value = valueConstraints[2];
+    int columnNumber = Arrays.asList(columnarFile.columnNames).indexOf(columnName) + 1;
+    String bmFileName = columnarFile.get_fileName() + (compressed ? ".cbitmap" : ".bitmap")
+        + Integer.toString(columnNumber);
+
+    IndexFile indFile;
+    if (i > 0 && columnNumber == columns[0]) {
+      indFile = files[0];
+    } else {
+      indFile = compressed ? (IndexFile) new CBitMapFile(bmFileName) : (IndexFile) new BitMapFile(bmFileName);
+      files[i] = indFile;
+      columns[i] = columnNumber;
+    }
+
+    KeyClass key;
+    if (columnarFile.type[columnNumber - 1].attrType == AttrType.attrInteger) {
+      key = new IntegerKey(Integer.parseInt(value));
+    } else {
+      key = new StringKey(value);
+    }
+
+    BitmapPredicate equal = countValues(indFile, key, key);
+    if (operator.equals("RANGE")) {
+      return countValues(indFile, null, null);
+    } else if (operator.equals("<=")) {
+      return countValues(indFile, null, key);
+    } else if (operator.equals("<")) {
+      return BitmapPredicate.andNot(countValues(indFile, null, key), equal);
+    } else if (operator.equals(">=")) {
+      return countValues(indFile, key, null);
+    } else if (operator.equals(">")) {
+      return BitmapPredicate.andNot(countValues(indFile, key, null), equal);
+    } else if (operator.equals("!=") || operator.equals("NOT")) {
+      return BitmapPredicate.andNot(countValues(indFile, null, null), equal);
+    }
+    return equal;
+  }
+
+  private static BitmapPredicate countValues(IndexFile indFile, KeyClass lo, KeyClass hi) {
+    if (indFile instanceof BitMapFile) {
+      return BitmapPredicate.values((BitMapFile) indFile, lo, hi);
+    }
+    return BitmapPredicate.values((CBitMapFile) indFile, lo, hi);
+  }
 }
@@ -2,6 +2,7 @@ package tests;
 
 import columnar.*;
 import diskmgr.PCounter;
+import bufmgr.BufMgr;
 import global.*;
 import heap.*;
 import java.io.BufferedReader;
@@ -41,6 +42,7 @@ public class BatchInsert {
                 SystemDefs.MINIBASE_RESTART_FLAG = false;
             }
             SystemDefs sysdef = new SystemDefs( columnDBName, 10000, GlobalConst.NUMBUF,"Clock");
+            SystemDefs.JavabaseBM.startCleaner(BufMgr.DEFAULT_CLEAN_PERCENT);
         } catch (Exception e) {
            
             // SystemDefs.MINIBASE_RESTART_FLAG = false;
@@ -215,6 +217,8 @@ public class BatchInsert {
             SystemDefs.JavabaseBM.flushAllPages();
             System.out.println("Batch Insert Read Count:- "+PCounter.rcounter);
             System.out.println("Batch Insert Write Count:- "+PCounter.wcounter);
+            System.out.println("Synchronous Page Writes:- "+SystemDefs.JavabaseBM.getSyncWriteCount());
+            System.out.println("Background Page Writes:- "+SystemDefs.JavabaseBM.getBackgroundWriteCount());
             System.out.println("Tuple Count:- "+ columnarFile.getTupleCnt());
            
         } catch (Exception e) {
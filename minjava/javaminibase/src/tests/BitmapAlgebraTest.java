@@ -0,0 +1,282 @@
+package tests;
+
+import java.util.*;
+import global.*;
+import heap.*;
+import columnar.*;
+import btree.*;
+import bitmap.*;
+import index.*;
+import iterator.*;
+
+/**
+ * Exercises the bitmap algebra (bitmap.BitmapPredicate) and
+ * ColumnarIndexScan on bitmap indexes, which evaluates its predicates
+ * with it rather than sorting and merging positions:
+ *   test1: AND and OR of predicates on two columns, with bitmap and
+ *          with compressed bitmap indexes, against the sort-merge of
+ *          the same predicates on btree indexes
+ *   test2: a tree of AND, OR, ANDNOT, XOR and NOT over bitmaps of all
+ *          three kinds, BMPage, CBMPage and WBMPage lists, and the
+ *          tuples ColumnarIndexScan gives for it
+ *   test3: positions marked deleted are left out
+ */
+class BitmapAlgebraDriver extends BitmapTestDriver {
+
+  private final static String cfName = "algebra_file";
+  private final static int numRows = 6000;
+  private final static int dbPages = 20000;
+  private final static int bufPages = 100;
+
+  // the values of a row: A cycles through 10 values, B through 7
+  // strings, C takes 12 runs of 500 rows
+  public BitmapAlgebraDriver() {
+    super("bitmapalgebratest", dbPages, bufPages, cycle(10), strings("s", cycle(7)), runs(500));
+  }
+
+  // column op value, column 1 to 3
+  private CondExpr cond(int column, int op, int value, String string) {
+    CondExpr expr = new CondExpr();
+    expr.op = new AttrOperator(op);
+    expr.type1 = new AttrType(AttrType.attrSymbol);
+    expr.operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), column);
+    if (string == null) {
+      expr.type2 = new AttrType(AttrType.attrInteger);
+      expr.operand2.integer = value;
+    } else {
+      expr.type2 = new AttrType(AttrType.attrString);
+      expr.operand2.string = string;
+    }
+    expr.next = null;
+    return expr;
+  }
+
+  // the positions a ColumnarIndexScan of (first join second) returns
+  private BitSet scan(int indexType, String suffix, int[] columns, CondExpr first, CondExpr second,
+		      boolean or) throws Exception {
+    String[] indNames = new String[numColumns];
+    for (int i = 0; i < numColumns; i++)
+      indNames[i] = cfName + suffix + (i + 1);
+    CondExpr[] expr = new CondExpr[2];
+    expr[0] = first;
+    if (or) {
+      expr[0].next = second;
+      expr[1] = null;
+    } else {
+      expr[0].next = null;
+      expr[1] = second;
+    }
+    FldSpec[] projlist = new FldSpec[1];
+    projlist[0] = new FldSpec(new RelSpec(RelSpec.outer), 1);
+    ColumnarIndexScan iscan = new ColumnarIndexScan(cfName, columns, new IndexType(indexType), indNames,
+						    cf.type, cf.strSizes, numColumns, 1, projlist, expr, false);
+    BitSet found = new BitSet();
+    Integer pos;
+    while ((pos = iscan.get_next_pos()) != null) {
+      if (found.get(pos))
+	throw new Exception("position " + pos + " returned twice");
+      found.set(pos);
+    }
+    iscan.close();
+    return found;
+  }
+
+  private boolean check(BitSet found, BitSet want, String what) {
+    if (!found.equals(want)) {
+      BitSet diff = (BitSet) found.clone();
+      diff.xor(want);
+      System.err.println("*** " + what + ": " + found.cardinality() + " positions, not "
+			 + want.cardinality() + ", first difference at " + diff.nextSetBit(0) + "\n");
+      return FAIL;
+    }
+    return OK;
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: AND and OR of two predicates\n");
+    boolean status = OK;
+
+    try {
+      int[] columnTypes = { AttrType.attrInteger, AttrType.attrString, AttrType.attrInteger };
+      cf = load(cfName, columnTypes, numRows);
+      for (int col = 1; col <= numColumns; col++)
+	cf.createBTreeIndex(col);
+      int[] formats = { CBitMapFile.FORMAT_BYTE_RUNS, CBitMapFile.FORMAT_BYTE_RUNS, CBitMapFile.FORMAT_WORDS };
+      createBitMapIndexes(formats);
+
+      // A >= 7 AND C < 4, A = 3 OR C > 9, B != "s2" AND A <= 1
+      int[][] columns = { { 1, 3 }, { 1, 3 }, { 2, 1 } };
+      boolean[] or = { false, true, false };
+      BitSet[] want = new BitSet[3];
+      for (int q = 0; q < 3; q++)
+	want[q] = new BitSet();
+      for (int i = 0; i < numRows; i++) {
+	if (a(i) >= 7 && c(i) < 4)
+	  want[0].set(i);
+	if (a(i) == 3 || c(i) > 9)
+	  want[1].set(i);
+	if (b(i) != 2 && a(i) <= 1)
+	  want[2].set(i);
+      }
+
+      int[] types = { IndexType.B_Index, IndexType.Bitmap, IndexType.Cbitmap };
+      String[] suffixes = { ".btree", ".bitmap", ".cbitmap" };
+      for (int k = 0; status == OK && k < types.length; k++) {
+	long start = System.currentTimeMillis();
+	for (int q = 0; status == OK && q < 3; q++) {
+	  // btrees only take ranges, without != and strict < or >
+	  if (types[k] == IndexType.B_Index && q == 2)
+	    continue;
+	  CondExpr first, second;
+	  if (q == 0) {
+	    first = cond(1, AttrOperator.aopGE, 7, null);
+	    second = cond(3, types[k] == IndexType.B_Index ? AttrOperator.aopLE : AttrOperator.aopLT,
+			  types[k] == IndexType.B_Index ? 3 : 4, null);
+	  } else if (q == 1) {
+	    first = cond(1, AttrOperator.aopEQ, 3, null);
+	    second = cond(3, types[k] == IndexType.B_Index ? AttrOperator.aopGE : AttrOperator.aopGT,
+			  types[k] == IndexType.B_Index ? 10 : 9, null);
+	  } else {
+	    first = cond(2, AttrOperator.aopNE, 0, "s2");
+	    second = cond(1, AttrOperator.aopLE, 1, null);
+	  }
+	  BitSet found = scan(types[k], suffixes[k], columns[q], first, second, or[q]);
+	  status = check(found, want[q], suffixes[k].substring(1) + " query " + (q + 1));
+	}
+	System.out.println("  " + suffixes[k].substring(1) + ": queries answered in "
+			   + (System.currentTimeMillis() - start) + " ms");
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in the queries of two predicates\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: A tree of predicates\n");
+    boolean status = OK;
+
+    try {
+      BitMapFile bmA = new BitMapFile(cfName + ".bitmap1");
+      CBitMapFile cbmB = new CBitMapFile(cfName + ".cbitmap2");
+      CBitMapFile wbmC = new CBitMapFile(cfName + ".cbitmap3");
+      if (wbmC.getFormat() != CBitMapFile.FORMAT_WORDS || cbmB.getFormat() != CBitMapFile.FORMAT_BYTE_RUNS) {
+	System.err.println("*** The compressed bitmaps have formats " + cbmB.getFormat() + " and "
+			   + wbmC.getFormat() + "\n");
+	status = FAIL;
+      }
+
+      // ((A in 2..4 OR B = s5) ANDNOT C in 3..6) XOR (NOT B in s0..s3 AND A = 9)
+      BitmapPredicate tree = BitmapPredicate.xor(
+	  BitmapPredicate.andNot(
+	      BitmapPredicate.or(BitmapPredicate.values(bmA, new IntegerKey(2), new IntegerKey(4)),
+				 BitmapPredicate.values(cbmB, new StringKey("s5"), new StringKey("s5"))),
+	      BitmapPredicate.values(wbmC, new IntegerKey(3), new IntegerKey(6))),
+	  BitmapPredicate.and(
+	      BitmapPredicate.not(BitmapPredicate.values(cbmB, new StringKey("s0"), new StringKey("s3"))),
+	      BitmapPredicate.values(bmA, new IntegerKey(9), new IntegerKey(9))));
+      BitSet want = new BitSet();
+      for (int i = 0; i < numRows; i++) {
+	boolean left = (a(i) >= 2 && a(i) <= 4 || b(i) == 5) && !(c(i) >= 3 && c(i) <= 6);
+	boolean right = b(i) > 3 && a(i) == 9;
+	if (left ^ right)
+	  want.set(i);
+      }
+
+      int pins = pins();
+      BitSet found = tree.evaluate(numRows);
+      pins = pins() - pins;
+      System.out.println("  " + found.cardinality() + " positions from " + pins + " page pins");
+      if (status == OK)
+	status = check(found, want, "tree");
+
+      // the same through ColumnarIndexScan, as tuples
+      FldSpec[] projlist = new FldSpec[3];
+      for (int i = 0; i < 3; i++)
+	projlist[i] = new FldSpec(new RelSpec(RelSpec.outer), i + 1);
+      ColumnarIndexScan iscan = new ColumnarIndexScan(cfName, tree, cf.type, cf.strSizes, numColumns, 3,
+						      projlist);
+      int expect = want.nextSetBit(0);
+      Tuple t;
+      while (status == OK && (t = iscan.get_next()) != null) {
+	if (expect < 0 || t.getIntFld(1) != a(expect) || !t.getStrFld(2).equals(value(2, expect))
+	    || t.getIntFld(3) != c(expect)) {
+	  System.err.println("*** The scan gave " + t.getIntFld(1) + ", " + t.getStrFld(2) + ", "
+			     + t.getIntFld(3) + " for position " + expect + "\n");
+	  status = FAIL;
+	}
+	expect = want.nextSetBit(expect + 1);
+      }
+      if (status == OK && expect >= 0) {
+	System.err.println("*** The scan stopped before position " + expect + "\n");
+	status = FAIL;
+      }
+      iscan.close();
+      bmA.close();
+      cbmB.close();
+      wbmC.close();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error evaluating the tree\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test3() {
+
+    System.out.println("\n  Test 3: Deleted positions\n");
+    boolean status = OK;
+
+    try {
+      BitSet deleted = new BitSet();
+      for (int p = 0; p < numRows; p += 13) {
+	cf.markTupleDeleted(cf.getTidFromPosition(p));
+	deleted.set(p);
+      }
+      BitSet want = new BitSet();
+      for (int i = 0; i < numRows; i++)
+	if (a(i) == 3 || c(i) > 9)
+	  want.set(i);
+      want.andNot(deleted);
+      int[] columns = { 1, 3 };
+      BitSet found = scan(IndexType.Bitmap, ".bitmap", columns, cond(1, AttrOperator.aopEQ, 3, null),
+			  cond(3, AttrOperator.aopGT, 9, null), true);
+      status = check(found, want, "bitmap, with deletions");
+      if (status == OK) {
+	found = scan(IndexType.Cbitmap, ".cbitmap", columns, cond(1, AttrOperator.aopEQ, 3, null),
+		     cond(3, AttrOperator.aopGT, 9, null), true);
+	status = check(found, want, "compressed bitmap, with deletions");
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error with deleted positions\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 3 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Bitmap algebra";
+  }
+}
+
+public class BitmapAlgebraTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new BitmapAlgebraDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
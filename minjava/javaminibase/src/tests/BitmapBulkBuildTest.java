@@ -0,0 +1,263 @@
+package tests;
+
+import java.util.*;
+import global.*;
+import heap.*;
+import columnar.*;
+import btree.*;
+import bitmap.*;
+
+/**
+ * Exercises bitmap.BitMapBuilder, which makes the page lists and value
+ * btree of a new bitmap file in one scan of its column:
+ *   test1: bitmap and compressed bitmap indexes of all three list
+ *          formats give the positions of each value
+ *   test2: the same with the bitsets spilled to the lists every few
+ *          hundred positions
+ *   test3: a bitmap built by inserting each position takes more page
+ *          pins and time than one built in bulk, and a bulk-built file
+ *          takes inserts and deletes after it is built and reopened
+ */
+class BitmapBulkBuildDriver extends BitmapTestDriver {
+
+  private final static String cfName = "bulk_file";
+  private final static String spillName = "bulk_spill";
+  private final static int numRows = 20000;
+  private final static int dbPages = 30000;
+  private final static int bufPages = 100;
+
+  // the values of a row: A scatters 250 values, B cycles through 37
+  // strings, C takes runs of 1500 rows
+  public BitmapBulkBuildDriver() {
+    super("bitmapbulkbuildtest", dbPages, bufPages, scatter(7919, 250), strings("v", cycle(37)),
+	  runs(1500));
+  }
+
+  private Columnarfile load(String name, int rows) throws Exception {
+    int[] columnTypes = { AttrType.attrInteger, AttrType.attrString, AttrType.attrInteger };
+    return load(name, columnTypes, rows);
+  }
+
+  // the positions of each value of a column, by value
+  private TreeMap<Object, BitSet> expected(int column) {
+    TreeMap<Object, BitSet> want = new TreeMap<Object, BitSet>();
+    for (int i = 0; i < numRows; i++) {
+      Object value = value(column, i);
+      BitSet bits = want.get(value);
+      if (bits == null) {
+	bits = new BitSet();
+	want.put(value, bits);
+      }
+      bits.set(i);
+    }
+    return want;
+  }
+
+  // the positions of each value, and of no value outside them, in a
+  // bitmap or compressed bitmap file
+  private boolean check(IndexFile index, int column, String what) throws Exception {
+    TreeMap<Object, BitSet> want = expected(column);
+    Iterator<Map.Entry<Object, BitSet>> it = want.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Object, BitSet> entry = it.next();
+      BitSet found = values(index, entry.getKey(), entry.getKey()).evaluate(numRows);
+      if (!found.equals(entry.getValue())) {
+	System.err.println("*** " + what + ": value " + entry.getKey() + " has " + found.cardinality()
+			   + " positions, not " + entry.getValue().cardinality() + "\n");
+	return FAIL;
+      }
+    }
+    // a value between two of the column has no positions
+    Object missing = column == 2 ? (Object) "v0x" : (Object) Integer.valueOf(-5);
+    if (values(index, missing, missing).evaluate(numRows).cardinality() != 0) {
+      System.err.println("*** " + what + ": a missing value has positions\n");
+      return FAIL;
+    }
+    return OK;
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Bitmaps of all three formats\n");
+    boolean status = OK;
+
+    try {
+      cf = load(cfName, numRows);
+      int[] formats = { CBitMapFile.FORMAT_BYTE_RUNS, CBitMapFile.FORMAT_WORDS, CBitMapFile.FORMAT_BYTE_RUNS };
+      for (int col = 1; status == OK && col <= numColumns; col++) {
+	long start = System.currentTimeMillis();
+	cf.createBitMapIndex(col, null, false);
+	cf.createBitMapIndex(col, null, true, formats[col - 1]);
+	System.out.println("  column " + col + ": bitmaps built in " + (System.currentTimeMillis() - start)
+			   + " ms");
+	BitMapFile bm = new BitMapFile(cfName + ".bitmap" + col);
+	CBitMapFile cbm = new CBitMapFile(cfName + ".cbitmap" + col);
+	if (cbm.getFormat() != formats[col - 1]) {
+	  System.err.println("*** The compressed bitmap has format " + cbm.getFormat() + "\n");
+	  status = FAIL;
+	}
+	if (status == OK)
+	  status = check(bm, col, "bitmap " + col);
+	if (status == OK)
+	  status = check(cbm, col, "compressed bitmap " + col);
+	bm.close();
+	cbm.close();
+      }
+      // the words column C as well, in runs of whole groups
+      if (status == OK) {
+	CBitMapFile wbm = new CBitMapFile(cfName + ".wbitmap3", cf, 3, new IntegerValueClass(0),
+					  CBitMapFile.FORMAT_WORDS);
+	status = check(wbm, 3, "word bitmap 3");
+	wbm.close();
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error building bitmaps in bulk\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Bitsets spilled to the lists\n");
+    boolean status = OK;
+
+    int spillBytes = BitMapBuilder.getSpillBytes();
+    try {
+      BitMapBuilder.setSpillBytes(256);
+      int[] formats = { BitMapBuilder.FORMAT_BITMAP, CBitMapFile.FORMAT_BYTE_RUNS, CBitMapFile.FORMAT_WORDS };
+      String[] names = { ".bitmap", ".cbitmap", ".wbitmap" };
+      for (int col = 1; status == OK && col <= numColumns; col++) {
+	for (int f = 0; status == OK && f < formats.length; f++) {
+	  String name = spillName + names[f] + col;
+	  int type = attrType[col - 1].attrType;
+	  BTreeFile values = new BTreeFile(name, type, type == AttrType.attrInteger ? 5 : MAX_NAME, 1);
+	  BitMapBuilder builder = new BitMapBuilder(formats[f]);
+	  builder.build(cf, col, type, values);
+	  values.close();
+	  if (builder.getSpills() < 10) {
+	    System.err.println("*** " + name + ": " + builder.getSpills() + " spills\n");
+	    status = FAIL;
+	  }
+	  IndexFile index;
+	  if (formats[f] == BitMapBuilder.FORMAT_BITMAP)
+	    index = new BitMapFile(name);
+	  else
+	    index = new CBitMapFile(name);
+	  if (status == OK)
+	    status = check(index, col, name + " after " + builder.getSpills() + " spills");
+	  if (index instanceof BitMapFile)
+	    ((BitMapFile) index).close();
+	  else
+	    ((CBitMapFile) index).close();
+	}
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error building bitmaps with spills\n");
+      e.printStackTrace();
+    } finally {
+      BitMapBuilder.setSpillBytes(spillBytes);
+    }
+
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test3() {
+
+    System.out.println("\n  Test 3: Bulk against inserted bitmaps\n");
+    boolean status = OK;
+
+    try {
+      // the same column A, built by inserting each position into a
+      // bitmap of an empty columnar file
+      Columnarfile empty = load("bulk_empty", 0);
+      SystemDefs.JavabaseBM.resetHitCounts();
+      long start = System.currentTimeMillis();
+      BitMapFile inserted = new BitMapFile("bulk_inserted", empty, 1, new IntegerValueClass(0));
+      for (int i = 0; i < numRows; i++)
+	inserted.Insert(new IntegerValueClass(a(i)), i);
+      long insertTime = System.currentTimeMillis() - start;
+      int insertPins = pins();
+      status = check(inserted, 1, "inserted bitmap");
+      inserted.close();
+
+      SystemDefs.JavabaseBM.resetHitCounts();
+      start = System.currentTimeMillis();
+      BitMapFile bulk = new BitMapFile("bulk_built", cf, 1, new IntegerValueClass(0));
+      long bulkTime = System.currentTimeMillis() - start;
+      int bulkPins = pins();
+      System.out.println("  inserted: " + insertPins + " page pins, " + insertTime + " ms; built in bulk: "
+			 + bulkPins + " page pins, " + bulkTime + " ms");
+      if (status == OK && bulkPins * 4 > insertPins) {
+	System.err.println("*** The bulk build took " + bulkPins + " page pins, inserting " + insertPins + "\n");
+	status = FAIL;
+      }
+
+      // move a position from one value to another, and to a new value
+      if (status == OK) {
+	bulk.Delete(new IntegerValueClass(a(100)), 100);
+	bulk.Insert(new IntegerValueClass(a(101)), 100);
+	bulk.Delete(new IntegerValueClass(a(numRows - 1)), numRows - 1);
+	bulk.Insert(new IntegerValueClass(1000), numRows - 1);
+      }
+      bulk.close();
+
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+      new SystemDefs(dbpath, 0, bufPages, "Clock");
+
+      if (status == OK) {
+	bulk = new BitMapFile("bulk_built");
+	int[] values = { a(100), a(101), a(numRows - 1), 1000 };
+	for (int v = 0; status == OK && v < values.length; v++) {
+	  BitSet want = new BitSet();
+	  for (int i = 0; i < numRows; i++)
+	    if (a(i) == values[v])
+	      want.set(i);
+	  if (values[v] == a(100))
+	    want.clear(100);
+	  if (values[v] == a(101))
+	    want.set(100);
+	  if (values[v] == a(numRows - 1))
+	    want.clear(numRows - 1);
+	  if (values[v] == 1000)
+	    want.set(numRows - 1);
+	  BitSet found = BitmapPredicate.values(bulk, new IntegerKey(values[v]), new IntegerKey(values[v]))
+	      .evaluate(numRows);
+	  if (!found.equals(want)) {
+	    System.err.println("*** Value " + values[v] + " has " + found.cardinality() + " positions, not "
+			       + want.cardinality() + " after reopening\n");
+	    status = FAIL;
+	  }
+	}
+	bulk.close();
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error comparing with inserted bitmaps\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 3 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Bitmap bulk build";
+  }
+}
+
+public class BitmapBulkBuildTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new BitmapBulkBuildDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
@@ -0,0 +1,277 @@
+package tests;
+
+import java.util.*;
+import global.*;
+import heap.*;
+import columnar.*;
+import btree.*;
+import bitmap.*;
+import index.*;
+import iterator.*;
+import program.QueryHelper;
+
+/**
+ * Exercises counts answered from bitmap indexes alone, by
+ * BitmapPredicate.count and groupCount and the count modes of
+ * QueryHelper.executeBitMapCount:
+ *   test1: the count of each value, and of ranges, NOT, AND and OR of
+ *          them, on BMPage, CBMPage and WBMPage lists, less deletions
+ *   test2: counts and GROUP BY counts of queries of one and two
+ *          conditions
+ *   test3: a count reads the bitmap pages and no tuple, in a fraction
+ *          of the pins of fetching the matching tuples
+ */
+class BitmapCountDriver extends BitmapTestDriver {
+
+  private final static String cfName = "count_file";
+  private final static int numRows = 30000;
+  private final static int dbPages = 30000;
+  private final static int bufPages = 100;
+
+  private BitSet deleted = new BitSet();
+
+  // the values of a row: A cycles through 50 values, B through 7
+  // strings, C takes runs of 3000 rows
+  public BitmapCountDriver() {
+    super("bitmapcounttest", dbPages, bufPages, cycle(50), strings("s", cycle(7)), runs(3000));
+  }
+
+  // the live rows of each value of a column from lo to hi, null for open
+  private TreeMap<Object, Integer> expected(int column, Object lo, Object hi) {
+    TreeMap<Object, Integer> want = new TreeMap<Object, Integer>();
+    for (int i = 0; i < numRows; i++) {
+      Object v = value(column, i);
+      if (deleted.get(i) || (lo != null && compare(lo, v) > 0) || (hi != null && compare(hi, v) < 0))
+	continue;
+      Integer n = want.get(v);
+      want.put(v, Integer.valueOf(n == null ? 1 : n.intValue() + 1));
+    }
+    return want;
+  }
+
+  private int sum(TreeMap<Object, Integer> counts) {
+    int total = 0;
+    java.util.Iterator<Integer> it = counts.values().iterator();
+    while (it.hasNext())
+      total += it.next();
+    return total;
+  }
+
+  private boolean checkCount(int found, int want, String what) {
+    if (found != want) {
+      System.err.println("*** " + what + ": counted " + found + ", not " + want + "\n");
+      return FAIL;
+    }
+    return OK;
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Counts of the values of each list format\n");
+    boolean status = OK;
+
+    try {
+      int[] columnTypes = { AttrType.attrInteger, AttrType.attrString, AttrType.attrInteger };
+      cf = load(cfName, columnTypes, numRows);
+      int[] formats = { CBitMapFile.FORMAT_BYTE_RUNS, CBitMapFile.FORMAT_WORDS, CBitMapFile.FORMAT_WORDS };
+      createBitMapIndexes(formats);
+
+      // first without deletions, then with every 11th row and a run of
+      // rows deleted
+      for (int round = 0; status == OK && round < 2; round++) {
+	if (round == 1) {
+	  for (int p = 0; p < numRows; p++) {
+	    if (p % 11 == 0 || (p >= 9000 && p < 9700)) {
+	      cf.markTupleDeleted(cf.getTidFromPosition(p));
+	      deleted.set(p);
+	    }
+	  }
+	}
+	BitSet del = round == 0 ? null : cf.getDeletionVector().positions();
+	for (int col = 1; status == OK && col <= numColumns; col++) {
+	  IndexFile[] indexes = { new BitMapFile(cfName + ".bitmap" + col), new CBitMapFile(cfName + ".cbitmap" + col) };
+	  for (int k = 0; status == OK && k < indexes.length; k++) {
+	    String what = (k == 0 ? "bitmap " : "compressed bitmap ") + col + (round == 0 ? "" : ", with deletions");
+	    TreeMap<Object, Integer> want = expected(col, null, null);
+	    TreeMap<Object, Integer> found = values(indexes[k], null, null).groupCount(del);
+	    if (!found.equals(want)) {
+	      System.err.println("*** " + what + ": counts " + found + ", not " + want + "\n");
+	      status = FAIL;
+	    }
+	    // a value, NOT the value, the values below and above it, and
+	    // one value AND / OR a range
+	    Object mid = col == 2 ? "s3" : value(col, numRows / 2);
+	    BitmapPredicate equal = values(indexes[k], mid, mid);
+	    int live = numRows - deleted.cardinality();
+	    int equalCount = sum(expected(col, mid, mid));
+	    if (status == OK)
+	      status = checkCount(equal.count(numRows, del), equalCount, what + " = " + mid);
+	    if (status == OK)
+	      status = checkCount(BitmapPredicate.not(equal).count(numRows, del), live - equalCount,
+				  what + " NOT " + mid);
+	    if (status == OK)
+	      status = checkCount(BitmapPredicate.andNot(values(indexes[k], null, mid), equal).count(numRows, del),
+				  sum(expected(col, null, mid)) - equalCount, what + " < " + mid);
+	    if (status == OK)
+	      status = checkCount(values(indexes[k], mid, null).groupCount(del).size(),
+				  expected(col, mid, null).size(), what + " values >= " + mid);
+	    if (status == OK)
+	      status = checkCount(BitmapPredicate.or(equal, values(indexes[k], null, mid)).count(numRows, del),
+				  sum(expected(col, null, mid)), what + " OR");
+	    if (status == OK)
+	      status = checkCount(BitmapPredicate.and(equal, values(indexes[k], null, mid)).count(numRows, del),
+				  equalCount, what + " AND");
+	  }
+	  ((BitMapFile) indexes[0]).close();
+	  ((CBitMapFile) indexes[1]).close();
+	}
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error counting values\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Count queries\n");
+    boolean status = OK;
+
+    try {
+      String[][] single = { { "A", "=", "7" }, { "A", "<", "20" }, { "A", ">", "44" }, { "A", "!=", "3" },
+			    { "B", ">", "s4" }, { "C", "<=", "2" }, { "B", "RANGE", "s0" } };
+      for (int q = 0; status == OK && q < single.length; q++) {
+	int col = single[q][0].charAt(0) - 'A' + 1;
+	String op = single[q][1];
+	Object v = col == 2 ? (Object) single[q][2] : (Object) Integer.valueOf(single[q][2]);
+	TreeMap<Object, Integer> want;
+	if (op.equals("=")) {
+	  want = expected(col, v, v);
+	} else if (op.equals("<") || op.equals("<=")) {
+	  want = expected(col, null, v);
+	} else if (op.equals(">")) {
+	  want = expected(col, v, null);
+	} else {
+	  want = expected(col, null, null);
+	}
+	if (!op.equals("<=") && !op.equals("=") && !op.equals("RANGE"))
+	  want.remove(v);
+	for (int k = 0; status == OK && k < 2; k++) {
+	  String what = (k == 0 ? "BITMAP " : "CBITMAP ") + single[q][0] + " " + op + " " + single[q][2];
+	  status = checkCount(QueryHelper.executeBitMapCount(cfName, k == 1, single[q], null, 0, false), sum(want),
+			      what + " count");
+	  if (status == OK)
+	    status = checkCount(QueryHelper.executeBitMapCount(cfName, k == 1, single[q], null, 0, true), sum(want),
+				what + " group count");
+	}
+      }
+
+      // two conditions, on two columns and on one
+      String[] a = { "A", "<", "10" };
+      String[] cc = { "C", ">=", "8" };
+      String[] a2 = { "A", ">=", "5" };
+      int and = 0, or = 0, same = 0;
+      for (int i = 0; i < numRows; i++) {
+	if (deleted.get(i))
+	  continue;
+	if (a(i) < 10 && c(i) >= 8)
+	  and++;
+	if (a(i) < 10 || c(i) >= 8)
+	  or++;
+	if (a(i) < 10 && a(i) >= 5)
+	  same++;
+      }
+      for (int k = 0; status == OK && k < 2; k++) {
+	String what = k == 0 ? "BITMAP " : "CBITMAP ";
+	status = checkCount(QueryHelper.executeBitMapCount(cfName, k == 1, a, cc, QueryHelper.AND_OP, false), and,
+			    what + "A < 10 AND C >= 8");
+	if (status == OK)
+	  status = checkCount(QueryHelper.executeBitMapCount(cfName, k == 1, a, cc, QueryHelper.OR_OP, false), or,
+			      what + "A < 10 OR C >= 8");
+	if (status == OK)
+	  status = checkCount(QueryHelper.executeBitMapCount(cfName, k == 1, a, a2, QueryHelper.AND_OP, false), same,
+			      what + "A < 10 AND A >= 5");
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in count queries\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test3() {
+
+    System.out.println("\n  Test 3: Counts without the tuples\n");
+    boolean status = OK;
+
+    try {
+      BitMapFile bm = new BitMapFile(cfName + ".bitmap1");
+      BitmapPredicate pred = BitmapPredicate.values(bm, new IntegerKey(7), new IntegerKey(7));
+      BitSet del = cf.getDeletionVector().positions();
+      int want = sum(expected(1, Integer.valueOf(7), Integer.valueOf(7)));
+
+      SystemDefs.JavabaseBM.resetHitCounts();
+      long start = System.currentTimeMillis();
+      int counted = pred.count(numRows, del);
+      long countTime = System.currentTimeMillis() - start;
+      int countPins = pins();
+      status = checkCount(counted, want, "A = 7");
+
+      // the same matches, fetched as tuples
+      FldSpec[] projlist = new FldSpec[1];
+      projlist[0] = new FldSpec(new RelSpec(RelSpec.outer), 2);
+      SystemDefs.JavabaseBM.resetHitCounts();
+      start = System.currentTimeMillis();
+      ColumnarIndexScan iscan = new ColumnarIndexScan(cfName, pred, cf.type, cf.strSizes, numColumns, 1, projlist);
+      int fetched = 0;
+      while (iscan.get_next() != null)
+	fetched++;
+      iscan.close();
+      long fetchTime = System.currentTimeMillis() - start;
+      int fetchPins = pins();
+      bm.close();
+      System.out.println("  " + counted + " rows counted from " + countPins + " page pins in " + countTime
+			 + " ms, fetched from " + fetchPins + " page pins in " + fetchTime + " ms");
+      if (status == OK)
+	status = checkCount(fetched, want, "A = 7 fetched");
+      // the btree's root and leaf and the pages of the list
+      int listPages = (numRows + BMPage.bitCount() - 1) / BMPage.bitCount();
+      if (status == OK && countPins > listPages + 4) {
+	System.err.println("*** The count took " + countPins + " page pins for " + listPages + " bitmap pages\n");
+	status = FAIL;
+      }
+      if (status == OK && countPins * 10 > fetchPins) {
+	System.err.println("*** The count took " + countPins + " page pins, fetching " + fetchPins + "\n");
+	status = FAIL;
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error counting without the tuples\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 3 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Bitmap count";
+  }
+}
+
+public class BitmapCountTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new BitmapCountDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
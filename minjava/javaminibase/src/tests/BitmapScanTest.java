@@ -0,0 +1,319 @@
+package tests;
+
+import java.util.*;
+import global.*;
+import heap.*;
+import columnar.*;
+import btree.*;
+import bitmap.*;
+import diskmgr.*;
+import index.*;
+import iterator.*;
+
+/**
+ * Exercises the set-bit iteration of BMFileScan and CBMFileScan, which
+ * read BMPages a word at a time and pass over the runs of 0s of
+ * CBMPages and WBMPages whole, and their get_next_positions batches:
+ *   test1: BMPage.nextSetBit against checkBit, bit by bit
+ *   test2: get_next, get_next_positions and the two mixed give each
+ *          value's positions, in value order, on all three list formats
+ *   test3: a rare value is found from one pin of each page of its list,
+ *          faster than by checking each bit, and ColumnIndexScan finds
+ *          it from batches of positions
+ */
+class BitmapScanDriver extends BitmapTestDriver {
+
+  private final static String cfName = "scan_file";
+  private final static int numRows = 40000;
+  private final static int dbPages = 30000;
+  private final static int bufPages = 100;
+
+  // the values of a row: A is 1 at one row in 997 and 0 elsewhere, B
+  // takes runs of 4000 rows, C scatters 13 strings
+  public BitmapScanDriver() {
+    super("bitmapscantest", dbPages, bufPages, rare(997), runs(4000), strings("k", scatter(31, 13)));
+  }
+
+  // the positions of each value of a column, in value order
+  private ArrayList<Integer> expected(int column, Object lo, Object hi) {
+    TreeMap<Object, ArrayList<Integer>> want = new TreeMap<Object, ArrayList<Integer>>();
+    for (int i = 0; i < numRows; i++) {
+      Object value = value(column, i);
+      if (want.get(value) == null)
+	want.put(value, new ArrayList<Integer>());
+      want.get(value).add(Integer.valueOf(i));
+    }
+    ArrayList<Integer> positions = new ArrayList<Integer>();
+    java.util.Iterator<ArrayList<Integer>> it = want.subMap(lo, true, hi, true).values().iterator();
+    while (it.hasNext())
+      positions.addAll(it.next());
+    return positions;
+  }
+
+  // the positions a scan of lo to hi gives: by get_next, batch 0, or
+  // by get_next_positions of the batch size, or both taking turns
+  private ArrayList<Integer> scan(Object index, Object lo, Object hi, int batch, boolean mixed)
+      throws Exception {
+    ArrayList<Integer> found = new ArrayList<Integer>();
+    BMFileScan bscan = null;
+    CBMFileScan cscan = null;
+    if (index instanceof BitMapFile)
+      bscan = ((BitMapFile) index).new_scan(key(lo), key(hi));
+    else
+      cscan = ((CBitMapFile) index).new_scan(key(lo), key(hi));
+    boolean byEntry = batch == 0;
+    while (true) {
+      if (byEntry) {
+	KeyDataEntry entry = bscan != null ? bscan.get_next() : cscan.get_next();
+	if (entry == null)
+	  break;
+	found.add(Integer.valueOf(bscan != null ? bscan.getLatestPositionMatch() : cscan.getLatestPositionMatch()));
+      } else {
+	int[] positions = bscan != null ? bscan.get_next_positions(batch) : cscan.get_next_positions(batch);
+	if (positions == null)
+	  break;
+	for (int i = 0; i < positions.length; i++)
+	  found.add(Integer.valueOf(positions[i]));
+	int last = bscan != null ? bscan.getLatestPositionMatch() : cscan.getLatestPositionMatch();
+	if (last != positions[positions.length - 1])
+	  throw new Exception("the latest position is " + last + ", not " + positions[positions.length - 1]);
+      }
+      if (mixed)
+	byEntry = !byEntry;
+    }
+    if (bscan != null)
+      bscan.closeBitmapScans();
+    else
+      cscan.closeCbitmapScans();
+    return found;
+  }
+
+  private boolean check(ArrayList<Integer> found, ArrayList<Integer> want, String what) {
+    if (!found.equals(want)) {
+      int i = 0;
+      while (i < found.size() && i < want.size() && found.get(i).equals(want.get(i)))
+	i++;
+      System.err.println("*** " + what + ": " + found.size() + " positions, not " + want.size()
+			 + ", first difference at " + i + "\n");
+      return FAIL;
+    }
+    return OK;
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: BMPage.nextSetBit\n");
+    boolean status = OK;
+
+    try {
+      Random random = new Random(24);
+      BMPage page = new BMPage();
+      page.init(new PageId(1), new Page());
+      int bits = BMPage.bitCount();
+      // sparse, then dense, then a few bits at the ends of the page
+      for (int round = 0; status == OK && round < 3; round++) {
+	page.init(new PageId(1), new Page());
+	if (round == 2) {
+	  page.setBit(63);
+	  page.setBit(64);
+	  page.setBit(bits - 1);
+	} else {
+	  for (int i = 0; i < bits; i++)
+	    if (random.nextInt(round == 0 ? 700 : 3) == 0)
+	      page.setBit(i);
+	}
+	int want = -1;
+	for (int p = bits - 1; status == OK && p >= 0; p--) {
+	  if (page.checkBit(p))
+	    want = p;
+	  if (page.nextSetBit(p) != want) {
+	    System.err.println("*** nextSetBit(" + p + ") is " + page.nextSetBit(p) + ", not " + want + "\n");
+	    status = FAIL;
+	  }
+	}
+	if (status == OK && page.nextSetBit(bits) != -1) {
+	  System.err.println("*** nextSetBit past the page is " + page.nextSetBit(bits) + "\n");
+	  status = FAIL;
+	}
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in nextSetBit\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Scans of all three list formats\n");
+    boolean status = OK;
+
+    try {
+      int[] columnTypes = { AttrType.attrInteger, AttrType.attrInteger, AttrType.attrString };
+      cf = load(cfName, columnTypes, numRows);
+      int[] formats = { CBitMapFile.FORMAT_WORDS, CBitMapFile.FORMAT_BYTE_RUNS, CBitMapFile.FORMAT_BYTE_RUNS };
+      createBitMapIndexes(formats);
+
+      Object[][] ranges = { { Integer.valueOf(0), Integer.valueOf(1) }, { Integer.valueOf(1), Integer.valueOf(1) },
+			    { Integer.valueOf(2), Integer.valueOf(6) }, { "k0", "k9" } };
+      int[] columns = { 1, 1, 2, 3 };
+      int[] batches = { 0, 1, 7, 4096 };
+      for (int r = 0; status == OK && r < ranges.length; r++) {
+	int col = columns[r];
+	ArrayList<Integer> want = expected(col, ranges[r][0], ranges[r][1]);
+	// get_next makes the RID of each position, from the columnar file
+	ValueClass type = col == 3 ? (ValueClass) new StringValueClass("") : (ValueClass) new IntegerValueClass(0);
+	Object[] indexes = { new BitMapFile(cfName + ".bitmap" + col, cf, col, type),
+			     new CBitMapFile(cfName + ".cbitmap" + col, cf, col, type) };
+	for (int k = 0; status == OK && k < indexes.length; k++) {
+	  for (int b = 0; status == OK && b < batches.length; b++) {
+	    String what = (k == 0 ? "bitmap " : "compressed bitmap ") + col + " " + ranges[r][0] + ".."
+		+ ranges[r][1] + " batch " + batches[b];
+	    status = check(scan(indexes[k], ranges[r][0], ranges[r][1], batches[b], false), want, what);
+	    if (status == OK && batches[b] > 0)
+	      status = check(scan(indexes[k], ranges[r][0], ranges[r][1], batches[b], true), want, what + " mixed");
+	  }
+	}
+	((BitMapFile) indexes[0]).close();
+	((CBitMapFile) indexes[1]).close();
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error scanning bitmaps\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test3() {
+
+    System.out.println("\n  Test 3: A rare value\n");
+    boolean status = OK;
+
+    try {
+      BitMapFile bm = new BitMapFile(cfName + ".bitmap1");
+      CBitMapFile wbm = new CBitMapFile(cfName + ".cbitmap1");
+      ArrayList<Integer> want = expected(1, Integer.valueOf(1), Integer.valueOf(1));
+      int listPages = (numRows + BMPage.bitCount() - 1) / BMPage.bitCount();
+
+      // each bit checked in turn, the way the scans read a page before
+      int rounds = 20;
+      long start = System.currentTimeMillis();
+      ArrayList<Integer> checked = null;
+      for (int round = 0; round < rounds; round++) {
+	checked = new ArrayList<Integer>();
+	BTFileScan values = bm.getIndexBTree().new_scan(new IntegerKey(1), new IntegerKey(1));
+	KeyDataEntry entry = values.get_next();
+	PageId pid = new PageId(((LeafData) entry.data).getData().pageNo.pid);
+	int pageCnt = 0;
+	while (pid.pid != -1) {
+	  BMPage page = new BMPage();
+	  SystemDefs.JavabaseBM.pinPage(pid, page, false);
+	  for (int i = 0; i < BMPage.bitCount(); i++)
+	    if (page.checkBit(i))
+	      checked.add(Integer.valueOf(pageCnt * BMPage.bitCount() + i));
+	  PageId next = page.getNextPage();
+	  SystemDefs.JavabaseBM.unpinPage(pid, false);
+	  pid.pid = next.pid;
+	  pageCnt++;
+	}
+	values.DestroyBTreeFileScan();
+      }
+      long bitTime = System.currentTimeMillis() - start;
+      status = check(checked, want, "bit by bit");
+
+      start = System.currentTimeMillis();
+      ArrayList<Integer> found = null;
+      for (int round = 0; round < rounds; round++)
+	found = scan(bm, Integer.valueOf(1), Integer.valueOf(1), 4096, false);
+      long wordTime = System.currentTimeMillis() - start;
+      if (status == OK)
+	status = check(found, want, "word at a time");
+      if (status == OK && wordTime > bitTime) {
+	System.err.println("*** A word at a time took " + wordTime + " ms, bit by bit " + bitTime + " ms\n");
+	status = FAIL;
+      }
+
+      SystemDefs.JavabaseBM.resetHitCounts();
+      BMFileScan bscan = bm.new_scan(new IntegerKey(1), new IntegerKey(1));
+      int[] positions = bscan.get_next_positions(numRows);
+      int batchPins = pins();
+      bscan.closeBitmapScans();
+      System.out.println("  " + want.size() + " positions of " + numRows + ": " + bitTime + " ms bit by bit, "
+			 + wordTime + " ms a word at a time, " + batchPins + " page pins for one batch");
+      if (status == OK && (positions == null || positions.length != want.size())) {
+	System.err.println("*** One batch gave " + (positions == null ? 0 : positions.length) + " positions\n");
+	status = FAIL;
+      }
+      // the pages of the list, and the btree's root and leaf
+      if (status == OK && batchPins > listPages + 4) {
+	System.err.println("*** One batch took " + batchPins + " page pins for " + listPages + " pages\n");
+	status = FAIL;
+      }
+
+      // the word list of the same value, from the 0-fills between its bits
+      SystemDefs.JavabaseBM.resetHitCounts();
+      CBMFileScan cscan = wbm.new_scan(new IntegerKey(1), new IntegerKey(1));
+      positions = cscan.get_next_positions(numRows);
+      int wordPins = pins();
+      cscan.closeCbitmapScans();
+      System.out.println("  word list: " + wordPins + " page pins for one batch");
+      if (status == OK && (positions == null || positions.length != want.size())) {
+	System.err.println("*** One batch of the word list gave " + (positions == null ? 0 : positions.length)
+			   + " positions\n");
+	status = FAIL;
+      }
+      bm.close();
+      wbm.close();
+
+      // ColumnIndexScan takes the positions of bitmap scans in batches
+      int[] types = { IndexType.Bitmap, IndexType.Cbitmap };
+      String[] suffixes = { ".bitmap1", ".cbitmap1" };
+      for (int k = 0; status == OK && k < types.length; k++) {
+	CondExpr[] selects = new CondExpr[2];
+	selects[0] = new CondExpr();
+	selects[0].op = new AttrOperator(AttrOperator.aopEQ);
+	selects[0].type1 = new AttrType(AttrType.attrSymbol);
+	selects[0].type2 = new AttrType(AttrType.attrInteger);
+	selects[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), 1);
+	selects[0].operand2.integer = 1;
+	selects[0].next = null;
+	selects[1] = null;
+	ColumnIndexScan iscan = new ColumnIndexScan(new IndexType(types[k]), cfName + ".1", cfName + suffixes[k],
+						    attrType[0], (short) 0, selects, false);
+	found = new ArrayList<Integer>();
+	Tuple t;
+	while ((t = iscan.get_next()) != null)
+	  found.add(Integer.valueOf(t.getIntFld(1)));
+	iscan.close();
+	status = check(found, want, "ColumnIndexScan of " + suffixes[k].substring(1));
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error scanning a rare value\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 3 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Bitmap scan";
+  }
+}
+
+public class BitmapScanTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new BitmapScanDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
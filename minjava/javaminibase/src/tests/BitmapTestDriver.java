@@ -0,0 +1,194 @@
+package tests;
+
+import java.io.*;
+import global.*;
+import heap.*;
+import columnar.*;
+import btree.*;
+import bitmap.*;
+import index.*;
+
+/**
+ * The columnar file the bitmap tests run on: three columns, A, B and C,
+ * of the types and row values each test gives, with a bitmap and a
+ * compressed bitmap index on each column.  It also gives the page pins
+ * of the buffer manager and the keys and bitmap predicates of values.
+ */
+abstract class BitmapTestDriver extends TestDriver implements GlobalConst {
+
+  protected final static int numColumns = 3;
+  protected final static String[] columnNames = { "A", "B", "C" };
+
+  private final int dbPages;
+  private final int bufPages;
+  private final Column[] columns;
+
+  protected AttrType[] attrType;
+  protected short[] Ssizes = { 10 };
+  protected Columnarfile cf;
+
+  /*
+   * How the values of a column follow the rows: the number of a row is
+   * row * step / run, wrapped around at cycle, or for a rare value 1 at
+   * every cycle-th row and 0 elsewhere.  A string column holds prefix
+   * and the number.
+   */
+  protected static class Column {
+    private final int step;
+    private final int run;
+    private final int cycle;
+    private final boolean rare;
+    private final String prefix;
+
+    private Column(int step, int run, int cycle, boolean rare, String prefix) {
+      this.step = step;
+      this.run = run;
+      this.cycle = cycle;
+      this.rare = rare;
+      this.prefix = prefix;
+    }
+
+    private int number(int row) {
+      if (rare)
+	return row % cycle == 0 ? 1 : 0;
+      return (row * step / run) % cycle;
+    }
+  }
+
+  // 0 to n - 1 over and over
+  protected static Column cycle(int n) {
+    return new Column(1, 1, n, false, null);
+  }
+
+  // runs of the given rows of 0, then 1, and so on
+  protected static Column runs(int rows) {
+    return new Column(1, rows, Integer.MAX_VALUE, false, null);
+  }
+
+  // row * step modulo n, scattering the n values
+  protected static Column scatter(int step, int n) {
+    return new Column(step, 1, n, false, null);
+  }
+
+  // 1 at one row in n, 0 elsewhere
+  protected static Column rare(int n) {
+    return new Column(1, 1, n, true, null);
+  }
+
+  // the strings of prefix and the numbers of another column
+  protected static Column strings(String prefix, Column numbers) {
+    return new Column(numbers.step, numbers.run, numbers.cycle, numbers.rare, prefix);
+  }
+
+  protected BitmapTestDriver(String nameRoot, int dbPages, int bufPages, Column a, Column b,
+			     Column c) {
+    super(nameRoot);
+    this.dbPages = dbPages;
+    this.bufPages = bufPages;
+    this.columns = new Column[] { a, b, c };
+  }
+
+  public boolean runTests() {
+
+    System.out.println("\n" + "Running " + testName() + " tests...." + "\n");
+
+    new File(dbpath).delete();
+    new SystemDefs(dbpath, dbPages, bufPages, "Clock");
+
+    boolean _pass = runAllTests();
+
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+    } catch (Exception e) {
+      _pass = FAIL;
+      e.printStackTrace();
+    }
+
+    System.out.print("\n" + "..." + testName() + " tests ");
+    System.out.print(_pass == OK ? "completely successfully" : "failed");
+    System.out.print(".\n\n");
+
+    return _pass;
+  }
+
+  // the number of column A, B or C of a row
+  protected int a(int row) {
+    return columns[0].number(row);
+  }
+
+  protected int b(int row) {
+    return columns[1].number(row);
+  }
+
+  protected int c(int row) {
+    return columns[2].number(row);
+  }
+
+  // the value of column 1 to 3 of a row, an Integer or a String
+  protected Object value(int column, int row) {
+    Column values = columns[column - 1];
+    if (values.prefix == null)
+      return Integer.valueOf(values.number(row));
+    return values.prefix + values.number(row);
+  }
+
+  // a columnar file of the first rows, with columns of the given
+  // AttrType types
+  protected Columnarfile load(String name, int[] types, int rows) throws Exception {
+    attrType = new AttrType[numColumns];
+    for (int col = 0; col < numColumns; col++)
+      attrType[col] = new AttrType(types[col]);
+    Columnarfile f = new Columnarfile(name, numColumns, attrType, Ssizes, columnNames);
+    for (int i = 0; i < rows; i++) {
+      Tuple t = new Tuple();
+      t.setHdr((short) numColumns, attrType, Ssizes);
+      for (int col = 1; col <= numColumns; col++) {
+	Object v = value(col, i);
+	if (v instanceof Integer)
+	  t.setIntFld(col, (Integer) v);
+	else
+	  t.setStrFld(col, (String) v);
+      }
+      f.insertTuple(t.getTupleByteArray());
+    }
+    return f;
+  }
+
+  // a bitmap index on each column of cf, and a compressed bitmap index
+  // in the format given for the column
+  protected void createBitMapIndexes(int[] formats) throws Exception {
+    for (int col = 1; col <= numColumns; col++) {
+      cf.createBitMapIndex(col, null, false);
+      cf.createBitMapIndex(col, null, true, formats[col - 1]);
+    }
+  }
+
+  protected int pins() {
+    return SystemDefs.JavabaseBM.getHitCount() + SystemDefs.JavabaseBM.getMissCount();
+  }
+
+  // the order of two values of the same column
+  protected int compare(Object x, Object y) {
+    if (x instanceof Integer)
+      return ((Integer) x).compareTo((Integer) y);
+    return ((String) x).compareTo((String) y);
+  }
+
+  // the key of a value, null for open
+  protected KeyClass key(Object value) {
+    if (value == null)
+      return null;
+    if (value instanceof Integer)
+      return new IntegerKey((Integer) value);
+    return new StringKey((String) value);
+  }
+
+  // the values lo to hi of a bitmap or compressed bitmap file, null
+  // for open
+  protected BitmapPredicate values(IndexFile index, Object lo, Object hi) {
+    if (index instanceof BitMapFile)
+      return BitmapPredicate.values((BitMapFile) index, key(lo), key(hi));
+    return BitmapPredicate.values((CBitMapFile) index, key(lo), key(hi));
+  }
+}
@@ -0,0 +1,254 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import heap.*;
+import columnar.*;
+import btree.*;
+import bitmap.*;
+import bufmgr.*;
+import diskmgr.*;
+
+/**
+ * Exercises the one-pass loader of a columnar file
+ * (columnar.ColumnarLoader), against loading the same rows a column
+ * at a time with addToColumnarColumn, as BatchInsert used to:
+ *   test1: both loads, with a btree and a bitmap index created before
+ *          them, on a ConcurrentBufMgr, so with a writer thread per
+ *          column; rows/second and pages written by each; the tuples
+ *          and both indexes of the two files
+ *   test2: appending to a loaded file after the database is reopened
+ *          with a BufMgr, so with the batches written in the calling
+ *          thread, and a last batch shorter than the others
+ */
+class BulkLoadDriver extends TestDriver implements GlobalConst {
+
+  private final static String loadName = "bulk_file";
+  private final static String oldName = "bulk_old";
+  private final static int numRows = 20000;
+  private final static int moreRows = 1500;
+  private final static int numColumns = 3;
+  private final static int dbPages = 20000;
+  private final static int bufPages = 100;
+  private final static int batchRows = 1000;
+
+  private AttrType[] attrType;
+  private short[] Ssizes = { 20 };
+
+  public BulkLoadDriver() {
+    super("bulkloadtest");
+  }
+
+  public boolean runTests() {
+
+    System.out.println("\n" + "Running " + testName() + " tests...." + "\n");
+
+    new File(dbpath).delete();
+    new SystemDefs(dbpath, dbPages, bufPages, "Clock", null, GlobalConst.MINIBASE_PAGESIZE, 16);
+
+    boolean _pass = runAllTests();
+
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+    } catch (Exception e) {
+      _pass = FAIL;
+      e.printStackTrace();
+    }
+
+    System.out.print("\n" + "..." + testName() + " tests ");
+    System.out.print(_pass == OK ? "completely successfully" : "failed");
+    System.out.print(".\n\n");
+
+    return _pass;
+  }
+
+  // the values of a row: A, a string of a few values, C
+  private byte[][] row(int i) throws Exception {
+    byte[][] row = new byte[numColumns][];
+    row[0] = new byte[4];
+    Convert.setIntValue(i, 0, row[0]);
+    row[1] = new byte[20];
+    Convert.setStrValue("s" + (i % 97), 0, row[1]);
+    row[2] = new byte[4];
+    Convert.setIntValue(i % 50, 0, row[2]);
+    return row;
+  }
+
+  private Columnarfile create(String name) throws Exception {
+    attrType = new AttrType[numColumns];
+    attrType[0] = new AttrType(AttrType.attrInteger);
+    attrType[1] = new AttrType(AttrType.attrString);
+    attrType[2] = new AttrType(AttrType.attrInteger);
+    String[] columnNames = { "A", "B", "C" };
+    byte[] encodings = { Columnarfile.ENCODING_PACKED, Columnarfile.ENCODING_DICTIONARY,
+			 Columnarfile.ENCODING_PACKED };
+    Columnarfile cf = new Columnarfile(name, numColumns, attrType, Ssizes, columnNames, encodings);
+    cf.createBTreeIndex(1);
+    cf.createBitMapIndex(3, null, false);
+    return cf;
+  }
+
+  /*
+   * Each position holds the row of its number; the btree of A has an
+   * entry per row, to its record; the bitmap of C gives the rows with
+   * C = 7.
+   */
+  private boolean check(Columnarfile cf, int rows, String what) throws Exception {
+    String name = cf.get_fileName();
+    for (int c = 1; c <= numColumns; c++) {
+      int records = new Heapfile(name + "." + c).getRecCnt();
+      if (records != rows) {
+	System.err.println("*** " + what + ": column " + c + " holds " + records + " records\n");
+	return FAIL;
+      }
+    }
+    for (int p = 0; p < rows; p++) {
+      Tuple t = cf.getTuple(cf.getTidFromPosition(p));
+      if (t.getIntFld(1) != p || !t.getStrFld(2).equals("s" + (p % 97)) || t.getIntFld(3) != p % 50) {
+	System.err.println("*** " + what + ": position " + p + " holds " + t.getIntFld(1) + ", "
+			   + t.getStrFld(2) + ", " + t.getIntFld(3) + "\n");
+	return FAIL;
+      }
+    }
+
+    Heapfile hf = new Heapfile(name + ".1");
+    BTreeFile btf = new BTreeFile(name + ".btree1");
+    BTFileScan bscan = btf.new_scan(null, null);
+    BitSet keys = new BitSet();
+    KeyDataEntry entry;
+    boolean ok = true;
+    while ((entry = bscan.get_next()) != null) {
+      int key = ((IntegerKey) entry.key).getKey().intValue();
+      RID rid = ((LeafData) entry.data).getData();
+      if (hf.getPositionFromRid(rid) != key || keys.get(key)) {
+	System.err.println("*** " + what + ": the btree entry of " + key + " is wrong\n");
+	ok = false;
+	break;
+      }
+      keys.set(key);
+    }
+    bscan.DestroyBTreeFileScan();
+    btf.close();
+    if (!ok)
+      return FAIL;
+    if (keys.cardinality() != rows) {
+      System.err.println("*** " + what + ": the btree holds " + keys.cardinality() + " keys\n");
+      return FAIL;
+    }
+
+    BitMapFile bmf = new BitMapFile(name + ".bitmap3");
+    bmf.setSrcColumnarFile(cf);
+    bmf.setMappedColumn(3);
+    bmf.setMapType(AttrType.attrInteger);
+    BMFileScan mscan = bmf.new_scan(new IntegerKey(7), new IntegerKey(7));
+    BitSet found = new BitSet();
+    while (mscan.get_next() != null)
+      found.set(mscan.getLatestPositionMatch());
+    mscan.closeBitmapScans();
+    bmf.close();
+    BitSet want = new BitSet();
+    for (int p = 7; p < rows; p += 50)
+      want.set(p);
+    if (!found.equals(want)) {
+      System.err.println("*** " + what + ": the bitmap found " + found.cardinality()
+			 + " rows, not " + want.cardinality() + "\n");
+      return FAIL;
+    }
+    System.out.println("  " + what + ": " + rows + " rows, both indexes agree");
+    return OK;
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Loading in one pass\n");
+    boolean status = OK;
+
+    try {
+      // a column at a time, a value at a time
+      Columnarfile old = create(oldName);
+      SystemDefs.JavabaseBM.flushAllPages();
+      PCounter.initialize();
+      long start = System.currentTimeMillis();
+      for (int c = 0; c < numColumns; c++)
+	for (int i = 0; i < numRows; i++)
+	  old.addToColumnarColumn(c, row(i)[c]);
+      SystemDefs.JavabaseBM.flushAllPages();
+      long oldMillis = Math.max(1, System.currentTimeMillis() - start);
+      int oldWrites = PCounter.getWriteCount();
+
+      // the loader, a writer thread per column
+      Columnarfile cf = create(loadName);
+      SystemDefs.JavabaseBM.flushAllPages();
+      PCounter.initialize();
+      start = System.currentTimeMillis();
+      ColumnarLoader loader = new ColumnarLoader(cf, batchRows);
+      for (int i = 0; i < numRows; i++)
+	loader.add(row(i));
+      int rows = loader.finish();
+      SystemDefs.JavabaseBM.flushAllPages();
+      long millis = Math.max(1, System.currentTimeMillis() - start);
+      int writes = PCounter.getWriteCount();
+
+      System.out.println("  per value: " + (numRows * 1000L / oldMillis) + " rows/second, "
+			 + oldWrites + " pages written");
+      System.out.println("  loader:    " + (numRows * 1000L / millis) + " rows/second, "
+			 + writes + " pages written");
+      if (rows != numRows) {
+	System.err.println("*** The loader loaded " + rows + " rows\n");
+	status = FAIL;
+      }
+      if (status == OK)
+	status = check(old, numRows, "per value");
+      if (status == OK)
+	status = check(cf, numRows, "loader");
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error loading\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Appending without writer threads\n");
+    boolean status = OK;
+
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+      new SystemDefs(dbpath, 0, bufPages, "Clock");
+      Columnarfile cf = new Columnarfile(loadName);
+      ColumnarLoader loader = new ColumnarLoader(cf, batchRows);
+      for (int i = numRows; i < numRows + moreRows; i++)
+	loader.add(row(i));
+      loader.finish();
+      status = check(cf, numRows + moreRows, "appended");
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error appending\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Bulk load";
+  }
+}
+
+public class BulkLoadTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new BulkLoadDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
@@ -0,0 +1,206 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import heap.*;
+import columnar.*;
+import bufmgr.*;
+import diskmgr.*;
+
+/**
+ * Runs insert workloads through a small buffer pool with the
+ * background page cleaner (BufMgr.startCleaner) off and on, and
+ * compares the pages the buffer manager had to write itself with the
+ * pages written by the cleaner.
+ *   test1: heap file inserts
+ *   test2: columnar file inserts
+ * Every file is read back after the database is reopened.
+ */
+class CleanerDriver extends TestDriver implements GlobalConst {
+
+  private final static int[] cleanPercents = { 0, BufMgr.DEFAULT_CLEAN_PERCENT, 25 };
+
+  private final static int numColumns = 3;
+  private final static int numRecords = 20000;
+  private final static int numTuples = 5000;
+  private final static int reclen = 32;
+  private final static int dbPages = 8000;
+  private final static int bufPages = 50;
+
+  public CleanerDriver() {
+    super("cleanertest");
+  }
+
+  public boolean runTests() {
+
+    System.out.println("\n" + "Running " + testName() + " tests...." + "\n");
+
+    boolean _pass = runAllTests();
+
+    System.out.print("\n" + "..." + testName() + " tests ");
+    System.out.print(_pass == OK ? "completely successfully" : "failed");
+    System.out.print(".\n\n");
+
+    return _pass;
+  }
+
+  private void create(int cleanPercent) {
+    new File(dbpath).delete();
+    new SystemDefs(dbpath, dbPages, bufPages, "Clock");
+    if (cleanPercent > 0)
+      SystemDefs.JavabaseBM.startCleaner(cleanPercent);
+    SystemDefs.JavabaseBM.resetWriteCounts();
+    PCounter.initialize();
+  }
+
+  private void reopen() {
+    new SystemDefs(dbpath, 0, bufPages, "Clock");
+  }
+
+  private void close()
+    throws Exception {
+    SystemDefs.JavabaseBM.flushAllPages();
+    SystemDefs.JavabaseBM.stopCleaner();
+    SystemDefs.JavabaseDB.closeDB();
+  }
+
+  // call after flushAllPages and before stopCleaner
+  private void report(int cleanPercent, long start) {
+    BufMgr bm = SystemDefs.JavabaseBM;
+    System.out.println("  cleaner " + (cleanPercent == 0 ? "off" : cleanPercent + "%") + ": "
+		       + (System.currentTimeMillis() - start) + " ms, "
+		       + PCounter.getWriteCount() + " writes, "
+		       + bm.getSyncWriteCount() + " synchronous, "
+		       + bm.getBackgroundWriteCount() + " background in "
+		       + bm.getBackgroundWriteCalls() + " calls");
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Heap file inserts\n");
+    boolean status = OK;
+
+    for (int c = 0; c < cleanPercents.length && status == OK; c++) {
+      try {
+	create(cleanPercents[c]);
+	long start = System.currentTimeMillis();
+	Heapfile hf = new Heapfile("cleaner_heap");
+	byte[] rec = new byte[reclen];
+	for (int i = 0; i < numRecords; i++) {
+	  Convert.setIntValue(i, 0, rec);
+	  hf.insertRecord(rec);
+	}
+	SystemDefs.JavabaseBM.flushAllPages();
+	report(cleanPercents[c], start);
+	if (cleanPercents[c] > 0 && SystemDefs.JavabaseBM.getBackgroundWriteCount() == 0) {
+	  System.err.println("*** The cleaner wrote nothing\n");
+	  status = FAIL;
+	}
+	close();
+
+	reopen();
+	Scan scan = new Heapfile("cleaner_heap").openScan();
+	RID rid = new RID();
+	Tuple t;
+	int count = 0;
+	while ((t = scan.getNext(rid)) != null) {
+	  if (Convert.getIntValue(0, t.getTupleByteArray()) != count) {
+	    System.err.println("*** Record " + count + " is wrong\n");
+	    status = FAIL;
+	    break;
+	  }
+	  count++;
+	}
+	scan.closescan();
+	if (count != numRecords && status == OK) {
+	  System.err.println("*** Heap file reopened with " + count + " records\n");
+	  status = FAIL;
+	}
+	close();
+      } catch (Exception e) {
+	status = FAIL;
+	System.err.println("*** Error inserting into the heap file\n");
+	e.printStackTrace();
+      }
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Columnar file inserts\n");
+    boolean status = OK;
+
+    AttrType[] attrType = new AttrType[numColumns];
+    attrType[0] = new AttrType(AttrType.attrInteger);
+    attrType[1] = new AttrType(AttrType.attrInteger);
+    attrType[2] = new AttrType(AttrType.attrString);
+    short[] Ssizes = new short[1];
+    Ssizes[0] = 20;
+    String[] columnNames = { "key:int", "value:int", "name:string" };
+
+    for (int c = 0; c < cleanPercents.length && status == OK; c++) {
+      try {
+	create(cleanPercents[c]);
+	long start = System.currentTimeMillis();
+	Columnarfile f = new Columnarfile("cleaner_file", numColumns, attrType, Ssizes, columnNames);
+	Tuple t = new Tuple();
+	t.setHdr((short) numColumns, attrType, Ssizes);
+	for (int i = 0; i < numTuples; i++) {
+	  t.setIntFld(1, i);
+	  t.setIntFld(2, i * 3);
+	  t.setStrFld(3, "tuple" + i);
+	  f.insertTuple(t.getTupleByteArray());
+	}
+	SystemDefs.JavabaseBM.flushAllPages();
+	report(cleanPercents[c], start);
+	close();
+
+	reopen();
+	f = new Columnarfile("cleaner_file");
+	Scan scan = f.openColumnScan(numColumns);
+	RID rid = new RID();
+	int count = 0;
+	while ((t = scan.getNext(rid)) != null) {
+	  byte[] bytes = t.getTupleByteArray();
+	  if (!Convert.getStrValue(0, bytes, bytes.length).equals("tuple" + count)) {
+	    System.err.println("*** Column value " + count + " is wrong\n");
+	    status = FAIL;
+	    break;
+	  }
+	  count++;
+	}
+	scan.closescan();
+	if (count != numTuples && status == OK) {
+	  System.err.println("*** Columnar file reopened with " + count + " values\n");
+	  status = FAIL;
+	}
+	close();
+      } catch (Exception e) {
+	status = FAIL;
+	System.err.println("*** Error inserting into the columnar file\n");
+	e.printStackTrace();
+      }
+    }
+
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Background page cleaner";
+  }
+}
+
+public class CleanerTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new CleanerDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
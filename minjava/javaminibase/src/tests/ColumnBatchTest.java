@@ -0,0 +1,253 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import heap.*;
+import columnar.*;
+import bufmgr.*;
+import diskmgr.*;
+
+/**
+ * Exercises the batch scan of a columnar file
+ * (Columnarfile.openColumnBatchScan):
+ *   test1: the vectors and selection vectors of scans over different
+ *          columns and batch sizes, with some tuples marked deleted
+ *   test2: a filter and a sum over two columns, once through TupleScan
+ *          tuples and once as loops over the batch vectors, with the
+ *          time and the pages read
+ */
+class ColumnBatchDriver extends TestDriver implements GlobalConst {
+
+  private final static String cfName = "batch_file";
+  private final static int numTuples = 20000;
+  private final static int numColumns = 4;
+  private final static int numDeleted = 500;
+  private final static int dbPages = 8000;
+  private final static int bufPages = 100;
+
+  private Columnarfile f;
+  private BitSet deleted = new BitSet();
+
+  public ColumnBatchDriver() {
+    super("columnbatchtest");
+  }
+
+  public boolean runTests() {
+
+    System.out.println("\n" + "Running " + testName() + " tests...." + "\n");
+
+    new File(dbpath).delete();
+    new SystemDefs(dbpath, dbPages, bufPages, "Clock");
+
+    boolean _pass = runAllTests();
+
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+    } catch (Exception e) {
+      _pass = FAIL;
+      e.printStackTrace();
+    }
+
+    System.out.print("\n" + "..." + testName() + " tests ");
+    System.out.print(_pass == OK ? "completely successfully" : "failed");
+    System.out.print(".\n\n");
+
+    return _pass;
+  }
+
+  private int key(int i) { return (i * 7919) % numTuples; }
+  private float weight(int i) { return i / 8.0f; }
+  private String name(int i) { return "n" + (i % 1000); }
+  private int count(int i) { return i % 13; }
+
+  private void load()
+    throws Exception {
+    AttrType[] attrType = new AttrType[numColumns];
+    attrType[0] = new AttrType(AttrType.attrInteger);
+    attrType[1] = new AttrType(AttrType.attrReal);
+    attrType[2] = new AttrType(AttrType.attrString);
+    attrType[3] = new AttrType(AttrType.attrInteger);
+    short[] Ssizes = { 10 };
+    String[] columnNames = { "key:int", "weight:real", "name:string", "count:int" };
+    f = new Columnarfile(cfName, numColumns, attrType, Ssizes, columnNames);
+    Tuple t = new Tuple();
+    t.setHdr((short) numColumns, attrType, Ssizes);
+    Random random = new Random(1212);
+    List<TID> tids = new ArrayList<TID>();
+    for (int i = 0; i < numTuples; i++) {
+      t.setIntFld(1, key(i));
+      t.setFloFld(2, weight(i));
+      t.setStrFld(3, name(i));
+      t.setIntFld(4, count(i));
+      tids.add(f.insertTuple(t.getTupleByteArray()));
+    }
+    while (deleted.cardinality() < numDeleted) {
+      int position = random.nextInt(numTuples);
+      if (!deleted.get(position)) {
+	f.markTupleDeleted(tids.get(position));
+	deleted.set(position);
+      }
+    }
+  }
+
+  private boolean checkScan(int[] columns, int batchSize)
+    throws Exception {
+    ColumnBatchScan scan = f.openColumnBatchScan(columns, batchSize);
+    ColumnBatch batch;
+    int position = 0, selected = 0;
+    while ((batch = scan.getNext()) != null) {
+      if (batch.getFirstPosition() != position || batch.getSize() > batchSize) {
+	System.err.println("*** Batch at " + batch.getFirstPosition() + " of " + batch.getSize() + " rows\n");
+	return FAIL;
+      }
+      for (int r = 0; r < batch.getSize(); r++) {
+	int i = position + r;
+	for (int v = 0; v < columns.length; v++) {
+	  boolean same;
+	  switch (columns[v]) {
+	  case 1: same = batch.getInts(v)[r] == key(i); break;
+	  case 2: same = batch.getFloats(v)[r] == weight(i); break;
+	  case 3: same = batch.getStrings(v)[r].equals(name(i)); break;
+	  default: same = batch.getInts(v)[r] == count(i); break;
+	  }
+	  if (!same) {
+	    System.err.println("*** Column " + columns[v] + " is wrong at position " + i + "\n");
+	    return FAIL;
+	  }
+	}
+      }
+      int[] sel = batch.getSelection();
+      int k = 0;
+      for (int r = 0; r < batch.getSize(); r++) {
+	if (deleted.get(position + r))
+	  continue;
+	if (k >= batch.getSelectedCount() || sel[k] != r) {
+	  System.err.println("*** The selection vector is wrong at position " + (position + r) + "\n");
+	  return FAIL;
+	}
+	k++;
+      }
+      if (k != batch.getSelectedCount()) {
+	System.err.println("*** The selection vector selects deleted rows\n");
+	return FAIL;
+      }
+      selected += k;
+      position += batch.getSize();
+    }
+    scan.closeBatchScan();
+    if (position != numTuples || selected != numTuples - numDeleted) {
+      System.err.println("*** The scan covered " + position + " positions, " + selected + " selected\n");
+      return FAIL;
+    }
+    return OK;
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Batch vectors and selection\n");
+    boolean status = OK;
+
+    try {
+      load();
+      int[][] columnSets = { { 1 }, { 2, 4 }, { 3, 1 }, { 1, 2, 3, 4 } };
+      int[] batchSizes = { 1, 100, 1024, 50000 };
+      for (int c = 0; c < columnSets.length && status == OK; c++)
+	for (int b = 0; b < batchSizes.length && status == OK; b++)
+	  status = checkScan(columnSets[c], batchSizes[b]);
+
+      try {
+	f.openColumnBatchScan(new int[] { numColumns + 1 }, 100);
+	System.err.println("*** A scan of a missing column was opened\n");
+	status = FAIL;
+      } catch (CFException e) {
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in the batch scans\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Filter and sum, by tuple and by batch\n");
+    boolean status = OK;
+
+    // sum of column 4 over the live tuples with column 1 below the limit
+    int limit = numTuples / 10;
+    long expected = 0;
+    for (int i = 0; i < numTuples; i++)
+      if (!deleted.get(i) && key(i) < limit)
+	expected += count(i);
+
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      PCounter.initialize();
+      long start = System.nanoTime();
+      TupleScan tscan = f.openTupleScan();
+      TID tid = new TID(numColumns);
+      Tuple t;
+      long sum = 0;
+      while ((t = tscan.getNext(tid)) != null)
+	if (!deleted.get(tid.position) && t.getIntFld(1) < limit)
+	  sum += t.getIntFld(4);
+      tscan.closetuplescan();
+      System.out.println("  by tuple: " + (System.nanoTime() - start) / 1000 + " us, "
+			 + PCounter.getReadCount() + " reads");
+      if (sum != expected) {
+	System.err.println("*** The tuple scan sum is " + sum + ", not " + expected + "\n");
+	status = FAIL;
+      }
+
+      SystemDefs.JavabaseBM.flushAllPages();
+      PCounter.initialize();
+      start = System.nanoTime();
+      ColumnBatchScan bscan = f.openColumnBatchScan(new int[] { 1, 4 }, 1024);
+      ColumnBatch batch;
+      sum = 0;
+      while ((batch = bscan.getNext()) != null) {
+	int[] keys = batch.getInts(0);
+	int[] counts = batch.getInts(1);
+	int[] sel = batch.getSelection();
+	for (int k = 0; k < batch.getSelectedCount(); k++) {
+	  int r = sel[k];
+	  if (keys[r] < limit)
+	    sum += counts[r];
+	}
+      }
+      bscan.closeBatchScan();
+      System.out.println("  by batch: " + (System.nanoTime() - start) / 1000 + " us, "
+			 + PCounter.getReadCount() + " reads");
+      if (sum != expected) {
+	System.err.println("*** The batch scan sum is " + sum + ", not " + expected + "\n");
+	status = FAIL;
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in the scans\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Column batch scan";
+  }
+}
+
+public class ColumnBatchTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new ColumnBatchDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
@@ -0,0 +1,45 @@
+package tests;
+
+import global.*;
+import iterator.*;
+
+/**
+ * The columnar scan tests: the filters they scan a columnar file with,
+ * a CondExpr comparing a column of the outer relation to an int, real
+ * or string value.
+ */
+abstract class ColumnarTestDriver extends TestDriver implements GlobalConst {
+
+  protected ColumnarTestDriver(String nameRoot) {
+    super(nameRoot);
+  }
+
+  // column op a value of the given AttrType type, the value left to set
+  protected static CondExpr pred(int column, int op, int type) {
+    CondExpr p = new CondExpr();
+    p.op = new AttrOperator(op);
+    p.type1 = new AttrType(AttrType.attrSymbol);
+    p.operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), column);
+    p.type2 = new AttrType(type);
+    p.next = null;
+    return p;
+  }
+
+  protected static CondExpr intPred(int column, int op, int value) {
+    CondExpr p = pred(column, op, AttrType.attrInteger);
+    p.operand2.integer = value;
+    return p;
+  }
+
+  protected static CondExpr realPred(int column, int op, float value) {
+    CondExpr p = pred(column, op, AttrType.attrReal);
+    p.operand2.real = value;
+    return p;
+  }
+
+  protected static CondExpr strPred(int column, int op, String value) {
+    CondExpr p = pred(column, op, AttrType.attrString);
+    p.operand2.string = value;
+    return p;
+  }
+}
@@ -0,0 +1,377 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import heap.*;
+import columnar.*;
+import iterator.*;
+import btree.*;
+import bitmap.*;
+import bufmgr.*;
+import diskmgr.*;
+
+/**
+ * Exercises the incremental compaction of a columnar file
+ * (Columnarfile.compactDeletedTuples), which takes the tuples marked
+ * deleted out of only the data pages holding them:
+ *   test1: compacting a few scattered deletes and a run in small
+ *          batches, the pages each batch writes against the pages of
+ *          the file, the tuples, a ColumnarFileScan and the btree index
+ *          of a column after every batch
+ *   test2: inserts after the compaction landing on the same position in
+ *          every column, the file after the database is reopened, the
+ *          bitmap indexes of a column after compacting, and the purge
+ *          finishing what the compaction left
+ */
+class CompactionDriver extends TestDriver implements GlobalConst {
+
+  private final static String cfName = "compact_file";
+  private final static int numTuples = 20000;
+  private final static int numColumns = 3;
+  private final static int dbPages = 10000;
+  private final static int bufPages = 100;
+  private final static int batchPages = 6;
+
+  private Columnarfile f;
+  private AttrType[] attrType;
+  private short[] Ssizes = { 8 };
+  private BitSet live = new BitSet(); // the A values of the live tuples
+  private BitSet marked = new BitSet(); // the A values marked deleted
+  private BitSet unindexed = new BitSet(); // the A values inserted after the index
+  private boolean mapped = false; // C has bitmap indexes
+  private int inserted = numTuples;
+
+  public CompactionDriver() {
+    super("compacttest");
+  }
+
+  public boolean runTests() {
+
+    System.out.println("\n" + "Running " + testName() + " tests...." + "\n");
+
+    new File(dbpath).delete();
+    new SystemDefs(dbpath, dbPages, bufPages, "Clock");
+
+    boolean _pass = runAllTests();
+
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+    } catch (Exception e) {
+      _pass = FAIL;
+      e.printStackTrace();
+    }
+
+    System.out.print("\n" + "..." + testName() + " tests ");
+    System.out.print(_pass == OK ? "completely successfully" : "failed");
+    System.out.print(".\n\n");
+
+    return _pass;
+  }
+
+  private void reopen() throws Exception {
+    SystemDefs.JavabaseBM.flushAllPages();
+    SystemDefs.JavabaseDB.closeDB();
+    new SystemDefs(dbpath, 0, bufPages, "Clock");
+  }
+
+  private void insert(int value) throws Exception {
+    Tuple t = new Tuple();
+    t.setHdr((short) numColumns, attrType, Ssizes);
+    t.setIntFld(1, value);
+    t.setStrFld(2, "s" + value);
+    t.setIntFld(3, value * 7 % 1000);
+    f.insertTuple(t.getTupleByteArray());
+    live.set(value);
+  }
+
+  private void delete(int position) throws Exception {
+    int value = f.getTuple(f.getTidFromPosition(position)).getIntFld(1);
+    f.markTupleDeleted(new TID(numColumns, position));
+    live.clear(value);
+    marked.set(value);
+  }
+
+  private int dataPages() throws Exception {
+    int pages = 0;
+    for (int c = 1; c <= numColumns; c++) {
+      Heapfile hf = new Heapfile(cfName + "." + c);
+      Scan scan = hf.openScan();
+      RID rid = new RID();
+      int last = -1;
+      while (scan.getNext(rid) != null) {
+	if (rid.pageNo.pid != last)
+	  pages++;
+	last = rid.pageNo.pid;
+      }
+      scan.closescan();
+    }
+    return pages;
+  }
+
+  /*
+   * Every position holds one tuple, the same in each column; the
+   * positions marked deleted hold the values of marked; a scan returns
+   * the live values; the btree of A has an entry per record, with the
+   * record's value.
+   */
+  private boolean check(String what) throws Exception {
+    int records = new Heapfile(cfName + ".1").getRecCnt();
+    for (int c = 2; c <= numColumns; c++) {
+      if (new Heapfile(cfName + "." + c).getRecCnt() != records) {
+	System.err.println("*** " + what + ": column " + c + " holds "
+			   + new Heapfile(cfName + "." + c).getRecCnt() + " records, not " + records + "\n");
+	return FAIL;
+      }
+    }
+    if (records != live.cardinality() + marked.cardinality()
+	|| f.getDeletionVector().count() != marked.cardinality()) {
+      System.err.println("*** " + what + ": " + records + " records, "
+			 + f.getDeletionVector().count() + " marked\n");
+      return FAIL;
+    }
+
+    BitSet values = new BitSet();
+    int indexed = 0;
+    TreeMap<Object, Integer> counts = new TreeMap<Object, Integer>();
+    BitSet range = new BitSet(); // the positions of C values 100 to 199
+    for (int p = 0; p < records; p++) {
+      Tuple t = f.getTuple(f.getTidFromPosition(p));
+      int a = t.getIntFld(1);
+      int c = t.getIntFld(3);
+      Integer count = counts.get(c);
+      counts.put(c, count == null ? 1 : count + 1);
+      if (c >= 100 && c <= 199)
+	range.set(p);
+      if (!t.getStrFld(2).equals("s" + a) || t.getIntFld(3) != a * 7 % 1000
+	  || f.isTupleMarkedDeleted(p) != marked.get(a) || values.get(a)) {
+	System.err.println("*** " + what + ": position " + p + " holds " + a + ", "
+			   + t.getStrFld(2) + ", " + t.getIntFld(3) + "\n");
+	return FAIL;
+      }
+      values.set(a);
+      if (!unindexed.get(a))
+	indexed++;
+    }
+
+    FldSpec[] proj = { new FldSpec(new RelSpec(RelSpec.outer), 1) };
+    ColumnarFileScan scan = new ColumnarFileScan(cfName, attrType, Ssizes, (short) numColumns,
+						 1, proj, null);
+    BitSet found = new BitSet();
+    Tuple t;
+    while ((t = scan.get_next()) != null)
+      found.set(t.getIntFld(1));
+    scan.close();
+    if (!found.equals(live)) {
+      System.err.println("*** " + what + ": the scan found " + found.cardinality()
+			 + " tuples, not " + live.cardinality() + "\n");
+      return FAIL;
+    }
+
+    Heapfile hf = new Heapfile(cfName + ".1");
+    BTreeFile btf = new BTreeFile(cfName + ".btree1");
+    BTFileScan iscan = btf.new_scan(null, null);
+    int entries = 0;
+    KeyDataEntry entry;
+    boolean ok = true;
+    while ((entry = iscan.get_next()) != null) {
+      int key = ((IntegerKey) entry.key).getKey().intValue();
+      RID rid = ((LeafData) entry.data).getData();
+      if (Convert.getIntValue(0, hf.getRecord(rid).getTupleByteArray()) != key) {
+	System.err.println("*** " + what + ": the index entry of " + key + " is wrong\n");
+	ok = false;
+	break;
+      }
+      entries++;
+    }
+    iscan.DestroyBTreeFileScan();
+    btf.close();
+    if (!ok)
+      return FAIL;
+    if (entries != indexed) {
+      System.err.println("*** " + what + ": the index holds " + entries + " entries, not "
+			 + indexed + "\n");
+      return FAIL;
+    }
+
+    // each bitmap index of C maps a value to the positions holding it
+    if (mapped) {
+      BitMapFile bmf = new BitMapFile(cfName + ".bitmap3");
+      CBitMapFile cbmf = new CBitMapFile(cfName + ".cbitmap3");
+      BitmapPredicate[] all = { BitmapPredicate.values(bmf, null, null),
+				BitmapPredicate.values(cbmf, null, null) };
+      BitmapPredicate[] some = {
+	BitmapPredicate.values(bmf, new IntegerKey(100), new IntegerKey(199)),
+	BitmapPredicate.values(cbmf, new IntegerKey(100), new IntegerKey(199)) };
+      for (int i = 0; i < all.length && ok; i++) {
+	if (!all[i].groupCount(null).equals(counts) || !some[i].evaluate(records).equals(range)) {
+	  System.err.println("*** " + what + ": the " + (i == 0 ? "bitmap" : "compressed bitmap")
+			     + " index of C is wrong\n");
+	  ok = false;
+	}
+      }
+      bmf.close();
+      cbmf.close();
+    }
+    return ok;
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Compacting in batches\n");
+    boolean status = OK;
+
+    try {
+      attrType = new AttrType[numColumns];
+      attrType[0] = new AttrType(AttrType.attrInteger);
+      attrType[1] = new AttrType(AttrType.attrString);
+      attrType[2] = new AttrType(AttrType.attrInteger);
+      String[] columnNames = { "A", "B", "C" };
+      byte[] encodings = { Columnarfile.ENCODING_PLAIN, Columnarfile.ENCODING_PLAIN,
+			   Columnarfile.ENCODING_PACKED };
+      f = new Columnarfile(cfName, numColumns, attrType, Ssizes, columnNames, encodings);
+      for (int i = 0; i < numTuples; i++)
+	insert(i);
+      f.createBTreeIndex(1);
+
+      // scattered deletes, and a run emptying pages
+      for (int p = 0; p < numTuples; p += 997)
+	delete(p);
+      for (int p = 12000; p < 12600; p++)
+	if (!marked.get(p))
+	  delete(p);
+      status = check("marked");
+      int pages = dataPages();
+
+      int batches = 0;
+      int removed;
+      int maxWrites = 0;
+      while (status == OK) {
+	SystemDefs.JavabaseBM.flushAllPages();
+	PCounter.initialize();
+	removed = f.compactDeletedTuples(batchPages);
+	SystemDefs.JavabaseBM.flushAllPages();
+	maxWrites = Math.max(maxWrites, PCounter.getWriteCount());
+	if (removed == 0)
+	  break;
+	batches++;
+
+	// the values that were taken out are those not marked any more
+	BitSet still = f.getDeletionVector().positions();
+	int left = marked.cardinality();
+	if (left - removed != still.cardinality()) {
+	  System.err.println("*** A batch removed " + removed + " of " + left + " tuples, "
+			     + still.cardinality() + " are marked\n");
+	  status = FAIL;
+	  break;
+	}
+	BitSet kept = new BitSet();
+	for (int p = still.nextSetBit(0); p >= 0; p = still.nextSetBit(p + 1))
+	  kept.set(f.getTuple(f.getTidFromPosition(p)).getIntFld(1));
+	marked = kept;
+	status = check("batch " + batches);
+      }
+      System.out.println("  " + batches + " batches of at most " + batchPages + " pages, at most "
+			 + maxWrites + " pages written by one, " + pages + " data pages, "
+			 + marked.cardinality() + " tuples left marked");
+      if (status == OK && maxWrites >= pages / 2) {
+	System.err.println("*** A batch wrote " + maxWrites + " pages\n");
+	status = FAIL;
+      }
+      if (status == OK && batches < 2) {
+	System.err.println("*** The compaction took " + batches + " batches\n");
+	status = FAIL;
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in the compaction\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: The file after compacting\n");
+    boolean status = OK;
+
+    try {
+      // appended tuples get the same position in every column
+      // (insertTuple leaves the index alone)
+      for (int i = 0; i < 500; i++) {
+	unindexed.set(inserted);
+	insert(inserted++);
+      }
+      status = check("inserted");
+
+      if (status == OK) {
+	reopen();
+	f = new Columnarfile(cfName);
+	status = check("reopened");
+      }
+
+      // bitmap indexes of C, their positions moved down by each batch
+      if (status == OK) {
+	f.createBitMapIndex(3, null, false);
+	f.createBitMapIndex(3, null, true, CBitMapFile.FORMAT_WORDS);
+	mapped = true;
+	int records = new Heapfile(cfName + ".1").getRecCnt();
+	for (int p = records / 3; p < records; p += 1999)
+	  delete(p);
+	int batches = 0;
+	while (status == OK && f.compactDeletedTuples(batchPages) > 0) {
+	  batches++;
+	  BitSet still = f.getDeletionVector().positions();
+	  BitSet kept = new BitSet();
+	  for (int p = still.nextSetBit(0); p >= 0; p = still.nextSetBit(p + 1))
+	    kept.set(f.getTuple(f.getTidFromPosition(p)).getIntFld(1));
+	  marked = kept;
+	  status = check("mapped batch " + batches);
+	}
+	System.out.println("  " + batches + " batches with bitmap indexes");
+      }
+
+      if (status == OK) {
+	int records = new Heapfile(cfName + ".1").getRecCnt();
+	delete(0);
+	delete(records / 2);
+	delete(records - 1);
+	f.purgeAllDeletedTuples();
+	int gone = 0;
+	BitSet still = f.getDeletionVector().positions();
+	BitSet kept = new BitSet();
+	for (int p = still.nextSetBit(0); p >= 0; p = still.nextSetBit(p + 1))
+	  kept.set(f.getTuple(f.getTidFromPosition(p)).getIntFld(1));
+	gone = marked.cardinality() - kept.cardinality();
+	marked = kept;
+	System.out.println("  purged: " + gone + " tuples removed, " + marked.cardinality()
+			   + " left marked");
+	status = check("purged");
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error after the compaction\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Compaction";
+  }
+}
+
+public class CompactionTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new CompactionDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
@@ -0,0 +1,335 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import global.*;
+import heap.*;
+import btree.*;
+import bufmgr.*;
+import diskmgr.*;
+
+/**
+ * Runs several threads against one database through the concurrent
+ * buffer manager (SystemDefs made with bm_stripes > 0, see
+ * bufmgr.ConcurrentBufMgr).
+ *   test1: heap scans, B-tree probes and inserts into a private heap
+ *          file at the same time, with a pool much smaller than the
+ *          data, checking every result
+ *   test2: heap scan throughput for 1 to 8 threads
+ *   test3: a replacement policy other than Clock, and the background
+ *          page cleaner, are refused
+ */
+class ConcurrentBMDriver extends TestDriver implements GlobalConst {
+
+  private final static int numRecords = 20000;
+  private final static int reclen = 32;
+  private final static int dbPages = 8000;
+  private final static int smallPool = 40;
+  private final static int largePool = 1500;
+  private final static int numStripes = 16;
+  private final static int[] threadCounts = { 1, 2, 4, 8 };
+  private final static int scansPerRun = 16;
+
+  // sum of the keys 0 .. numRecords-1
+  private final static long keySum = (long) numRecords * (numRecords - 1) / 2;
+
+  private AtomicInteger errors = new AtomicInteger();
+
+  public ConcurrentBMDriver() {
+    super("concurrentbmtest");
+  }
+
+  public boolean runTests() {
+
+    System.out.println("\n" + "Running " + testName() + " tests...." + "\n");
+
+    boolean _pass = OK;
+    try {
+      build();
+      _pass = runAllTests();
+    } catch (Exception e) {
+      _pass = FAIL;
+      System.err.println("*** Error building the test data\n");
+      e.printStackTrace();
+    }
+    System.out.print("\n" + "..." + testName() + " tests ");
+    System.out.print(_pass == OK ? "completely successfully" : "failed");
+    System.out.print(".\n\n");
+
+    return _pass;
+  }
+
+  // heap file of numRecords keys and a B-tree on them, built single-threaded
+  private void build()
+    throws Exception {
+    new File(dbpath).delete();
+    new SystemDefs(dbpath, dbPages, smallPool, "Clock");
+
+    Heapfile f = new Heapfile("shared_file");
+    BTreeFile bt = new BTreeFile("shared_index", AttrType.attrInteger, 4, 1);
+    byte[] rec = new byte[reclen];
+    for (int i = 0; i < numRecords; i++) {
+      Convert.setIntValue(i, 0, rec);
+      RID rid = f.insertRecord(rec);
+      bt.insert(new IntegerKey(i), rid);
+    }
+    bt.close();
+    close();
+  }
+
+  private void open(int bufPages) {
+    new SystemDefs(dbpath, 0, bufPages, "Clock", null, GlobalConst.MINIBASE_PAGESIZE, numStripes);
+  }
+
+  private void close()
+    throws Exception {
+    SystemDefs.JavabaseBM.flushAllPages();
+    SystemDefs.JavabaseDB.closeDB();
+  }
+
+  private void fail(String msg, Exception e) {
+    errors.incrementAndGet();
+    System.err.println("*** " + Thread.currentThread().getName() + ": " + msg + "\n");
+    if (e != null)
+      e.printStackTrace();
+  }
+
+  // one scan of the shared file, checking the number and sum of the keys
+  private void scanShared()
+    throws Exception {
+    Heapfile f = new Heapfile("shared_file");
+    Scan scan = f.openScan();
+    RID rid = new RID();
+    Tuple t;
+    int count = 0;
+    long sum = 0;
+    while ((t = scan.getNext(rid)) != null) {
+      sum += Convert.getIntValue(0, t.getTupleByteArray());
+      count++;
+    }
+    scan.closescan();
+    if (count != numRecords || sum != keySum)
+      fail("Scan returned " + count + " records summing to " + sum, null);
+  }
+
+  private Thread scanner(final int numScans) {
+    return new Thread() {
+      public void run() {
+	try {
+	  for (int s = 0; s < numScans; s++)
+	    scanShared();
+	} catch (Exception e) {
+	  fail("Error scanning", e);
+	}
+      }
+    };
+  }
+
+  private Thread prober(final int numProbes, final long seed) {
+    return new Thread() {
+      public void run() {
+	try {
+	  Heapfile f = new Heapfile("shared_file");
+	  BTreeFile bt = new BTreeFile("shared_index");
+	  Random random = new Random(seed);
+	  for (int p = 0; p < numProbes; p++) {
+	    int key = random.nextInt(numRecords);
+	    IntegerKey ikey = new IntegerKey(key);
+	    BTFileScan iscan = bt.new_scan(ikey, ikey);
+	    KeyDataEntry entry = iscan.get_next();
+	    iscan.DestroyBTreeFileScan();
+	    if (entry == null) {
+	      fail("Probe for " + key + " found nothing", null);
+	      continue;
+	    }
+	    Tuple t = f.getRecord(((LeafData) entry.data).getData());
+	    if (Convert.getIntValue(0, t.getTupleByteArray()) != key)
+	      fail("Probe for " + key + " led to the wrong record", null);
+	  }
+	  bt.close();
+	} catch (Exception e) {
+	  fail("Error probing", e);
+	}
+      }
+    };
+  }
+
+  private Thread inserter(final String name, final int numInserts) {
+    return new Thread() {
+      public void run() {
+	try {
+	  Heapfile f = new Heapfile(name);
+	  byte[] rec = new byte[reclen];
+	  for (int i = 0; i < numInserts; i++) {
+	    Convert.setIntValue(i, 0, rec);
+	    f.insertRecord(rec);
+	  }
+	  Scan scan = f.openScan();
+	  RID rid = new RID();
+	  Tuple t;
+	  int count = 0;
+	  while ((t = scan.getNext(rid)) != null) {
+	    if (Convert.getIntValue(0, t.getTupleByteArray()) != count)
+	      fail("Record " + count + " of " + name + " is wrong", null);
+	    count++;
+	  }
+	  scan.closescan();
+	  if (count != numInserts)
+	    fail(name + " holds " + count + " records", null);
+	} catch (Exception e) {
+	  fail("Error inserting into " + name, e);
+	}
+      }
+    };
+  }
+
+  private void runAll(List<Thread> threads)
+    throws InterruptedException {
+    for (Thread t : threads)
+      t.start();
+    for (Thread t : threads)
+      t.join();
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Scans, probes and inserts from several threads\n");
+    boolean status = OK;
+    errors.set(0);
+
+    try {
+      open(smallPool);
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int i = 0; i < 4; i++)
+	threads.add(scanner(3));
+      for (int i = 0; i < 3; i++)
+	threads.add(prober(1000, 510 + i));
+      for (int i = 0; i < 2; i++)
+	threads.add(inserter("private_file" + i, 5000));
+
+      PCounter.initialize();
+      long start = System.currentTimeMillis();
+      runAll(threads);
+      System.out.println("  " + threads.size() + " threads in "
+			 + (System.currentTimeMillis() - start) + " ms, "
+			 + SystemDefs.JavabaseBM.getHitCount() + " hits, "
+			 + SystemDefs.JavabaseBM.getMissCount() + " misses, "
+			 + PCounter.getReadCount() + " reads, "
+			 + PCounter.getWriteCount() + " writes");
+
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != smallPool) {
+	System.err.println("*** " + (smallPool - SystemDefs.JavabaseBM.getNumUnpinnedBuffers())
+			   + " frames left pinned\n");
+	status = FAIL;
+      }
+      close();
+
+      // the private files must have reached the disk intact
+      new SystemDefs(dbpath, 0, smallPool, "Clock");
+      List<Thread> check = new ArrayList<Thread>();
+      check.add(scanner(1));
+      runAll(check);
+      for (int i = 0; i < 2; i++) {
+	Scan scan = new Heapfile("private_file" + i).openScan();
+	int count = 0;
+	while (scan.getNext(new RID()) != null)
+	  count++;
+	scan.closescan();
+	if (count != 5000)
+	  fail("private_file" + i + " reopened with " + count + " records", null);
+      }
+      close();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error running the threads\n");
+      e.printStackTrace();
+    }
+
+    if (errors.get() != 0)
+      status = FAIL;
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Heap scan throughput, " + scansPerRun
+		       + " scans shared by the threads\n");
+    System.out.println("  (" + Runtime.getRuntime().availableProcessors() + " processors)\n");
+    boolean status = OK;
+    errors.set(0);
+
+    int[] pools = { largePool, smallPool };
+    for (int p = 0; p < pools.length && status == OK; p++) {
+      try {
+	open(pools[p]);
+	// warm the pool and the JIT
+	scanShared();
+
+	for (int c = 0; c < threadCounts.length; c++) {
+	  List<Thread> threads = new ArrayList<Thread>();
+	  for (int i = 0; i < threadCounts[c]; i++)
+	    threads.add(scanner(scansPerRun / threadCounts[c]));
+
+	  PCounter.initialize();
+	  long start = System.nanoTime();
+	  runAll(threads);
+	  long us = Math.max(1, (System.nanoTime() - start) / 1000);
+	  System.out.println("  " + pools[p] + " frames, " + threadCounts[c] + " threads: "
+			     + (scansPerRun * (long) numRecords * 1000 / us) + " records/ms, "
+			     + PCounter.getReadCount() + " reads");
+	}
+	close();
+      } catch (Exception e) {
+	status = FAIL;
+	System.err.println("*** Error running the scans\n");
+	e.printStackTrace();
+      }
+    }
+
+    if (errors.get() != 0)
+      status = FAIL;
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test3() {
+
+    System.out.println("\n  Test 3: What the concurrent buffer manager refuses\n");
+    boolean status = OK;
+
+    try {
+      new ConcurrentBufMgr(smallPool, "LRU", numStripes);
+      System.err.println("*** The LRU policy was taken\n");
+      status = FAIL;
+    } catch (IllegalArgumentException e) {
+      System.out.println("  " + e.getMessage());
+    }
+
+    try {
+      new ConcurrentBufMgr(smallPool, "Clock", numStripes).startCleaner(BufMgr.DEFAULT_CLEAN_PERCENT);
+      System.err.println("*** The page cleaner was started\n");
+      status = FAIL;
+    } catch (UnsupportedOperationException e) {
+      System.out.println("  " + e.getMessage());
+    }
+
+    System.out.print("  Test 3 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Concurrent buffer manager";
+  }
+}
+
+public class ConcurrentBMTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new ConcurrentBMDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
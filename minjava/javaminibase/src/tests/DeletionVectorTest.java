@@ -0,0 +1,333 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import heap.*;
+import columnar.*;
+import iterator.*;
+import bufmgr.*;
+import diskmgr.*;
+
+/**
+ * Exercises the deletion vector of a columnar file
+ * (columnar.DeletionVector), the bit per position marked deleted:
+ *   test1: marking single positions and a long run, marking twice,
+ *          the pages read to test a position, full and zone-pruned
+ *          ColumnarFileScans skipping the deleted tuples, the vector
+ *          after the database is reopened
+ *   test2: the purge consuming the vector, and marks after it
+ *   test3: a file with a "name.deleted" heapfile of TIDs from before
+ *          the vector gets its vector built from it
+ */
+class DeletionVectorDriver extends ColumnarTestDriver {
+
+  private final static String cfName = "delvec_file";
+  private final static String oldName = "delvec_old";
+  private final static int numTuples = 20000;
+  private final static int numColumns = 2;
+  private final static int dbPages = 10000;
+  private final static int bufPages = 100;
+
+  private Columnarfile f;
+  private AttrType[] attrType;
+  private short[] Ssizes = { 8 };
+  private BitSet gone = new BitSet();
+
+  public DeletionVectorDriver() {
+    super("delvectest");
+  }
+
+  public boolean runTests() {
+
+    System.out.println("\n" + "Running " + testName() + " tests...." + "\n");
+
+    new File(dbpath).delete();
+    new SystemDefs(dbpath, dbPages, bufPages, "Clock");
+
+    boolean _pass = runAllTests();
+
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+    } catch (Exception e) {
+      _pass = FAIL;
+      e.printStackTrace();
+    }
+
+    System.out.print("\n" + "..." + testName() + " tests ");
+    System.out.print(_pass == OK ? "completely successfully" : "failed");
+    System.out.print(".\n\n");
+
+    return _pass;
+  }
+
+  private void reopen() throws Exception {
+    SystemDefs.JavabaseBM.flushAllPages();
+    SystemDefs.JavabaseDB.closeDB();
+    new SystemDefs(dbpath, 0, bufPages, "Clock");
+  }
+
+  private Columnarfile create(String name, int tuples) throws Exception {
+    attrType = new AttrType[numColumns];
+    attrType[0] = new AttrType(AttrType.attrInteger);
+    attrType[1] = new AttrType(AttrType.attrString);
+    String[] columnNames = { "A", "B" };
+    Columnarfile cf = new Columnarfile(name, numColumns, attrType, Ssizes, columnNames);
+    Tuple t = new Tuple();
+    t.setHdr((short) numColumns, attrType, Ssizes);
+    for (int i = 0; i < tuples; i++) {
+      t.setIntFld(1, i);
+      t.setStrFld(2, "s" + i);
+      cf.insertTuple(t.getTupleByteArray());
+    }
+    return cf;
+  }
+
+  // the A values a ColumnarFileScan returns
+  private BitSet fileScan(CondExpr[] filter) throws Exception {
+    FldSpec[] proj = { new FldSpec(new RelSpec(RelSpec.outer), 1) };
+    ColumnarFileScan scan = new ColumnarFileScan(cfName, attrType, Ssizes, (short) numColumns,
+						 1, proj, filter);
+    BitSet found = new BitSet();
+    Tuple t;
+    while ((t = scan.get_next()) != null)
+      found.set(t.getIntFld(1));
+    scan.close();
+    return found;
+  }
+
+  // the marks, and both kinds of scan, against the positions in gone
+  private boolean check(String what) throws Exception {
+    if (!f.getDeletedPositions().equals(gone)
+	|| f.getDeletionVector().count() != gone.cardinality()) {
+      System.err.println("*** " + what + ": " + f.getDeletionVector().count()
+			 + " positions marked, not " + gone.cardinality() + "\n");
+      return FAIL;
+    }
+    BitSet live = new BitSet();
+    live.set(0, numTuples);
+    live.andNot(gone);
+    CondExpr[] all = { intPred(1, AttrOperator.aopGE, 0), null };
+    BitSet found = fileScan(all);
+    if (!found.equals(live)) {
+      System.err.println("*** " + what + ": the full scan found " + found.cardinality()
+			 + " tuples, not " + live.cardinality() + "\n");
+      return FAIL;
+    }
+    CondExpr[] low = { intPred(1, AttrOperator.aopLT, 6000), null };
+    found = fileScan(low);
+    live.clear(6000, numTuples);
+    if (!found.equals(live)) {
+      System.err.println("*** " + what + ": the pruned scan found " + found.cardinality()
+			 + " tuples, not " + live.cardinality() + "\n");
+      return FAIL;
+    }
+    System.out.println("  " + what + ": " + gone.cardinality() + " deleted, scans agree");
+    return OK;
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Marking positions deleted\n");
+    boolean status = OK;
+
+    try {
+      f = create(cfName, numTuples);
+      status = check("no deletes");
+
+      // every seventh tuple, then a run over several chunks of the vector
+      if (status == OK) {
+	for (int i = 0; i < numTuples; i += 7) {
+	  f.markTupleDeleted(new TID(numColumns, i));
+	  gone.set(i);
+	}
+	for (int i = 4000; i < 17000; i++) {
+	  f.markTupleDeleted(new TID(numColumns, i));
+	  gone.set(i);
+	}
+	// marking again changes nothing
+	f.markTupleDeleted(new TID(numColumns, 7));
+	f.markTupleDeleted(new TID(numColumns, 5000));
+	status = check("marked");
+      }
+
+      if (status == OK && f.getDeletionVector().nextLive(4000) != 17000) {
+	System.err.println("*** The run ends at " + f.getDeletionVector().nextLive(4000) + "\n");
+	status = FAIL;
+      }
+
+      // a position is tested in memory
+      if (status == OK) {
+	SystemDefs.JavabaseBM.flushAllPages();
+	PCounter.initialize();
+	int marked = 0;
+	for (int i = 0; i < numTuples; i++) {
+	  if (f.isTupleMarkedDeleted(i) != gone.get(i)) {
+	    System.err.println("*** Position " + i + " is marked wrong\n");
+	    status = FAIL;
+	    break;
+	  }
+	  if (gone.get(i))
+	    marked++;
+	}
+	int reads = PCounter.getReadCount();
+	System.out.println("  " + numTuples + " positions tested, " + marked + " marked: "
+			   + reads + " pages read");
+	if (status == OK && reads != 0) {
+	  System.err.println("*** Testing the positions read " + reads + " pages\n");
+	  status = FAIL;
+	}
+      }
+
+      // the vector is read back from "name.delvec"
+      if (status == OK) {
+	reopen();
+	f = new Columnarfile(cfName);
+	status = check("reopened");
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in the deletion vector\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Purging the deleted tuples\n");
+    boolean status = OK;
+
+    try {
+      f.purgeAllDeletedTuples();
+      int left = numTuples - gone.cardinality();
+      Heapfile hf = new Heapfile(cfName + ".1");
+      if (hf.getRecCnt() != left || f.getDeletionVector().count() != 0) {
+	System.err.println("*** The purge left " + hf.getRecCnt() + " tuples, "
+			   + f.getDeletionVector().count() + " marked\n");
+	status = FAIL;
+      }
+
+      // the live tuples, in their order, and their values
+      BitSet values = new BitSet();
+      if (status == OK) {
+	TupleScan tscan = f.openTupleScan();
+	TID tid = new TID(numColumns);
+	Tuple t;
+	while ((t = tscan.getNext(tid)) != null) {
+	  values.set(t.getIntFld(1));
+	}
+	tscan.closetuplescan();
+	BitSet live = new BitSet();
+	live.set(0, numTuples);
+	live.andNot(gone);
+	if (!values.equals(live)) {
+	  System.err.println("*** The purge kept " + values.cardinality() + " values, not "
+			     + live.cardinality() + "\n");
+	  status = FAIL;
+	}
+	System.out.println("  purged: " + left + " tuples left, "
+			   + f.getDeletionVector().count() + " marked");
+      }
+
+      // marks after the purge are on the new positions
+      if (status == OK) {
+	f.markTupleDeleted(new TID(numColumns, 0));
+	f.markTupleDeleted(new TID(numColumns, left - 1));
+	reopen();
+	f = new Columnarfile(cfName);
+	BitSet want = new BitSet();
+	want.set(0);
+	want.set(left - 1);
+	if (!f.getDeletedPositions().equals(want)) {
+	  System.err.println("*** After the purge " + f.getDeletedPositions() + " are marked\n");
+	  status = FAIL;
+	}
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in the purge\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test3() {
+
+    System.out.println("\n  Test 3: A file from before the deletion vector\n");
+    boolean status = OK;
+
+    try {
+      Columnarfile old = create(oldName, 500);
+
+      // the TIDs of the deleted tuples, as markTupleDeleted kept them
+      new Heapfile(oldName + ".delvec").deleteFile();
+      Heapfile deleted = new Heapfile(oldName + ".deleted");
+      short numTidFlds = (short) (2 + numColumns * 2);
+      AttrType[] tidTypes = new AttrType[numTidFlds];
+      for (int i = 0; i < numTidFlds; i++)
+	tidTypes[i] = new AttrType(AttrType.attrInteger);
+      int[] marked = { 3, 250, 499 };
+      BitSet want = new BitSet();
+      for (int i = 0; i < marked.length; i++) {
+	Tuple t = new Tuple();
+	t.setHdr(numTidFlds, tidTypes, null);
+	byte[] data = t.getTupleByteArray();
+	old.getTidFromPosition(marked[i]).writeToByteArray(data, 2 * (1 + numTidFlds + 1));
+	deleted.insertRecord(data);
+	want.set(marked[i]);
+      }
+
+      reopen();
+      old = new Columnarfile(oldName);
+      BitSet found = old.getDeletedPositions();
+      System.out.println("  legacy file: " + found + " marked");
+      if (!found.equals(want) || SystemDefs.JavabaseDB.get_file_entry(oldName + ".delvec") == null) {
+	System.err.println("*** The vector of the legacy file holds " + found + "\n");
+	status = FAIL;
+      }
+
+      if (status == OK) {
+	old.purgeAllDeletedTuples();
+	if (new Heapfile(oldName + ".1").getRecCnt() != 500 - marked.length
+	    || SystemDefs.JavabaseDB.get_file_entry(oldName + ".deleted") != null) {
+	  System.err.println("*** The purge of the legacy file went wrong\n");
+	  status = FAIL;
+	}
+      }
+      if (status == OK) {
+	old.deleteColumnarFile();
+	if (SystemDefs.JavabaseDB.get_file_entry(oldName + ".delvec") != null) {
+	  System.err.println("*** The vector outlived its file\n");
+	  status = FAIL;
+	}
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error with the legacy file\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 3 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Deletion vector";
+  }
+}
+
+public class DeletionVectorTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new DeletionVectorDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
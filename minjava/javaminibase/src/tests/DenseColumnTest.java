@@ -0,0 +1,354 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import heap.*;
+import columnar.*;
+import bufmgr.*;
+import diskmgr.*;
+
+/**
+ * Exercises dense data pages (HFPage.initDense), which hold the values
+ * of a fixed-width heap file packed without a slot directory:
+ *   test1: a heap file of 4-byte values next to a slotted one holding
+ *          the same records: pages used, getNext and the bulk
+ *          getNextInts, deletes and inserts into the holes, positions,
+ *          also after the database is reopened
+ *   test2: a columnar file, whose int and real columns get dense pages
+ *          and whose string column does not: tuples, lookups by
+ *          position, and column scans value by value and in blocks
+ */
+class DenseColumnDriver extends TestDriver implements GlobalConst {
+
+  private final static String cfName = "dense_file";
+  private final static int numRecords = 20000;
+  private final static int numTuples = 20000;
+  private final static int numColumns = 3;
+  private final static int numScans = 5;
+  private final static int dbPages = 8000;
+  private final static int bufPages = 100;
+
+  public DenseColumnDriver() {
+    super("densecolumntest");
+  }
+
+  public boolean runTests() {
+
+    System.out.println("\n" + "Running " + testName() + " tests...." + "\n");
+
+    new File(dbpath).delete();
+    new SystemDefs(dbpath, dbPages, bufPages, "Clock");
+
+    boolean _pass = runAllTests();
+
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+    } catch (Exception e) {
+      _pass = FAIL;
+      e.printStackTrace();
+    }
+
+    System.out.print("\n" + "..." + testName() + " tests ");
+    System.out.print(_pass == OK ? "completely successfully" : "failed");
+    System.out.print(".\n\n");
+
+    return _pass;
+  }
+
+  // data pages a file uses, counted by scan
+  private int dataPages(Heapfile hf)
+    throws Exception {
+    Set<Integer> pages = new HashSet<Integer>();
+    Scan scan = hf.openScan();
+    RID rid = new RID();
+    while (scan.getNext(rid) != null)
+      pages.add(rid.pageNo.pid);
+    scan.closescan();
+    return pages.size();
+  }
+
+  private static long key(RID rid) {
+    return ((long) rid.pageNo.pid << 32) | rid.slotNo;
+  }
+
+  // checks the dense file against the expected values, by scan,
+  // block scan, getRecord and position
+  private boolean check(Heapfile hf, Map<Long, Integer> live)
+    throws Exception {
+    if (hf.getRecCnt() != live.size()) {
+      System.err.println("*** getRecCnt is " + hf.getRecCnt() + ", not " + live.size() + "\n");
+      return FAIL;
+    }
+
+    List<Integer> scanned = new ArrayList<Integer>();
+    Scan scan = hf.openScan();
+    RID rid = new RID();
+    Tuple t;
+    while ((t = scan.getNext(rid)) != null) {
+      int value = Convert.getIntValue(0, t.getTupleByteArray());
+      Integer expected = live.get(key(rid));
+      if (expected == null || expected != value) {
+	System.err.println("*** Scan found " + value + " at an unexpected rid\n");
+	scan.closescan();
+	return FAIL;
+      }
+      if (!hf.getRidFromPosition(hf.getPositionFromRid(rid)).equals(rid)) {
+	System.err.println("*** The position of " + value + " does not lead back to it\n");
+	scan.closescan();
+	return FAIL;
+      }
+      scanned.add(value);
+    }
+    scan.closescan();
+    if (scanned.size() != live.size()) {
+      System.err.println("*** Scan returned " + scanned.size() + " records, not " + live.size() + "\n");
+      return FAIL;
+    }
+
+    int[] block = new int[100];
+    int count = 0, n;
+    scan = hf.openScan();
+    while ((n = scan.getNextInts(block)) > 0) {
+      for (int i = 0; i < n; i++, count++)
+	if (count >= scanned.size() || block[i] != scanned.get(count)) {
+	  System.err.println("*** Block scan value " + count + " differs\n");
+	  scan.closescan();
+	  return FAIL;
+	}
+    }
+    scan.closescan();
+    if (count != scanned.size()) {
+      System.err.println("*** Block scan returned " + count + " values\n");
+      return FAIL;
+    }
+
+    for (Map.Entry<Long, Integer> e : live.entrySet()) {
+      rid = new RID(new PageId((int) (e.getKey() >> 32)), (int) (long) e.getKey());
+      t = hf.getRecord(rid);
+      if (t == null || Convert.getIntValue(0, t.getTupleByteArray()) != e.getValue()) {
+	System.err.println("*** getRecord failed for " + e.getValue() + "\n");
+	return FAIL;
+      }
+    }
+    return OK;
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Dense heap file pages\n");
+    boolean status = OK;
+
+    try {
+      Heapfile dense = new Heapfile("dense_heap", 4);
+      Heapfile slotted = new Heapfile("slotted_heap");
+      Map<Long, Integer> live = new HashMap<Long, Integer>();
+      List<RID> rids = new ArrayList<RID>();
+      byte[] rec = new byte[4];
+      for (int i = 0; i < numRecords; i++) {
+	Convert.setIntValue(i, 0, rec);
+	Heapfile.RIDPosition rp = dense.insertRecordRaw(rec);
+	if (rp.position != i) {
+	  System.err.println("*** Value " + i + " was given position " + rp.position + "\n");
+	  status = FAIL;
+	  break;
+	}
+	live.put(key(rp.rid), i);
+	rids.add(rp.rid);
+	slotted.insertRecord(rec);
+      }
+
+      if (status == OK && (dense.getValueWidth() != 4 || slotted.getValueWidth() != 0)) {
+	System.err.println("*** The files have value widths " + dense.getValueWidth()
+			   + " and " + slotted.getValueWidth() + "\n");
+	status = FAIL;
+      }
+      if (status == OK) {
+	int densePages = dataPages(dense), slottedPages = dataPages(slotted);
+	System.out.println("  " + numRecords + " ints: " + densePages + " dense pages ("
+			   + HFPage.denseCapacity(4) + " values each), "
+			   + slottedPages + " slotted pages");
+	if (densePages * 3 > slottedPages * 2) {
+	  System.err.println("*** Dense pages do not hold the values closer\n");
+	  status = FAIL;
+	}
+      }
+      if (status == OK)
+	status = check(dense, live);
+
+      // a record of another length does not fit
+      if (status == OK) {
+	try {
+	  dense.insertRecord(new byte[8]);
+	  System.err.println("*** An 8-byte record went into a 4-byte file\n");
+	  status = FAIL;
+	} catch (InvalidTupleSizeException e) {
+	}
+      }
+
+      // every third value goes, and new values fill the holes
+      for (int i = 0; i < numRecords && status == OK; i += 3) {
+	if (!dense.deleteRecord(rids.get(i))) {
+	  System.err.println("*** Could not delete value " + i + "\n");
+	  status = FAIL;
+	}
+	live.remove(key(rids.get(i)));
+      }
+      for (int i = 0; i < numRecords && status == OK; i += 3) {
+	Convert.setIntValue(numRecords + i, 0, rec);
+	RID rid = dense.insertRecord(rec);
+	if (!rid.equals(rids.get(i))) {
+	  System.err.println("*** Value " + (numRecords + i) + " did not fill the hole of " + i + "\n");
+	  status = FAIL;
+	}
+	live.put(key(rid), numRecords + i);
+      }
+      if (status == OK)
+	status = check(dense, live);
+
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+      new SystemDefs(dbpath, 0, bufPages, "Clock");
+      dense = new Heapfile("dense_heap");
+      if (status == OK && dense.getValueWidth() != 4) {
+	System.err.println("*** The reopened file has value width " + dense.getValueWidth() + "\n");
+	status = FAIL;
+      }
+      if (status == OK)
+	status = check(dense, live);
+
+      dense.deleteFile();
+      slotted.deleteFile();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in the heap files\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Columnar file with dense columns\n");
+    boolean status = OK;
+
+    try {
+      AttrType[] attrType = new AttrType[numColumns];
+      attrType[0] = new AttrType(AttrType.attrInteger);
+      attrType[1] = new AttrType(AttrType.attrReal);
+      attrType[2] = new AttrType(AttrType.attrString);
+      short[] Ssizes = { 20 };
+      String[] columnNames = { "key:int", "weight:real", "name:string" };
+      Columnarfile f = new Columnarfile(cfName, numColumns, attrType, Ssizes, columnNames);
+      Tuple t = new Tuple();
+      t.setHdr((short) numColumns, attrType, Ssizes);
+      for (int i = 0; i < numTuples; i++) {
+	t.setIntFld(1, i);
+	t.setFloFld(2, i / 4.0f);
+	t.setStrFld(3, "record" + i);
+	f.insertTuple(t.getTupleByteArray());
+      }
+
+      for (int c = 0; c < numColumns && status == OK; c++) {
+	Heapfile hf = new Heapfile(cfName + "." + (c + 1));
+	if (hf.getValueWidth() != Columnarfile.valueWidth(attrType[c])) {
+	  System.err.println("*** Column " + (c + 1) + " has value width " + hf.getValueWidth() + "\n");
+	  status = FAIL;
+	}
+	else
+	  System.out.println("  column " + (c + 1) + ": " + dataPages(hf) + " data pages");
+      }
+
+      Random random = new Random(1111);
+      for (int l = 0; l < 1000 && status == OK; l++) {
+	int position = random.nextInt(numTuples);
+	Tuple found = f.getTuple(f.getTidFromPosition(position));
+	if (found.getIntFld(1) != position || found.getFloFld(2) != position / 4.0f
+	    || !found.getStrFld(3).equals("record" + position)) {
+	  System.err.println("*** Position " + position + " led to the wrong tuple\n");
+	  status = FAIL;
+	}
+      }
+
+      // the int column, value by value and in blocks
+      long start = System.nanoTime();
+      for (int s = 0; s < numScans && status == OK; s++) {
+	Scan scan = f.openColumnScan(1);
+	RID rid = new RID();
+	int count = 0;
+	while ((t = scan.getNext(rid)) != null)
+	  if (Convert.getIntValue(0, t.getTupleByteArray()) != count++) {
+	    System.err.println("*** Value " + (count - 1) + " is wrong\n");
+	    status = FAIL;
+	    break;
+	  }
+	scan.closescan();
+      }
+      long valueNanos = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      int[] ints = new int[HFPage.denseCapacity(4)];
+      float[] floats = new float[HFPage.denseCapacity(4)];
+      for (int s = 0; s < numScans && status == OK; s++) {
+	Scan scan = f.openColumnScan(1);
+	int count = 0, n;
+	while ((n = scan.getNextInts(ints)) > 0)
+	  for (int i = 0; i < n; i++, count++)
+	    if (ints[i] != count) {
+	      System.err.println("*** Block value " + count + " is wrong\n");
+	      status = FAIL;
+	      break;
+	    }
+	scan.closescan();
+	if (count != numTuples && status == OK) {
+	  System.err.println("*** The block scan returned " + count + " values\n");
+	  status = FAIL;
+	}
+      }
+      long blockNanos = System.nanoTime() - start;
+      System.out.println("  int column scans: " + valueNanos / 1000 / numScans + " us by value, "
+			 + blockNanos / 1000 / numScans + " us in blocks");
+
+      if (status == OK) {
+	Scan scan = f.openColumnScan(2);
+	int count = 0, n;
+	while ((n = scan.getNextFloats(floats)) > 0)
+	  for (int i = 0; i < n; i++, count++)
+	    if (floats[i] != count / 4.0f) {
+	      System.err.println("*** Real value " + count + " is wrong\n");
+	      status = FAIL;
+	      break;
+	    }
+	scan.closescan();
+	if (count != numTuples && status == OK) {
+	  System.err.println("*** The real column returned " + count + " values\n");
+	  status = FAIL;
+	}
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in the columnar file\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Dense column pages";
+  }
+}
+
+public class DenseColumnTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new DenseColumnDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
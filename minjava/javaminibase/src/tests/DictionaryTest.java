@@ -0,0 +1,378 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import heap.*;
+import columnar.*;
+import iterator.*;
+import bitmap.*;
+import bufmgr.*;
+import diskmgr.*;
+
+/**
+ * Exercises dictionary-encoded string columns (columnar.ColumnDictionary)
+ * against the same tuples in a file with plain string columns:
+ *   test1: tuple, column and batch scans, getValue, and filters through
+ *          ColumnarFileScan and ColumnarLateScan, equalities, lists of
+ *          equalities, values never inserted and ranges; the same after
+ *          the database is reopened and more tuples inserted, and after
+ *          a purge; a bitmap index built over the codes
+ *   test2: the pages of a string column plain and encoded, and the
+ *          pages read by an equality filter on it
+ */
+class DictionaryDriver extends ColumnarTestDriver {
+
+  private final static String plainName = "plain_file";
+  private final static String dictName = "dict_file";
+  private final static int numTuples = 20000;
+  private final static int numColumns = 4;
+  private final static int dbPages = 12000;
+  private final static int bufPages = 100;
+
+  private Columnarfile plain, dict;
+  private AttrType[] attrType;
+  private short[] Ssizes = { 25, 25 };
+  private List<TID> plainTids = new ArrayList<TID>();
+  private List<TID> dictTids = new ArrayList<TID>();
+  private int inserted = 0;
+
+  public DictionaryDriver() {
+    super("dictionarytest");
+  }
+
+  public boolean runTests() {
+
+    System.out.println("\n" + "Running " + testName() + " tests...." + "\n");
+
+    new File(dbpath).delete();
+    new SystemDefs(dbpath, dbPages, bufPages, "Clock");
+
+    boolean _pass = runAllTests();
+
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+    } catch (Exception e) {
+      _pass = FAIL;
+      e.printStackTrace();
+    }
+
+    System.out.print("\n" + "..." + testName() + " tests ");
+    System.out.print(_pass == OK ? "completely successfully" : "failed");
+    System.out.print(".\n\n");
+
+    return _pass;
+  }
+
+  private String state(int i) { return "st" + (i * 7 % 50); }
+  private String name(int i) { return "n" + (i % 3000); }
+
+  private void insert(int count, String newState)
+    throws Exception {
+    Tuple t = new Tuple();
+    t.setHdr((short) numColumns, attrType, Ssizes);
+    for (int k = 0; k < count; k++, inserted++) {
+      int i = inserted;
+      t.setIntFld(1, i);
+      t.setStrFld(2, newState != null ? newState : state(i));
+      t.setStrFld(3, name(i));
+      t.setIntFld(4, i % 17);
+      plainTids.add(plain.insertTuple(t.getTupleByteArray()));
+      dictTids.add(dict.insertTuple(t.getTupleByteArray()));
+    }
+  }
+
+  private static String show(Tuple t)
+    throws Exception {
+    return t.getIntFld(1) + "," + t.getStrFld(2) + "," + t.getStrFld(3) + "," + t.getIntFld(4);
+  }
+
+  // the tuples of a scan, as "position:values"
+  private List<String> run(iterator.Iterator scan)
+    throws Exception {
+    List<String> rows = new ArrayList<String>();
+    TID tid = new TID(numColumns);
+    Tuple t;
+    while ((t = (scan instanceof ColumnarLateScan
+		 ? ((ColumnarLateScan) scan).get_next(tid)
+		 : ((ColumnarFileScan) scan).get_next(tid))) != null)
+      rows.add(tid.position + ":" + show(t));
+    scan.close();
+    return rows;
+  }
+
+  private FldSpec[] all() {
+    FldSpec[] proj = new FldSpec[numColumns];
+    for (int i = 0; i < numColumns; i++)
+      proj[i] = new FldSpec(new RelSpec(RelSpec.outer), i + 1);
+    return proj;
+  }
+
+  private boolean check(String what, CondExpr[] filter)
+    throws Exception {
+    List<String> expected = run(new ColumnarFileScan(plainName, attrType, Ssizes, (short) numColumns,
+						     numColumns, all(), filter));
+    List<String> byFile = run(new ColumnarFileScan(dictName, attrType, Ssizes, (short) numColumns,
+						   numColumns, all(), filter));
+    List<String> byLate = run(new ColumnarLateScan(dictName, attrType, Ssizes, (short) numColumns,
+						   numColumns, all(), filter));
+    System.out.println("  " + what + ": " + expected.size() + " tuples");
+    if (!byFile.equals(expected) || !byLate.equals(expected)) {
+      System.err.println("*** " + what + ": " + byFile.size() + " and " + byLate.size()
+			 + " tuples from the encoded file, " + expected.size() + " from the plain one\n");
+      return FAIL;
+    }
+    return OK;
+  }
+
+  private boolean checkScans()
+    throws Exception {
+    // whole tuples
+    TupleScan ps = plain.openTupleScan(), ds = dict.openTupleScan();
+    TID ptid = new TID(numColumns), dtid = new TID(numColumns);
+    Tuple pt, dt;
+    int count = 0;
+    while ((pt = ps.getNext(ptid)) != null) {
+      dt = ds.getNext(dtid);
+      if (dt == null || !show(pt).equals(show(dt)) || ptid.position != dtid.position) {
+	System.err.println("*** The tuple scans differ at " + ptid.position + "\n");
+	return FAIL;
+      }
+      count++;
+    }
+    ps.closetuplescan();
+    ds.closetuplescan();
+    if (count != plain.getTupleCnt()) {
+      System.err.println("*** The tuple scans returned " + count + " tuples\n");
+      return FAIL;
+    }
+
+    // one column, and getValue
+    Scan pcs = plain.openColumnScan(2), dcs = dict.openColumnScan(2);
+    RID prid = new RID(), drid = new RID();
+    Tuple pv, dv;
+    int position = 0;
+    while ((pv = pcs.getNext(prid)) != null) {
+      dv = dcs.getNext(drid);
+      byte[] pb = pv.getTupleByteArray(), db = dv.getTupleByteArray();
+      if (!Convert.getStrValue(0, pb, pb.length).equals(Convert.getStrValue(0, db, db.length))) {
+	System.err.println("*** The column scans differ at " + position + "\n");
+	return FAIL;
+      }
+      position++;
+    }
+    pcs.closescan();
+    dcs.closescan();
+    int probe = position / 3;
+    String pvalue = ((StringValueClass) plain.getValue(plain.getTidFromPosition(probe), 3)).classValue;
+    String dvalue = ((StringValueClass) dict.getValue(dict.getTidFromPosition(probe), 3)).classValue;
+    if (!pvalue.equals(dvalue)) {
+      System.err.println("*** getValue gives " + dvalue + ", not " + pvalue + "\n");
+      return FAIL;
+    }
+
+    // batches
+    ColumnBatchScan pb = plain.openColumnBatchScan(new int[] { 3, 2 }, 700);
+    ColumnBatchScan dbs = dict.openColumnBatchScan(new int[] { 3, 2 }, 700);
+    ColumnBatch p, d;
+    while ((p = pb.getNext()) != null) {
+      d = dbs.getNext();
+      for (int r = 0; r < p.getSize(); r++)
+	if (!p.getStrings(0)[r].equals(d.getStrings(0)[r])
+	    || !p.getStrings(1)[r].equals(d.getStrings(1)[r])) {
+	  System.err.println("*** The batches differ at " + (p.getFirstPosition() + r) + "\n");
+	  return FAIL;
+	}
+    }
+    pb.closeBatchScan();
+    dbs.closeBatchScan();
+    return OK;
+  }
+
+  private boolean checkFilters()
+    throws Exception {
+    CondExpr[] eq = { strPred(2, AttrOperator.aopEQ, "st7"), null };
+    if (check("B = st7", eq) != OK)
+      return FAIL;
+    CondExpr[] in = { strPred(2, AttrOperator.aopEQ, "st12"), null };
+    in[0].next = strPred(2, AttrOperator.aopEQ, "st40");
+    in[0].next.next = strPred(2, AttrOperator.aopEQ, "st3");
+    if (check("B in (st12, st40, st3)", in) != OK)
+      return FAIL;
+    CondExpr[] none = { strPred(2, AttrOperator.aopEQ, "nowhere"), null };
+    if (check("B = nowhere", none) != OK)
+      return FAIL;
+    CondExpr[] range = { strPred(3, AttrOperator.aopGT, "n2500"), null };
+    if (check("C > n2500", range) != OK)
+      return FAIL;
+    CondExpr[] both = { strPred(2, AttrOperator.aopNE, "st3"), intPred(4, AttrOperator.aopEQ, 4), null };
+    if (check("B != st3 and D = 4", both) != OK)
+      return FAIL;
+    return OK;
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Encoded columns against plain ones\n");
+    boolean status = OK;
+
+    try {
+      attrType = new AttrType[numColumns];
+      attrType[0] = new AttrType(AttrType.attrInteger);
+      attrType[1] = new AttrType(AttrType.attrString);
+      attrType[2] = new AttrType(AttrType.attrString);
+      attrType[3] = new AttrType(AttrType.attrInteger);
+      String[] columnNames = { "A", "B", "C", "D" };
+      plain = new Columnarfile(plainName, numColumns, attrType, Ssizes, columnNames);
+      dict = new Columnarfile(dictName, numColumns, attrType, Ssizes, columnNames,
+			      new boolean[] { false, true, true, false });
+      insert(numTuples, null);
+
+      if (!dict.isDictionaryEncoded(2) || !dict.isDictionaryEncoded(3)
+	  || dict.isDictionaryEncoded(1) || plain.isDictionaryEncoded(2)
+	  || dict.getDictionary(2).size() != 50 || dict.getDictionary(3).size() != 3000) {
+	System.err.println("*** The encodings or the dictionaries are wrong\n");
+	status = FAIL;
+      }
+      try {
+	new Columnarfile("int_dict_file", numColumns, attrType, Ssizes, columnNames,
+			 new boolean[] { true, false, false, false });
+	System.err.println("*** An int column was dictionary encoded\n");
+	status = FAIL;
+      } catch (CFException e) {
+      }
+
+      if (status == OK)
+	status = checkScans();
+      if (status == OK)
+	status = checkFilters();
+
+      // the encodings and dictionaries are read back, and new values
+      // get new codes
+      if (status == OK) {
+	SystemDefs.JavabaseBM.flushAllPages();
+	SystemDefs.JavabaseDB.closeDB();
+	new SystemDefs(dbpath, 0, bufPages, "Clock");
+	plain = new Columnarfile(plainName);
+	dict = new Columnarfile(dictName);
+	if (!dict.isDictionaryEncoded(2) || plain.isDictionaryEncoded(2)
+	    || dict.getDictionary(2).size() != 50
+	    || dict.getDictionary(2).lookup("st7") < 0) {
+	  System.err.println("*** The dictionaries were not read back\n");
+	  status = FAIL;
+	}
+	insert(100, "st_new");
+	if (status == OK && dict.getDictionary(2).size() != 51) {
+	  System.err.println("*** The dictionary has " + dict.getDictionary(2).size() + " values\n");
+	  status = FAIL;
+	}
+	CondExpr[] added = { strPred(2, AttrOperator.aopEQ, "st_new"), null };
+	if (status == OK)
+	  status = check("B = st_new", added);
+	if (status == OK)
+	  status = checkFilters();
+      }
+
+      // deleted tuples, and a purge that moves them all
+      if (status == OK) {
+	for (int i = 0; i < inserted; i += 9) {
+	  plain.markTupleDeleted(plainTids.get(i));
+	  dict.markTupleDeleted(dictTids.get(i));
+	}
+	status = checkFilters();
+	if (status == OK) {
+	  plain.purgeAllDeletedTuples();
+	  dict.purgeAllDeletedTuples();
+	  status = checkScans();
+	}
+	if (status == OK)
+	  status = checkFilters();
+      }
+
+      // a bitmap index over the codes
+      if (status == OK) {
+	boolean created = dict.createBitMapIndex(2, new StringValueClass("st7"), false);
+	BitMapFile bmf = new BitMapFile(dictName + ".bitmap2");
+	if (!created || bmf.valueIsMapped(new StringValueClass("st7")) == null) {
+	  System.err.println("*** No bitmap was built for st7\n");
+	  status = FAIL;
+	}
+	bmf.close();
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in the encoded file\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  private int reads(String file, CondExpr[] filter)
+    throws Exception {
+    FldSpec[] proj = { new FldSpec(new RelSpec(RelSpec.outer), 1) };
+    SystemDefs.JavabaseBM.flushAllPages();
+    PCounter.initialize();
+    ColumnarLateScan scan = new ColumnarLateScan(file, attrType, Ssizes, (short) numColumns,
+						 1, proj, filter);
+    while (scan.get_next() != null)
+      ;
+    scan.close();
+    return PCounter.getReadCount();
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Pages of an encoded column\n");
+    boolean status = OK;
+
+    try {
+      int plainPages = new Heapfile(plainName + ".2").getDataPages().length;
+      int dictPages = new Heapfile(dictName + ".2").getDataPages().length;
+      int valuePages = new Heapfile(dictName + ".2.dict").getDataPages().length;
+      System.out.println("  column B plain: " + plainPages + " data pages");
+      System.out.println("  column B encoded: " + dictPages + " data pages, "
+			 + valuePages + " for the dictionary");
+
+      CondExpr[] filter = { strPred(2, AttrOperator.aopEQ, "st21"), null };
+      int plainReads = reads(plainName, filter);
+      int dictReads = reads(dictName, filter);
+      System.out.println("  B = st21, project A: " + plainReads + " reads plain, "
+			 + dictReads + " encoded");
+
+      if ((dictPages + valuePages) * 4 > plainPages) {
+	System.err.println("*** The encoded column takes " + dictPages + " pages against "
+			   + plainPages + "\n");
+	status = FAIL;
+      }
+      if (status == OK && dictReads >= plainReads) {
+	System.err.println("*** The encoded column read " + dictReads + " pages against "
+			   + plainReads + "\n");
+	status = FAIL;
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in the scans\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Dictionary encoding";
+  }
+}
+
+public class DictionaryTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new DictionaryDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
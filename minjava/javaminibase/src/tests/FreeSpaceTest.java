@@ -0,0 +1,243 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import heap.*;
+import columnar.*;
+import bufmgr.*;
+import diskmgr.*;
+
+/**
+ * Exercises the heap file directory through the in-memory free-space
+ * map that Heapfile keeps of it:
+ *   test1: inserts of mixed lengths, deletes that empty data pages and
+ *          inserts that fill the holes again, checking records, record
+ *          counts and positions, also after the database is reopened
+ *   test2: heap and columnar inserts in blocks, timing each block; the
+ *          cost per block must not grow with the file
+ */
+class FreeSpaceDriver extends TestDriver implements GlobalConst {
+
+  private final static int numRecords = 6000;
+  private final static int numBlocks = 5;
+  private final static int blockRecords = 20000;
+  private final static int blockTuples = 4000;
+  private final static int dbPages = 20000;
+  private final static int bufPages = 100;
+
+  public FreeSpaceDriver() {
+    super("freespacetest");
+  }
+
+  public boolean runTests() {
+
+    System.out.println("\n" + "Running " + testName() + " tests...." + "\n");
+
+    new File(dbpath).delete();
+    new SystemDefs(dbpath, dbPages, bufPages, "Clock");
+
+    boolean _pass = runAllTests();
+
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+    } catch (Exception e) {
+      _pass = FAIL;
+      e.printStackTrace();
+    }
+
+    System.out.print("\n" + "..." + testName() + " tests ");
+    System.out.print(_pass == OK ? "completely successfully" : "failed");
+    System.out.print(".\n\n");
+
+    return _pass;
+  }
+
+  private byte[] record(int key)
+    throws IOException {
+    // 8 to 71 bytes, so that the data pages fill unevenly
+    byte[] rec = new byte[8 + (key * 37) % 64];
+    Convert.setIntValue(key, 0, rec);
+    return rec;
+  }
+
+  // checks the file against the expected keys, by scan, getRecord and position
+  private boolean check(Heapfile hf, Map<Integer, RID> live)
+    throws Exception {
+    if (hf.getRecCnt() != live.size()) {
+      System.err.println("*** getRecCnt is " + hf.getRecCnt() + ", not " + live.size() + "\n");
+      return FAIL;
+    }
+
+    Scan scan = hf.openScan();
+    RID rid = new RID();
+    Tuple t;
+    int count = 0;
+    int lastPage = INVALID_PAGE, lastPosition = -1;
+    while ((t = scan.getNext(rid)) != null) {
+      int key = Convert.getIntValue(0, t.getTupleByteArray());
+      if (!rid.equals(live.get(key))) {
+	System.err.println("*** Scan found key " + key + " at an unexpected rid\n");
+	return FAIL;
+      }
+      // positions follow scan order within a data page
+      int position = hf.getPositionFromRid(rid);
+      if (rid.pageNo.pid == lastPage && position <= lastPosition) {
+	System.err.println("*** Position " + position + " is out of order\n");
+	return FAIL;
+      }
+      lastPage = rid.pageNo.pid;
+      lastPosition = position;
+      count++;
+    }
+    scan.closescan();
+    if (count != live.size()) {
+      System.err.println("*** Scan returned " + count + " records, not " + live.size() + "\n");
+      return FAIL;
+    }
+
+    for (Map.Entry<Integer, RID> e : live.entrySet()) {
+      t = hf.getRecord(e.getValue());
+      if (t == null || Convert.getIntValue(0, t.getTupleByteArray()) != e.getKey()) {
+	System.err.println("*** getRecord failed for key " + e.getKey() + "\n");
+	return FAIL;
+      }
+    }
+    return OK;
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Inserts, deletes and inserts into the holes\n");
+    boolean status = OK;
+
+    try {
+      Heapfile hf = new Heapfile("freespace_heap");
+      Map<Integer, RID> live = new HashMap<Integer, RID>();
+      for (int i = 0; i < numRecords; i++) {
+	Heapfile.RIDPosition rp = hf.insertRecordRaw(record(i));
+	live.put(i, rp.rid);
+	// a short record may go to an earlier data page than a long one
+	if (rp.position != hf.getPositionFromRid(rp.rid)) {
+	  System.err.println("*** Record " + i + " was given position " + rp.position + "\n");
+	  status = FAIL;
+	  break;
+	}
+      }
+      if (status == OK)
+	status = check(hf, live);
+
+      // delete the first half of the records and every third of the
+      // rest: whole data pages become empty and are freed, others
+      // get space back
+      for (int i = 0; i < numRecords && status == OK; i++) {
+	if (i < numRecords / 2 || i % 3 == 0) {
+	  if (!new Heapfile("freespace_heap").deleteRecord(live.remove(i))) {
+	    System.err.println("*** Could not delete record " + i + "\n");
+	    status = FAIL;
+	  }
+	}
+      }
+      if (status == OK)
+	status = check(hf, live);
+
+      // new records go to the first data pages with room
+      for (int i = numRecords; i < 2 * numRecords && status == OK; i++)
+	live.put(i, hf.insertRecord(record(i)));
+      if (status == OK)
+	status = check(hf, live);
+
+      // the map is built again from the directory on disk
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+      new SystemDefs(dbpath, 0, bufPages, "Clock");
+      hf = new Heapfile("freespace_heap");
+      if (status == OK)
+	status = check(hf, live);
+      for (int i = 2 * numRecords; i < 3 * numRecords && status == OK; i++)
+	live.put(i, hf.insertRecord(record(i)));
+      if (status == OK)
+	status = check(hf, live);
+
+      hf.deleteFile();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in the heap file\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Insert cost as the files grow\n");
+    boolean status = OK;
+
+    try {
+      Heapfile hf = new Heapfile("freespace_growing");
+      byte[] rec = new byte[8];
+      for (int b = 0; b < numBlocks; b++) {
+	PCounter.initialize();
+	long start = System.currentTimeMillis();
+	for (int i = 0; i < blockRecords; i++) {
+	  Convert.setIntValue(b * blockRecords + i, 0, rec);
+	  hf.insertRecord(rec);
+	}
+	System.out.println("  heap records " + (b * blockRecords) + " - " + ((b + 1) * blockRecords)
+			   + ": " + (System.currentTimeMillis() - start) + " ms, "
+			   + PCounter.getReadCount() + " reads");
+      }
+      if (hf.getRecCnt() != numBlocks * blockRecords) {
+	System.err.println("*** The heap file holds " + hf.getRecCnt() + " records\n");
+	status = FAIL;
+      }
+
+      AttrType[] attrType = { new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrString) };
+      short[] Ssizes = { 12 };
+      String[] columnNames = { "key:int", "name:string" };
+      Columnarfile f = new Columnarfile("freespace_file", 2, attrType, Ssizes, columnNames);
+      Tuple t = new Tuple();
+      t.setHdr((short) 2, attrType, Ssizes);
+      for (int b = 0; b < numBlocks && status == OK; b++) {
+	PCounter.initialize();
+	long start = System.currentTimeMillis();
+	for (int i = 0; i < blockTuples; i++) {
+	  t.setIntFld(1, b * blockTuples + i);
+	  t.setStrFld(2, "t" + i);
+	  f.insertTuple(t.getTupleByteArray());
+	}
+	System.out.println("  columnar tuples " + (b * blockTuples) + " - " + ((b + 1) * blockTuples)
+			   + ": " + (System.currentTimeMillis() - start) + " ms, "
+			   + PCounter.getReadCount() + " reads");
+      }
+      if (f.getTupleCnt() != numBlocks * blockTuples) {
+	System.err.println("*** The columnar file holds " + f.getTupleCnt() + " tuples\n");
+	status = FAIL;
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in the inserts\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Heap file free space";
+  }
+}
+
+public class FreeSpaceTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new FreeSpaceDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
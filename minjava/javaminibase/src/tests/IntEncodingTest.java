@@ -0,0 +1,492 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import heap.*;
+import columnar.*;
+import iterator.*;
+import bufmgr.*;
+import diskmgr.*;
+
+/**
+ * Exercises the packed pages of int values (HFPage.initPacked), on
+ * which each page is frame of reference, delta or run-length encoded,
+ * whichever suits its values:
+ *   test1: data sets of each shape, among them one like the int columns
+ *          of the sample data file (uniform 0 to 9), in a file of packed
+ *          pages and in one of dense pages, read back by getNext,
+ *          getNextInts, getNextIntRuns and position; the pages of each,
+ *          the compression ratio and the scan times
+ *   test2: updates, deletes and a value that no longer fits its page,
+ *          and the file after the database is reopened
+ *   test3: a columnar file with packed int columns against a plain one,
+ *          through ColumnarLateScan, which evaluates predicates on runs,
+ *          and ColumnBatchScan
+ */
+class IntEncodingDriver extends ColumnarTestDriver {
+
+  private final static int numValues = 50000;
+  private final static int dbPages = 20000;
+  private final static int bufPages = 300;
+
+  private final static String[] shapes = { "uniform 0-9", "sorted keys", "runs of 500",
+					   "timestamps", "descending", "random" };
+
+  public IntEncodingDriver() {
+    super("intencodingtest");
+  }
+
+  public boolean runTests() {
+
+    System.out.println("\n" + "Running " + testName() + " tests...." + "\n");
+
+    new File(dbpath).delete();
+    new SystemDefs(dbpath, dbPages, bufPages, "Clock");
+
+    boolean _pass = runAllTests();
+
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+    } catch (Exception e) {
+      _pass = FAIL;
+      e.printStackTrace();
+    }
+
+    System.out.print("\n" + "..." + testName() + " tests ");
+    System.out.print(_pass == OK ? "completely successfully" : "failed");
+    System.out.print(".\n\n");
+
+    return _pass;
+  }
+
+  // the values of a data set
+  private static int[] values(int shape, int n) {
+    Random random = new Random(shape);
+    int[] v = new int[n];
+    for (int i = 0; i < n; i++) {
+      switch (shape) {
+      case 0: v[i] = random.nextInt(10); break;
+      case 1: v[i] = i; break;
+      case 2: v[i] = i / 500; break;
+      case 3: v[i] = 1700000000 + 10 * i + random.nextInt(4); break;
+      case 4: v[i] = -3 * i; break;
+      default: v[i] = random.nextInt(); break;
+      }
+    }
+    return v;
+  }
+
+  private static byte[] record(int value) {
+    byte[] rec = new byte[4];
+    try {
+      Convert.setIntValue(value, 0, rec);
+    } catch (IOException e) {
+    }
+    return rec;
+  }
+
+  private static Heapfile load(String name, int width, int[] v)
+    throws Exception {
+    Heapfile hf = new Heapfile(name, width);
+    for (int i = 0; i < v.length; i++)
+      hf.insertRecord(record(v[i]));
+    return hf;
+  }
+
+  // the encodings of the pages of a file of packed pages, by name
+  private static Map<String, Integer> encodings(Heapfile hf)
+    throws Exception {
+    Map<String, Integer> count = new TreeMap<String, Integer>();
+    PageId[] pages = hf.getDataPages();
+    for (int i = 0; i < pages.length; i++) {
+      Page page = new Page();
+      SystemDefs.JavabaseBM.pinPage(pages[i], page, false);
+      String name = new HFPage(page).getPackedEncoding();
+      SystemDefs.JavabaseBM.unpinPage(pages[i], false);
+      Integer k = count.get(name);
+      count.put(name, k == null ? 1 : k + 1);
+    }
+    return count;
+  }
+
+  // nanoseconds to read the file a block at a time, the best of 3
+  private static long scanTime(Heapfile hf, int[] sum)
+    throws Exception {
+    int[] block = new int[1024];
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < 3; round++) {
+      long start = System.nanoTime();
+      Scan scan = hf.openScan();
+      int n;
+      sum[0] = 0;
+      while ((n = scan.getNextInts(block)) > 0)
+	for (int i = 0; i < n; i++)
+	  sum[0] += block[i];
+      scan.closescan();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best;
+  }
+
+  // reads the file every way there is and checks it holds v but for
+  // the deleted values in gone; a delete moves the positions of the
+  // values after it, so they are checked on a file without deletes
+  private boolean checkFile(String what, Heapfile hf, int[] v, BitSet gone)
+    throws Exception {
+    List<Integer> want = new ArrayList<Integer>();
+    for (int i = 0; i < v.length; i++)
+      if (!gone.get(i))
+	want.add(v[i]);
+    boolean positions = gone.isEmpty();
+
+    // one record at a time
+    Scan scan = hf.openScan();
+    RID rid = new RID();
+    Tuple t;
+    List<Integer> found = new ArrayList<Integer>();
+    boolean ok = true;
+    while ((t = scan.getNext(rid)) != null) {
+      int value = Convert.getIntValue(0, t.getTupleByteArray());
+      if (positions && v[scan.getPosition()] != value) {
+	System.err.println("*** " + what + ": getNext found " + value + " at " + scan.getPosition() + "\n");
+	ok = false;
+	break;
+      }
+      found.add(value);
+    }
+    scan.closescan();
+    if (ok && !found.equals(want)) {
+      System.err.println("*** " + what + ": getNext found " + found.size() + " values, not the "
+			 + want.size() + " expected\n");
+      ok = false;
+    }
+
+    // a block at a time
+    scan = hf.openScan();
+    int[] block = new int[700];
+    int n;
+    found.clear();
+    while ((n = scan.getNextInts(block)) > 0)
+      for (int i = 0; i < n; i++)
+	found.add(block[i]);
+    scan.closescan();
+    if (ok && !found.equals(want)) {
+      System.err.println("*** " + what + ": getNextInts found " + found.size() + " values, not the "
+			 + want.size() + " expected\n");
+      ok = false;
+    }
+
+    // a run at a time
+    scan = hf.openScan();
+    int[] values = new int[700];
+    int[] starts = new int[700];
+    int[] lengths = new int[700];
+    found.clear();
+    while ((n = scan.getNextIntRuns(values, starts, lengths)) > 0)
+      for (int r = 0; r < n; r++)
+	for (int p = starts[r]; p < starts[r] + lengths[r]; p++) {
+	  if (ok && positions && v[p] != values[r]) {
+	    System.err.println("*** " + what + ": getNextIntRuns has " + values[r] + " at " + p + "\n");
+	    ok = false;
+	  }
+	  found.add(values[r]);
+	}
+    scan.closescan();
+    if (ok && !found.equals(want)) {
+      System.err.println("*** " + what + ": getNextIntRuns found " + found.size() + " values, not the "
+			 + want.size() + " expected\n");
+      ok = false;
+    }
+
+    // by position
+    Random random = new Random(7);
+    for (int i = 0; i < 200 && ok && positions; i++) {
+      int p = random.nextInt(v.length);
+      int value = Convert.getIntValue(0, hf.getRecord(hf.getRidFromPosition(p)).getTupleByteArray());
+      if (value != v[p]) {
+	System.err.println("*** " + what + ": position " + p + " holds " + value + ", not " + v[p] + "\n");
+	ok = false;
+      }
+    }
+    return ok ? OK : FAIL;
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Data sets of each shape\n");
+    boolean status = OK;
+
+    try {
+      for (int s = 0; s < shapes.length && status == OK; s++) {
+	int[] v = values(s, numValues);
+	Heapfile packed = load("packed" + s, Heapfile.PACKED_INTS, v);
+	Heapfile dense = load("dense" + s, 4, v);
+	if (!packed.isPackedInts() || dense.isPackedInts()) {
+	  System.err.println("*** " + shapes[s] + ": the files are not of the right kind\n");
+	  status = FAIL;
+	  break;
+	}
+	status = checkFile(shapes[s], packed, v, new BitSet());
+	if (status != OK)
+	  break;
+
+	int packedPages = packed.getDataPages().length;
+	int densePages = dense.getDataPages().length;
+	int[] sum = new int[1];
+	int[] denseSum = new int[1];
+	long packedTime = scanTime(packed, sum);
+	long denseTime = scanTime(dense, denseSum);
+	System.out.println("  " + shapes[s] + ": " + packedPages + " packed pages " + encodings(packed)
+			   + ", " + densePages + " dense, compression ratio "
+			   + String.format("%.2f", (double) densePages / packedPages));
+	System.out.println("    scan: packed " + String.format("%.2f", packedTime / 1e6) + " ms, dense "
+			   + String.format("%.2f", denseTime / 1e6) + " ms");
+	if (sum[0] != denseSum[0]) {
+	  System.err.println("*** " + shapes[s] + ": the scans add up to " + sum[0]
+			     + " and " + denseSum[0] + "\n");
+	  status = FAIL;
+	}
+	// the random values do not compress, but take little more room
+	if (status == OK && (s < shapes.length - 1 ? packedPages * 4 > densePages
+			     : packedPages > densePages + densePages / 20)) {
+	  System.err.println("*** " + shapes[s] + ": " + packedPages + " packed pages against "
+			     + densePages + " dense\n");
+	  status = FAIL;
+	}
+	dense.deleteFile();
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in the packed files\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Updates and deletes\n");
+    boolean status = OK;
+
+    try {
+      int[] v = values(0, numValues);
+      Heapfile hf = new Heapfile("packed0");
+      BitSet gone = new BitSet();
+
+      // updates that fit the 4 bits a value of the pages takes
+      Random random = new Random(11);
+      for (int i = 0; i < 100; i++) {
+	int p = random.nextInt(numValues);
+	v[p] = random.nextInt(16);
+	if (!hf.updateRecord(hf.getRidFromPosition(p), new Tuple(record(v[p]), 0, 4))) {
+	  System.err.println("*** The update of position " + p + " failed\n");
+	  status = FAIL;
+	  break;
+	}
+      }
+
+      // every 7th value deleted
+      List<RID> rids = new ArrayList<RID>();
+      for (int p = 0; p < numValues; p += 7) {
+	rids.add(hf.getRidFromPosition(p));
+	gone.set(p);
+      }
+      for (int i = 0; i < rids.size(); i++)
+	hf.deleteRecord(rids.get(i));
+      if (status == OK)
+	status = checkFile("updated", hf, v, gone);
+
+      // a value a full page of sorted keys has no room for
+      if (status == OK) {
+	Heapfile keys = new Heapfile("packed1");
+	RID rid = keys.getRidFromPosition(10);
+	boolean thrown = false;
+	try {
+	  keys.updateRecord(rid, new Tuple(record(-123456789), 0, 4));
+	} catch (InvalidUpdateException e) {
+	  thrown = true;
+	}
+	int value = Convert.getIntValue(0, keys.getRecord(rid).getTupleByteArray());
+	System.out.println("  an update that does not fit: "
+			   + (thrown ? "turned down" : "taken") + ", value " + value);
+	if (!thrown || value != 10) {
+	  System.err.println("*** The page took a value it has no room for\n");
+	  status = FAIL;
+	}
+      }
+
+      // the pages as they were written
+      if (status == OK) {
+	SystemDefs.JavabaseBM.flushAllPages();
+	SystemDefs.JavabaseDB.closeDB();
+	new SystemDefs(dbpath, 0, bufPages, "Clock");
+	hf = new Heapfile("packed0");
+	if (!hf.isPackedInts()) {
+	  System.err.println("*** The reopened file is not packed\n");
+	  status = FAIL;
+	}
+	if (status == OK)
+	  status = checkFile("reopened", hf, v, gone);
+	if (status == OK)
+	  status = checkFile("reopened keys", new Heapfile("packed1"), values(1, numValues), new BitSet());
+	System.out.println("  " + (numValues - gone.cardinality()) + " values after the updates and deletes");
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in the updates\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  // the first column of the tuples a ColumnarLateScan returns
+  private static List<Integer> lateScan(String name, AttrType[] types, CondExpr[] filter)
+    throws Exception {
+    FldSpec[] proj = { new FldSpec(new RelSpec(RelSpec.outer), 1) };
+    ColumnarLateScan scan = new ColumnarLateScan(name, types, null, (short) types.length,
+						 1, proj, filter);
+    List<Integer> found = new ArrayList<Integer>();
+    Tuple t;
+    while ((t = scan.get_next()) != null)
+      found.add(t.getIntFld(1));
+    scan.close();
+    return found;
+  }
+
+  protected boolean test3() {
+
+    System.out.println("\n  Test 3: Packed columns of a columnar file\n");
+    boolean status = OK;
+
+    try {
+      int n = 20000;
+      int numColumns = 4;
+      AttrType[] types = new AttrType[numColumns];
+      for (int c = 0; c < numColumns; c++)
+	types[c] = new AttrType(AttrType.attrInteger);
+      String[] names = { "K", "C", "D", "R" };
+      byte[] encodings = new byte[numColumns];
+      Arrays.fill(encodings, Columnarfile.ENCODING_PACKED);
+      Columnarfile packed = new Columnarfile("packed_file", numColumns, types, null, names, encodings);
+      Columnarfile plain = new Columnarfile("plain_file", numColumns, types, null, names);
+
+      int[][] v = { values(1, n), values(0, n), values(5, n), values(2, n) };
+      for (int c = 0; c < numColumns; c++)
+	if (c == 2)
+	  for (int i = 0; i < n; i++)
+	    v[c][i] = Math.abs(v[c][i] % 10);
+      Tuple t = new Tuple();
+      t.setHdr((short) numColumns, types, null);
+      for (int i = 0; i < n; i++) {
+	for (int c = 0; c < numColumns; c++)
+	  t.setIntFld(c + 1, v[c][i]);
+	TID packedTid = packed.insertTuple(t.getTupleByteArray());
+	TID plainTid = plain.insertTuple(t.getTupleByteArray());
+	if (i % 97 == 0) {
+	  packed.markTupleDeleted(packedTid);
+	  plain.markTupleDeleted(plainTid);
+	}
+      }
+
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+      new SystemDefs(dbpath, 0, bufPages, "Clock");
+      packed = new Columnarfile("packed_file");
+      plain = new Columnarfile("plain_file");
+      for (int c = 1; c <= numColumns; c++)
+	if (!packed.isPacked(c) || plain.isPacked(c)) {
+	  System.err.println("*** Column " + c + " is not of the right kind\n");
+	  status = FAIL;
+	}
+
+      // filters on the packed columns, against the plain file
+      CondExpr[][] filters = {
+	{ intPred(4, AttrOperator.aopEQ, 17), null },
+	{ intPred(2, AttrOperator.aopLE, 2), intPred(3, AttrOperator.aopNE, 4), null },
+	{ intPred(1, AttrOperator.aopGE, 5000), intPred(4, AttrOperator.aopLT, 12), null },
+      };
+      String[] what = { "R = 17", "C <= 2 and D != 4", "K >= 5000 and R < 12" };
+      for (int i = 0; i < filters.length && status == OK; i++) {
+	List<Integer> found = lateScan("packed_file", types, filters[i]);
+	List<Integer> want = lateScan("plain_file", types, filters[i]);
+	System.out.println("  " + what[i] + ": " + found.size() + " tuples");
+	if (!found.equals(want) || found.isEmpty()) {
+	  System.err.println("*** " + what[i] + ": " + found.size() + " tuples, not " + want.size() + "\n");
+	  status = FAIL;
+	}
+      }
+
+      // every column a batch at a time, with the pages read the first
+      // time and the best time of 3
+      if (status == OK) {
+	long[] sums = new long[2];
+	int[] reads = new int[2];
+	long[] times = { Long.MAX_VALUE, Long.MAX_VALUE };
+	Columnarfile[] files = { packed, plain };
+	for (int round = 0; round < 6; round++) {
+	  int k = round % 2;
+	  sums[k] = 0;
+	  PCounter.initialize();
+	  long start = System.nanoTime();
+	  ColumnBatchScan scan = files[k].openColumnBatchScan(new int[] { 1, 2, 3, 4 }, 1024);
+	  ColumnBatch batch;
+	  while ((batch = scan.getNext()) != null)
+	    for (int j = 0; j < batch.getSelectedCount(); j++) {
+	      int r = batch.getSelection()[j];
+	      for (int c = 0; c < numColumns; c++)
+		sums[k] += batch.getInts(c)[r];
+	    }
+	  scan.closeBatchScan();
+	  times[k] = Math.min(times[k], System.nanoTime() - start);
+	  if (round < 2)
+	    reads[k] = PCounter.getReadCount();
+	}
+	int packedPages = 0, plainPages = 0;
+	for (int c = 1; c <= numColumns; c++) {
+	  packedPages += new Heapfile("packed_file." + c).getDataPages().length;
+	  plainPages += new Heapfile("plain_file." + c).getDataPages().length;
+	}
+	System.out.println("  column pages: packed " + packedPages + ", plain " + plainPages
+			   + ", compression ratio " + String.format("%.2f", (double) plainPages / packedPages));
+	System.out.println("  batch scan: packed " + reads[0] + " reads, "
+			   + String.format("%.2f", times[0] / 1e6) + " ms; plain " + reads[1] + " reads, "
+			   + String.format("%.2f", times[1] / 1e6) + " ms");
+	if (sums[0] != sums[1]) {
+	  System.err.println("*** The batch scans add up to " + sums[0] + " and " + sums[1] + "\n");
+	  status = FAIL;
+	}
+	if (status == OK && reads[0] * 2 > reads[1]) {
+	  System.err.println("*** The packed scan read " + reads[0] + " pages against " + reads[1] + "\n");
+	  status = FAIL;
+	}
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in the columnar files\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 3 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Int encoding";
+  }
+}
+
+public class IntEncodingTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new IntEncodingDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
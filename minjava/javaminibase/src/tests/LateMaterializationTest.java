@@ -0,0 +1,303 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import heap.*;
+import columnar.*;
+import iterator.*;
+import bufmgr.*;
+import diskmgr.*;
+
+/**
+ * Exercises the late materializing scan of a columnar file
+ * (iterator.ColumnarLateScan):
+ *   test1: filters on one column, ANDed and ORed filters over int, real
+ *          and string columns, and no filter, each against
+ *          ColumnarFileScan: the same tuples at the same positions
+ *   test2: a filter on one column projecting another, through
+ *          ColumnarFileScan and through ColumnarLateScan, with the pages
+ *          read; deleting through the TIDs of the late scan
+ */
+class LateMaterializationDriver extends ColumnarTestDriver {
+
+  private final static String cfName = "late_file";
+  private final static int numTuples = 20000;
+  private final static int numColumns = 5;
+  private final static int numDeleted = 300;
+  private final static int dbPages = 10000;
+  private final static int bufPages = 100;
+
+  private Columnarfile f;
+  private AttrType[] attrType;
+  private short[] Ssizes = { 12, 12 };
+  private BitSet deleted = new BitSet();
+
+  public LateMaterializationDriver() {
+    super("latematerializationtest");
+  }
+
+  public boolean runTests() {
+
+    System.out.println("\n" + "Running " + testName() + " tests...." + "\n");
+
+    new File(dbpath).delete();
+    new SystemDefs(dbpath, dbPages, bufPages, "Clock");
+
+    boolean _pass = runAllTests();
+
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+    } catch (Exception e) {
+      _pass = FAIL;
+      e.printStackTrace();
+    }
+
+    System.out.print("\n" + "..." + testName() + " tests ");
+    System.out.print(_pass == OK ? "completely successfully" : "failed");
+    System.out.print(".\n\n");
+
+    return _pass;
+  }
+
+  private int key(int i) { return (i * 7919) % numTuples; }
+  private float weight(int i) { return (i % 400) / 4.0f; }
+  private String name(int i) { return "n" + (i % 500); }
+  private int count(int i) { return i % 17; }
+  private String tag(int i) { return "t" + (i % 7); }
+
+  private void load()
+    throws Exception {
+    attrType = new AttrType[numColumns];
+    attrType[0] = new AttrType(AttrType.attrInteger);
+    attrType[1] = new AttrType(AttrType.attrReal);
+    attrType[2] = new AttrType(AttrType.attrString);
+    attrType[3] = new AttrType(AttrType.attrInteger);
+    attrType[4] = new AttrType(AttrType.attrString);
+    String[] columnNames = { "A", "B", "C", "D", "E" };
+    f = new Columnarfile(cfName, numColumns, attrType, Ssizes, columnNames);
+    Tuple t = new Tuple();
+    t.setHdr((short) numColumns, attrType, Ssizes);
+    Random random = new Random(1313);
+    List<TID> tids = new ArrayList<TID>();
+    for (int i = 0; i < numTuples; i++) {
+      t.setIntFld(1, key(i));
+      t.setFloFld(2, weight(i));
+      t.setStrFld(3, name(i));
+      t.setIntFld(4, count(i));
+      t.setStrFld(5, tag(i));
+      tids.add(f.insertTuple(t.getTupleByteArray()));
+    }
+    while (deleted.cardinality() < numDeleted) {
+      int position = random.nextInt(numTuples);
+      if (!deleted.get(position)) {
+	f.markTupleDeleted(tids.get(position));
+	deleted.set(position);
+      }
+    }
+  }
+
+  private FldSpec[] projection(int[] columns) {
+    FldSpec[] proj = new FldSpec[columns.length];
+    for (int i = 0; i < columns.length; i++)
+      proj[i] = new FldSpec(new RelSpec(RelSpec.outer), columns[i]);
+    return proj;
+  }
+
+  private static String show(Tuple t, AttrType[] types)
+    throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < types.length; i++) {
+      switch (types[i].attrType) {
+      case AttrType.attrInteger: sb.append(t.getIntFld(i + 1)); break;
+      case AttrType.attrReal: sb.append(t.getFloFld(i + 1)); break;
+      default: sb.append(t.getStrFld(i + 1)); break;
+      }
+      sb.append(',');
+    }
+    return sb.toString();
+  }
+
+  // the tuples a scan returns, as "position:values"
+  private List<String> run(iterator.Iterator scan, AttrType[] projTypes)
+    throws Exception {
+    List<String> rows = new ArrayList<String>();
+    TID tid = new TID(numColumns);
+    Tuple t;
+    while ((t = (scan instanceof ColumnarLateScan
+		 ? ((ColumnarLateScan) scan).get_next(tid)
+		 : ((ColumnarFileScan) scan).get_next(tid))) != null)
+      rows.add(tid.position + ":" + show(t, projTypes));
+    scan.close();
+    return rows;
+  }
+
+  private boolean check(String what, CondExpr[] filter, int[] columns)
+    throws Exception {
+    FldSpec[] proj = projection(columns);
+    AttrType[] projTypes = new AttrType[columns.length];
+    for (int i = 0; i < columns.length; i++)
+      projTypes[i] = attrType[columns[i] - 1];
+    if (!ColumnarLateScan.supports(filter, attrType)) {
+      System.err.println("*** The late scan does not take the filter " + what + "\n");
+      return FAIL;
+    }
+    List<String> expected = run(new ColumnarFileScan(cfName, attrType, Ssizes, (short) numColumns,
+						     columns.length, proj, filter), projTypes);
+    ColumnarLateScan lscan = new ColumnarLateScan(cfName, attrType, Ssizes, (short) numColumns,
+						  columns.length, proj, filter);
+    int positions = lscan.getPositionCount();
+    List<String> found = run(lscan, projTypes);
+    System.out.println("  " + what + ": " + found.size() + " tuples");
+    if (!found.equals(expected) || positions != found.size()) {
+      System.err.println("*** " + what + ": the late scan returned " + found.size()
+			 + " tuples, the file scan " + expected.size() + "\n");
+      return FAIL;
+    }
+    return OK;
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Late scans against file scans\n");
+    boolean status = OK;
+
+    try {
+      load();
+
+      CondExpr[] one = { intPred(4, AttrOperator.aopEQ, 3), null };
+      status = check("D = 3", one, new int[] { 1, 3 });
+
+      if (status == OK) {
+	CondExpr[] and = { intPred(1, AttrOperator.aopLT, 5000), realPred(2, AttrOperator.aopGE, 50.0f), null };
+	status = check("A < 5000 and B >= 50", and, new int[] { 5, 1, 2 });
+      }
+      if (status == OK) {
+	CondExpr[] or = { strPred(3, AttrOperator.aopEQ, "n7"), null };
+	or[0].next = strPred(5, AttrOperator.aopGT, "t5");
+	status = check("C = n7 or E > t5", or, new int[] { 4 });
+      }
+      if (status == OK) {
+	CondExpr[] both = { intPred(4, AttrOperator.aopNE, 0), null, null };
+	both[0].next = realPred(2, AttrOperator.aopLE, 1.0f);
+	both[1] = intPred(4, AttrOperator.aopGT, 10);
+	status = check("(D != 0 or B <= 1) and D > 10", both, new int[] { 4, 2 });
+      }
+      if (status == OK) {
+	CondExpr[] none = { null };
+	status = check("no filter", none, new int[] { 1, 2, 3, 4, 5 });
+      }
+
+      // two columns compared with each other are left to ColumnarFileScan
+      if (status == OK) {
+	CondExpr[] join = { pred(1, AttrOperator.aopEQ, AttrType.attrSymbol), null };
+	join[0].operand2.symbol = new FldSpec(new RelSpec(RelSpec.outer), 4);
+	if (ColumnarLateScan.supports(join, attrType)) {
+	  System.err.println("*** The late scan takes a column-column comparison\n");
+	  status = FAIL;
+	}
+	try {
+	  new ColumnarLateScan(cfName, attrType, Ssizes, (short) numColumns,
+			       1, projection(new int[] { 1 }), join);
+	  System.err.println("*** A late scan opened on a column-column comparison\n");
+	  status = FAIL;
+	} catch (FileScanException e) {
+	}
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in the scans\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Pages read, and deletes\n");
+    boolean status = OK;
+
+    try {
+      CondExpr[] filter = { intPred(4, AttrOperator.aopEQ, 5), null };
+      FldSpec[] proj = projection(new int[] { 1 });
+      AttrType[] projTypes = { attrType[0] };
+
+      SystemDefs.JavabaseBM.flushAllPages();
+      PCounter.initialize();
+      List<String> expected = run(new ColumnarFileScan(cfName, attrType, Ssizes, (short) numColumns,
+						       1, proj, filter), projTypes);
+      int fileReads = PCounter.getReadCount();
+
+      SystemDefs.JavabaseBM.flushAllPages();
+      PCounter.initialize();
+      ColumnarLateScan lscan = new ColumnarLateScan(cfName, attrType, Ssizes, (short) numColumns,
+						    1, proj, filter);
+      List<String> found = run(lscan, projTypes);
+      int lateReads = PCounter.getReadCount();
+
+      System.out.println("  D = 5, project A: " + found.size() + " tuples");
+      System.out.println("  file scan: " + fileReads + " reads");
+      System.out.println("  late scan: " + lateReads + " reads (" + lscan.getPredicateReads()
+			 + " for the filter, " + lscan.getFetchReads() + " for the projection)");
+      if (!found.equals(expected)) {
+	System.err.println("*** The scans returned different tuples\n");
+	status = FAIL;
+      }
+      if (status == OK && lateReads * 2 > fileReads) {
+	System.err.println("*** The late scan read " + lateReads + " pages against " + fileReads + "\n");
+	status = FAIL;
+      }
+
+      // delete what a late scan finds, through its TIDs
+      if (status == OK) {
+	CondExpr[] gone = { strPred(3, AttrOperator.aopEQ, "n42"), null };
+	lscan = new ColumnarLateScan(cfName, attrType, Ssizes, (short) numColumns,
+				     1, proj, gone);
+	TID tid = new TID(numColumns);
+	int marked = 0;
+	while (lscan.get_next(tid) != null) {
+	  f.markTupleDeleted(tid);
+	  deleted.set(tid.position);
+	  marked++;
+	}
+	lscan.close();
+	lscan = new ColumnarLateScan(cfName, attrType, Ssizes, (short) numColumns,
+				     1, proj, gone);
+	if (marked == 0 || lscan.getPositionCount() != 0) {
+	  System.err.println("*** " + marked + " tuples were deleted, "
+			     + lscan.getPositionCount() + " are still found\n");
+	  status = FAIL;
+	}
+	lscan.close();
+	if (status == OK && !f.getDeletedPositions().equals(deleted)) {
+	  System.err.println("*** The deleted positions are not the ones the scan found\n");
+	  status = FAIL;
+	}
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in the scans\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Late materialization";
+  }
+}
+
+public class LateMaterializationTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new LateMaterializationDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
@@ -0,0 +1,288 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import heap.*;
+import columnar.*;
+import bufmgr.*;
+import diskmgr.*;
+
+/**
+ * Exercises the open-file table: the file entries DB.get_file_entry
+ * keeps in memory, the Heapfile handles of Heapfile.open and the
+ * columnar headers Columnarfile(String) reads once:
+ *   test1: the pages pinned to open a columnar file and read its tuples,
+ *          with a directory of many files, against a directory walk per
+ *          column heapfile
+ *   test2: a heapfile and a columnar file deleted and created again
+ *          under the same name, with another schema
+ *   test3: the files after the database is reopened
+ */
+class OpenFileDriver extends TestDriver implements GlobalConst {
+
+  private final static String cfName = "open_file";
+  private final static String hfName = "open_heap";
+  private final static int numTuples = 2000;
+  private final static int numColumns = 3;
+  private final static int numFillers = 120;
+  private final static int dbPages = 5000;
+  private final static int bufPages = 100;
+
+  private AttrType[] attrType;
+  private short[] Ssizes = { 10 };
+
+  public OpenFileDriver() {
+    super("openfiletest");
+  }
+
+  public boolean runTests() {
+
+    System.out.println("\n" + "Running " + testName() + " tests...." + "\n");
+
+    new File(dbpath).delete();
+    new SystemDefs(dbpath, dbPages, bufPages, "Clock");
+
+    boolean _pass = runAllTests();
+
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+    } catch (Exception e) {
+      _pass = FAIL;
+      e.printStackTrace();
+    }
+
+    System.out.print("\n" + "..." + testName() + " tests ");
+    System.out.print(_pass == OK ? "completely successfully" : "failed");
+    System.out.print(".\n\n");
+
+    return _pass;
+  }
+
+  private void reopen() throws Exception {
+    SystemDefs.JavabaseBM.flushAllPages();
+    SystemDefs.JavabaseDB.closeDB();
+    new SystemDefs(dbpath, 0, bufPages, "Clock");
+  }
+
+  private int pins() {
+    BufMgr bm = SystemDefs.JavabaseBM;
+    return bm.getHitCount() + bm.getMissCount();
+  }
+
+  private void resetPins() {
+    SystemDefs.JavabaseBM.resetHitCounts();
+  }
+
+  // the tuples of the columnar file, read through the given file
+  private boolean checkTuples(Columnarfile f, String what) throws Exception {
+    for (int p = 0; p < numTuples; p++) {
+      Tuple t = f.getTuple(f.getTidFromPosition(p));
+      if (t.getIntFld(1) != p || !t.getStrFld(2).equals("v" + (p % 13)) || t.getIntFld(3) != -p) {
+	System.err.println("*** " + what + ": position " + p + " holds " + t.getIntFld(1) + ", "
+			   + t.getStrFld(2) + ", " + t.getIntFld(3) + "\n");
+	return FAIL;
+      }
+    }
+    return OK;
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Opening files without walking the directory\n");
+    boolean status = OK;
+
+    try {
+      // enough files for the directory to take several pages
+      for (int i = 0; i < numFillers; i++)
+	new Heapfile("filler" + i);
+
+      attrType = new AttrType[numColumns];
+      attrType[0] = new AttrType(AttrType.attrInteger);
+      attrType[1] = new AttrType(AttrType.attrString);
+      attrType[2] = new AttrType(AttrType.attrInteger);
+      String[] columnNames = { "A", "B", "C" };
+      Columnarfile f = new Columnarfile(cfName, numColumns, attrType, Ssizes, columnNames);
+      for (int i = 0; i < numTuples; i++) {
+	Tuple t = new Tuple();
+	t.setHdr((short) numColumns, attrType, Ssizes);
+	t.setIntFld(1, i);
+	t.setStrFld(2, "v" + (i % 13));
+	t.setIntFld(3, -i);
+	f.insertTuple(t.getTupleByteArray());
+      }
+      reopen();
+
+      // a directory walk per column heapfile, as every getTuple did
+      resetPins();
+      for (int c = 1; c <= numColumns; c++)
+	new Heapfile(cfName + "." + c);
+      int walk = pins();
+
+      // the first open reads the header, the others copy it
+      resetPins();
+      f = new Columnarfile(cfName);
+      int firstOpen = pins();
+      resetPins();
+      for (int i = 0; i < 100; i++)
+	f = new Columnarfile(cfName);
+      int laterOpens = pins();
+
+      // a tuple is a data page pin per column, and nothing more
+      f.getTuple(f.getTidFromPosition(0));
+      resetPins();
+      for (int p = 0; p < numTuples; p++)
+	f.getTuple(f.getTidFromPosition(p));
+      int reads = pins();
+
+      System.out.println("  " + walk + " pages pinned to look up " + numColumns
+			 + " column heapfiles in the directory");
+      System.out.println("  " + firstOpen + " pages pinned by the first open, " + laterOpens
+			 + " by 100 more");
+      System.out.println("  " + reads + " pages pinned to read " + numTuples + " tuples");
+      if (walk < 2 * numColumns) {
+	System.err.println("*** The directory takes too few pages: " + walk + " pins\n");
+	status = FAIL;
+      }
+      if (laterOpens != 0) {
+	System.err.println("*** Opening the file again pinned " + laterOpens + " pages\n");
+	status = FAIL;
+      }
+      if (reads != numTuples * numColumns) {
+	System.err.println("*** Reading the tuples pinned " + reads + " pages, not "
+			   + numTuples * numColumns + "\n");
+	status = FAIL;
+      }
+      if (Heapfile.open(cfName + ".1") != Heapfile.open(cfName + ".1")) {
+	System.err.println("*** Heapfile.open gave two handles on one file\n");
+	status = FAIL;
+      }
+      if (status == OK)
+	status = checkTuples(f, "opened");
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error opening the files\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Deleting and creating again\n");
+    boolean status = OK;
+
+    try {
+      // a heapfile
+      Heapfile hf = Heapfile.open(hfName);
+      for (int i = 0; i < 50; i++)
+	hf.insertRecord(new byte[8]);
+      new Heapfile(hfName).deleteFile();
+      if (SystemDefs.JavabaseDB.get_file_entry(hfName) != null) {
+	System.err.println("*** The deleted heapfile is still in the directory\n");
+	status = FAIL;
+      }
+      hf = Heapfile.open(hfName);
+      if (status == OK && hf.getRecCnt() != 0) {
+	System.err.println("*** The new heapfile holds " + hf.getRecCnt() + " records\n");
+	status = FAIL;
+      }
+      hf.insertRecord(new byte[8]);
+      if (status == OK && new Heapfile(hfName).getRecCnt() != 1) {
+	System.err.println("*** The new heapfile is not the one in the directory\n");
+	status = FAIL;
+      }
+
+      // a columnar file, with another schema
+      new Columnarfile(cfName).deleteColumnarFile();
+      try {
+	new Columnarfile(cfName);
+	System.err.println("*** The deleted columnar file could be opened\n");
+	status = FAIL;
+      } catch (CFException e) {
+      }
+      AttrType[] types = { new AttrType(AttrType.attrString), new AttrType(AttrType.attrInteger) };
+      String[] names = { "X", "Y" };
+      short[] sizes = { 12 };
+      Columnarfile f = new Columnarfile(cfName, 2, types, sizes, names);
+      for (int i = 0; i < 10; i++) {
+	Tuple t = new Tuple();
+	t.setHdr((short) 2, types, sizes);
+	t.setStrFld(1, "x" + i);
+	t.setIntFld(2, i * i);
+	f.insertTuple(t.getTupleByteArray());
+      }
+      f = new Columnarfile(cfName);
+      if (status == OK && (f.type.length != 2 || f.type[0].attrType != AttrType.attrString
+			   || !f.columnNames[1].equals("Y") || f.getTupleCnt() != 10)) {
+	System.err.println("*** The new columnar file was opened with the old header\n");
+	status = FAIL;
+      }
+      for (int p = 0; status == OK && p < 10; p++) {
+	Tuple t = f.getTuple(f.getTidFromPosition(p));
+	if (!t.getStrFld(1).equals("x" + p) || t.getIntFld(2) != p * p) {
+	  System.err.println("*** Position " + p + " of the new file holds " + t.getStrFld(1)
+			     + ", " + t.getIntFld(2) + "\n");
+	  status = FAIL;
+	}
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error deleting and creating again\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test3() {
+
+    System.out.println("\n  Test 3: The files after a reopen\n");
+    boolean status = OK;
+
+    try {
+      reopen();
+      if (new Heapfile(hfName).getRecCnt() != 1 || Heapfile.open(hfName).getRecCnt() != 1) {
+	System.err.println("*** The heapfile lost its record\n");
+	status = FAIL;
+      }
+      Columnarfile f = new Columnarfile(cfName);
+      if (status == OK && (f.type.length != 2 || f.getTupleCnt() != 10)) {
+	System.err.println("*** The columnar file has " + f.type.length + " columns and "
+			   + f.getTupleCnt() + " tuples\n");
+	status = FAIL;
+      }
+      for (int i = 0; status == OK && i < numFillers; i++) {
+	if (SystemDefs.JavabaseDB.get_file_entry("filler" + i) == null) {
+	  System.err.println("*** filler" + i + " is not in the directory\n");
+	  status = FAIL;
+	}
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error after the reopen\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 3 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Open file";
+  }
+}
+
+public class OpenFileTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new OpenFileDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
@@ -0,0 +1,388 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import java.lang.management.*;
+import global.*;
+import heap.*;
+import columnar.*;
+import iterator.*;
+import bufmgr.*;
+import diskmgr.*;
+
+/**
+ * Measures the cost of page access on warm scans, where every page is
+ * in the buffer pool and the time goes to reading the slot directory
+ * and the records (HFPage reads its fields with absolute ByteBuffer
+ * gets, see Page.getBuffer):
+ *   test1: Page.getBuffer and HFPage agree with the byte layout
+ *   test2: heap file scans and FILESCAN with a pool that holds the
+ *          files, reporting throughput, garbage collections and, when
+ *          the JVM can tell, the bytes allocated per record
+ *   test3: the same heap file with a large pool of heap frames and of
+ *          off-heap frames (see bufmgr.FrameArena): the heap the pool
+ *          keeps, warm scans, and the collections and GC time of the
+ *          whole run, from the pool's creation on
+ */
+class PageAccessDriver extends TestDriver implements GlobalConst {
+
+  private final static String cfName = "pageaccess_file";
+  private final static String hfName = "pageaccess_heap";
+  private final static int numColumns = 3;
+  private final static int numRecords = 40000;
+  private final static int numTuples = 10000;
+  private final static int reclen = 32;
+  private final static int dbPages = 8000;
+  private final static int bufPages = 2000;
+  private final static int numScans = 10;
+
+  public PageAccessDriver() {
+    super("pageaccesstest");
+  }
+
+  public boolean runTests() {
+
+    System.out.println("\n" + "Running " + testName() + " tests...." + "\n");
+
+    new File(dbpath).delete();
+    new SystemDefs(dbpath, dbPages, bufPages, "Clock");
+
+    boolean _pass = runAllTests();
+
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+    } catch (Exception e) {
+      _pass = FAIL;
+      e.printStackTrace();
+    }
+
+    System.out.print("\n" + "..." + testName() + " tests ");
+    System.out.print(_pass == OK ? "completely successfully" : "failed");
+    System.out.print(".\n\n");
+
+    return _pass;
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Page fields through the ByteBuffer view\n");
+    boolean status = OK;
+
+    try {
+      Page page = new Page();
+      HFPage hfp = new HFPage();
+      hfp.init(new PageId(17), page);
+      hfp.setNextPage(new PageId(42));
+      hfp.setType((short) 3);
+
+      byte[] data = page.getpage();
+      if (Convert.getIntValue(HFPage.CUR_PAGE, data) != 17
+	  || Convert.getIntValue(HFPage.NEXT_PAGE, data) != 42
+	  || Convert.getShortValue(HFPage.TYPE, data) != 3
+	  || Convert.getShortValue(HFPage.FREE_SPACE, data) != data.length - HFPage.DPFIXED) {
+	System.err.println("*** HFPage fields are not where Convert expects them\n");
+	status = FAIL;
+      }
+
+      byte[] rec = new byte[reclen];
+      Convert.setIntValue(12345, 0, rec);
+      RID rid = hfp.insertRecord(rec);
+      if (page.getBuffer().getInt(hfp.getSlotOffset(rid.slotNo)) != 12345) {
+	System.err.println("*** The record is not where the slot points\n");
+	status = FAIL;
+      }
+
+      // the view follows the array when the page is repointed
+      byte[] other = new byte[data.length];
+      Convert.setIntValue(99, 0, other);
+      page.setpage(other);
+      if (page.getBuffer().getInt(0) != 99) {
+	System.err.println("*** getBuffer did not follow setpage\n");
+	status = FAIL;
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error checking the page layout\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  // garbage collections, collection time and bytes allocated by this thread so far
+  private long[] gcState() {
+    long count = 0, time = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0, gc.getCollectionCount());
+      time += Math.max(0, gc.getCollectionTime());
+    }
+    long allocated = -1;
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean)
+      allocated = ((com.sun.management.ThreadMXBean) threads)
+	.getThreadAllocatedBytes(Thread.currentThread().getId());
+    return new long[] { count, time, allocated };
+  }
+
+  private void report(String what, long records, long startNanos, long[] before) {
+    long us = Math.max(1, (System.nanoTime() - startNanos) / 1000);
+    long[] after = gcState();
+    System.out.println("  " + what + ": " + (records * 1000 / us) + " records/ms, "
+		       + (after[0] - before[0]) + " collections, "
+		       + (after[1] - before[1]) + " ms in GC"
+		       + (before[2] < 0 ? "" : ", " + (after[2] - before[2]) / records
+			  + " bytes allocated per record"));
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Warm scans, " + numScans + " of each\n");
+    boolean status = OK;
+
+    try {
+      Heapfile hf = new Heapfile(hfName);
+      byte[] rec = new byte[reclen];
+      for (int i = 0; i < numRecords; i++) {
+	Convert.setIntValue(i, 0, rec);
+	hf.insertRecord(rec);
+      }
+
+      AttrType[] attrType = new AttrType[numColumns];
+      attrType[0] = new AttrType(AttrType.attrInteger);
+      attrType[1] = new AttrType(AttrType.attrInteger);
+      attrType[2] = new AttrType(AttrType.attrString);
+      short[] Ssizes = { 20 };
+      String[] columnNames = { "key:int", "value:int", "name:string" };
+      Columnarfile f = new Columnarfile(cfName, numColumns, attrType, Ssizes, columnNames);
+      Tuple t = new Tuple();
+      t.setHdr((short) numColumns, attrType, Ssizes);
+      for (int i = 0; i < numTuples; i++) {
+	t.setIntFld(1, i);
+	t.setIntFld(2, i * 7);
+	t.setStrFld(3, "record" + i);
+	f.insertTuple(t.getTupleByteArray());
+      }
+
+      // heap scans, the first one warms the pool and the JIT
+      long[] before = null;
+      long start = 0;
+      for (int s = 0; s <= numScans && status == OK; s++) {
+	if (s == 1) {
+	  before = gcState();
+	  start = System.nanoTime();
+	}
+	Scan scan = hf.openScan();
+	RID rid = new RID();
+	long sum = 0;
+	int count = 0;
+	while ((t = scan.getNext(rid)) != null) {
+	  sum += Convert.getIntValue(0, t.getTupleByteArray());
+	  count++;
+	}
+	scan.closescan();
+	if (count != numRecords || sum != (long) numRecords * (numRecords - 1) / 2) {
+	  System.err.println("*** Heap scan returned " + count + " records\n");
+	  status = FAIL;
+	}
+      }
+      if (status == OK)
+	report("heap scan", (long) numScans * numRecords, start, before);
+
+      FldSpec[] projlist = new FldSpec[numColumns];
+      for (int i = 0; i < numColumns; i++)
+	projlist[i] = new FldSpec(new RelSpec(RelSpec.outer), i + 1);
+      for (int s = 0; s <= numScans && status == OK; s++) {
+	if (s == 1) {
+	  before = gcState();
+	  start = System.nanoTime();
+	}
+	ColumnarFileScan fscan = new ColumnarFileScan(f.get_fileName(), f.type, f.strSizes,
+						      (short) numColumns, numColumns, projlist, null);
+	int count = 0;
+	while ((t = fscan.get_next()) != null) {
+	  if (t.getIntFld(2) != count * 7) {
+	    System.err.println("*** Tuple " + count + " is wrong\n");
+	    status = FAIL;
+	    break;
+	  }
+	  count++;
+	}
+	fscan.close();
+	if (count != numTuples && status == OK) {
+	  System.err.println("*** FILESCAN returned " + count + " tuples\n");
+	  status = FAIL;
+	}
+      }
+      if (status == OK)
+	report("FILESCAN", (long) numScans * numTuples, start, before);
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in the scans\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  // heap in use after a collection
+  private long usedHeap() {
+    for (int i = 0; i < 3; i++)
+      System.gc();
+    Runtime rt = Runtime.getRuntime();
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  protected boolean test3() {
+
+    System.out.println("\n  Test 3: Heap frames against off-heap frames\n");
+    boolean status = OK;
+    int poolPages = 16384;
+    int records = 4 * numRecords;
+    String[] modes = { "heap frames", "off-heap frames" };
+    long[] retained = new long[modes.length];
+
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+
+      for (int m = 0; m < modes.length && status == OK; m++) {
+	String path = dbpath + ".frames" + m;
+	new File(path).delete();
+	SystemDefs.JavabaseBM = null;
+	long base = usedHeap();
+	long[] before = gcState();
+	long start = System.nanoTime();
+	SystemDefs.JavabaseBMOffHeap = (m == 1);
+	new SystemDefs(path, 2 * poolPages, poolPages, "Clock");
+	SystemDefs.JavabaseBMOffHeap = false;
+	retained[m] = usedHeap() - base;
+
+	Heapfile hf = new Heapfile(hfName);
+	byte[] rec = new byte[reclen];
+	for (int i = 0; i < records; i++) {
+	  Convert.setIntValue(i, 0, rec);
+	  hf.insertRecord(rec);
+	}
+	// the pool holds the file: every scan is warm, and the first
+	// numScans only warm up the JIT
+	long scanStart = 0;
+	for (int s = 0; s < 2 * numScans && status == OK; s++) {
+	  if (s == numScans) {
+	    SystemDefs.JavabaseBM.resetFrameViewCount();
+	    scanStart = System.nanoTime();
+	  }
+	  Scan scan = hf.openScan();
+	  RID rid = new RID();
+	  Tuple t;
+	  long sum = 0;
+	  int count = 0;
+	  while ((t = scan.getNext(rid)) != null) {
+	    sum += Convert.getIntValue(0, t.getTupleByteArray());
+	    count++;
+	  }
+	  scan.closescan();
+	  if (count != records || sum != (long) records * (records - 1) / 2) {
+	    System.err.println("*** " + modes[m] + ": heap scan returned " + count + " records\n");
+	    status = FAIL;
+	  }
+	}
+	long scanUs = Math.max(1, (System.nanoTime() - scanStart) / 1000);
+	int views = SystemDefs.JavabaseBM.getFrameViewCount();
+
+	// a Tuple of returnRecord points into the page and outlives its
+	// pin: pinning another page must not reuse the array under it
+	Scan scan = hf.openScan();
+	RID first = new RID();
+	RID last = new RID();
+	scan.getNext(first);
+	while (scan.getNext(last) != null)
+	  ;
+	scan.closescan();
+	HFPage hfp = new HFPage();
+	SystemDefs.JavabaseBM.pinPage(first.pageNo, hfp, false);
+	Tuple kept = hfp.returnRecord(first);
+	SystemDefs.JavabaseBM.unpinPage(first.pageNo, false);
+	Page other = new Page();
+	SystemDefs.JavabaseBM.pinPage(last.pageNo, other, false);
+	other.getpage();
+	SystemDefs.JavabaseBM.unpinPage(last.pageNo, false);
+	if (Convert.getIntValue(0, kept.getTupleByteArray()) != 0) {
+	  System.err.println("*** " + modes[m] + ": the record of a returned Tuple changed after its unpin\n");
+	  status = FAIL;
+	}
+
+	SystemDefs.JavabaseBM.flushAllPages();
+	SystemDefs.JavabaseDB.closeDB();
+	long[] after = gcState();
+	System.out.println("  " + modes[m] + ": " + retained[m] / 1024 + " KB of heap kept by the pool, "
+			   + ((long) numScans * records * 1000 / scanUs) + " records/ms scanned, "
+			   + (after[0] - before[0]) + " collections, " + (after[1] - before[1])
+			   + " ms in GC over " + (System.nanoTime() - start) / 1000000 + " ms");
+	if (m == 1 && views != 0) {
+	  System.err.println("*** The heap scans copied " + views + " off-heap frames to the heap\n");
+	  status = FAIL;
+	}
+      }
+
+      // the pool of heap frames is on the heap, the arena is not
+      long poolBytes = (long) poolPages * SystemDefs.JavabasePageSize;
+      if (status == OK && retained[0] - retained[1] < poolBytes / 2) {
+	System.err.println("*** The off-heap pool kept " + retained[1] + " bytes of heap, the heap pool "
+			   + retained[0] + "\n");
+	status = FAIL;
+      }
+
+      // the file written through off-heap frames reads back with heap frames
+      if (status == OK) {
+	new SystemDefs(dbpath + ".frames1", 0, bufPages, "Clock");
+	Scan scan = new Heapfile(hfName).openScan();
+	RID rid = new RID();
+	Tuple t;
+	int count = 0;
+	while ((t = scan.getNext(rid)) != null && status == OK) {
+	  if (Convert.getIntValue(0, t.getTupleByteArray()) != count) {
+	    System.err.println("*** Record " + count + " read back wrong\n");
+	    status = FAIL;
+	  }
+	  count++;
+	}
+	scan.closescan();
+	SystemDefs.JavabaseBM.flushAllPages();
+	SystemDefs.JavabaseDB.closeDB();
+	if (status == OK && count != records) {
+	  System.err.println("*** " + count + " records read back\n");
+	  status = FAIL;
+	}
+      }
+      for (int m = 0; m < modes.length; m++)
+	new File(dbpath + ".frames" + m).delete();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error comparing the pools\n");
+      e.printStackTrace();
+    }
+
+    // reopen the database of the other tests
+    new SystemDefs(dbpath, 0, bufPages, "Clock");
+
+    System.out.print("  Test 3 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Page access";
+  }
+}
+
+public class PageAccessTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new PageAccessDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
@@ -0,0 +1,186 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import heap.*;
+import btree.*;
+import bitmap.*;
+import diskmgr.*;
+
+/**
+ * Builds the same heap file, B-tree and bitmap page under every
+ * supported page size (see DB.SUPPORTED_PAGE_SIZES), reopens the
+ * database from its header and checks the data, reporting page I/O.
+ */
+class PageSizeDriver extends TestDriver implements GlobalConst {
+
+  private final static int numRecords = 20000;
+  private final static int reclen = 32;
+  private final static int dbBytes = 8 * 1024 * 1024;
+  private final static int bufBytes = 256 * 1024;
+
+  public PageSizeDriver() {
+    super("pagesizetest");
+  }
+
+  public boolean runTests() {
+
+    System.out.println("\n" + "Running " + testName() + " tests...." + "\n");
+
+    boolean _pass = runAllTests();
+
+    System.out.print("\n" + "..." + testName() + " tests ");
+    System.out.print(_pass == OK ? "completely successfully" : "failed");
+    System.out.print(".\n\n");
+
+    return _pass;
+  }
+
+  private String path(int pageSize) {
+    return dbpath + "." + pageSize;
+  }
+
+  // keep the DB and buffer pool the same size in bytes for every page size
+  private void create(int pageSize) {
+    new File(path(pageSize)).delete();
+    new SystemDefs(path(pageSize), dbBytes / pageSize, bufBytes / pageSize,
+		   "Clock", null, pageSize);
+  }
+
+  private void reopen(int pageSize)
+    throws Exception {
+    SystemDefs.JavabaseBM.flushAllPages();
+    SystemDefs.JavabaseDB.closeDB();
+    new SystemDefs(path(pageSize), 0, bufBytes / pageSize, "Clock");
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Heap file and B-tree under each page size\n");
+    boolean status = OK;
+
+    for (int s = 0; s < DB.SUPPORTED_PAGE_SIZES.length && status == OK; s++) {
+      int pageSize = DB.SUPPORTED_PAGE_SIZES[s];
+      try {
+	create(pageSize);
+	Heapfile f = new Heapfile("size_file");
+	BTreeFile bt = new BTreeFile("size_index", AttrType.attrInteger, 4, 1);
+	byte[] rec = new byte[reclen];
+	for (int i = 0; i < numRecords; i++) {
+	  Convert.setIntValue(i, 0, rec);
+	  RID rid = f.insertRecord(rec);
+	  bt.insert(new IntegerKey(i), rid);
+	}
+	bt.close();
+
+	reopen(pageSize);
+	if (SystemDefs.JavabaseDB.db_page_size() != pageSize
+	    || SystemDefs.JavabasePageSize != pageSize) {
+	  System.err.println("*** Reopened DB has page size "
+			     + SystemDefs.JavabaseDB.db_page_size() + "\n");
+	  status = FAIL;
+	}
+
+	PCounter.initialize();
+	f = new Heapfile("size_file");
+	Scan scan = f.openScan();
+	RID rid = new RID();
+	Tuple t;
+	int count = 0;
+	while ((t = scan.getNext(rid)) != null) {
+	  if (Convert.getIntValue(0, t.getTupleByteArray()) != count) {
+	    System.err.println("*** Record " + count + " out of order\n");
+	    status = FAIL;
+	  }
+	  count++;
+	}
+	scan.closescan();
+	if (count != numRecords) {
+	  System.err.println("*** Scan returned " + count + " records\n");
+	  status = FAIL;
+	}
+	int scanReads = PCounter.getReadCount();
+
+	bt = new BTreeFile("size_index");
+	BTFileScan iscan = bt.new_scan(new IntegerKey(numRecords / 2), null);
+	count = 0;
+	while (iscan.get_next() != null)
+	  count++;
+	iscan.DestroyBTreeFileScan();
+	bt.close();
+	if (count != numRecords - numRecords / 2) {
+	  System.err.println("*** Index scan returned " + count + " entries\n");
+	  status = FAIL;
+	}
+
+	System.out.println("  " + pageSize + " byte pages: heap scan "
+			   + scanReads + " reads, total "
+			   + PCounter.getReadCount() + " reads");
+	SystemDefs.JavabaseBM.flushAllPages();
+	SystemDefs.JavabaseDB.DBDestroy();
+      } catch (Exception e) {
+	status = FAIL;
+	System.err.println("*** Error with " + pageSize + " byte pages\n");
+	e.printStackTrace();
+      }
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Bitmap page capacity follows the page size\n");
+    boolean status = OK;
+
+    for (int s = 0; s < DB.SUPPORTED_PAGE_SIZES.length && status == OK; s++) {
+      int pageSize = DB.SUPPORTED_PAGE_SIZES[s];
+      try {
+	create(pageSize);
+	int bits = BMPage.bitCount();
+	if (bits != (pageSize - BMPage.METADATA_SIZE) * 8) {
+	  System.err.println("*** BMPage holds " + bits + " bits\n");
+	  status = FAIL;
+	}
+
+	PageId pid = new PageId();
+	Page apage = new Page();
+	pid = SystemDefs.JavabaseBM.newPage(apage, 1);
+	BMPage bm = new BMPage();
+	bm.init(pid, apage);
+	bm.setBit(bits - 1);
+	if (!bm.checkBit(bits - 1) || bm.checkBit(bits - 2)) {
+	  System.err.println("*** Last bit of a " + pageSize + " byte BMPage is wrong\n");
+	  status = FAIL;
+	}
+	SystemDefs.JavabaseBM.unpinPage(pid, true);
+	System.out.println("  " + pageSize + " byte pages: " + bits + " bits per BMPage");
+	SystemDefs.JavabaseBM.flushAllPages();
+	SystemDefs.JavabaseDB.DBDestroy();
+      } catch (Exception e) {
+	status = FAIL;
+	System.err.println("*** Error with " + pageSize + " byte pages\n");
+	e.printStackTrace();
+      }
+    }
+
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Page size";
+  }
+}
+
+public class PageSizeTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new PageSizeDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
@@ -0,0 +1,208 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import heap.*;
+import btree.*;
+import diskmgr.*;
+
+/**
+ * Compares the DB page store backends (see diskmgr.PageStore).  Each
+ * test builds the same data under every backend, then times the
+ * workload with a small buffer pool so that most pins go to disk.
+ *   test1: sequential heap file scans
+ *   test2: random B-tree point probes
+ *   test3: setLength grows and truncates the file to exactly the length
+ */
+class PageStoreDriver extends TestDriver implements GlobalConst {
+
+  private final static String[] backends = {
+    PageStore.RANDOM_ACCESS, PageStore.FILE_CHANNEL, PageStore.MAPPED };
+
+  private final static int numRecords = 20000;
+  private final static int reclen = 32;
+  private final static int numScans = 10;
+  private final static int numProbes = 20000;
+  private final static int dbPages = 4000;
+  private final static int bufPages = 50;
+
+  public PageStoreDriver() {
+    super("pagestoretest");
+  }
+
+  public boolean runTests() {
+
+    System.out.println("\n" + "Running " + testName() + " tests...." + "\n");
+
+    boolean _pass = runAllTests();
+
+    System.out.print("\n" + "..." + testName() + " tests ");
+    System.out.print(_pass == OK ? "completely successfully" : "failed");
+    System.out.print(".\n\n");
+
+    return _pass;
+  }
+
+  private void open(String backend) {
+    String path = dbpath + "." + backend;
+    new File(path).delete();
+    new SystemDefs(path, dbPages, bufPages, "Clock", backend);
+  }
+
+  private void close()
+    throws Exception {
+    SystemDefs.JavabaseBM.flushAllPages();
+    SystemDefs.JavabaseDB.DBDestroy();
+  }
+
+  private void report(String backend, long start, int pages) {
+    long ms = System.currentTimeMillis() - start;
+    System.out.println("  " + backend + ": " + ms + " ms, "
+		       + PCounter.getReadCount() + " reads, "
+		       + PCounter.getWriteCount() + " writes"
+		       + (ms > 0 ? ", " + (pages * 1000L / ms) + " pages/s" : ""));
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Sequential heap file scans\n");
+    boolean status = OK;
+
+    for (int b = 0; b < backends.length && status == OK; b++) {
+      try {
+	open(backends[b]);
+	Heapfile f = new Heapfile("scan_file");
+	byte[] rec = new byte[reclen];
+	for (int i = 0; i < numRecords; i++) {
+	  Convert.setIntValue(i, 0, rec);
+	  f.insertRecord(rec);
+	}
+	SystemDefs.JavabaseBM.flushAllPages();
+
+	PCounter.initialize();
+	long start = System.currentTimeMillis();
+	RID rid = new RID();
+	for (int s = 0; s < numScans && status == OK; s++) {
+	  Scan scan = f.openScan();
+	  int count = 0;
+	  while (scan.getNext(rid) != null)
+	    count++;
+	  scan.closescan();
+	  if (count != numRecords) {
+	    System.err.println("*** Scan returned " + count + " records\n");
+	    status = FAIL;
+	  }
+	}
+	report(backends[b], start, PCounter.getReadCount());
+	close();
+      } catch (Exception e) {
+	status = FAIL;
+	System.err.println("*** Error scanning with " + backends[b] + "\n");
+	e.printStackTrace();
+      }
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Random B-tree probes\n");
+    boolean status = OK;
+
+    for (int b = 0; b < backends.length && status == OK; b++) {
+      try {
+	open(backends[b]);
+	BTreeFile bt = new BTreeFile("probe_index", AttrType.attrInteger, 4, 1);
+	RID rid = new RID();
+	for (int i = 0; i < numRecords; i++) {
+	  rid.pageNo.pid = i;
+	  rid.slotNo = i;
+	  bt.insert(new IntegerKey(i), rid);
+	}
+	// the open index keeps its header pinned, reopen it after the flush
+	bt.close();
+	SystemDefs.JavabaseBM.flushAllPages();
+	bt = new BTreeFile("probe_index");
+
+	Random random = new Random(510);
+	PCounter.initialize();
+	long start = System.currentTimeMillis();
+	for (int p = 0; p < numProbes && status == OK; p++) {
+	  IntegerKey key = new IntegerKey(random.nextInt(numRecords));
+	  BTFileScan scan = bt.new_scan(key, key);
+	  KeyDataEntry entry = scan.get_next();
+	  if (entry == null) {
+	    System.err.println("*** Probe for " + key.getKey() + " found nothing\n");
+	    status = FAIL;
+	  }
+	  scan.DestroyBTreeFileScan();
+	}
+	report(backends[b], start, PCounter.getReadCount());
+	bt.close();
+	close();
+      } catch (Exception e) {
+	status = FAIL;
+	System.err.println("*** Error probing with " + backends[b] + "\n");
+	e.printStackTrace();
+      }
+    }
+
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test3() {
+
+    System.out.println("\n  Test 3: Setting the file length\n");
+    boolean status = OK;
+
+    for (int b = 0; b < backends.length && status == OK; b++) {
+      String path = dbpath + "." + backends[b] + ".len";
+      try {
+	new File(path).delete();
+	PageStore store = PageStore.open(backends[b], path);
+	byte[] page = new byte[1024];
+	Arrays.fill(page, (byte) 7);
+	store.write(0, page);
+	long[] lengths = { 4096, 4096, 2048, 10000, 512 };
+	for (int l = 0; l < lengths.length && status == OK; l++) {
+	  store.setLength(lengths[l]);
+	  long size = new File(path).length();
+	  byte[] read = new byte[512];
+	  store.read(0, read);
+	  if (size != lengths[l] || read[0] != 7 || read[511] != 7) {
+	    System.err.println("*** " + backends[b] + ": length " + size + " after setLength("
+			       + lengths[l] + ")\n");
+	    status = FAIL;
+	  }
+	}
+	store.close();
+	new File(path).delete();
+      } catch (Exception e) {
+	status = FAIL;
+	System.err.println("*** Error setting the length with " + backends[b] + "\n");
+	e.printStackTrace();
+      }
+    }
+
+    System.out.print("  Test 3 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Page store";
+  }
+}
+
+public class PageStoreTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new PageStoreDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
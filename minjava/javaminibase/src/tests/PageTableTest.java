@@ -0,0 +1,211 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import bufmgr.*;
+import diskmgr.*;
+
+/**
+ * Checks the open-addressing buffer page table (bufmgr.BufPageTable)
+ * against a java.util.HashMap and measures it against the old chained
+ * BufHashTbl, both on its own and through BufMgr pin/unpin.
+ */
+class PageTableDriver extends TestDriver implements GlobalConst {
+
+  private final static int[] poolSizes = { 50, 1000, 5000 };
+  private final static int numOps = 2000000;
+
+  public PageTableDriver() {
+    super("pagetabletest");
+  }
+
+  public boolean runTests() {
+
+    System.out.println("\n" + "Running " + testName() + " tests...." + "\n");
+
+    boolean _pass = runAllTests();
+
+    System.out.print("\n" + "..." + testName() + " tests ");
+    System.out.print(_pass == OK ? "completely successfully" : "failed");
+    System.out.print(".\n\n");
+
+    return _pass;
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Random inserts, lookups and removes\n");
+    boolean status = OK;
+
+    int numBuffers = 1000;
+    BufPageTable table = new BufPageTable(numBuffers);
+    HashMap<Integer, Integer> expected = new HashMap<Integer, Integer>();
+    Random random = new Random(510);
+    PageId pid = new PageId();
+
+    for (int op = 0; op < 500000 && status == OK; op++) {
+      pid.pid = random.nextInt(4 * numBuffers);
+      Integer frame = expected.get(pid.pid);
+      int found = table.lookup(pid);
+
+      if ((frame == null && found != INVALID_PAGE)
+	  || (frame != null && found != frame.intValue())) {
+	System.err.println("*** Lookup of page " + pid.pid + " returned " + found
+			   + ", expected " + frame + "\n");
+	status = FAIL;
+      }
+      else if (frame != null) {
+	if (!table.remove(pid)) {
+	  System.err.println("*** Could not remove page " + pid.pid + "\n");
+	  status = FAIL;
+	}
+	expected.remove(pid.pid);
+      }
+      else if (expected.size() < numBuffers) {
+	int f = random.nextInt(numBuffers);
+	table.insert(pid, f);
+	expected.put(pid.pid, f);
+      }
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Page table throughput, chained vs open addressing\n");
+    System.out.println("  Each op is a lookup; a miss replaces a resident page.\n");
+
+    for (int s = 0; s < poolSizes.length; s++) {
+      int numBuffers = poolSizes[s];
+
+      // resident pages of a pool that keeps touching a 4x larger file
+      int[] resident = new int[numBuffers];
+      int[] probes = new int[numOps];
+      Random random = new Random(510);
+      for (int i = 0; i < numOps; i++)
+	probes[i] = random.nextInt(4 * numBuffers);
+
+      long chained = 0, open = 0;
+      for (int round = 0; round < 2; round++) {
+	// first round warms up the JIT, the second is reported
+	BufHashTbl oldTable = new BufHashTbl();
+	long start = System.nanoTime();
+	runOps(oldTable, null, resident, probes);
+	chained = System.nanoTime() - start;
+
+	BufPageTable newTable = new BufPageTable(numBuffers);
+	start = System.nanoTime();
+	runOps(null, newTable, resident, probes);
+	open = System.nanoTime() - start;
+      }
+
+      System.out.println("  " + numBuffers + " frames: chained "
+			 + (numOps * 1000L / Math.max(1, chained / 1000)) + " ops/ms, "
+			 + "open addressing "
+			 + (numOps * 1000L / Math.max(1, open / 1000)) + " ops/ms");
+    }
+
+    System.out.print("  Test 2 completed successfully.\n");
+    return OK;
+  }
+
+  // one of oldTable/newTable is null
+  private void runOps(BufHashTbl oldTable, BufPageTable newTable,
+		      int[] resident, int[] probes) {
+    PageId pid = new PageId();
+    PageId victim = new PageId();
+    int numBuffers = resident.length;
+
+    for (int f = 0; f < numBuffers; f++) {
+      resident[f] = f;
+      pid.pid = f;
+      if (oldTable != null) oldTable.insert(pid, f);
+      else newTable.insert(pid, f);
+    }
+
+    int hand = 0;
+    for (int i = 0; i < probes.length; i++) {
+      pid.pid = probes[i];
+      int frame = (oldTable != null) ? oldTable.lookup(pid) : newTable.lookup(pid);
+      if (frame < 0) {
+	victim.pid = resident[hand];
+	if (oldTable != null) {
+	  oldTable.remove(victim);
+	  oldTable.insert(pid, hand);
+	} else {
+	  newTable.remove(victim);
+	  newTable.insert(pid, hand);
+	}
+	resident[hand] = pid.pid;
+	hand = (hand + 1) % numBuffers;
+      }
+    }
+  }
+
+  protected boolean test3() {
+
+    System.out.println("\n  Test 3: BufMgr pin/unpin of resident pages\n");
+    boolean status = OK;
+
+    int numBuffers = poolSizes[poolSizes.length - 1];
+    new File(dbpath).delete();
+    new SystemDefs(dbpath, 2 * numBuffers, numBuffers, "Clock");
+
+    try {
+      Page page = new Page();
+      PageId first = SystemDefs.JavabaseBM.newPage(page, numBuffers - 10);
+      SystemDefs.JavabaseBM.unpinPage(first, true);
+      PageId pid = new PageId();
+      for (int i = 1; i < numBuffers - 10; i++) {
+	pid.pid = first.pid + i;
+	SystemDefs.JavabaseBM.pinPage(pid, page, true);
+	SystemDefs.JavabaseBM.unpinPage(pid, true);
+      }
+
+      Random random = new Random(510);
+      PCounter.initialize();
+      long start = System.nanoTime();
+      for (int i = 0; i < numOps; i++) {
+	pid.pid = first.pid + random.nextInt(numBuffers - 10);
+	SystemDefs.JavabaseBM.pinPage(pid, page, false);
+	SystemDefs.JavabaseBM.unpinPage(pid, false);
+      }
+      long elapsed = System.nanoTime() - start;
+
+      if (PCounter.getReadCount() != 0) {
+	System.err.println("*** Resident pages were read from disk\n");
+	status = FAIL;
+      }
+      System.out.println("  " + numBuffers + " frames: "
+			 + (numOps * 1000L / Math.max(1, elapsed / 1000))
+			 + " pin/unpin pairs per ms");
+
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.DBDestroy();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error pinning pages\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 3 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Page table";
+  }
+}
+
+public class PageTableTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new PageTableDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
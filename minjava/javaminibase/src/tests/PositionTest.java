@@ -0,0 +1,214 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import heap.*;
+import columnar.*;
+import bufmgr.*;
+import diskmgr.*;
+
+/**
+ * Checks the position <-> RID mapping of heap files
+ * (Heapfile.getPositionFromRid / getRidFromPosition) and of columnar
+ * files (Columnarfile.getTidFromPosition):
+ *   test1: every position of a heap file maps to the record the scan
+ *          finds there and back, also after whole data pages are
+ *          emptied and purged and after the database is reopened
+ *   test2: random getTidFromPosition lookups on a columnar file,
+ *          timed, with the pages they pin
+ */
+class PositionDriver extends TestDriver implements GlobalConst {
+
+  private final static String hfName = "position_heap";
+  private final static String cfName = "position_file";
+  private final static int numRecords = 20000;
+  private final static int numTuples = 20000;
+  private final static int numColumns = 3;
+  private final static int numLookups = 20000;
+  private final static int reclen = 16;
+  private final static int dbPages = 8000;
+  private final static int bufPages = 100;
+
+  public PositionDriver() {
+    super("positiontest");
+  }
+
+  public boolean runTests() {
+
+    System.out.println("\n" + "Running " + testName() + " tests...." + "\n");
+
+    new File(dbpath).delete();
+    new SystemDefs(dbpath, dbPages, bufPages, "Clock");
+
+    boolean _pass = runAllTests();
+
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+    } catch (Exception e) {
+      _pass = FAIL;
+      e.printStackTrace();
+    }
+
+    System.out.print("\n" + "..." + testName() + " tests ");
+    System.out.print(_pass == OK ? "completely successfully" : "failed");
+    System.out.print(".\n\n");
+
+    return _pass;
+  }
+
+  // scans the file and checks that the i-th record is at position i
+  // and holds key first + i
+  private boolean checkPositions(Heapfile hf, int first, int count)
+    throws Exception {
+    Scan scan = hf.openScan();
+    RID rid = new RID();
+    Tuple t;
+    int i = 0;
+    boolean status = OK;
+    while (status == OK && (t = scan.getNext(rid)) != null) {
+      if (Convert.getIntValue(0, t.getTupleByteArray()) != first + i) {
+	System.err.println("*** Record " + i + " holds the wrong key\n");
+	status = FAIL;
+      }
+      else if (hf.getPositionFromRid(rid) != i) {
+	System.err.println("*** Record " + i + " is at position " + hf.getPositionFromRid(rid) + "\n");
+	status = FAIL;
+      }
+      else if (!hf.getRidFromPosition(i).equals(rid)) {
+	System.err.println("*** Position " + i + " maps to the wrong record\n");
+	status = FAIL;
+      }
+      i++;
+    }
+    scan.closescan();
+    if (status == OK && i != count) {
+      System.err.println("*** The scan returned " + i + " records, not " + count + "\n");
+      status = FAIL;
+    }
+
+    // past the last record
+    if (status == OK) {
+      try {
+	hf.getRidFromPosition(count);
+	System.err.println("*** Position " + count + " was found\n");
+	status = FAIL;
+      } catch (HFException e) {
+      }
+    }
+    return status;
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Heap file positions\n");
+    boolean status = OK;
+
+    try {
+      Heapfile hf = new Heapfile(hfName);
+      byte[] rec = new byte[reclen];
+      List<RID> rids = new ArrayList<RID>();
+      for (int i = 0; i < numRecords; i++) {
+	Convert.setIntValue(i, 0, rec);
+	rids.add(hf.insertRecord(rec));
+      }
+      status = checkPositions(hf, 0, numRecords);
+
+      // empty the data pages of the first quarter of the records, the
+      // way Columnarfile.purgeAllDeletedTuples does, and purge them
+      int cut = numRecords / 4;
+      while (cut < numRecords && rids.get(cut).pageNo.pid == rids.get(cut - 1).pageNo.pid)
+	cut++;
+      for (int i = 0; i < cut && status == OK; i++) {
+	if (!hf.deleteRecordPreserveDirPages(rids.get(i))) {
+	  System.err.println("*** Could not delete record " + i + "\n");
+	  status = FAIL;
+	}
+      }
+      if (status == OK && !hf.purgeDataPages()) {
+	System.err.println("*** purgeDataPages failed\n");
+	status = FAIL;
+      }
+      if (status == OK)
+	status = checkPositions(hf, cut, numRecords - cut);
+
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+      new SystemDefs(dbpath, 0, bufPages, "Clock");
+      if (status == OK)
+	status = checkPositions(new Heapfile(hfName), cut, numRecords - cut);
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in the heap file\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Columnar lookups by position\n");
+    boolean status = OK;
+
+    try {
+      AttrType[] attrType = new AttrType[numColumns];
+      attrType[0] = new AttrType(AttrType.attrInteger);
+      attrType[1] = new AttrType(AttrType.attrInteger);
+      attrType[2] = new AttrType(AttrType.attrString);
+      short[] Ssizes = { 20 };
+      String[] columnNames = { "key:int", "value:int", "name:string" };
+      Columnarfile f = new Columnarfile(cfName, numColumns, attrType, Ssizes, columnNames);
+      Tuple t = new Tuple();
+      t.setHdr((short) numColumns, attrType, Ssizes);
+      for (int i = 0; i < numTuples; i++) {
+	t.setIntFld(1, i);
+	t.setIntFld(2, i * 7);
+	t.setStrFld(3, "record" + i);
+	f.insertTuple(t.getTupleByteArray());
+      }
+      SystemDefs.JavabaseBM.flushAllPages();
+
+      Random random = new Random(1010);
+      PCounter.initialize();
+      SystemDefs.JavabaseBM.resetHitCounts();
+      long start = System.currentTimeMillis();
+      for (int l = 0; l < numLookups && status == OK; l++) {
+	int position = random.nextInt(numTuples);
+	TID tid = f.getTidFromPosition(position);
+	Tuple found = f.getTuple(tid);
+	if (found.getIntFld(1) != position || found.getIntFld(2) != position * 7) {
+	  System.err.println("*** Position " + position + " led to the wrong tuple\n");
+	  status = FAIL;
+	}
+      }
+      System.out.println("  " + numLookups + " lookups: "
+			 + (System.currentTimeMillis() - start) + " ms, "
+			 + (SystemDefs.JavabaseBM.getHitCount() + SystemDefs.JavabaseBM.getMissCount())
+			 + " pins, " + PCounter.getReadCount() + " reads");
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in the columnar file\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Position mapping";
+  }
+}
+
+public class PositionTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new PositionDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
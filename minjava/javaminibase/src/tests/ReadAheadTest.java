@@ -0,0 +1,257 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import heap.*;
+import columnar.*;
+import iterator.*;
+import bufmgr.*;
+import diskmgr.*;
+
+/**
+ * Measures sequential read-ahead (BufMgr.prefetchPages, hinted by
+ * heap.Scan) on the two scan access types of program.Query:
+ *   FILESCAN   - ColumnarFileScan over every column
+ *   COLUMNSCAN - a heap scan of one column file, checking each
+ *                position against the deleted tuples as Query does
+ * and on a plain heap file scan.  Each run starts from a cold buffer
+ * pool; the results must not depend on the read-ahead setting.
+ */
+class ReadAheadDriver extends TestDriver implements GlobalConst {
+
+  private final static int[] readAheads = { 0, 8, 32 };
+
+  private final static String cfName = "readahead_file";
+  private final static String hfName = "readahead_heap";
+  private final static int numColumns = 3;
+  private final static int numRecords = 10000;
+  private final static int reclen = 32;
+  private final static int dbPages = 8000;
+  private final static int bufPages = 200;
+
+  private AttrType[] attrType;
+  private short[] Ssizes;
+
+  public ReadAheadDriver() {
+    super("readaheadtest");
+  }
+
+  public boolean runTests() {
+
+    System.out.println("\n" + "Running " + testName() + " tests...." + "\n");
+
+    boolean _pass = runAllTests();
+
+    System.out.print("\n" + "..." + testName() + " tests ");
+    System.out.print(_pass == OK ? "completely successfully" : "failed");
+    System.out.print(".\n\n");
+
+    return _pass;
+  }
+
+  private void reopen(int readAhead) {
+    new SystemDefs(dbpath, 0, bufPages, "Clock");
+    SystemDefs.JavabaseBM.setReadAhead(readAhead);
+    SystemDefs.JavabaseBM.resetHitCounts();
+    PCounter.initialize();
+  }
+
+  private void close()
+    throws Exception {
+    SystemDefs.JavabaseBM.flushAllPages();
+    SystemDefs.JavabaseDB.closeDB();
+  }
+
+  private void report(String what, int readAhead, long start) {
+    System.out.println("  " + what + ", read-ahead " + readAhead + ": "
+		       + (System.currentTimeMillis() - start) + " ms, "
+		       + PCounter.getReadCount() + " reads, "
+		       + SystemDefs.JavabaseBM.getPrefetchCount() + " read ahead, "
+		       + SystemDefs.JavabaseBM.getMissCount() + " misses");
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Build a columnar file and a heap file\n");
+    boolean status = OK;
+
+    attrType = new AttrType[numColumns];
+    attrType[0] = new AttrType(AttrType.attrInteger);
+    attrType[1] = new AttrType(AttrType.attrInteger);
+    attrType[2] = new AttrType(AttrType.attrString);
+    Ssizes = new short[1];
+    Ssizes[0] = 20;
+    String[] columnNames = { "key:int", "value:int", "name:string" };
+
+    new File(dbpath).delete();
+    new SystemDefs(dbpath, dbPages, bufPages, "Clock");
+
+    try {
+      Columnarfile f = new Columnarfile(cfName, numColumns, attrType, Ssizes, columnNames);
+      Tuple t = new Tuple();
+      t.setHdr((short) numColumns, attrType, Ssizes);
+      for (int i = 0; i < numRecords; i++) {
+	t.setIntFld(1, i);
+	t.setIntFld(2, i * 7);
+	t.setStrFld(3, "record" + i);
+	f.insertTuple(t.getTupleByteArray());
+      }
+
+      Heapfile hf = new Heapfile(hfName);
+      byte[] rec = new byte[reclen];
+      for (int i = 0; i < 4 * numRecords; i++) {
+	Convert.setIntValue(i, 0, rec);
+	hf.insertRecord(rec);
+      }
+      close();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error building the files\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: FILESCAN\n");
+    boolean status = OK;
+
+    for (int r = 0; r < readAheads.length && status == OK; r++) {
+      try {
+	reopen(readAheads[r]);
+	Columnarfile f = new Columnarfile(cfName);
+	FldSpec[] projlist = new FldSpec[numColumns];
+	for (int i = 0; i < numColumns; i++)
+	  projlist[i] = new FldSpec(new RelSpec(RelSpec.outer), i + 1);
+
+	long start = System.currentTimeMillis();
+	ColumnarFileScan fscan = new ColumnarFileScan(f.get_fileName(), f.type, f.strSizes,
+						      (short) numColumns, numColumns, projlist, null);
+	int count = 0;
+	Tuple t;
+	while ((t = fscan.get_next()) != null) {
+	  if (t.getIntFld(2) != count * 7) {
+	    System.err.println("*** Tuple " + count + " is wrong\n");
+	    status = FAIL;
+	    break;
+	  }
+	  count++;
+	}
+	fscan.close();
+	report("FILESCAN", readAheads[r], start);
+	if (count != numRecords && status == OK) {
+	  System.err.println("*** FILESCAN returned " + count + " tuples\n");
+	  status = FAIL;
+	}
+	close();
+      } catch (Exception e) {
+	status = FAIL;
+	System.err.println("*** Error in FILESCAN\n");
+	e.printStackTrace();
+      }
+    }
+
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test3() {
+
+    System.out.println("\n  Test 3: COLUMNSCAN\n");
+    boolean status = OK;
+
+    for (int r = 0; r < readAheads.length && status == OK; r++) {
+      try {
+	reopen(readAheads[r]);
+	Columnarfile f = new Columnarfile(cfName);
+
+	long start = System.currentTimeMillis();
+	Scan scan = f.openColumnScan(numColumns);
+	RID rid = new RID();
+	Tuple t;
+	int count = 0;
+	while ((t = scan.getNext(rid)) != null) {
+	  byte[] bytes = t.getTupleByteArray();
+	  String name = Convert.getStrValue(0, bytes, bytes.length);
+	  if (!f.isTupleMarkedDeleted(count) && !name.equals("record" + count)) {
+	    System.err.println("*** Column value " + count + " is wrong\n");
+	    status = FAIL;
+	    break;
+	  }
+	  count++;
+	}
+	scan.closescan();
+	report("COLUMNSCAN", readAheads[r], start);
+	if (count != numRecords && status == OK) {
+	  System.err.println("*** COLUMNSCAN returned " + count + " values\n");
+	  status = FAIL;
+	}
+	close();
+      } catch (Exception e) {
+	status = FAIL;
+	System.err.println("*** Error in COLUMNSCAN\n");
+	e.printStackTrace();
+      }
+    }
+
+    System.out.print("  Test 3 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test4() {
+
+    System.out.println("\n  Test 4: Heap file scan\n");
+    boolean status = OK;
+
+    for (int r = 0; r < readAheads.length && status == OK; r++) {
+      try {
+	reopen(readAheads[r]);
+	long start = System.currentTimeMillis();
+	Scan scan = new Heapfile(hfName).openScan();
+	RID rid = new RID();
+	Tuple t;
+	int count = 0;
+	while ((t = scan.getNext(rid)) != null) {
+	  if (Convert.getIntValue(0, t.getTupleByteArray()) != count) {
+	    System.err.println("*** Record " + count + " is wrong\n");
+	    status = FAIL;
+	    break;
+	  }
+	  count++;
+	}
+	scan.closescan();
+	report("heap scan", readAheads[r], start);
+	if (count != 4 * numRecords && status == OK) {
+	  System.err.println("*** Heap scan returned " + count + " records\n");
+	  status = FAIL;
+	}
+	close();
+      } catch (Exception e) {
+	status = FAIL;
+	System.err.println("*** Error in the heap scan\n");
+	e.printStackTrace();
+      }
+    }
+
+    System.out.print("  Test 4 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Read-ahead";
+  }
+}
+
+public class ReadAheadTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new ReadAheadDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
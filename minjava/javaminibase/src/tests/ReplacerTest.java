@@ -0,0 +1,194 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import heap.*;
+import btree.*;
+import columnar.*;
+import iterator.*;
+import diskmgr.*;
+
+/**
+ * Compares the buffer replacement policies on one columnar file.  The
+ * workload mixes the two access types of program.Query: full FILESCANs
+ * through ColumnarFileScan, and BTREE point probes that go from the
+ * index entry to a position, a TID and the tuple.  Most probes hit a
+ * small range of hot keys, so a policy that lets the scans flush the
+ * hot index and data pages shows a lower hit ratio.
+ */
+class ReplacerDriver extends TestDriver implements GlobalConst {
+
+  private final static String[] policies = { "Clock", "LRU", "LRU-K", "2Q", "ARC" };
+
+  private final static String cfName = "replacer_file";
+  private final static int numColumns = 3;
+  private final static int numRecords = 5000;
+  private final static int hotKeys = 200;
+  private final static int numRounds = 4;
+  private final static int probesPerRound = 1000;
+  private final static int dbPages = 4000;
+  private final static int bufPages = 60;
+
+  private AttrType[] attrType;
+  private short[] Ssizes;
+
+  public ReplacerDriver() {
+    super("replacertest");
+  }
+
+  public boolean runTests() {
+
+    System.out.println("\n" + "Running " + testName() + " tests...." + "\n");
+
+    boolean _pass = runAllTests();
+
+    System.out.print("\n" + "..." + testName() + " tests ");
+    System.out.print(_pass == OK ? "completely successfully" : "failed");
+    System.out.print(".\n\n");
+
+    return _pass;
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Build the columnar file and its B-tree index\n");
+    boolean status = OK;
+
+    attrType = new AttrType[numColumns];
+    attrType[0] = new AttrType(AttrType.attrInteger);
+    attrType[1] = new AttrType(AttrType.attrInteger);
+    attrType[2] = new AttrType(AttrType.attrString);
+    Ssizes = new short[1];
+    Ssizes[0] = 20;
+    String[] columnNames = { "key:int", "value:int", "name:string" };
+
+    new File(dbpath).delete();
+    new SystemDefs(dbpath, dbPages, bufPages, "Clock");
+
+    try {
+      Columnarfile f = new Columnarfile(cfName, numColumns, attrType, Ssizes, columnNames);
+      Tuple t = new Tuple();
+      t.setHdr((short) numColumns, attrType, Ssizes);
+      for (int i = 0; i < numRecords; i++) {
+	t.setIntFld(1, i);
+	t.setIntFld(2, i * 7);
+	t.setStrFld(3, "record" + i);
+	f.insertTuple(t.getTupleByteArray());
+      }
+      if (!f.createBTreeIndex(1)) {
+	System.err.println("*** Could not create the B-tree index\n");
+	status = FAIL;
+      }
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error building " + cfName + "\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Hit ratio per policy, scans mixed with index probes\n");
+    boolean status = OK;
+
+    for (int p = 0; p < policies.length && status == OK; p++) {
+      try {
+	new SystemDefs(dbpath, 0, bufPages, policies[p]);
+	Columnarfile f = new Columnarfile(cfName);
+	BTreeFile btf = new BTreeFile(cfName + ".btree1");
+
+	SystemDefs.JavabaseBM.resetHitCounts();
+	PCounter.initialize();
+	Random random = new Random(510);
+	long start = System.currentTimeMillis();
+
+	for (int round = 0; round < numRounds && status == OK; round++) {
+	  if (scan(f) != numRecords) {
+	    System.err.println("*** FILESCAN did not return every tuple\n");
+	    status = FAIL;
+	  }
+	  for (int i = 0; i < probesPerRound && status == OK; i++) {
+	    // nine probes in ten go to the hot keys
+	    int key = (random.nextInt(10) != 0)
+	      ? random.nextInt(hotKeys) : random.nextInt(numRecords);
+	    if (probe(f, btf, key) != key * 7) {
+	      System.err.println("*** BTREE probe for " + key + " returned the wrong tuple\n");
+	      status = FAIL;
+	    }
+	  }
+	}
+	long ms = System.currentTimeMillis() - start;
+
+	int hits = SystemDefs.JavabaseBM.getHitCount();
+	int misses = SystemDefs.JavabaseBM.getMissCount();
+	System.out.println("  " + SystemDefs.JavabaseBM.getReplacerName() + ": hit ratio "
+			   + (hits * 1000L / Math.max(1, hits + misses)) / 10.0 + "%, "
+			   + hits + " hits, " + misses + " misses, "
+			   + PCounter.getReadCount() + " reads, " + ms + " ms");
+
+	btf.close();
+	SystemDefs.JavabaseBM.flushAllPages();
+	SystemDefs.JavabaseDB.closeDB();
+      } catch (Exception e) {
+	status = FAIL;
+	System.err.println("*** Error running the " + policies[p] + " workload\n");
+	e.printStackTrace();
+      }
+    }
+
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  // FILESCAN: every column of every tuple, no predicate
+  private int scan(Columnarfile f)
+    throws Exception {
+    FldSpec[] projlist = new FldSpec[numColumns];
+    for (int i = 0; i < numColumns; i++)
+      projlist[i] = new FldSpec(new RelSpec(RelSpec.outer), i + 1);
+
+    ColumnarFileScan fscan = new ColumnarFileScan(f.get_fileName(), f.type, f.strSizes,
+						  (short) numColumns, numColumns, projlist, null);
+    int count = 0;
+    while (fscan.get_next() != null)
+      count++;
+    fscan.close();
+    return count;
+  }
+
+  // BTREE: index entry -> position -> TID -> tuple; returns field 2
+  private int probe(Columnarfile f, BTreeFile btf, int key)
+    throws Exception {
+    IntegerKey ikey = new IntegerKey(key);
+    BTFileScan iscan = btf.new_scan(ikey, ikey);
+    KeyDataEntry entry = iscan.get_next();
+    iscan.DestroyBTreeFileScan();
+    if (entry == null)
+      return -1;
+
+    int position = f.getPositionFromRid(((LeafData) entry.data).getData(), 1);
+    TID tid = f.getTidFromPosition(position);
+    Tuple t = f.getTuple(tid);
+    return t.getIntFld(2);
+  }
+
+  protected String testName() {
+    return "Replacer";
+  }
+}
+
+public class ReplacerTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new ReplacerDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
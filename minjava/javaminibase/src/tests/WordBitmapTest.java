@@ -0,0 +1,336 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import heap.*;
+import columnar.*;
+import btree.*;
+import bitmap.*;
+import bufmgr.*;
+import diskmgr.*;
+
+/**
+ * Exercises the compressed bitmaps of word-aligned runs (bitmap.WBMPage,
+ * CBitMapFile.FORMAT_WORDS) against those of byte-wide runs (CBMPage):
+ *   test1: both built on a column of few sparse values and on a column
+ *          of long clustered runs; build time, pages and scan time of
+ *          each, and the positions both scans find
+ *   test2: bits set and cleared out of order in a word bitmap, splitting
+ *          fills and pages, checked by get_next and get_position
+ *   test3: the word bitmap after the database is reopened, and a value
+ *          added to it then
+ */
+class WordBitmapDriver extends TestDriver implements GlobalConst {
+
+  private final static String cfName = "word_file";
+  private final static int numRows = 20000;
+  private final static int sparseValues = 50;
+  private final static int runLength = 1000;
+  private final static int dbPages = 20000;
+  private final static int bufPages = 100;
+  private final static int scanRounds = 5;
+  private final static int oddValue = -1;
+
+  private AttrType[] attrType;
+  private Columnarfile cf;
+  private BitSet oddBits = new BitSet();
+
+  public WordBitmapDriver() {
+    super("wordbitmaptest");
+  }
+
+  public boolean runTests() {
+
+    System.out.println("\n" + "Running " + testName() + " tests...." + "\n");
+
+    new File(dbpath).delete();
+    new SystemDefs(dbpath, dbPages, bufPages, "Clock");
+
+    boolean _pass = runAllTests();
+
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+    } catch (Exception e) {
+      _pass = FAIL;
+      e.printStackTrace();
+    }
+
+    System.out.print("\n" + "..." + testName() + " tests ");
+    System.out.print(_pass == OK ? "completely successfully" : "failed");
+    System.out.print(".\n\n");
+
+    return _pass;
+  }
+
+  // the value of a row in column 1 (sparse) or 2 (clustered)
+  private int value(int column, int row) {
+    return column == 1 ? row % sparseValues : row / runLength;
+  }
+
+  private String fileName(int column, int format) {
+    return cfName + (format == CBitMapFile.FORMAT_WORDS ? ".wbitmap" : ".cbitmap") + column;
+  }
+
+  private CBitMapFile open(int column, int format) throws Exception {
+    CBitMapFile cbmf = new CBitMapFile(fileName(column, format));
+    cbmf.setSrcColumnarFile(cf);
+    cbmf.setMappedColumn(column);
+    cbmf.setMapType(AttrType.attrInteger);
+    return cbmf;
+  }
+
+  // the pages of all the lists of a bitmap
+  private int pages(CBitMapFile cbmf) throws Exception {
+    int pages = 0;
+    BTFileScan scan = cbmf.getIndexBTree().new_scan(null, null);
+    KeyDataEntry entry;
+    while ((entry = scan.get_next()) != null) {
+      RID rid = ((LeafData) entry.data).getData();
+      PageId pid = new PageId(rid.pageNo.pid);
+      while (pid.pid != -1) {
+	pages++;
+	PageId next;
+	if (rid.slotNo == CBitMapFile.FORMAT_WORDS) {
+	  WBMPage page = new WBMPage();
+	  SystemDefs.JavabaseBM.pinPage(pid, page, false);
+	  next = page.getNextPage();
+	} else {
+	  CBMPage page = new CBMPage();
+	  SystemDefs.JavabaseBM.pinPage(pid, page, false);
+	  next = page.getNextPage();
+	}
+	SystemDefs.JavabaseBM.unpinPage(pid, false);
+	pid.pid = next.pid;
+      }
+    }
+    scan.DestroyBTreeFileScan();
+    return pages;
+  }
+
+  // the positions a scan of the values lo to hi finds, by value
+  private HashMap<Integer, BitSet> scan(CBitMapFile cbmf, int lo, int hi) throws Exception {
+    HashMap<Integer, BitSet> found = new HashMap<Integer, BitSet>();
+    CBMFileScan scan = cbmf.new_scan(new IntegerKey(lo), new IntegerKey(hi));
+    KeyDataEntry entry;
+    while ((entry = scan.get_next()) != null) {
+      Integer key = ((IntegerKey) entry.key).getKey();
+      BitSet bits = found.get(key);
+      if (bits == null) {
+	bits = new BitSet();
+	found.put(key, bits);
+      }
+      bits.set(scan.getLatestPositionMatch());
+    }
+    scan.closeCbitmapScans();
+    return found;
+  }
+
+  // whether a scan found the positions of each value of a column
+  private boolean checkColumn(HashMap<Integer, BitSet> found, int column, String what) {
+    HashMap<Integer, BitSet> want = new HashMap<Integer, BitSet>();
+    for (int row = 0; row < numRows; row++) {
+      Integer v = Integer.valueOf(value(column, row));
+      if (want.get(v) == null)
+	want.put(v, new BitSet());
+      want.get(v).set(row);
+    }
+    if (!found.equals(want)) {
+      int count = 0;
+      for (BitSet bits : found.values())
+	count += bits.cardinality();
+      System.err.println("*** " + what + ": the scan found " + count + " positions of "
+			 + found.size() + " values, not " + numRows + " of " + want.size() + "\n");
+      return FAIL;
+    }
+    return OK;
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Word-aligned against byte-wide runs\n");
+    boolean status = OK;
+
+    try {
+      attrType = new AttrType[2];
+      attrType[0] = new AttrType(AttrType.attrInteger);
+      attrType[1] = new AttrType(AttrType.attrInteger);
+      String[] columnNames = { "S", "C" };
+      cf = new Columnarfile(cfName, 2, attrType, new short[0], columnNames);
+      for (int i = 0; i < numRows; i++) {
+	Tuple t = new Tuple();
+	t.setHdr((short) 2, attrType, new short[0]);
+	t.setIntFld(1, value(1, i));
+	t.setIntFld(2, value(2, i));
+	cf.insertTuple(t.getTupleByteArray());
+      }
+
+      int[] formats = { CBitMapFile.FORMAT_BYTE_RUNS, CBitMapFile.FORMAT_WORDS };
+      String[] columns = { "sparse", "clustered" };
+      for (int column = 1; status == OK && column <= 2; column++) {
+	for (int f = 0; status == OK && f < formats.length; f++) {
+	  String what = columns[column - 1] + (f == 0 ? ", byte runs" : ", word runs");
+	  SystemDefs.JavabaseBM.flushAllPages();
+	  long start = System.currentTimeMillis();
+	  CBitMapFile cbmf = new CBitMapFile(fileName(column, formats[f]), cf, column,
+					     new IntegerValueClass(), formats[f]);
+	  long build = System.currentTimeMillis() - start;
+	  int pages = pages(cbmf);
+
+	  HashMap<Integer, BitSet> found = null;
+	  start = System.currentTimeMillis();
+	  for (int r = 0; r < scanRounds; r++)
+	    found = scan(cbmf, 0, numRows);
+	  long scan = (System.currentTimeMillis() - start) / scanRounds;
+	  cbmf.close();
+
+	  System.out.println("  " + what + ": built in " + build + " ms, " + pages
+			     + " pages, scanned in " + scan + " ms");
+	  if (cbmf.getFormat() != formats[f]) {
+	    System.err.println("*** " + what + ": the file has format " + cbmf.getFormat() + "\n");
+	    status = FAIL;
+	  }
+	  if (status == OK)
+	    status = checkColumn(found, column, what);
+	}
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error building the bitmaps\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  // whether get_next and get_position agree with oddBits
+  private boolean checkOdd(CBitMapFile cbmf, String what) throws Exception {
+    BitSet found = scan(cbmf, oddValue, oddValue).get(Integer.valueOf(oddValue));
+    if (found == null)
+      found = new BitSet();
+    if (!found.equals(oddBits)) {
+      BitSet diff = (BitSet) found.clone();
+      diff.xor(oddBits);
+      System.err.println("*** " + what + ": get_next found " + found.cardinality() + " positions, not "
+			 + oddBits.cardinality() + ", first difference at " + diff.nextSetBit(0) + "\n");
+      return FAIL;
+    }
+    CBMFileScan scan = cbmf.new_scan(new IntegerKey(oddValue), new IntegerKey(oddValue));
+    for (int p = 0; p < numRows; p += 7) {
+      scan.resetPositionBasedScan();
+      boolean set = scan.get_position(p) != null;
+      if (set != oddBits.get(p)) {
+	System.err.println("*** " + what + ": get_position(" + p + ") gave " + set + "\n");
+	scan.closeCbitmapScans();
+	return FAIL;
+      }
+    }
+    scan.closeCbitmapScans();
+    return OK;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Setting and clearing out of order\n");
+    boolean status = OK;
+
+    try {
+      CBitMapFile cbmf = open(2, CBitMapFile.FORMAT_WORDS);
+      Random random = new Random(21);
+      ValueClass odd = new IntegerValueClass(oddValue);
+
+      // runs of 1s with gaps, set from the end back, then bits here
+      // and there, so that fills are split and pages fill up
+      for (int p = numRows - 1; p >= 0; p--) {
+	if ((p / 200) % 3 == 0) {
+	  cbmf.Insert(odd, p);
+	  oddBits.set(p);
+	}
+      }
+      for (int i = 0; i < 3000; i++) {
+	int p = random.nextInt(numRows);
+	cbmf.Insert(odd, p);
+	oddBits.set(p);
+      }
+      status = checkOdd(cbmf, "after setting");
+
+      for (int i = 0; status == OK && i < 4000; i++) {
+	int p = random.nextInt(numRows);
+	cbmf.Delete(odd, p);
+	oddBits.clear(p);
+      }
+      if (status == OK)
+	status = checkOdd(cbmf, "after clearing");
+      System.out.println("  " + oddBits.cardinality() + " positions set, the bitmap takes "
+			 + pages(cbmf) + " pages");
+      cbmf.close();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error setting and clearing\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test3() {
+
+    System.out.println("\n  Test 3: The word bitmap after a reopen\n");
+    boolean status = OK;
+
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+      new SystemDefs(dbpath, 0, bufPages, "Clock");
+      cf = new Columnarfile(cfName);
+      CBitMapFile cbmf = open(2, CBitMapFile.FORMAT_WORDS);
+      if (cbmf.getFormat() != CBitMapFile.FORMAT_WORDS) {
+	System.err.println("*** The reopened bitmap has format " + cbmf.getFormat() + "\n");
+	status = FAIL;
+      }
+      if (status == OK)
+	status = checkOdd(cbmf, "reopened");
+
+      // a new value takes the format of the file
+      int newValue = numRows;
+      for (int p = 5; p < numRows; p += 100)
+	cbmf.Insert(new IntegerValueClass(newValue), p);
+      RID rid = cbmf.valueIsMapped(new IntegerValueClass(newValue));
+      if (status == OK && rid.slotNo != CBitMapFile.FORMAT_WORDS) {
+	System.err.println("*** The new value has a list of format " + rid.slotNo + "\n");
+	status = FAIL;
+      }
+      BitSet found = scan(cbmf, newValue, newValue).get(Integer.valueOf(newValue));
+      if (status == OK && (found == null || found.cardinality() != numRows / 100
+			   || found.nextSetBit(0) != 5)) {
+	System.err.println("*** The new value was found at " + found + "\n");
+	status = FAIL;
+      }
+      cbmf.close();
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error after the reopen\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 3 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Word bitmap";
+  }
+}
+
+public class WordBitmapTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new WordBitmapDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}
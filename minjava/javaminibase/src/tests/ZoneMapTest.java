@@ -0,0 +1,300 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import heap.*;
+import columnar.*;
+import iterator.*;
+import bufmgr.*;
+import diskmgr.*;
+
+/**
+ * Exercises the zone maps of a columnar file (columnar.ZoneMap), the
+ * min/max of each data page of each column:
+ *   test1: column scans and ColumnarFileScan with range filters on
+ *          sorted int, real and string columns and on an unsorted one,
+ *          against the expected tuples, with the pages pruned; pages
+ *          whose tuples are all deleted; the zones after the database
+ *          is reopened and after a purge
+ *   test2: a narrow range on the sorted column through ColumnarFileScan
+ *          and through a TupleScan, with the pages read
+ */
+class ZoneMapDriver extends ColumnarTestDriver {
+
+  private final static String cfName = "zone_file";
+  private final static int numTuples = 20000;
+  private final static int numColumns = 4;
+  private final static int dbPages = 10000;
+  private final static int bufPages = 100;
+
+  private Columnarfile f;
+  private AttrType[] attrType;
+  private short[] Ssizes = { 8 };
+  private boolean deadPage = false;
+
+  public ZoneMapDriver() {
+    super("zonemaptest");
+  }
+
+  public boolean runTests() {
+
+    System.out.println("\n" + "Running " + testName() + " tests...." + "\n");
+
+    new File(dbpath).delete();
+    new SystemDefs(dbpath, dbPages, bufPages, "Clock");
+
+    boolean _pass = runAllTests();
+
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+    } catch (Exception e) {
+      _pass = FAIL;
+      e.printStackTrace();
+    }
+
+    System.out.print("\n" + "..." + testName() + " tests ");
+    System.out.print(_pass == OK ? "completely successfully" : "failed");
+    System.out.print(".\n\n");
+
+    return _pass;
+  }
+
+  // the tuple at position i, before the purge
+  private int a(int i) { return i; }
+  private float b(int i) { return i / 4.0f; }
+  private String c(int i) { return String.format("s%05d", i); }
+  private int d(int i) { return (i * 7919) % numTuples; }
+
+  // the first column of the live tuples a ColumnarFileScan returns
+  private List<Integer> fileScan(CondExpr[] filter, int[] pages)
+    throws Exception {
+    FldSpec[] proj = { new FldSpec(new RelSpec(RelSpec.outer), 1) };
+    ColumnarFileScan scan = new ColumnarFileScan(cfName, attrType, Ssizes, (short) numColumns,
+						 1, proj, filter);
+    List<Integer> found = new ArrayList<Integer>();
+    Tuple t;
+    while ((t = scan.get_next()) != null)
+      found.add(t.getIntFld(1));
+    scan.close();
+    pages[0] = scan.getPagesScanned();
+    pages[1] = scan.getPagesPruned();
+    return found;
+  }
+
+  // the first column of the live tuples a filter holds for, over every tuple
+  private List<Integer> expected(CondExpr[] filter)
+    throws Exception {
+    BitSet gone = f.getDeletedPositions();
+    List<Integer> list = new ArrayList<Integer>();
+    TupleScan tscan = f.openTupleScan();
+    TID tid = new TID(numColumns);
+    Tuple t;
+    while ((t = tscan.getNext(tid)) != null)
+      if (!gone.get(tid.position) && PredEval.Eval(filter, t, null, attrType, null))
+	list.add(t.getIntFld(1));
+    tscan.closetuplescan();
+    return list;
+  }
+
+  private boolean check(String what, CondExpr[] filter, boolean prunes)
+    throws Exception {
+    int[] pages = new int[2];
+    List<Integer> found = fileScan(filter, pages);
+    List<Integer> want = expected(filter);
+    Collections.sort(found);
+    Collections.sort(want);
+    System.out.println("  " + what + ": " + found.size() + " tuples, "
+		       + pages[0] + " pages scanned, " + pages[1] + " pruned");
+    if (!found.equals(want)) {
+      System.err.println("*** " + what + ": " + found.size() + " tuples, not " + want.size() + "\n");
+      return FAIL;
+    }
+    if (prunes != (pages[1] > 0)) {
+      System.err.println("*** " + what + ": " + pages[1] + " pages pruned\n");
+      return FAIL;
+    }
+    return OK;
+  }
+
+  // the filters of check, on the file as loaded (position i holds tuple i)
+  private boolean checkAll()
+    throws Exception {
+    CondExpr[] f1 = { intPred(1, AttrOperator.aopGT, numTuples - 1000), null };
+    if (check("A > " + (numTuples - 1000), f1, true) != OK)
+      return FAIL;
+    CondExpr[] f2 = { realPred(2, AttrOperator.aopLE, 100.0f), null };
+    if (check("B <= 100", f2, true) != OK)
+      return FAIL;
+    CondExpr[] f3 = { strPred(3, AttrOperator.aopEQ, c(12345)), null };
+    if (check("C = " + c(12345), f3, true) != OK)
+      return FAIL;
+    CondExpr[] f4 = { intPred(4, AttrOperator.aopGE, 100), null };
+    if (check("D >= 100", f4, deadPage) != OK)
+      return FAIL;
+    CondExpr[] f5 = { intPred(1, AttrOperator.aopLT, 500), null };
+    f5[0].next = intPred(1, AttrOperator.aopGE, numTuples - 500);
+    if (check("A < 500 or A >= " + (numTuples - 500), f5, true) != OK)
+      return FAIL;
+    CondExpr[] f6 = { intPred(1, AttrOperator.aopGE, 5000), intPred(4, AttrOperator.aopNE, 7), null };
+    if (check("A >= 5000 and D != 7", f6, true) != OK)
+      return FAIL;
+    return OK;
+  }
+
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Pruning by zone\n");
+    boolean status = OK;
+
+    try {
+      attrType = new AttrType[numColumns];
+      attrType[0] = new AttrType(AttrType.attrInteger);
+      attrType[1] = new AttrType(AttrType.attrReal);
+      attrType[2] = new AttrType(AttrType.attrString);
+      attrType[3] = new AttrType(AttrType.attrInteger);
+      String[] columnNames = { "A", "B", "C", "D" };
+      f = new Columnarfile(cfName, numColumns, attrType, Ssizes, columnNames);
+      Tuple t = new Tuple();
+      t.setHdr((short) numColumns, attrType, Ssizes);
+      List<TID> tids = new ArrayList<TID>();
+      for (int i = 0; i < numTuples; i++) {
+	t.setIntFld(1, a(i));
+	t.setFloFld(2, b(i));
+	t.setStrFld(3, c(i));
+	t.setIntFld(4, d(i));
+	tids.add(f.insertTuple(t.getTupleByteArray()));
+      }
+      status = checkAll();
+
+      // a column scan passes over the pages and still knows the positions
+      if (status == OK) {
+	CondExpr[] preds = { intPred(1, AttrOperator.aopGE, numTuples / 2) };
+	Scan scan = f.openColumnScan(1, preds);
+	RID rid = new RID();
+	int count = 0;
+	while ((t = scan.getNext(rid)) != null) {
+	  int value = Convert.getIntValue(0, t.getTupleByteArray());
+	  if (value != a(scan.getPosition()) || value < numTuples / 2 - HFPage.denseCapacity(4)) {
+	    System.err.println("*** The column scan found " + value + " at " + scan.getPosition() + "\n");
+	    status = FAIL;
+	    break;
+	  }
+	  count++;
+	}
+	System.out.println("  column scan of A >= " + numTuples / 2 + ": " + count + " values, "
+			   + scan.getPagesRead() + " pages read, " + scan.getPagesSkipped() + " skipped");
+	scan.closescan();
+	if (status == OK && (count < numTuples / 2 || scan.getPagesSkipped() == 0)) {
+	  System.err.println("*** The column scan did not pass over the first half\n");
+	  status = FAIL;
+	}
+      }
+
+      // pages whose tuples are all deleted hold no match
+      if (status == OK) {
+	int firstPage = HFPage.denseCapacity(4);
+	for (int i = 0; i < firstPage; i++) {
+	  f.markTupleDeleted(tids.get(i));
+	}
+	deadPage = true;
+	CondExpr[] all = { intPred(4, AttrOperator.aopGE, 0), null };
+	int[] pages = new int[2];
+	List<Integer> found = fileScan(all, pages);
+	System.out.println("  D >= 0 with the first " + firstPage + " tuples deleted: "
+			   + found.size() + " tuples, " + pages[1] + " pages pruned");
+	if (found.size() != numTuples - firstPage || pages[1] == 0) {
+	  System.err.println("*** The deleted page was not pruned\n");
+	  status = FAIL;
+	}
+      }
+
+      // the zones are read back from the zone file
+      if (status == OK) {
+	SystemDefs.JavabaseBM.flushAllPages();
+	SystemDefs.JavabaseDB.closeDB();
+	new SystemDefs(dbpath, 0, bufPages, "Clock");
+	f = new Columnarfile(cfName);
+	status = checkAll();
+      }
+
+      // and built again by a purge, which moves the tuples
+      if (status == OK) {
+	f.purgeAllDeletedTuples();
+	deadPage = false;
+	status = checkAll();
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in the zone maps\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 1 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Pages read for a narrow range\n");
+    boolean status = OK;
+
+    try {
+      int low = numTuples / 3, high = low + 200;
+      CondExpr[] filter = { intPred(1, AttrOperator.aopGE, low), intPred(1, AttrOperator.aopLT, high), null };
+
+      SystemDefs.JavabaseBM.flushAllPages();
+      PCounter.initialize();
+      TupleScan tscan = f.openTupleScan();
+      TID tid = new TID(numColumns);
+      Tuple t;
+      int full = 0;
+      while ((t = tscan.getNext(tid)) != null)
+	if (t.getIntFld(1) >= low && t.getIntFld(1) < high)
+	  full++;
+      tscan.closetuplescan();
+      int fullReads = PCounter.getReadCount();
+
+      SystemDefs.JavabaseBM.flushAllPages();
+      PCounter.initialize();
+      int[] pages = new int[2];
+      List<Integer> found = fileScan(filter, pages);
+      int prunedReads = PCounter.getReadCount();
+
+      System.out.println("  " + low + " <= A < " + high + ": " + found.size() + " tuples");
+      System.out.println("  every tuple: " + fullReads + " reads");
+      System.out.println("  zone pruned: " + prunedReads + " reads, "
+			 + pages[0] + " pages scanned, " + pages[1] + " pruned");
+      if (found.size() != full) {
+	System.err.println("*** The pruned scan found " + found.size() + " tuples, not " + full + "\n");
+	status = FAIL;
+      }
+      if (status == OK && prunedReads * 5 > fullReads) {
+	System.err.println("*** The pruned scan read " + prunedReads + " pages against " + fullReads + "\n");
+	status = FAIL;
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Error in the scans\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  Test 2 completed " + (status == OK ? "successfully" : "with errors") + ".\n");
+    return status;
+  }
+
+  protected String testName() {
+    return "Zone map";
+  }
+}
+
+public class ZoneMapTest {
+
+  public static void main(String argv[]) {
+    boolean pass = new ZoneMapDriver().runTests();
+    if (pass == false)
+      Runtime.getRuntime().exit(1);
+    Runtime.getRuntime().exit(0);
+  }
+}